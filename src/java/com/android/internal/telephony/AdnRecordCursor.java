@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.database.AbstractCursor;
+import android.os.RemoteException;
+import android.telephony.Rlog;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.uicc.AdnRecord;
+
+import java.util.List;
+
+/**
+ * Cursor over the non-empty AdnRecords of an EF, as returned by IccProvider. The records are
+ * fetched from IIccPhoneBook one page at a time as the cursor moves, instead of copying the
+ * whole phonebook in one transaction, and only the columns of the projection are built.
+ *
+ * The pages are read from a snapshot taken by IIccPhoneBook when the cursor is created, so
+ * they stay consistent with each other and with the count even if the phonebook changes. The
+ * snapshot is kept by the service until the cursor is closed.
+ *
+ * The load of the snapshot is started by the constructor and reported through an
+ * IAdnRecordsCallback, so no binder thread of the service waits for the ICC. The cursor only
+ * waits for it when first moved or counted, so the loads of several cursors overlap.
+ *
+ * {@hide}
+ */
+class AdnRecordCursor extends AbstractCursor {
+    private static final String TAG = "AdnRecordCursor";
+
+    static final String[] COLUMN_NAMES = new String[] {
+        "name",
+        "number",
+        "emails",
+        "_id"
+    };
+
+    private static final int COLUMN_NAME = 0;
+    private static final int COLUMN_NUMBER = 1;
+    private static final int COLUMN_EMAILS = 2;
+    private static final int COLUMN_ID = 3;
+    private static final int COLUMN_UNKNOWN = -1;
+
+    @VisibleForTesting
+    static final int DEFAULT_PAGE_SIZE = 50;
+
+    // Longest wait for the load of the snapshot
+    private static final long LOAD_TIMEOUT_MS = 60000;
+
+    private final IIccPhoneBook mIccPhoneBook;
+    private final int mSubId;
+    private final int mEfid;
+    private int mSnapshot = IccPhoneBookInterfaceManager.NO_SNAPSHOT;
+    private final String[] mColumnNames;
+    // COLUMN_* of each column of the projection
+    private final int[] mColumns;
+    private int mCount;
+    // The pending load of the snapshot, null once waited for
+    private LoadCallback mLoad;
+
+    // The page holding the current position
+    private final int[] mPagePositions;
+    private List<AdnRecord> mPage;
+    private int mPageStart = -1;
+
+    /**
+     * @param iccPhoneBook the phonebook service, null for an empty cursor
+     * @param projection the columns, null for all
+     */
+    AdnRecordCursor(IIccPhoneBook iccPhoneBook, int subId, int efid, String[] projection,
+            int pageSize) {
+        mIccPhoneBook = iccPhoneBook;
+        mSubId = subId;
+        mEfid = efid;
+        mColumnNames = projection != null ? projection : COLUMN_NAMES;
+        mColumns = new int[mColumnNames.length];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mColumns[i] = columnOf(mColumnNames[i]);
+        }
+        mPagePositions = new int[pageSize];
+
+        if (iccPhoneBook != null) {
+            LoadCallback load = new LoadCallback(iccPhoneBook, subId);
+            try {
+                iccPhoneBook.loadAdnRecordsInEfForSubscriber(subId, efid, load);
+                mLoad = load;
+            } catch (RemoteException ex) {
+                // ignore it
+            } catch (SecurityException ex) {
+                Rlog.d(TAG, ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Receives the snapshot from the service, and releases it if the cursor is no longer
+     * waiting for it
+     */
+    private static class LoadCallback extends IAdnRecordsCallback.Stub {
+        private final IIccPhoneBook mIccPhoneBook;
+        private final int mSubId;
+        private boolean mLoaded;
+        private boolean mAbandoned;
+        private int mSnapshot = IccPhoneBookInterfaceManager.NO_SNAPSHOT;
+        private int mCount;
+
+        LoadCallback(IIccPhoneBook iccPhoneBook, int subId) {
+            mIccPhoneBook = iccPhoneBook;
+            mSubId = subId;
+        }
+
+        @Override
+        public void onAdnRecordsLoaded(int snapshot, int count) {
+            synchronized (this) {
+                if (!mAbandoned) {
+                    mLoaded = true;
+                    mSnapshot = snapshot;
+                    mCount = count;
+                    notifyAll();
+                    return;
+                }
+            }
+            if (snapshot == IccPhoneBookInterfaceManager.NO_SNAPSHOT) return;
+            try {
+                mIccPhoneBook.releaseAdnRecordsSnapshotForSubscriber(mSubId, snapshot);
+            } catch (RemoteException ex) {
+                // ignore it
+            }
+        }
+
+        /**
+         * Waits for the snapshot, then gives up on it
+         *
+         * @return the id of the snapshot, NO_SNAPSHOT if it was not loaded in time
+         */
+        synchronized int await(long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            try {
+                long left;
+                while (!mLoaded && (left = deadline - System.currentTimeMillis()) > 0) {
+                    wait(left);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (!mLoaded) Rlog.e(TAG, "Timed out loading ADN records");
+            return abandon();
+        }
+
+        /**
+         * @return the id of the snapshot if it is loaded, or NO_SNAPSHOT in which case it is
+         *         released when it comes
+         */
+        synchronized int abandon() {
+            mAbandoned = true;
+            return mLoaded ? mSnapshot : IccPhoneBookInterfaceManager.NO_SNAPSHOT;
+        }
+
+        synchronized int getCount() {
+            return mCount;
+        }
+    }
+
+    private void waitForLoad() {
+        if (mLoad == null) return;
+        mSnapshot = mLoad.await(LOAD_TIMEOUT_MS);
+        mCount = mSnapshot != IccPhoneBookInterfaceManager.NO_SNAPSHOT ? mLoad.getCount() : 0;
+        mLoad = null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (mLoad != null) {
+            mSnapshot = mLoad.abandon();
+            mLoad = null;
+        }
+        if (mSnapshot == IccPhoneBookInterfaceManager.NO_SNAPSHOT) return;
+        try {
+            mIccPhoneBook.releaseAdnRecordsSnapshotForSubscriber(mSubId, mSnapshot);
+        } catch (RemoteException ex) {
+            // ignore it
+        }
+        mSnapshot = IccPhoneBookInterfaceManager.NO_SNAPSHOT;
+    }
+
+    private static int columnOf(String name) {
+        for (int i = 0; i < COLUMN_NAMES.length; i++) {
+            if (COLUMN_NAMES[i].equals(name)) return i;
+        }
+        return COLUMN_UNKNOWN;
+    }
+
+    @Override
+    public int getCount() {
+        waitForLoad();
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        waitForLoad();
+        if (mPage == null || newPosition < mPageStart
+                || newPosition >= mPageStart + mPagePositions.length) {
+            loadPage(newPosition - newPosition % mPagePositions.length);
+        }
+        return true;
+    }
+
+    private void loadPage(int start) {
+        mPage = null;
+        List<AdnRecord> page = null;
+        try {
+            page = mIccPhoneBook.getAdnRecordsInEfPageForSubscriber(mSubId, mEfid, mSnapshot,
+                    start, mPagePositions.length, mPagePositions);
+        } catch (RemoteException ex) {
+            // ignore it
+        } catch (SecurityException ex) {
+            Rlog.d(TAG, ex.toString());
+        }
+        if (page == null || page.size() < Math.min(mPagePositions.length, mCount - start)) {
+            // The service lost the snapshot, e.g. it was restarted
+            throw new IllegalStateException("Cannot load ADN records from " + start);
+        }
+        mPage = page;
+        mPageStart = start;
+    }
+
+    /**
+     * @return the value of the column for the current row
+     */
+    private Object getValue(int column) {
+        checkPosition();
+        int index = mPos - mPageStart;
+        AdnRecord record = mPage.get(index);
+        switch (mColumns[column]) {
+            case COLUMN_NAME:
+                return record.getAlphaTag();
+            case COLUMN_NUMBER:
+                return record.getNumber();
+            case COLUMN_EMAILS:
+                String[] emails = record.getEmails();
+                if (emails == null) return null;
+                StringBuilder emailString = new StringBuilder();
+                for (String email: emails) {
+                    emailString.append(email);
+                    emailString.append(",");
+                }
+                return emailString.toString();
+            case COLUMN_ID:
+                return mPagePositions[index];
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = getValue(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = getValue(column);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = getValue(column);
+        if (value == null) return 0.0d;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = getValue(column);
+        if (value == null) return FIELD_TYPE_NULL;
+        if (value instanceof Number) return FIELD_TYPE_INTEGER;
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getValue(column) == null;
+    }
+}
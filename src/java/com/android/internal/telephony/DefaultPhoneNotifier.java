@@ -19,10 +19,17 @@ package com.android.internal.telephony;
 import android.net.LinkProperties;
 import android.net.NetworkCapabilities;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.telephony.CellInfo;
 import android.telephony.Rlog;
+import android.telephony.SignalStrength;
 import android.telephony.VoLteServiceState;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
@@ -30,126 +37,297 @@ import android.telephony.TelephonyManager;
 import android.telephony.PreciseCallState;
 import android.telephony.DisconnectCause;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Call;
 import com.android.internal.telephony.CallManager;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.ITelephonyRegistry;
 import com.android.internal.telephony.PhoneConstants;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * broadcast intents
+ *
+ * In async mode, enabled by ro.telephony.async_notifier, the calls into the registry are made on
+ * a dispatch thread so a slow registry doesn't stall the handlers of the trackers. The arguments
+ * are still read on the caller's thread. Notifications that carry state, e.g. service state or
+ * signal strength, replace a pending notification of the same state of the same phone or
+ * subscription; call and data events are all sent, in order.
  */
 public class DefaultPhoneNotifier implements PhoneNotifier {
     private static final String LOG_TAG = "DefaultPhoneNotifier";
     private static final boolean DBG = false; // STOPSHIP if true
 
+    // Notifications of the same kind and id supersede each other
+    private static final int KIND_SERVICE_STATE = 1;
+    private static final int KIND_SIGNAL_STRENGTH = 2;
+    private static final int KIND_MESSAGE_WAITING = 3;
+    private static final int KIND_CALL_FORWARDING = 4;
+    private static final int KIND_DATA_ACTIVITY = 5;
+    private static final int KIND_CELL_LOCATION = 6;
+    private static final int KIND_CELL_INFO = 7;
+    private static final int KIND_OTASP = 8;
+    private static final int KIND_VOLTE_SERVICE_STATE = 9;
+
+    /** Key of notifications that are never superseded */
+    private static final long KEY_ORDERED = -1;
+
     protected ITelephonyRegistry mRegistry;
 
+    private final Dispatcher mDispatcher;
+
     public DefaultPhoneNotifier() {
+        this(SystemProperties.getBoolean("ro.telephony.async_notifier", false)
+                ? startDispatchThread() : null);
+    }
+
+    /**
+     * @param dispatchLooper the looper of the dispatch thread of async mode, null for sync mode
+     */
+    @VisibleForTesting
+    public DefaultPhoneNotifier(Looper dispatchLooper) {
         mRegistry = ITelephonyRegistry.Stub.asInterface(ServiceManager.getService(
                     "telephony.registry"));
+        mDispatcher = dispatchLooper != null ? new Dispatcher(dispatchLooper) : null;
+    }
+
+    /**
+     * Starts the dispatch thread, which lives as long as the phone process like the notifier
+     */
+    private static Looper startDispatchThread() {
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * A call into the registry, with the arguments read when it was queued.
+     */
+    private abstract static class Notification {
+        long mKey;
+        long mQueuedTime;
+        boolean mSuperseded;
+
+        abstract void send(ITelephonyRegistry registry) throws RemoteException;
+    }
+
+    private static long key(int kind, int id) {
+        return ((long) kind << 32) | (id & 0xffffffffL);
+    }
+
+    /**
+     * Queue of the notifications of async mode, drained on the dispatch thread.
+     */
+    private class Dispatcher extends Handler {
+        private static final int EVENT_DISPATCH = 1;
+
+        private final ArrayDeque<Notification> mQueue = new ArrayDeque<Notification>();
+        private final HashMap<Long, Notification> mPending = new HashMap<Long, Notification>();
+        private boolean mScheduled;
+
+        // Instrumentation, guarded by mQueue
+        private long mQueuedCount;
+        private long mSentCount;
+        private long mMergedCount;
+        private long mDroppedCount;
+        private int mMaxQueueSize;
+        private long mLatencyTotalMs;
+        private long mLatencyMaxMs;
+        private long mSendMaxMs;
+
+        Dispatcher(Looper looper) {
+            super(looper);
+        }
+
+        void enqueue(Notification n) {
+            synchronized (mQueue) {
+                n.mQueuedTime = SystemClock.elapsedRealtime();
+                if (n.mKey != KEY_ORDERED) {
+                    Notification previous = mPending.put(n.mKey, n);
+                    if (previous != null) {
+                        previous.mSuperseded = true;
+                        mMergedCount++;
+                    }
+                }
+                mQueue.add(n);
+                mQueuedCount++;
+                mMaxQueueSize = Math.max(mMaxQueueSize, mQueue.size());
+                if (!mScheduled) {
+                    mScheduled = true;
+                    sendEmptyMessage(EVENT_DISPATCH);
+                }
+            }
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            while (true) {
+                Notification n;
+                synchronized (mQueue) {
+                    n = mQueue.poll();
+                    if (n == null) {
+                        mScheduled = false;
+                        return;
+                    }
+                    if (n.mSuperseded) continue;
+                    if (n.mKey != KEY_ORDERED) mPending.remove(n.mKey);
+                }
+
+                long start = SystemClock.elapsedRealtime();
+                boolean sent = sendNow(n);
+                long end = SystemClock.elapsedRealtime();
+
+                synchronized (mQueue) {
+                    if (sent) {
+                        mSentCount++;
+                        long latency = end - n.mQueuedTime;
+                        mLatencyTotalMs += latency;
+                        mLatencyMaxMs = Math.max(mLatencyMaxMs, latency);
+                        mSendMaxMs = Math.max(mSendMaxMs, end - start);
+                    } else {
+                        mDroppedCount++;
+                    }
+                }
+            }
+        }
+
+        void dump(PrintWriter pw) {
+            synchronized (mQueue) {
+                pw.println(" queued=" + mQueuedCount + " sent=" + mSentCount
+                        + " merged=" + mMergedCount + " dropped=" + mDroppedCount
+                        + " pending=" + mQueue.size() + " maxQueueSize=" + mMaxQueueSize);
+                pw.println(" latencyAvgMs=" + (mSentCount == 0 ? 0 : mLatencyTotalMs / mSentCount)
+                        + " latencyMaxMs=" + mLatencyMaxMs + " sendMaxMs=" + mSendMaxMs);
+            }
+        }
+    }
+
+    /**
+     * @return false if the registry is not available
+     */
+    private boolean sendNow(Notification n) {
+        try {
+            if (mRegistry != null) {
+                n.send(mRegistry);
+                return true;
+            }
+        } catch (RemoteException ex) {
+            // system process is dead
+        }
+        return false;
+    }
+
+    private void notify(long key, Notification n) {
+        n.mKey = key;
+        if (mDispatcher != null) {
+            mDispatcher.enqueue(n);
+        } else {
+            sendNow(n);
+        }
     }
 
     @Override
     public void notifyPhoneState(Phone sender) {
         Call ringingCall = sender.getRingingCall();
-        int subId = sender.getSubId();
-        int phoneId = sender.getPhoneId();
+        final int subId = sender.getSubId();
+        final int phoneId = sender.getPhoneId();
         String incomingNumber = "";
         if (ringingCall != null && ringingCall.getEarliestConnection() != null) {
             incomingNumber = ringingCall.getEarliestConnection().getAddress();
         }
-        try {
-            if (mRegistry != null) {
-                  mRegistry.notifyCallStateForPhoneId(phoneId, subId,
-                        convertCallState(sender.getState()), incomingNumber);
+        final int callState = convertCallState(sender.getState());
+        final String number = incomingNumber;
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyCallStateForPhoneId(phoneId, subId, callState, number);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyServiceState(Phone sender) {
         ServiceState ss = sender.getServiceState();
-        int phoneId = sender.getPhoneId();
-        int subId = sender.getSubId();
+        final int phoneId = sender.getPhoneId();
+        final int subId = sender.getSubId();
 
         Rlog.d(LOG_TAG, "nofityServiceState: mRegistry=" + mRegistry + " ss=" + ss
                 + " sender=" + sender + " phondId=" + phoneId + " subId=" + subId);
         if (ss == null) {
             ss = new ServiceState();
             ss.setStateOutOfService();
+        } else if (mDispatcher != null) {
+            // The tracker reuses its ServiceState objects
+            ss = new ServiceState(ss);
         }
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyServiceStateForPhoneId(phoneId, subId, ss);
+        final ServiceState state = ss;
+        notify(key(KIND_SERVICE_STATE, phoneId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyServiceStateForPhoneId(phoneId, subId, state);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifySignalStrength(Phone sender) {
-        int phoneId = sender.getPhoneId();
-        int subId = sender.getSubId();
+        final int phoneId = sender.getPhoneId();
+        final int subId = sender.getSubId();
         if (DBG) {
             // too chatty to log constantly
             Rlog.d(LOG_TAG, "notifySignalStrength: mRegistry=" + mRegistry
                     + " ss=" + sender.getSignalStrength() + " sender=" + sender);
         }
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifySignalStrengthForPhoneId(phoneId, subId,
-                        sender.getSignalStrength());
+        final SignalStrength signalStrength = sender.getSignalStrength();
+        notify(key(KIND_SIGNAL_STRENGTH, phoneId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifySignalStrengthForPhoneId(phoneId, subId, signalStrength);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyMessageWaitingChanged(Phone sender) {
-        int phoneId = sender.getPhoneId();
-        int subId = sender.getSubId();
-
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyMessageWaitingChangedForPhoneId(phoneId, subId,
-                        sender.getMessageWaitingIndicator());
+        final int phoneId = sender.getPhoneId();
+        final int subId = sender.getSubId();
+        final boolean mwi = sender.getMessageWaitingIndicator();
+
+        notify(key(KIND_MESSAGE_WAITING, phoneId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyMessageWaitingChangedForPhoneId(phoneId, subId, mwi);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyCallForwardingChanged(Phone sender) {
-        int subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyCallForwardingChangedForSubscriber(subId,
-                        sender.getCallForwardingIndicator());
+        final int subId = sender.getSubId();
+        final boolean cfi = sender.getCallForwardingIndicator();
+        notify(key(KIND_CALL_FORWARDING, subId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyCallForwardingChangedForSubscriber(subId, cfi);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyDataActivity(Phone sender) {
-        int subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyDataActivityForSubscriber(subId,
-                        convertDataActivityState(sender.getDataActivityState()));
+        final int subId = sender.getSubId();
+        final int activity = convertDataActivityState(sender.getDataActivityState());
+        notify(key(KIND_DATA_ACTIVITY, subId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyDataActivityForSubscriber(subId, activity);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
@@ -158,9 +336,9 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         doNotifyDataConnection(sender, reason, apnType, state);
     }
 
-    private void doNotifyDataConnection(Phone sender, String reason, String apnType,
-            PhoneConstants.DataState state) {
-        int subId = sender.getSubId();
+    private void doNotifyDataConnection(Phone sender, final String reason, final String apnType,
+            final PhoneConstants.DataState state) {
+        final int subId = sender.getSubId();
         long dds = SubscriptionManager.getDefaultDataSubscriptionId();
         if (DBG) log("subId = " + subId + ", DDS = " + dds);
 
@@ -179,72 +357,74 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         ServiceState ss = sender.getServiceState();
         if (ss != null) roaming = ss.getDataRoaming();
 
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyDataConnectionForSubscriber(subId,
+        final boolean isDataConnectivityPossible = sender.isDataConnectivityPossible(apnType);
+        final String apn = sender.getActiveApnHost(apnType);
+        final LinkProperties lp = linkProperties;
+        final NetworkCapabilities nc = networkCapabilities;
+        final int networkType = ((telephony!=null) ? telephony.getDataNetworkType(subId) :
+                TelephonyManager.NETWORK_TYPE_UNKNOWN);
+        final boolean dataRoaming = roaming;
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyDataConnectionForSubscriber(subId,
                     convertDataState(state),
-                    sender.isDataConnectivityPossible(apnType), reason,
-                    sender.getActiveApnHost(apnType),
+                    isDataConnectivityPossible, reason,
+                    apn,
                     apnType,
-                    linkProperties,
-                    networkCapabilities,
-                    ((telephony!=null) ? telephony.getDataNetworkType(subId) :
-                    TelephonyManager.NETWORK_TYPE_UNKNOWN),
-                    roaming);
+                    lp,
+                    nc,
+                    networkType,
+                    dataRoaming);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
-    public void notifyDataConnectionFailed(Phone sender, String reason, String apnType) {
-        int subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyDataConnectionFailedForSubscriber(subId, reason, apnType);
+    public void notifyDataConnectionFailed(Phone sender, final String reason,
+            final String apnType) {
+        final int subId = sender.getSubId();
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyDataConnectionFailedForSubscriber(subId, reason, apnType);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
     public void notifyCellLocation(Phone sender) {
-        int subId = sender.getSubId();
-        Bundle data = new Bundle();
+        final int subId = sender.getSubId();
+        final Bundle data = new Bundle();
         sender.getCellLocation().fillInNotifierBundle(data);
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyCellLocationForSubscriber(subId, data);
+        notify(key(KIND_CELL_LOCATION, subId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyCellLocationForSubscriber(subId, data);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     @Override
-    public void notifyCellInfo(Phone sender, List<CellInfo> cellInfo) {
-        int subId = sender.getSubId();
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyCellInfoForSubscriber(subId, cellInfo);
+    public void notifyCellInfo(Phone sender, final List<CellInfo> cellInfo) {
+        final int subId = sender.getSubId();
+        notify(key(KIND_CELL_INFO, subId), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyCellInfoForSubscriber(subId, cellInfo);
             }
-        } catch (RemoteException ex) {
-
-        }
+        });
     }
 
     @Override
-    public void notifyOtaspChanged(Phone sender, int otaspMode) {
+    public void notifyOtaspChanged(Phone sender, final int otaspMode) {
         // FIXME: subId?
-        try {
-            if (mRegistry != null) {
-                mRegistry.notifyOtaspChanged(otaspMode);
+        notify(key(KIND_OTASP, 0), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyOtaspChanged(otaspMode);
             }
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        });
     }
 
     public void notifyPreciseCallState(Phone sender) {
@@ -253,52 +433,66 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
         Call foregroundCall = sender.getForegroundCall();
         Call backgroundCall = sender.getBackgroundCall();
         if (ringingCall != null && foregroundCall != null && backgroundCall != null) {
-            try {
-                mRegistry.notifyPreciseCallState(
-                        convertPreciseCallState(ringingCall.getState()),
-                        convertPreciseCallState(foregroundCall.getState()),
-                        convertPreciseCallState(backgroundCall.getState()));
-            } catch (RemoteException ex) {
-                // system process is dead
-            }
+            final int ringingCallState = convertPreciseCallState(ringingCall.getState());
+            final int foregroundCallState = convertPreciseCallState(foregroundCall.getState());
+            final int backgroundCallState = convertPreciseCallState(backgroundCall.getState());
+            notify(KEY_ORDERED, new Notification() {
+                @Override
+                void send(ITelephonyRegistry registry) throws RemoteException {
+                    registry.notifyPreciseCallState(ringingCallState, foregroundCallState,
+                            backgroundCallState);
+                }
+            });
         }
     }
 
-    public void notifyDisconnectCause(int cause, int preciseCause) {
+    public void notifyDisconnectCause(final int cause, final int preciseCause) {
         // FIXME: subId?
-        try {
-            mRegistry.notifyDisconnectCause(cause, preciseCause);
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyDisconnectCause(cause, preciseCause);
+            }
+        });
     }
 
-    public void notifyPreciseDataConnectionFailed(Phone sender, String reason, String apnType,
-            String apn, String failCause) {
+    public void notifyPreciseDataConnectionFailed(Phone sender, final String reason,
+            final String apnType, final String apn, final String failCause) {
         // FIXME: subId?
-        try {
-            mRegistry.notifyPreciseDataConnectionFailed(reason, apnType, apn, failCause);
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyPreciseDataConnectionFailed(reason, apnType, apn, failCause);
+            }
+        });
     }
 
     @Override
-    public void notifyVoLteServiceStateChanged(Phone sender, VoLteServiceState lteState) {
+    public void notifyVoLteServiceStateChanged(Phone sender, final VoLteServiceState lteState) {
         // FIXME: subID
-        try {
-            mRegistry.notifyVoLteServiceStateChanged(lteState);
-        } catch (RemoteException ex) {
-            // system process is dead
-        }
+        notify(key(KIND_VOLTE_SERVICE_STATE, 0), new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyVoLteServiceStateChanged(lteState);
+            }
+        });
     }
 
     @Override
-    public void notifyOemHookRawEventForSubscriber(int subId, byte[] rawData) {
-        try {
-            mRegistry.notifyOemHookRawEventForSubscriber(subId, rawData);
-        } catch (RemoteException ex) {
-            // system process is dead
+    public void notifyOemHookRawEventForSubscriber(final int subId, final byte[] rawData) {
+        notify(KEY_ORDERED, new Notification() {
+            @Override
+            void send(ITelephonyRegistry registry) throws RemoteException {
+                registry.notifyOemHookRawEventForSubscriber(subId, rawData);
+            }
+        });
+    }
+
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("DefaultPhoneNotifier:");
+        pw.println(" async=" + (mDispatcher != null));
+        if (mDispatcher != null) {
+            mDispatcher.dump(pw);
         }
     }
 
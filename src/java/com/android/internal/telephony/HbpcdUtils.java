@@ -17,9 +17,16 @@
 package com.android.internal.telephony;
 
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.content.Context;
 import android.content.ContentResolver;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
 
 import com.android.internal.telephony.HbpcdLookup;
 import com.android.internal.telephony.HbpcdLookup.MccIdd;
@@ -28,19 +35,259 @@ import com.android.internal.telephony.HbpcdLookup.MccSidConflicts;
 import com.android.internal.telephony.HbpcdLookup.MccSidRange;
 import com.android.internal.telephony.HbpcdLookup.ArbitraryMccSidMatch;
 
+import java.util.Arrays;
+
+/**
+ * Resolves MCC and IDD from the HBPCD lookup tables.
+ *
+ * The tables are read into memory on the first lookup, shared by all instances, and read again
+ * after the provider notifies a change, so resolving the MCC on each CDMA poll doesn't query the
+ * provider. If a table can't be read, the lookups fall back to querying the provider.
+ */
 public final class HbpcdUtils {
     private static final String LOG_TAG = "HbpcdUtils";
     private static final boolean DBG = false;
     private ContentResolver resolver = null;
 
+    /** Delay before reading the tables again if the provider couldn't be read */
+    private static final long RELOAD_DELAY_MS = 60 * 1000;
+
+    private static final Object sIndexLock = new Object();
+    private static Index sIndex;
+    private static ContentObserver sObserver;
+
     public HbpcdUtils(Context context) {
         resolver = context.getContentResolver();
+        synchronized (sIndexLock) {
+            if (sObserver == null) {
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        onTablesChanged();
+                    }
+                };
+                try {
+                    resolver.registerContentObserver(HbpcdLookup.CONTENT_URI, true, sObserver);
+                } catch (RuntimeException e) {
+                    Log.w(LOG_TAG, "Can't observe HbpcdLookup database", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the in-memory tables, they are read again on the next lookup.
+     */
+    @VisibleForTesting
+    public static void onTablesChanged() {
+        synchronized (sIndexLock) {
+            if (DBG) Log.d(LOG_TAG, "HbpcdLookup tables changed");
+            sIndex = null;
+        }
+    }
+
+    private Index getIndex() {
+        synchronized (sIndexLock) {
+            if (sIndex == null || (!sIndex.isComplete()
+                    && SystemClock.elapsedRealtime() - sIndex.mLoadTime > RELOAD_DELAY_MS)) {
+                sIndex = new Index(resolver);
+            }
+            return sIndex;
+        }
+    }
+
+    /**
+     * In-memory copy of the HBPCD tables. The conflict and range rows are kept in provider
+     * order, as the queries they replace return the first matching row.
+     */
+    private static final class Index {
+        /** MCC of the SIDs that have exactly one row in arbitrary_mcc_sid_match */
+        final SparseIntArray mArbitraryMccBySid = new SparseIntArray();
+        final boolean mArbitraryLoaded;
+
+        /** Rows of mcc_sid_conflict joined with the GMT offsets of mcc_lookup, by SID */
+        final SparseArray<double[]> mConflictsBySid = new SparseArray<double[]>();
+        final boolean mConflictsLoaded;
+        static final int CONFLICT_ROW_SIZE = 5;
+
+        /** Rows of mcc_sid_range as (MCC, low, high) */
+        final int[] mRanges;
+
+        /** First IDD by MCC */
+        final SparseArray<String> mIddByMcc = new SparseArray<String>();
+        final boolean mIddLoaded;
+
+        final long mLoadTime;
+
+        Index(ContentResolver resolver) {
+            mLoadTime = SystemClock.elapsedRealtime();
+            mArbitraryLoaded = loadArbitrary(resolver);
+            mConflictsLoaded = loadConflicts(resolver);
+            mRanges = loadRanges(resolver);
+            mIddLoaded = loadIdd(resolver);
+            Log.d(LOG_TAG, "HbpcdLookup tables loaded: arbitrary=" + mArbitraryMccBySid.size()
+                    + " conflicts=" + mConflictsBySid.size()
+                    + " ranges=" + (mRanges == null ? -1 : mRanges.length / 3)
+                    + " idd=" + mIddByMcc.size());
+        }
+
+        boolean isComplete() {
+            return mArbitraryLoaded && mConflictsLoaded && mRanges != null && mIddLoaded;
+        }
+
+        private boolean loadArbitrary(ContentResolver resolver) {
+            Cursor c = query(resolver, ArbitraryMccSidMatch.CONTENT_URI,
+                    new String[] {ArbitraryMccSidMatch.SID, ArbitraryMccSidMatch.MCC});
+            if (c == null) return false;
+            try {
+                SparseIntArray rowsBySid = new SparseIntArray();
+                while (c.moveToNext()) {
+                    int sid = c.getInt(0);
+                    rowsBySid.put(sid, rowsBySid.get(sid) + 1);
+                    mArbitraryMccBySid.put(sid, c.getInt(1));
+                }
+                for (int i = 0; i < rowsBySid.size(); i++) {
+                    if (rowsBySid.valueAt(i) != 1) {
+                        mArbitraryMccBySid.delete(rowsBySid.keyAt(i));
+                    }
+                }
+                return true;
+            } finally {
+                c.close();
+            }
+        }
+
+        private boolean loadConflicts(ContentResolver resolver) {
+            Cursor c = query(resolver, MccSidConflicts.CONTENT_URI,
+                    new String[] {MccSidConflicts.SID_CONFLICT, MccSidConflicts.MCC,
+                            MccLookup.GMT_OFFSET_LOW, MccLookup.GMT_OFFSET_HIGH,
+                            MccLookup.GMT_DST_LOW, MccLookup.GMT_DST_HIGH});
+            if (c == null) return false;
+            try {
+                while (c.moveToNext()) {
+                    int sid = c.getInt(0);
+                    double[] rows = mConflictsBySid.get(sid);
+                    int offset = rows == null ? 0 : rows.length;
+                    rows = rows == null ? new double[CONFLICT_ROW_SIZE]
+                            : Arrays.copyOf(rows, offset + CONFLICT_ROW_SIZE);
+                    for (int i = 0; i < CONFLICT_ROW_SIZE; i++) {
+                        rows[offset + i] = c.getDouble(i + 1);
+                    }
+                    mConflictsBySid.put(sid, rows);
+                }
+                return true;
+            } finally {
+                c.close();
+            }
+        }
+
+        private static int[] loadRanges(ContentResolver resolver) {
+            Cursor c = query(resolver, MccSidRange.CONTENT_URI,
+                    new String[] {MccSidRange.MCC, MccSidRange.RANGE_LOW, MccSidRange.RANGE_HIGH});
+            if (c == null) return null;
+            try {
+                int[] ranges = new int[c.getCount() * 3];
+                int i = 0;
+                while (c.moveToNext() && i < ranges.length) {
+                    ranges[i++] = c.getInt(0);
+                    ranges[i++] = c.getInt(1);
+                    ranges[i++] = c.getInt(2);
+                }
+                return i == ranges.length ? ranges : Arrays.copyOf(ranges, i);
+            } finally {
+                c.close();
+            }
+        }
+
+        private boolean loadIdd(ContentResolver resolver) {
+            Cursor c = query(resolver, MccIdd.CONTENT_URI,
+                    new String[] {MccIdd.MCC, MccIdd.IDD});
+            if (c == null) return false;
+            try {
+                while (c.moveToNext()) {
+                    int mcc = c.getInt(0);
+                    // Countries with more than 1 IDD use the first one, as getIddByMcc did
+                    if (mIddByMcc.indexOfKey(mcc) < 0) {
+                        mIddByMcc.put(mcc, c.getString(1));
+                    }
+                }
+                return true;
+            } finally {
+                c.close();
+            }
+        }
+
+        private static Cursor query(ContentResolver resolver, Uri uri, String[] projection) {
+            try {
+                return resolver.query(uri, projection, null, null, null);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Can't read " + uri, e);
+                return null;
+            }
+        }
+
+        /**
+         * @return the MCC of the first conflict row of the SID matching the offset, 0 if none
+         */
+        int getConflictMcc(int sid, int tz, int DSTflag) {
+            double[] rows = mConflictsBySid.get(sid);
+            if (rows == null) return 0;
+            for (int i = 0; i < rows.length; i += CONFLICT_ROW_SIZE) {
+                boolean matches = DSTflag == 0
+                        ? rows[i + 1] <= tz && tz <= rows[i + 2]
+                        : DSTflag == 1 && rows[i + 3] <= tz && tz <= rows[i + 4];
+                if (matches) return (int) rows[i];
+            }
+            return 0;
+        }
+
+        /**
+         * @return the MCC of the first range containing the SID, 0 if none
+         */
+        int getRangeMcc(int sid) {
+            for (int i = 0; i < mRanges.length; i += 3) {
+                if (mRanges[i + 1] <= sid && sid <= mRanges[i + 2]) return mRanges[i];
+            }
+            return 0;
+        }
     }
 
     /**
      *  Resolves the unknown MCC with SID and Timezone information.
     */
     public int getMcc(int sid, int tz, int DSTflag, boolean isNitzTimeZone) {
+        Index index = getIndex();
+        if (!index.mArbitraryLoaded || !index.mConflictsLoaded || index.mRanges == null) {
+            return queryMcc(sid, tz, DSTflag, isNitzTimeZone);
+        }
+
+        int tmpMcc = index.mArbitraryMccBySid.get(sid);
+        if (tmpMcc != 0) {
+            if (DBG) Log.d(LOG_TAG, "MCC found in arbitrary_mcc_sid_match: " + tmpMcc);
+            return tmpMcc;
+        }
+
+        tmpMcc = index.getConflictMcc(sid, tz, DSTflag);
+        if (tmpMcc != 0) {
+            if (DBG) Log.d(LOG_TAG, "MCC found in mcc_lookup_table. Return tmpMcc = " + tmpMcc);
+            if (isNitzTimeZone) {
+                return tmpMcc;
+            } else {
+                // time zone is not accurate, it may get wrong mcc, ignore it.
+                if (DBG) Log.d(LOG_TAG, "time zone is not accurate, mcc may be " + tmpMcc);
+                return 0;
+            }
+        }
+
+        tmpMcc = index.getRangeMcc(sid);
+        if (DBG) Log.d(LOG_TAG, "SID in mcc_sid_range. Return tmpMcc = " + tmpMcc);
+        return tmpMcc;
+    }
+
+    /**
+     *  Resolves the unknown MCC with SID and Timezone information, querying the provider.
+    */
+    private int queryMcc(int sid, int tz, int DSTflag, boolean isNitzTimeZone) {
         int tmpMcc = 0;
 
         // check if SID exists in arbitrary_mcc_sid_match table.
@@ -133,6 +380,18 @@ public final class HbpcdUtils {
      *  Gets country information with given MCC.
     */
     public String getIddByMcc(int mcc) {
+        Index index = getIndex();
+        if (index.mIddLoaded) {
+            String idd = index.mIddByMcc.get(mcc);
+            return idd == null ? "" : idd;
+        }
+        return queryIddByMcc(mcc);
+    }
+
+    /**
+     *  Gets country information with given MCC, querying the provider.
+    */
+    private String queryIddByMcc(int mcc) {
         if (DBG) Log.d(LOG_TAG, "Enter getHbpcdInfoByMCC.");
         String idd = "";
 
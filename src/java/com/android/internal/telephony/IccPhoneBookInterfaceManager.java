@@ -21,7 +21,9 @@ import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.RemoteException;
 import android.telephony.Rlog;
+import android.util.SparseArray;
 
 import com.android.internal.telephony.uicc.AdnRecord;
 import com.android.internal.telephony.uicc.AdnRecordCache;
@@ -31,6 +33,7 @@ import com.android.internal.telephony.uicc.IccFileHandler;
 import com.android.internal.telephony.uicc.IccRecords;
 import com.android.internal.telephony.uicc.UiccCardApplication;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -51,12 +54,69 @@ public class IccPhoneBookInterfaceManager {
     private   boolean mIs3gCard = false;  // flag to determine if card is 3G or 2G
     protected List<AdnRecord> mRecords;
 
+    /** Id of no snapshot, for an EF that could not be loaded */
+    public static final int NO_SNAPSHOT = -1;
+
+    /**
+     * The non-empty records of an EF with their positions in it, read after the generation of
+     * the AdnRecordCache was mGeneration. Updates replace the records in the lists of
+     * AdnRecordCache rather than change them, so the arrays are not affected by later updates.
+     */
+    private static class AdnSnapshot {
+        final int mId;
+        final int mEfid;
+        final AdnRecordCache mAdnCache;
+        final int mGeneration;
+        final AdnRecord[] mRecords;
+        final int[] mPositions;
+        // Number of cursors reading the snapshot, it is dropped when the last one is released
+        int mRefCount;
+
+        AdnSnapshot(int id, int efid, AdnRecordCache adnCache, int generation,
+                List<AdnRecord> records) {
+            mId = id;
+            mEfid = efid;
+            mAdnCache = adnCache;
+            mGeneration = generation;
+            // The list may be changed by the handler of AdnRecordCache meanwhile, in which case
+            // the generation is already stale
+            AdnRecord[] all = records.toArray(new AdnRecord[records.size()]);
+            int count = 0;
+            for (AdnRecord record : all) {
+                if (record != null && !record.isEmpty()) count++;
+            }
+            mRecords = new AdnRecord[count];
+            mPositions = new int[count];
+            for (int i = 0, index = 0; i < all.length; i++) {
+                if (all[i] == null || all[i].isEmpty()) continue;
+                mRecords[index] = all[i];
+                mPositions[index++] = i;
+            }
+        }
+    }
+
+    // Snapshots in use, by id
+    private final SparseArray<AdnSnapshot> mAdnSnapshots = new SparseArray<AdnSnapshot>();
+    private int mNextSnapshotId;
+
+    /** A load of loadAdnRecordsInEf, answered through mCallback */
+    private static class SnapshotRequest {
+        final AdnRecordCache mAdnCache;
+        final IAdnRecordsCallback mCallback;
+
+        SnapshotRequest(AdnRecordCache adnCache, IAdnRecordsCallback callback) {
+            mAdnCache = adnCache;
+            mCallback = callback;
+        }
+    }
+
 
     protected static final boolean ALLOW_SIM_OP_IN_UI_THREAD = false;
 
     protected static final int EVENT_GET_SIZE_DONE = 1;
     protected static final int EVENT_LOAD_DONE = 2;
     protected static final int EVENT_UPDATE_DONE = 3;
+    protected static final int EVENT_LOAD_FOR_SNAPSHOT_DONE = 4;
 
     protected Handler mBaseHandler = new Handler() {
         @Override
@@ -98,6 +158,10 @@ public class IccPhoneBookInterfaceManager {
                         notifyPending(ar);
                     }
                     break;
+                case EVENT_LOAD_FOR_SNAPSHOT_DONE:
+                    ar = (AsyncResult) msg.obj;
+                    onLoadForSnapshotDone(msg.arg1, msg.arg2, ar);
+                    break;
             }
         }
 
@@ -308,6 +372,152 @@ public class IccPhoneBookInterfaceManager {
         return mRecords;
     }
 
+    /**
+     * Loads the AdnRecords in efid and takes a snapshot of the non-empty ones, to be read a
+     * page at a time by getAdnRecordsInEfPage until releaseAdnRecordsSnapshot is called. A
+     * snapshot in use is shared while the records don't change. Returns at once, the snapshot
+     * is passed to callback once the records are loaded, so no thread waits for the ICC.
+     *
+     * throws SecurityException if no READ_CONTACTS permission
+     *
+     * @param efid the EF id of a ADN-like ICC
+     * @param callback told the id and size of the snapshot, or NO_SNAPSHOT if efid could not
+     *        be loaded
+     */
+    public void loadAdnRecordsInEf(int efid, IAdnRecordsCallback callback) {
+        if (mPhone.getContext().checkCallingOrSelfPermission(
+                android.Manifest.permission.READ_CONTACTS)
+                != PackageManager.PERMISSION_GRANTED) {
+            throw new SecurityException(
+                    "Requires android.permission.READ_CONTACTS permission");
+        }
+
+        efid = updateEfForIccType(efid);
+        if (DBG) logd("loadAdnRecordsInEf: efid=0x" + Integer.toHexString(efid).toUpperCase());
+
+        AdnRecordCache adnCache = mAdnCache;
+        if (adnCache == null) {
+            loge("Failure while trying to load from SIM due to uninitialised adncache");
+            notifyAdnRecordsLoaded(callback, null);
+            return;
+        }
+        // Read before the records, so a change made meanwhile makes the snapshot stale
+        int generation = adnCache.getGeneration();
+        Message response = mBaseHandler.obtainMessage(EVENT_LOAD_FOR_SNAPSHOT_DONE, efid,
+                generation, new SnapshotRequest(adnCache, callback));
+        adnCache.requestLoadAllAdnLike(efid, adnCache.extensionEfForEf(efid), response);
+    }
+
+    private void onLoadForSnapshotDone(int efid, int generation, AsyncResult ar) {
+        SnapshotRequest request = (SnapshotRequest) ar.userObj;
+        AdnSnapshot adnSnapshot = null;
+        if (ar.exception == null && ar.result != null) {
+            adnSnapshot = acquireAdnSnapshot(efid, request.mAdnCache, generation,
+                    (List<AdnRecord>) ar.result);
+        } else {
+            if (DBG) logd("Cannot load ADN records");
+        }
+        if (!notifyAdnRecordsLoaded(request.mCallback, adnSnapshot) && adnSnapshot != null) {
+            // Nobody is left to read it
+            releaseAdnRecordsSnapshot(adnSnapshot.mId);
+        }
+    }
+
+    private boolean notifyAdnRecordsLoaded(IAdnRecordsCallback callback,
+            AdnSnapshot adnSnapshot) {
+        try {
+            if (adnSnapshot != null) {
+                callback.onAdnRecordsLoaded(adnSnapshot.mId, adnSnapshot.mRecords.length);
+            } else {
+                callback.onAdnRecordsLoaded(NO_SNAPSHOT, 0);
+            }
+            return true;
+        } catch (RemoteException e) {
+            loge("Cannot report the loaded ADN records: " + e);
+            return false;
+        }
+    }
+
+    private AdnSnapshot acquireAdnSnapshot(int efid, AdnRecordCache adnCache, int generation,
+            List<AdnRecord> records) {
+        synchronized (mAdnSnapshots) {
+            AdnSnapshot adnSnapshot = null;
+            for (int i = 0; i < mAdnSnapshots.size(); i++) {
+                AdnSnapshot candidate = mAdnSnapshots.valueAt(i);
+                if (candidate.mEfid == efid && candidate.mAdnCache == adnCache
+                        && candidate.mGeneration == generation) {
+                    adnSnapshot = candidate;
+                    break;
+                }
+            }
+            if (adnSnapshot == null) {
+                adnSnapshot = new AdnSnapshot(mNextSnapshotId++, efid, adnCache, generation,
+                        records);
+                mAdnSnapshots.put(adnSnapshot.mId, adnSnapshot);
+            }
+            adnSnapshot.mRefCount++;
+            return adnSnapshot;
+        }
+    }
+
+    /**
+     * Releases a snapshot taken by loadAdnRecordsInEf, once its reader is done with it
+     *
+     * @param snapshot the id of the snapshot
+     */
+    public void releaseAdnRecordsSnapshot(int snapshot) {
+        synchronized (mAdnSnapshots) {
+            AdnSnapshot adnSnapshot = mAdnSnapshots.get(snapshot);
+            if (adnSnapshot != null && --adnSnapshot.mRefCount <= 0) {
+                mAdnSnapshots.remove(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Returns a page of a snapshot taken by loadAdnRecordsInEf, so large phonebooks can be
+     * read without copying them at once. The snapshot is not affected by later changes of the
+     * records.
+     *
+     * throws SecurityException if no READ_CONTACTS permission
+     *
+     * @param efid the EF id of a ADN-like ICC
+     * @param snapshot the id of the snapshot
+     * @param start index of the first record of the page in the snapshot
+     * @param count maximum number of records, at most positions.length
+     * @param positions receives the position in the EF list of each returned record
+     * @return List of AdnRecord, null if the snapshot was released
+     */
+    public List<AdnRecord> getAdnRecordsInEfPage(int efid, int snapshot, int start, int count,
+            int[] positions) {
+        if (mPhone.getContext().checkCallingOrSelfPermission(
+                android.Manifest.permission.READ_CONTACTS)
+                != PackageManager.PERMISSION_GRANTED) {
+            throw new SecurityException(
+                    "Requires android.permission.READ_CONTACTS permission");
+        }
+
+        efid = updateEfForIccType(efid);
+        AdnSnapshot adnSnapshot;
+        synchronized (mAdnSnapshots) {
+            adnSnapshot = mAdnSnapshots.get(snapshot);
+        }
+        if (adnSnapshot == null || adnSnapshot.mEfid != efid) {
+            if (DBG) logd("getAdnRecordsInEfPage: snapshot " + snapshot + " is gone");
+            return null;
+        }
+
+        start = Math.max(start, 0);
+        int end = Math.min(adnSnapshot.mRecords.length,
+                start + Math.min(count, positions.length));
+        List<AdnRecord> page = new ArrayList<AdnRecord>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            positions[i - start] = adnSnapshot.mPositions[i];
+            page.add(adnSnapshot.mRecords[i]);
+        }
+        return page;
+    }
+
     protected void checkThread() {
         if (!ALLOW_SIM_OP_IN_UI_THREAD) {
             // Make sure this isn't the UI thread, since it will block
@@ -21,7 +21,6 @@ import android.content.UriMatcher;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.MergeCursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.RemoteException;
 import android.os.ServiceManager;
@@ -32,7 +31,6 @@ import android.telephony.Rlog;
 
 import java.util.List;
 
-import com.android.internal.telephony.uicc.AdnRecord;
 import com.android.internal.telephony.uicc.IccConstants;
 
 
@@ -44,13 +42,6 @@ public class IccProvider extends ContentProvider {
     private static final boolean DBG = true;
 
 
-    private static final String[] ADDRESS_BOOK_COLUMN_NAMES = new String[] {
-        "name",
-        "number",
-        "emails",
-        "_id"
-    };
-
     protected static final int ADN = 1;
     protected static final int ADN_SUB = 2;
     protected static final int FDN = 3;
@@ -92,34 +83,34 @@ public class IccProvider extends ContentProvider {
         switch (URL_MATCHER.match(url)) {
             case ADN:
                 return loadFromEf(IccConstants.EF_ADN,
-                        SubscriptionManager.getDefaultSubscriptionId());
+                        SubscriptionManager.getDefaultSubscriptionId(), projection);
 
             case ADN_SUB:
-                return loadFromEf(IccConstants.EF_ADN, getRequestSubId(url));
+                return loadFromEf(IccConstants.EF_ADN, getRequestSubId(url), projection);
 
             case FDN:
                 return loadFromEf(IccConstants.EF_FDN,
-                        SubscriptionManager.getDefaultSubscriptionId());
+                        SubscriptionManager.getDefaultSubscriptionId(), projection);
 
             case FDN_SUB:
-                return loadFromEf(IccConstants.EF_FDN, getRequestSubId(url));
+                return loadFromEf(IccConstants.EF_FDN, getRequestSubId(url), projection);
 
             case SDN:
                 return loadFromEf(IccConstants.EF_SDN,
-                        SubscriptionManager.getDefaultSubscriptionId());
+                        SubscriptionManager.getDefaultSubscriptionId(), projection);
 
             case SDN_SUB:
-                return loadFromEf(IccConstants.EF_SDN, getRequestSubId(url));
+                return loadFromEf(IccConstants.EF_SDN, getRequestSubId(url), projection);
 
             case ADN_ALL:
-                return loadAllSimContacts(IccConstants.EF_ADN);
+                return loadAllSimContacts(IccConstants.EF_ADN, projection);
 
             default:
                 throw new IllegalArgumentException("Unknown URL " + url);
         }
     }
 
-    private Cursor loadAllSimContacts(int efType) {
+    private Cursor loadAllSimContacts(int efType, String[] projection) {
         Cursor [] result;
         List<SubscriptionInfo> subInfoList = mSubscriptionManager.getActiveSubscriptionInfoList();
 
@@ -132,7 +123,7 @@ public class IccProvider extends ContentProvider {
 
             for (int i = 0; i < subIdCount; i++) {
                 subId = subInfoList.get(i).getSubscriptionId();
-                result[i] = loadFromEf(efType, subId);
+                result[i] = loadFromEf(efType, subId, projection);
                 Rlog.i(TAG,"ADN Records loaded for Subscription ::" + subId);
             }
         }
@@ -390,37 +381,16 @@ public class IccProvider extends ContentProvider {
         return 1;
     }
 
-    private MatrixCursor loadFromEf(int efType, int subId) {
+    private Cursor loadFromEf(int efType, int subId, String[] projection) {
         if (DBG) log("loadFromEf: efType=0x" +
                 Integer.toHexString(efType).toUpperCase() + ", subscription=" + subId);
 
-        List<AdnRecord> adnRecords = null;
-        try {
-            IIccPhoneBook iccIpb = IIccPhoneBook.Stub.asInterface(
-                    ServiceManager.getService("simphonebook"));
-            if (iccIpb != null) {
-                adnRecords = iccIpb.getAdnRecordsInEfForSubscriber(subId, efType);
-            }
-        } catch (RemoteException ex) {
-            // ignore it
-        } catch (SecurityException ex) {
-            if (DBG) log(ex.toString());
-        }
-
-        if (adnRecords != null) {
-            // Load the results
-            final int N = adnRecords.size();
-            final MatrixCursor cursor = new MatrixCursor(ADDRESS_BOOK_COLUMN_NAMES, N);
-            if (DBG) log("adnRecords.size=" + N);
-            for (int i = 0; i < N ; i++) {
-                loadRecord(adnRecords.get(i), cursor, i);
-            }
-            return cursor;
-        } else {
-            // No results to load
-            Rlog.w(TAG, "Cannot load ADN records");
-            return new MatrixCursor(ADDRESS_BOOK_COLUMN_NAMES);
-        }
+        // The records are loaded in the background and fetched in pages as the cursor is read,
+        // so the loads of several subscriptions overlap
+        IIccPhoneBook iccIpb = IIccPhoneBook.Stub.asInterface(
+                ServiceManager.getService("simphonebook"));
+        return new AdnRecordCursor(iccIpb, subId, efType, projection,
+                AdnRecordCursor.DEFAULT_PAGE_SIZE);
     }
 
     private boolean
@@ -505,37 +475,6 @@ public class IccProvider extends ContentProvider {
         return success;
     }
 
-    /**
-     * Loads an AdnRecord into a MatrixCursor. Must be called with mLock held.
-     *
-     * @param record the ADN record to load from
-     * @param cursor the cursor to receive the results
-     */
-    private void loadRecord(AdnRecord record, MatrixCursor cursor, int id) {
-        if (!record.isEmpty()) {
-            Object[] contact = new Object[4];
-            String alphaTag = record.getAlphaTag();
-            String number = record.getNumber();
-
-            if (DBG) log("loadRecord: " + alphaTag + ", " + Rlog.pii(TAG, number));
-            contact[0] = alphaTag;
-            contact[1] = number;
-
-            String[] emails = record.getEmails();
-            if (emails != null) {
-                StringBuilder emailString = new StringBuilder();
-                for (String email: emails) {
-                    log("Adding email:" + Rlog.pii(TAG, email));
-                    emailString.append(email);
-                    emailString.append(",");
-                }
-                contact[2] = emailString.toString();
-            }
-            contact[3] = id;
-            cursor.addRow(contact);
-        }
-    }
-
     private void log(String msg) {
         Rlog.d(TAG, "[IccProvider] " + msg);
     }
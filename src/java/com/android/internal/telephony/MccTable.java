@@ -30,7 +30,6 @@ import android.util.Slog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -47,38 +46,31 @@ import libcore.icu.TimeZoneNames;
 public final class MccTable {
     static final String LOG_TAG = "MccTable";
 
-    static ArrayList<MccEntry> sTable;
+    /** Number of possible MCCs, 000 to 999 */
+    private static final int MCC_COUNT = 1000;
 
-    static class MccEntry implements Comparable<MccEntry> {
-        final int mMcc;
-        final String mIso;
-        final int mSmallestDigitsMnc;
+    /** ISO country code by MCC, null for unassigned MCCs */
+    private static final String[] sIsoByMcc = new String[MCC_COUNT];
 
-        MccEntry(int mnc, String iso, int smallestDigitsMCC) {
-            if (iso == null) {
-                throw new NullPointerException();
-            }
-            mMcc = mnc;
-            mIso = iso;
-            mSmallestDigitsMnc = smallestDigitsMCC;
-        }
-
-        @Override
-        public int compareTo(MccEntry o) {
-            return mMcc - o.mMcc;
-        }
-    }
+    /** Smallest number of MNC digits by MCC, 0 for unassigned MCCs */
+    private static final byte[] sSmallestDigitsMncByMcc = new byte[MCC_COUNT];
 
-    private static MccEntry entryForMcc(int mcc) {
-        MccEntry m = new MccEntry(mcc, "", 0);
+    /** Default time zone id by MCC, looked up on first use, "" if the country has none */
+    private static final String[] sDefaultTimeZoneByMcc = new String[MCC_COUNT];
 
-        int index = Collections.binarySearch(sTable, m);
+    private static void add(int mcc, String iso, int smallestDigitsMnc) {
+        sIsoByMcc[mcc] = iso.intern();
+        sSmallestDigitsMncByMcc[mcc] = (byte) smallestDigitsMnc;
+    }
 
-        if (index < 0) {
+    /**
+     * @return the ISO country code of the MCC, or null if it is not assigned
+     */
+    private static String isoForMcc(int mcc) {
+        if (mcc < 0 || mcc >= MCC_COUNT) {
             return null;
-        } else {
-            return sTable.get(index);
         }
+        return sIsoByMcc[mcc];
     }
 
     /**
@@ -87,14 +79,19 @@ public final class MccTable {
      * @return default TimeZone ID, or null if not specified
      */
     public static String defaultTimeZoneForMcc(int mcc) {
-        MccEntry entry = entryForMcc(mcc);
-        if (entry == null) {
+        String iso = isoForMcc(mcc);
+        if (iso == null) {
             return null;
         }
-        Locale locale = new Locale("", entry.mIso);
-        String[] tz = TimeZoneNames.forLocale(locale);
-        if (tz.length == 0) return null;
-        return tz[0];
+        // Racy but benign, all threads compute the same value
+        String zoneId = sDefaultTimeZoneByMcc[mcc];
+        if (zoneId == null) {
+            Locale locale = new Locale("", iso);
+            String[] tz = TimeZoneNames.forLocale(locale);
+            zoneId = tz.length == 0 ? "" : tz[0];
+            sDefaultTimeZoneByMcc[mcc] = zoneId;
+        }
+        return zoneId.isEmpty() ? null : zoneId;
     }
 
     /**
@@ -103,12 +100,12 @@ public final class MccTable {
      * Returns "" if unavailable.
      */
     public static String countryCodeForMcc(int mcc) {
-        MccEntry entry = entryForMcc(mcc);
+        String iso = isoForMcc(mcc);
 
-        if (entry == null) {
+        if (iso == null) {
             return "";
         } else {
-            return entry.mIso;
+            return iso;
         }
     }
 
@@ -118,14 +115,12 @@ public final class MccTable {
      * Returns null if unavailable.
      */
     public static String defaultLanguageForMcc(int mcc) {
-        MccEntry entry = entryForMcc(mcc);
-        if (entry == null) {
+        final String country = isoForMcc(mcc);
+        if (country == null) {
             Slog.d(LOG_TAG, "defaultLanguageForMcc(" + mcc + "): no country for mcc");
             return null;
         }
 
-        final String country = entry.mIso;
-
         // Choose English as the default language for India.
         if ("in".equals(country)) {
             return "en";
@@ -145,12 +140,10 @@ public final class MccTable {
      * Returns 2 if unavailable.
      */
     public static int smallestDigitsMccForMnc(int mcc) {
-        MccEntry entry = entryForMcc(mcc);
-
-        if (entry == null) {
+        if (isoForMcc(mcc) == null) {
             return 2;
         } else {
-            return entry.mSmallestDigitsMnc;
+            return sSmallestDigitsMncByMcc[mcc];
         }
     }
 
@@ -391,9 +384,6 @@ public final class MccTable {
     }
 
     static {
-        sTable = new ArrayList<MccEntry>(240);
-
-
         /*
          * The table below is built from two resources:
          *
@@ -408,247 +398,245 @@ public final class MccTable {
          * This table has not been verified.
          */
 
-		sTable.add(new MccEntry(202,"gr",2));	//Greece
-		sTable.add(new MccEntry(204,"nl",2));	//Netherlands (Kingdom of the)
-		sTable.add(new MccEntry(206,"be",2));	//Belgium
-		sTable.add(new MccEntry(208,"fr",2));	//France
-		sTable.add(new MccEntry(212,"mc",2));	//Monaco (Principality of)
-		sTable.add(new MccEntry(213,"ad",2));	//Andorra (Principality of)
-		sTable.add(new MccEntry(214,"es",2));	//Spain
-		sTable.add(new MccEntry(216,"hu",2));	//Hungary (Republic of)
-		sTable.add(new MccEntry(218,"ba",2));	//Bosnia and Herzegovina
-		sTable.add(new MccEntry(219,"hr",2));	//Croatia (Republic of)
-		sTable.add(new MccEntry(220,"rs",2));	//Serbia and Montenegro
-		sTable.add(new MccEntry(222,"it",2));	//Italy
-		sTable.add(new MccEntry(225,"va",2));	//Vatican City State
-		sTable.add(new MccEntry(226,"ro",2));	//Romania
-		sTable.add(new MccEntry(228,"ch",2));	//Switzerland (Confederation of)
-		sTable.add(new MccEntry(230,"cz",2));	//Czech Republic
-		sTable.add(new MccEntry(231,"sk",2));	//Slovak Republic
-		sTable.add(new MccEntry(232,"at",2));	//Austria
-		sTable.add(new MccEntry(234,"gb",2));	//United Kingdom of Great Britain and Northern Ireland
-		sTable.add(new MccEntry(235,"gb",2));	//United Kingdom of Great Britain and Northern Ireland
-		sTable.add(new MccEntry(238,"dk",2));	//Denmark
-		sTable.add(new MccEntry(240,"se",2));	//Sweden
-		sTable.add(new MccEntry(242,"no",2));	//Norway
-		sTable.add(new MccEntry(244,"fi",2));	//Finland
-		sTable.add(new MccEntry(246,"lt",2));	//Lithuania (Republic of)
-		sTable.add(new MccEntry(247,"lv",2));	//Latvia (Republic of)
-		sTable.add(new MccEntry(248,"ee",2));	//Estonia (Republic of)
-		sTable.add(new MccEntry(250,"ru",2));	//Russian Federation
-		sTable.add(new MccEntry(255,"ua",2));	//Ukraine
-		sTable.add(new MccEntry(257,"by",2));	//Belarus (Republic of)
-		sTable.add(new MccEntry(259,"md",2));	//Moldova (Republic of)
-		sTable.add(new MccEntry(260,"pl",2));	//Poland (Republic of)
-		sTable.add(new MccEntry(262,"de",2));	//Germany (Federal Republic of)
-		sTable.add(new MccEntry(266,"gi",2));	//Gibraltar
-		sTable.add(new MccEntry(268,"pt",2));	//Portugal
-		sTable.add(new MccEntry(270,"lu",2));	//Luxembourg
-		sTable.add(new MccEntry(272,"ie",2));	//Ireland
-		sTable.add(new MccEntry(274,"is",2));	//Iceland
-		sTable.add(new MccEntry(276,"al",2));	//Albania (Republic of)
-		sTable.add(new MccEntry(278,"mt",2));	//Malta
-		sTable.add(new MccEntry(280,"cy",2));	//Cyprus (Republic of)
-		sTable.add(new MccEntry(282,"ge",2));	//Georgia
-		sTable.add(new MccEntry(283,"am",2));	//Armenia (Republic of)
-		sTable.add(new MccEntry(284,"bg",2));	//Bulgaria (Republic of)
-		sTable.add(new MccEntry(286,"tr",2));	//Turkey
-		sTable.add(new MccEntry(288,"fo",2));	//Faroe Islands
-                sTable.add(new MccEntry(289,"ge",2));    //Abkhazia (Georgia)
-		sTable.add(new MccEntry(290,"gl",2));	//Greenland (Denmark)
-		sTable.add(new MccEntry(292,"sm",2));	//San Marino (Republic of)
-		sTable.add(new MccEntry(293,"si",2));	//Slovenia (Republic of)
-                sTable.add(new MccEntry(294,"mk",2));   //The Former Yugoslav Republic of Macedonia
-		sTable.add(new MccEntry(295,"li",2));	//Liechtenstein (Principality of)
-                sTable.add(new MccEntry(297,"me",2));    //Montenegro (Republic of)
-		sTable.add(new MccEntry(302,"ca",3));	//Canada
-		sTable.add(new MccEntry(308,"pm",2));	//Saint Pierre and Miquelon (Collectivit territoriale de la Rpublique franaise)
-		sTable.add(new MccEntry(310,"us",3));	//United States of America
-		sTable.add(new MccEntry(311,"us",3));	//United States of America
-		sTable.add(new MccEntry(312,"us",3));	//United States of America
-		sTable.add(new MccEntry(313,"us",3));	//United States of America
-		sTable.add(new MccEntry(314,"us",3));	//United States of America
-		sTable.add(new MccEntry(315,"us",3));	//United States of America
-		sTable.add(new MccEntry(316,"us",3));	//United States of America
-		sTable.add(new MccEntry(330,"pr",2));	//Puerto Rico
-		sTable.add(new MccEntry(332,"vi",2));	//United States Virgin Islands
-		sTable.add(new MccEntry(334,"mx",3));	//Mexico
-		sTable.add(new MccEntry(338,"jm",3));	//Jamaica
-		sTable.add(new MccEntry(340,"gp",2));	//Guadeloupe (French Department of)
-		sTable.add(new MccEntry(342,"bb",3));	//Barbados
-		sTable.add(new MccEntry(344,"ag",3));	//Antigua and Barbuda
-		sTable.add(new MccEntry(346,"ky",3));	//Cayman Islands
-		sTable.add(new MccEntry(348,"vg",3));	//British Virgin Islands
-		sTable.add(new MccEntry(350,"bm",2));	//Bermuda
-		sTable.add(new MccEntry(352,"gd",2));	//Grenada
-		sTable.add(new MccEntry(354,"ms",2));	//Montserrat
-		sTable.add(new MccEntry(356,"kn",2));	//Saint Kitts and Nevis
-		sTable.add(new MccEntry(358,"lc",2));	//Saint Lucia
-		sTable.add(new MccEntry(360,"vc",2));	//Saint Vincent and the Grenadines
-		sTable.add(new MccEntry(362,"ai",2));	//Netherlands Antilles
-		sTable.add(new MccEntry(363,"aw",2));	//Aruba
-		sTable.add(new MccEntry(364,"bs",2));	//Bahamas (Commonwealth of the)
-		sTable.add(new MccEntry(365,"ai",3));	//Anguilla
-		sTable.add(new MccEntry(366,"dm",2));	//Dominica (Commonwealth of)
-		sTable.add(new MccEntry(368,"cu",2));	//Cuba
-		sTable.add(new MccEntry(370,"do",2));	//Dominican Republic
-		sTable.add(new MccEntry(372,"ht",2));	//Haiti (Republic of)
-		sTable.add(new MccEntry(374,"tt",2));	//Trinidad and Tobago
-		sTable.add(new MccEntry(376,"tc",2));	//Turks and Caicos Islands
-		sTable.add(new MccEntry(400,"az",2));	//Azerbaijani Republic
-		sTable.add(new MccEntry(401,"kz",2));	//Kazakhstan (Republic of)
-		sTable.add(new MccEntry(402,"bt",2));	//Bhutan (Kingdom of)
-		sTable.add(new MccEntry(404,"in",2));	//India (Republic of)
-		sTable.add(new MccEntry(405,"in",2));	//India (Republic of)
-		sTable.add(new MccEntry(406,"in",2));	//India (Republic of)
-		sTable.add(new MccEntry(410,"pk",2));	//Pakistan (Islamic Republic of)
-		sTable.add(new MccEntry(412,"af",2));	//Afghanistan
-		sTable.add(new MccEntry(413,"lk",2));	//Sri Lanka (Democratic Socialist Republic of)
-		sTable.add(new MccEntry(414,"mm",2));	//Myanmar (Union of)
-		sTable.add(new MccEntry(415,"lb",2));	//Lebanon
-		sTable.add(new MccEntry(416,"jo",2));	//Jordan (Hashemite Kingdom of)
-		sTable.add(new MccEntry(417,"sy",2));	//Syrian Arab Republic
-		sTable.add(new MccEntry(418,"iq",2));	//Iraq (Republic of)
-		sTable.add(new MccEntry(419,"kw",2));	//Kuwait (State of)
-		sTable.add(new MccEntry(420,"sa",2));	//Saudi Arabia (Kingdom of)
-		sTable.add(new MccEntry(421,"ye",2));	//Yemen (Republic of)
-		sTable.add(new MccEntry(422,"om",2));	//Oman (Sultanate of)
-                sTable.add(new MccEntry(423,"ps",2));    //Palestine
-		sTable.add(new MccEntry(424,"ae",2));	//United Arab Emirates
-		sTable.add(new MccEntry(425,"il",2));	//Israel (State of)
-		sTable.add(new MccEntry(426,"bh",2));	//Bahrain (Kingdom of)
-		sTable.add(new MccEntry(427,"qa",2));	//Qatar (State of)
-		sTable.add(new MccEntry(428,"mn",2));	//Mongolia
-		sTable.add(new MccEntry(429,"np",2));	//Nepal
-		sTable.add(new MccEntry(430,"ae",2));	//United Arab Emirates
-		sTable.add(new MccEntry(431,"ae",2));	//United Arab Emirates
-		sTable.add(new MccEntry(432,"ir",2));	//Iran (Islamic Republic of)
-		sTable.add(new MccEntry(434,"uz",2));	//Uzbekistan (Republic of)
-		sTable.add(new MccEntry(436,"tj",2));	//Tajikistan (Republic of)
-		sTable.add(new MccEntry(437,"kg",2));	//Kyrgyz Republic
-		sTable.add(new MccEntry(438,"tm",2));	//Turkmenistan
-		sTable.add(new MccEntry(440,"jp",2));	//Japan
-		sTable.add(new MccEntry(441,"jp",2));	//Japan
-		sTable.add(new MccEntry(450,"kr",2));	//Korea (Republic of)
-		sTable.add(new MccEntry(452,"vn",2));	//Viet Nam (Socialist Republic of)
-		sTable.add(new MccEntry(454,"hk",2));	//"Hong Kong, China"
-		sTable.add(new MccEntry(455,"mo",2));	//"Macao, China"
-		sTable.add(new MccEntry(456,"kh",2));	//Cambodia (Kingdom of)
-		sTable.add(new MccEntry(457,"la",2));	//Lao People's Democratic Republic
-		sTable.add(new MccEntry(460,"cn",2));	//China (People's Republic of)
-		sTable.add(new MccEntry(461,"cn",2));	//China (People's Republic of)
-		sTable.add(new MccEntry(466,"tw",2));	//Taiwan
-		sTable.add(new MccEntry(467,"kp",2));	//Democratic People's Republic of Korea
-		sTable.add(new MccEntry(470,"bd",2));	//Bangladesh (People's Republic of)
-		sTable.add(new MccEntry(472,"mv",2));	//Maldives (Republic of)
-		sTable.add(new MccEntry(502,"my",2));	//Malaysia
-		sTable.add(new MccEntry(505,"au",2));	//Australia
-		sTable.add(new MccEntry(510,"id",2));	//Indonesia (Republic of)
-		sTable.add(new MccEntry(514,"tl",2));	//Democratic Republic of Timor-Leste
-		sTable.add(new MccEntry(515,"ph",2));	//Philippines (Republic of the)
-		sTable.add(new MccEntry(520,"th",2));	//Thailand
-		sTable.add(new MccEntry(525,"sg",2));	//Singapore (Republic of)
-		sTable.add(new MccEntry(528,"bn",2));	//Brunei Darussalam
-		sTable.add(new MccEntry(530,"nz",2));	//New Zealand
-		sTable.add(new MccEntry(534,"mp",2));	//Northern Mariana Islands (Commonwealth of the)
-		sTable.add(new MccEntry(535,"gu",2));	//Guam
-		sTable.add(new MccEntry(536,"nr",2));	//Nauru (Republic of)
-		sTable.add(new MccEntry(537,"pg",2));	//Papua New Guinea
-		sTable.add(new MccEntry(539,"to",2));	//Tonga (Kingdom of)
-		sTable.add(new MccEntry(540,"sb",2));	//Solomon Islands
-		sTable.add(new MccEntry(541,"vu",2));	//Vanuatu (Republic of)
-		sTable.add(new MccEntry(542,"fj",2));	//Fiji (Republic of)
-		sTable.add(new MccEntry(543,"wf",2));	//Wallis and Futuna (Territoire franais d'outre-mer)
-		sTable.add(new MccEntry(544,"as",2));	//American Samoa
-		sTable.add(new MccEntry(545,"ki",2));	//Kiribati (Republic of)
-		sTable.add(new MccEntry(546,"nc",2));	//New Caledonia (Territoire franais d'outre-mer)
-		sTable.add(new MccEntry(547,"pf",2));	//French Polynesia (Territoire franais d'outre-mer)
-		sTable.add(new MccEntry(548,"ck",2));	//Cook Islands
-		sTable.add(new MccEntry(549,"ws",2));	//Samoa (Independent State of)
-		sTable.add(new MccEntry(550,"fm",2));	//Micronesia (Federated States of)
-		sTable.add(new MccEntry(551,"mh",2));	//Marshall Islands (Republic of the)
-		sTable.add(new MccEntry(552,"pw",2));	//Palau (Republic of)
-		sTable.add(new MccEntry(553,"tv",2));	//Tuvalu
-		sTable.add(new MccEntry(555,"nu",2));	//Niue
-		sTable.add(new MccEntry(602,"eg",2));	//Egypt (Arab Republic of)
-		sTable.add(new MccEntry(603,"dz",2));	//Algeria (People's Democratic Republic of)
-		sTable.add(new MccEntry(604,"ma",2));	//Morocco (Kingdom of)
-		sTable.add(new MccEntry(605,"tn",2));	//Tunisia
-		sTable.add(new MccEntry(606,"ly",2));	//Libya (Socialist People's Libyan Arab Jamahiriya)
-		sTable.add(new MccEntry(607,"gm",2));	//Gambia (Republic of the)
-		sTable.add(new MccEntry(608,"sn",2));	//Senegal (Republic of)
-		sTable.add(new MccEntry(609,"mr",2));	//Mauritania (Islamic Republic of)
-		sTable.add(new MccEntry(610,"ml",2));	//Mali (Republic of)
-		sTable.add(new MccEntry(611,"gn",2));	//Guinea (Republic of)
-		sTable.add(new MccEntry(612,"ci",2));	//Côte d'Ivoire (Republic of)
-		sTable.add(new MccEntry(613,"bf",2));	//Burkina Faso
-		sTable.add(new MccEntry(614,"ne",2));	//Niger (Republic of the)
-		sTable.add(new MccEntry(615,"tg",2));	//Togolese Republic
-		sTable.add(new MccEntry(616,"bj",2));	//Benin (Republic of)
-		sTable.add(new MccEntry(617,"mu",2));	//Mauritius (Republic of)
-		sTable.add(new MccEntry(618,"lr",2));	//Liberia (Republic of)
-		sTable.add(new MccEntry(619,"sl",2));	//Sierra Leone
-		sTable.add(new MccEntry(620,"gh",2));	//Ghana
-		sTable.add(new MccEntry(621,"ng",2));	//Nigeria (Federal Republic of)
-		sTable.add(new MccEntry(622,"td",2));	//Chad (Republic of)
-		sTable.add(new MccEntry(623,"cf",2));	//Central African Republic
-		sTable.add(new MccEntry(624,"cm",2));	//Cameroon (Republic of)
-		sTable.add(new MccEntry(625,"cv",2));	//Cape Verde (Republic of)
-		sTable.add(new MccEntry(626,"st",2));	//Sao Tome and Principe (Democratic Republic of)
-		sTable.add(new MccEntry(627,"gq",2));	//Equatorial Guinea (Republic of)
-		sTable.add(new MccEntry(628,"ga",2));	//Gabonese Republic
-		sTable.add(new MccEntry(629,"cg",2));	//Congo (Republic of the)
-		sTable.add(new MccEntry(630,"cd",2));	//Democratic Republic of the Congo
-		sTable.add(new MccEntry(631,"ao",2));	//Angola (Republic of)
-		sTable.add(new MccEntry(632,"gw",2));	//Guinea-Bissau (Republic of)
-		sTable.add(new MccEntry(633,"sc",2));	//Seychelles (Republic of)
-		sTable.add(new MccEntry(634,"sd",2));	//Sudan (Republic of the)
-		sTable.add(new MccEntry(635,"rw",2));	//Rwanda (Republic of)
-		sTable.add(new MccEntry(636,"et",2));	//Ethiopia (Federal Democratic Republic of)
-		sTable.add(new MccEntry(637,"so",2));	//Somali Democratic Republic
-		sTable.add(new MccEntry(638,"dj",2));	//Djibouti (Republic of)
-		sTable.add(new MccEntry(639,"ke",2));	//Kenya (Republic of)
-		sTable.add(new MccEntry(640,"tz",2));	//Tanzania (United Republic of)
-		sTable.add(new MccEntry(641,"ug",2));	//Uganda (Republic of)
-		sTable.add(new MccEntry(642,"bi",2));	//Burundi (Republic of)
-		sTable.add(new MccEntry(643,"mz",2));	//Mozambique (Republic of)
-		sTable.add(new MccEntry(645,"zm",2));	//Zambia (Republic of)
-		sTable.add(new MccEntry(646,"mg",2));	//Madagascar (Republic of)
-		sTable.add(new MccEntry(647,"re",2));	//Reunion (French Department of)
-		sTable.add(new MccEntry(648,"zw",2));	//Zimbabwe (Republic of)
-		sTable.add(new MccEntry(649,"na",2));	//Namibia (Republic of)
-		sTable.add(new MccEntry(650,"mw",2));	//Malawi
-		sTable.add(new MccEntry(651,"ls",2));	//Lesotho (Kingdom of)
-		sTable.add(new MccEntry(652,"bw",2));	//Botswana (Republic of)
-		sTable.add(new MccEntry(653,"sz",2));	//Swaziland (Kingdom of)
-		sTable.add(new MccEntry(654,"km",2));	//Comoros (Union of the)
-		sTable.add(new MccEntry(655,"za",2));	//South Africa (Republic of)
-		sTable.add(new MccEntry(657,"er",2));	//Eritrea
-		sTable.add(new MccEntry(658,"sh",2));	//Saint Helena, Ascension and Tristan da Cunha
-		sTable.add(new MccEntry(659,"ss",2));	//South Sudan (Republic of)
-		sTable.add(new MccEntry(702,"bz",2));	//Belize
-		sTable.add(new MccEntry(704,"gt",2));	//Guatemala (Republic of)
-		sTable.add(new MccEntry(706,"sv",2));	//El Salvador (Republic of)
-		sTable.add(new MccEntry(708,"hn",3));	//Honduras (Republic of)
-		sTable.add(new MccEntry(710,"ni",2));	//Nicaragua
-		sTable.add(new MccEntry(712,"cr",2));	//Costa Rica
-		sTable.add(new MccEntry(714,"pa",2));	//Panama (Republic of)
-		sTable.add(new MccEntry(716,"pe",2));	//Peru
-		sTable.add(new MccEntry(722,"ar",3));	//Argentine Republic
-		sTable.add(new MccEntry(724,"br",2));	//Brazil (Federative Republic of)
-		sTable.add(new MccEntry(730,"cl",2));	//Chile
-		sTable.add(new MccEntry(732,"co",3));	//Colombia (Republic of)
-		sTable.add(new MccEntry(734,"ve",2));	//Venezuela (Bolivarian Republic of)
-		sTable.add(new MccEntry(736,"bo",2));	//Bolivia (Republic of)
-		sTable.add(new MccEntry(738,"gy",2));	//Guyana
-		sTable.add(new MccEntry(740,"ec",2));	//Ecuador
-		sTable.add(new MccEntry(742,"gf",2));	//French Guiana (French Department of)
-		sTable.add(new MccEntry(744,"py",2));	//Paraguay (Republic of)
-		sTable.add(new MccEntry(746,"sr",2));	//Suriname (Republic of)
-		sTable.add(new MccEntry(748,"uy",2));	//Uruguay (Eastern Republic of)
-		sTable.add(new MccEntry(750,"fk",2));	//Falkland Islands (Malvinas)
-        //table.add(new MccEntry(901,"",2));	//"International Mobile, shared code"
-
-        Collections.sort(sTable);
+		add(202,"gr",2);	//Greece
+		add(204,"nl",2);	//Netherlands (Kingdom of the)
+		add(206,"be",2);	//Belgium
+		add(208,"fr",2);	//France
+		add(212,"mc",2);	//Monaco (Principality of)
+		add(213,"ad",2);	//Andorra (Principality of)
+		add(214,"es",2);	//Spain
+		add(216,"hu",2);	//Hungary (Republic of)
+		add(218,"ba",2);	//Bosnia and Herzegovina
+		add(219,"hr",2);	//Croatia (Republic of)
+		add(220,"rs",2);	//Serbia and Montenegro
+		add(222,"it",2);	//Italy
+		add(225,"va",2);	//Vatican City State
+		add(226,"ro",2);	//Romania
+		add(228,"ch",2);	//Switzerland (Confederation of)
+		add(230,"cz",2);	//Czech Republic
+		add(231,"sk",2);	//Slovak Republic
+		add(232,"at",2);	//Austria
+		add(234,"gb",2);	//United Kingdom of Great Britain and Northern Ireland
+		add(235,"gb",2);	//United Kingdom of Great Britain and Northern Ireland
+		add(238,"dk",2);	//Denmark
+		add(240,"se",2);	//Sweden
+		add(242,"no",2);	//Norway
+		add(244,"fi",2);	//Finland
+		add(246,"lt",2);	//Lithuania (Republic of)
+		add(247,"lv",2);	//Latvia (Republic of)
+		add(248,"ee",2);	//Estonia (Republic of)
+		add(250,"ru",2);	//Russian Federation
+		add(255,"ua",2);	//Ukraine
+		add(257,"by",2);	//Belarus (Republic of)
+		add(259,"md",2);	//Moldova (Republic of)
+		add(260,"pl",2);	//Poland (Republic of)
+		add(262,"de",2);	//Germany (Federal Republic of)
+		add(266,"gi",2);	//Gibraltar
+		add(268,"pt",2);	//Portugal
+		add(270,"lu",2);	//Luxembourg
+		add(272,"ie",2);	//Ireland
+		add(274,"is",2);	//Iceland
+		add(276,"al",2);	//Albania (Republic of)
+		add(278,"mt",2);	//Malta
+		add(280,"cy",2);	//Cyprus (Republic of)
+		add(282,"ge",2);	//Georgia
+		add(283,"am",2);	//Armenia (Republic of)
+		add(284,"bg",2);	//Bulgaria (Republic of)
+		add(286,"tr",2);	//Turkey
+		add(288,"fo",2);	//Faroe Islands
+                add(289,"ge",2);    //Abkhazia (Georgia)
+		add(290,"gl",2);	//Greenland (Denmark)
+		add(292,"sm",2);	//San Marino (Republic of)
+		add(293,"si",2);	//Slovenia (Republic of)
+                add(294,"mk",2);   //The Former Yugoslav Republic of Macedonia
+		add(295,"li",2);	//Liechtenstein (Principality of)
+                add(297,"me",2);    //Montenegro (Republic of)
+		add(302,"ca",3);	//Canada
+		add(308,"pm",2);	//Saint Pierre and Miquelon (Collectivit territoriale de la Rpublique franaise)
+		add(310,"us",3);	//United States of America
+		add(311,"us",3);	//United States of America
+		add(312,"us",3);	//United States of America
+		add(313,"us",3);	//United States of America
+		add(314,"us",3);	//United States of America
+		add(315,"us",3);	//United States of America
+		add(316,"us",3);	//United States of America
+		add(330,"pr",2);	//Puerto Rico
+		add(332,"vi",2);	//United States Virgin Islands
+		add(334,"mx",3);	//Mexico
+		add(338,"jm",3);	//Jamaica
+		add(340,"gp",2);	//Guadeloupe (French Department of)
+		add(342,"bb",3);	//Barbados
+		add(344,"ag",3);	//Antigua and Barbuda
+		add(346,"ky",3);	//Cayman Islands
+		add(348,"vg",3);	//British Virgin Islands
+		add(350,"bm",2);	//Bermuda
+		add(352,"gd",2);	//Grenada
+		add(354,"ms",2);	//Montserrat
+		add(356,"kn",2);	//Saint Kitts and Nevis
+		add(358,"lc",2);	//Saint Lucia
+		add(360,"vc",2);	//Saint Vincent and the Grenadines
+		add(362,"ai",2);	//Netherlands Antilles
+		add(363,"aw",2);	//Aruba
+		add(364,"bs",2);	//Bahamas (Commonwealth of the)
+		add(365,"ai",3);	//Anguilla
+		add(366,"dm",2);	//Dominica (Commonwealth of)
+		add(368,"cu",2);	//Cuba
+		add(370,"do",2);	//Dominican Republic
+		add(372,"ht",2);	//Haiti (Republic of)
+		add(374,"tt",2);	//Trinidad and Tobago
+		add(376,"tc",2);	//Turks and Caicos Islands
+		add(400,"az",2);	//Azerbaijani Republic
+		add(401,"kz",2);	//Kazakhstan (Republic of)
+		add(402,"bt",2);	//Bhutan (Kingdom of)
+		add(404,"in",2);	//India (Republic of)
+		add(405,"in",2);	//India (Republic of)
+		add(406,"in",2);	//India (Republic of)
+		add(410,"pk",2);	//Pakistan (Islamic Republic of)
+		add(412,"af",2);	//Afghanistan
+		add(413,"lk",2);	//Sri Lanka (Democratic Socialist Republic of)
+		add(414,"mm",2);	//Myanmar (Union of)
+		add(415,"lb",2);	//Lebanon
+		add(416,"jo",2);	//Jordan (Hashemite Kingdom of)
+		add(417,"sy",2);	//Syrian Arab Republic
+		add(418,"iq",2);	//Iraq (Republic of)
+		add(419,"kw",2);	//Kuwait (State of)
+		add(420,"sa",2);	//Saudi Arabia (Kingdom of)
+		add(421,"ye",2);	//Yemen (Republic of)
+		add(422,"om",2);	//Oman (Sultanate of)
+                add(423,"ps",2);    //Palestine
+		add(424,"ae",2);	//United Arab Emirates
+		add(425,"il",2);	//Israel (State of)
+		add(426,"bh",2);	//Bahrain (Kingdom of)
+		add(427,"qa",2);	//Qatar (State of)
+		add(428,"mn",2);	//Mongolia
+		add(429,"np",2);	//Nepal
+		add(430,"ae",2);	//United Arab Emirates
+		add(431,"ae",2);	//United Arab Emirates
+		add(432,"ir",2);	//Iran (Islamic Republic of)
+		add(434,"uz",2);	//Uzbekistan (Republic of)
+		add(436,"tj",2);	//Tajikistan (Republic of)
+		add(437,"kg",2);	//Kyrgyz Republic
+		add(438,"tm",2);	//Turkmenistan
+		add(440,"jp",2);	//Japan
+		add(441,"jp",2);	//Japan
+		add(450,"kr",2);	//Korea (Republic of)
+		add(452,"vn",2);	//Viet Nam (Socialist Republic of)
+		add(454,"hk",2);	//"Hong Kong, China"
+		add(455,"mo",2);	//"Macao, China"
+		add(456,"kh",2);	//Cambodia (Kingdom of)
+		add(457,"la",2);	//Lao People's Democratic Republic
+		add(460,"cn",2);	//China (People's Republic of)
+		add(461,"cn",2);	//China (People's Republic of)
+		add(466,"tw",2);	//Taiwan
+		add(467,"kp",2);	//Democratic People's Republic of Korea
+		add(470,"bd",2);	//Bangladesh (People's Republic of)
+		add(472,"mv",2);	//Maldives (Republic of)
+		add(502,"my",2);	//Malaysia
+		add(505,"au",2);	//Australia
+		add(510,"id",2);	//Indonesia (Republic of)
+		add(514,"tl",2);	//Democratic Republic of Timor-Leste
+		add(515,"ph",2);	//Philippines (Republic of the)
+		add(520,"th",2);	//Thailand
+		add(525,"sg",2);	//Singapore (Republic of)
+		add(528,"bn",2);	//Brunei Darussalam
+		add(530,"nz",2);	//New Zealand
+		add(534,"mp",2);	//Northern Mariana Islands (Commonwealth of the)
+		add(535,"gu",2);	//Guam
+		add(536,"nr",2);	//Nauru (Republic of)
+		add(537,"pg",2);	//Papua New Guinea
+		add(539,"to",2);	//Tonga (Kingdom of)
+		add(540,"sb",2);	//Solomon Islands
+		add(541,"vu",2);	//Vanuatu (Republic of)
+		add(542,"fj",2);	//Fiji (Republic of)
+		add(543,"wf",2);	//Wallis and Futuna (Territoire franais d'outre-mer)
+		add(544,"as",2);	//American Samoa
+		add(545,"ki",2);	//Kiribati (Republic of)
+		add(546,"nc",2);	//New Caledonia (Territoire franais d'outre-mer)
+		add(547,"pf",2);	//French Polynesia (Territoire franais d'outre-mer)
+		add(548,"ck",2);	//Cook Islands
+		add(549,"ws",2);	//Samoa (Independent State of)
+		add(550,"fm",2);	//Micronesia (Federated States of)
+		add(551,"mh",2);	//Marshall Islands (Republic of the)
+		add(552,"pw",2);	//Palau (Republic of)
+		add(553,"tv",2);	//Tuvalu
+		add(555,"nu",2);	//Niue
+		add(602,"eg",2);	//Egypt (Arab Republic of)
+		add(603,"dz",2);	//Algeria (People's Democratic Republic of)
+		add(604,"ma",2);	//Morocco (Kingdom of)
+		add(605,"tn",2);	//Tunisia
+		add(606,"ly",2);	//Libya (Socialist People's Libyan Arab Jamahiriya)
+		add(607,"gm",2);	//Gambia (Republic of the)
+		add(608,"sn",2);	//Senegal (Republic of)
+		add(609,"mr",2);	//Mauritania (Islamic Republic of)
+		add(610,"ml",2);	//Mali (Republic of)
+		add(611,"gn",2);	//Guinea (Republic of)
+		add(612,"ci",2);	//Côte d'Ivoire (Republic of)
+		add(613,"bf",2);	//Burkina Faso
+		add(614,"ne",2);	//Niger (Republic of the)
+		add(615,"tg",2);	//Togolese Republic
+		add(616,"bj",2);	//Benin (Republic of)
+		add(617,"mu",2);	//Mauritius (Republic of)
+		add(618,"lr",2);	//Liberia (Republic of)
+		add(619,"sl",2);	//Sierra Leone
+		add(620,"gh",2);	//Ghana
+		add(621,"ng",2);	//Nigeria (Federal Republic of)
+		add(622,"td",2);	//Chad (Republic of)
+		add(623,"cf",2);	//Central African Republic
+		add(624,"cm",2);	//Cameroon (Republic of)
+		add(625,"cv",2);	//Cape Verde (Republic of)
+		add(626,"st",2);	//Sao Tome and Principe (Democratic Republic of)
+		add(627,"gq",2);	//Equatorial Guinea (Republic of)
+		add(628,"ga",2);	//Gabonese Republic
+		add(629,"cg",2);	//Congo (Republic of the)
+		add(630,"cd",2);	//Democratic Republic of the Congo
+		add(631,"ao",2);	//Angola (Republic of)
+		add(632,"gw",2);	//Guinea-Bissau (Republic of)
+		add(633,"sc",2);	//Seychelles (Republic of)
+		add(634,"sd",2);	//Sudan (Republic of the)
+		add(635,"rw",2);	//Rwanda (Republic of)
+		add(636,"et",2);	//Ethiopia (Federal Democratic Republic of)
+		add(637,"so",2);	//Somali Democratic Republic
+		add(638,"dj",2);	//Djibouti (Republic of)
+		add(639,"ke",2);	//Kenya (Republic of)
+		add(640,"tz",2);	//Tanzania (United Republic of)
+		add(641,"ug",2);	//Uganda (Republic of)
+		add(642,"bi",2);	//Burundi (Republic of)
+		add(643,"mz",2);	//Mozambique (Republic of)
+		add(645,"zm",2);	//Zambia (Republic of)
+		add(646,"mg",2);	//Madagascar (Republic of)
+		add(647,"re",2);	//Reunion (French Department of)
+		add(648,"zw",2);	//Zimbabwe (Republic of)
+		add(649,"na",2);	//Namibia (Republic of)
+		add(650,"mw",2);	//Malawi
+		add(651,"ls",2);	//Lesotho (Kingdom of)
+		add(652,"bw",2);	//Botswana (Republic of)
+		add(653,"sz",2);	//Swaziland (Kingdom of)
+		add(654,"km",2);	//Comoros (Union of the)
+		add(655,"za",2);	//South Africa (Republic of)
+		add(657,"er",2);	//Eritrea
+		add(658,"sh",2);	//Saint Helena, Ascension and Tristan da Cunha
+		add(659,"ss",2);	//South Sudan (Republic of)
+		add(702,"bz",2);	//Belize
+		add(704,"gt",2);	//Guatemala (Republic of)
+		add(706,"sv",2);	//El Salvador (Republic of)
+		add(708,"hn",3);	//Honduras (Republic of)
+		add(710,"ni",2);	//Nicaragua
+		add(712,"cr",2);	//Costa Rica
+		add(714,"pa",2);	//Panama (Republic of)
+		add(716,"pe",2);	//Peru
+		add(722,"ar",3);	//Argentine Republic
+		add(724,"br",2);	//Brazil (Federative Republic of)
+		add(730,"cl",2);	//Chile
+		add(732,"co",3);	//Colombia (Republic of)
+		add(734,"ve",2);	//Venezuela (Bolivarian Republic of)
+		add(736,"bo",2);	//Bolivia (Republic of)
+		add(738,"gy",2);	//Guyana
+		add(740,"ec",2);	//Ecuador
+		add(742,"gf",2);	//French Guiana (French Department of)
+		add(744,"py",2);	//Paraguay (Republic of)
+		add(746,"sr",2);	//Suriname (Republic of)
+		add(748,"uy",2);	//Uruguay (Eastern Republic of)
+		add(750,"fk",2);	//Falkland Islands (Malvinas)
+        //add(901,"",2);	//"International Mobile, shared code"
     }
 }
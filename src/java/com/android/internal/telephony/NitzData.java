@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * Parser for NITZ strings of the form "yy/mm/dd,hh:mm:ss(+/-)tz[,dt[,tzname]]" where tz is the
+ * offset from UTC in quarter hours, dt the DST adjustment in hours and tzname a time zone id
+ * with '/' replaced by '!', which only the emulator sends.
+ *
+ * The instance is reused for each NITZ string and parsing does not allocate, except for
+ * {@link #getEmulatorTimeZoneId}.
+ *
+ * {@hide}
+ */
+public final class NitzData {
+    private static final int MS_PER_QUARTER_HOUR = 15 * 60 * 1000;
+
+    private String mNitz;
+    private int mPos;
+
+    private int mYear;
+    private int mMonth;
+    private int mDay;
+    private int mHour;
+    private int mMinute;
+    private int mSecond;
+    private int mZoneOffset;
+    private int mDst;
+    private int mEmulatorZoneStart;
+
+    /**
+     * Parse a NITZ string, replacing the values of the previous one.
+     *
+     * @return false if the string is malformed
+     */
+    public boolean parse(String nitz) {
+        mNitz = nitz;
+        mPos = 0;
+        mDst = 0;
+        mEmulatorZoneStart = -1;
+
+        mYear = 2000 + readInt();
+        if (!skipSeparator()) return false;
+        mMonth = readInt();
+        if (!skipSeparator()) return false;
+        mDay = readInt();
+        if (!skipSeparator()) return false;
+        mHour = readInt();
+        if (!skipSeparator()) return false;
+        mMinute = readInt();
+        if (!skipSeparator()) return false;
+        mSecond = readInt();
+        if (mPos >= nitz.length()) return false;
+        char sign = nitz.charAt(mPos++);
+        if (sign != '+' && sign != '-') return false;
+        int quarterHours = readInt();
+        if (quarterHours < 0 || mMonth < 1 || mMonth > 12 || mYear < 2000 || mDay < 0
+                || mHour < 0 || mMinute < 0 || mSecond < 0) {
+            return false;
+        }
+        mZoneOffset = (sign == '+' ? 1 : -1) * quarterHours * MS_PER_QUARTER_HOUR;
+
+        // Optional DST adjustment and emulator time zone name
+        if (skipSeparator()) {
+            mDst = readInt();
+            if (mDst < 0) return false;
+            if (skipSeparator() && mPos < nitz.length()) {
+                mEmulatorZoneStart = mPos;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of the digits at mPos, or -1 if there are none
+     */
+    private int readInt() {
+        int start = mPos;
+        int value = 0;
+        while (mPos < mNitz.length()) {
+            char c = mNitz.charAt(mPos);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+            mPos++;
+        }
+        return mPos == start ? -1 : value;
+    }
+
+    private boolean skipSeparator() {
+        if (mPos >= mNitz.length()) return false;
+        switch (mNitz.charAt(mPos)) {
+            case '/':
+            case ':':
+            case ',':
+                mPos++;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public int getYear() {
+        return mYear;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch, in UTC
+     */
+    public long getUtcTimeMillis() {
+        // Days since the epoch of the proleptic Gregorian date, with years starting in March
+        // so the leap day is the last day of the year
+        int y = mYear - (mMonth <= 2 ? 1 : 0);
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * ((mMonth + 9) % 12) + 2) / 5 + mDay - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return (((days * 24 + mHour) * 60 + mMinute) * 60 + mSecond) * 1000;
+    }
+
+    /**
+     * @return offset from UTC in milliseconds, including the DST adjustment
+     */
+    public int getZoneOffset() {
+        return mZoneOffset;
+    }
+
+    /**
+     * @return DST adjustment in hours, 0 if the string doesn't have one
+     */
+    public int getDst() {
+        return mDst;
+    }
+
+    /**
+     * @return the time zone id the emulator appended, or null
+     */
+    public String getEmulatorTimeZoneId() {
+        if (mEmulatorZoneStart < 0) return null;
+        return mNitz.substring(mEmulatorZoneStart).replace('!', '/');
+    }
+
+    @Override
+    public String toString() {
+        return "NitzData{" + mNitz + " utc=" + getUtcTimeMillis() + " zoneOffset=" + mZoneOffset
+                + " dst=" + mDst + "}";
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.TimeUtils;
+
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Finds the time zone for the offset and DST flag of a NITZ, optionally restricted to a
+ * country.
+ *
+ * The zone ids of the tz database are indexed by raw offset once, shared by all instances.
+ * Each instance also remembers its last results keyed by (country ISO, offset, dst), as
+ * networks repeat the same NITZ values, so most lookups neither scan the tz database nor
+ * instantiate TimeZones. A remembered result is only used within the same quarter hour, as
+ * DST transitions change which zones match.
+ *
+ * Not thread safe, each ServiceStateTracker owns an instance.
+ *
+ * {@hide}
+ */
+public class NitzTimeZoneIndex {
+    private static final int MS_PER_HOUR = 60 * 60 * 1000;
+    private static final long RESULT_VALIDITY_MS = 15 * 60 * 1000;
+    private static final int MAX_RESULTS = 4;
+
+    /** Zone ids by raw offset, in tz database order */
+    private static final SparseArray<String[]> sZoneIdsByRawOffset = new SparseArray<>();
+
+    private final Result[] mResults = new Result[MAX_RESULTS];
+    private int mNextResult;
+
+    private long mLookupCount;
+    private long mHitCount;
+
+    private static class Result {
+        boolean valid;
+        String country;
+        int offset;
+        boolean dst;
+        long bucket;
+        String defaultZoneId;
+        TimeZone zone;
+    }
+
+    public NitzTimeZoneIndex() {
+        for (int i = 0; i < MAX_RESULTS; i++) {
+            mResults[i] = new Result();
+        }
+    }
+
+    private static String[] getZoneIds(int rawOffset) {
+        synchronized (sZoneIdsByRawOffset) {
+            String[] ids = sZoneIdsByRawOffset.get(rawOffset);
+            if (ids == null) {
+                ids = TimeZone.getAvailableIDs(rawOffset);
+                sZoneIdsByRawOffset.put(rawOffset, ids);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Find the first zone of the tz database with the offset and DST flag at the given time.
+     *
+     * @param offset offset from UTC in milliseconds, including DST
+     * @param dst whether DST is in effect
+     * @param when time in milliseconds since the epoch
+     * @return the zone or null if none matches
+     */
+    public TimeZone findTimeZone(int offset, boolean dst, long when) {
+        Result result = lookup(null, offset, dst, when, null);
+        if (result != null) return result.zone;
+
+        int rawOffset = offset;
+        if (dst) {
+            rawOffset -= MS_PER_HOUR;
+        }
+        TimeZone guess = null;
+        Date d = new Date(when);
+        for (String id : getZoneIds(rawOffset)) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            if (tz.getOffset(when) == offset && tz.inDaylightTime(d) == dst) {
+                guess = tz;
+                break;
+            }
+        }
+        remember(null, offset, dst, when, null, guess);
+        return guess;
+    }
+
+    /**
+     * Find a zone of the country with the offset and DST flag at the given time. See
+     * {@link TimeUtils#getTimeZone(int, boolean, long, String)}, which prefers the default zone
+     * if it matches, so the default zone is part of the key.
+     *
+     * @param country ISO country code, e.g. from {@link MccTable#countryCodeForMcc}
+     */
+    public TimeZone getTimeZone(int offset, boolean dst, long when, String country) {
+        String defaultZoneId = TimeZone.getDefault().getID();
+        Result result = lookup(country, offset, dst, when, defaultZoneId);
+        if (result != null) return result.zone;
+
+        TimeZone zone = TimeUtils.getTimeZone(offset, dst, when, country);
+        remember(country, offset, dst, when, defaultZoneId, zone);
+        return zone;
+    }
+
+    private Result lookup(String country, int offset, boolean dst, long when,
+            String defaultZoneId) {
+        mLookupCount++;
+        long bucket = when / RESULT_VALIDITY_MS;
+        for (Result result : mResults) {
+            if (result.valid && result.bucket == bucket && result.offset == offset
+                    && result.dst == dst && TextUtils.equals(result.country, country)
+                    && TextUtils.equals(result.defaultZoneId, defaultZoneId)) {
+                mHitCount++;
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private void remember(String country, int offset, boolean dst, long when,
+            String defaultZoneId, TimeZone zone) {
+        Result result = mResults[mNextResult];
+        mNextResult = (mNextResult + 1) % MAX_RESULTS;
+        result.valid = true;
+        result.country = country;
+        result.offset = offset;
+        result.dst = dst;
+        result.bucket = when / RESULT_VALIDITY_MS;
+        result.defaultZoneId = defaultZoneId;
+        result.zone = zone;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(" NitzTimeZoneIndex: lookups=" + mLookupCount + " hits=" + mHitCount);
+    }
+}
@@ -472,6 +472,14 @@ public class PhoneFactory {
         pw.decreaseIndent();
         pw.println("++++++++++++++++++++++++++++++++");
 
+        if (sPhoneNotifier instanceof DefaultPhoneNotifier) {
+            pw.increaseIndent();
+            ((DefaultPhoneNotifier) sPhoneNotifier).dump(fd, pw, args);
+            pw.flush();
+            pw.decreaseIndent();
+            pw.println("++++++++++++++++++++++++++++++++");
+        }
+
         pw.println("LocalLogs:");
         pw.increaseIndent();
         synchronized (sLocalLogs) {
@@ -50,6 +50,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -64,7 +66,12 @@ public class PhoneSwitcher extends Handler {
     private final static boolean VDBG = false;
 
     private final int mMaxActivePhones;
+    // Kept sorted by priority, highest first. Requests of equal priority are in arrival order.
     private final List<DcRequest> mPrioritizedDcRequests = new ArrayList<DcRequest>();
+    private final HashSet<DcRequest> mDcRequests = new HashSet<DcRequest>();
+    // Cache of phoneIdForRequest(), cleared whenever the subscriptions change
+    private final HashMap<DcRequest, Integer> mPhoneIdForDcRequest =
+            new HashMap<DcRequest, Integer>();
     private final RegistrantList[] mActivePhoneRegistrants;
     private final SubscriptionController mSubscriptionController;
     private final int[] mPhoneSubscriptions;
@@ -77,6 +84,17 @@ public class PhoneSwitcher extends Handler {
 
     private int mDefaultDataSubscription;
 
+    // Index in mPrioritizedDcRequests of the request which added the last active phone in the
+    // last evaluation. Requests behind it can't change the active phones. NO_CUTOFF if the
+    // requests didn't fill all active phones or the last evaluation was aborted.
+    private int mEvaluatedCutoff = NO_CUTOFF;
+    private static final int NO_CUTOFF = -1;
+
+    // Evaluation statistics, see dump()
+    private long mEvaluateCount;
+    private long mEvaluateSkippedCount;
+    private long mEvaluateTotalNanos;
+
     private final static int EVENT_DEFAULT_SUBSCRIPTION_CHANGED = 101;
     private final static int EVENT_SUBSCRIPTION_CHANGED         = 102;
     private final static int EVENT_REQUEST_NETWORK              = 103;
@@ -241,23 +259,41 @@ public class PhoneSwitcher extends Handler {
 
     private void onRequestNetwork(NetworkRequest networkRequest) {
         final DcRequest dcRequest = new DcRequest(networkRequest, mContext);
-        if (mPrioritizedDcRequests.contains(dcRequest) == false) {
-            mPrioritizedDcRequests.add(dcRequest);
-            Collections.sort(mPrioritizedDcRequests);
-            onEvaluate(REQUESTS_CHANGED, "netRequest");
+        if (mDcRequests.add(dcRequest)) {
+            // Insert behind all requests of the same or higher priority
+            int low = 0;
+            int high = mPrioritizedDcRequests.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mPrioritizedDcRequests.get(mid).compareTo(dcRequest) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            mPrioritizedDcRequests.add(low, dcRequest);
+            onEvaluate(REQUESTS_CHANGED, "netRequest", low);
         }
     }
 
     private void onReleaseNetwork(NetworkRequest networkRequest) {
         final DcRequest dcRequest = new DcRequest(networkRequest, mContext);
 
-        if (mPrioritizedDcRequests.remove(dcRequest)) {
-            onEvaluate(REQUESTS_CHANGED, "netReleased");
+        if (mDcRequests.remove(dcRequest)) {
+            int index = mPrioritizedDcRequests.indexOf(dcRequest);
+            mPrioritizedDcRequests.remove(index);
+            mPhoneIdForDcRequest.remove(dcRequest);
+            onEvaluate(REQUESTS_CHANGED, "netReleased", index);
         }
     }
 
     private static final boolean REQUESTS_CHANGED   = true;
     private static final boolean REQUESTS_UNCHANGED = false;
+
+    private void onEvaluate(boolean requestsChanged, String reason) {
+        onEvaluate(requestsChanged, reason, NO_CUTOFF);
+    }
+
     /**
      * Re-evaluate things.
      * Do nothing if nothing's changed.
@@ -266,21 +302,26 @@ public class PhoneSwitcher extends Handler {
      * until we've added up to the max allowed.  Then go through shutting down
      * phones that aren't in the active phone list.  Finally, activate all
      * phones in the active phone list.
+     *
+     * @param changedIndex index of the single request added or removed, or NO_CUTOFF if
+     *        unknown. Requests behind the last evaluation's cutoff are not evaluated again.
      */
-    private void onEvaluate(boolean requestsChanged, String reason) {
+    private void onEvaluate(boolean requestsChanged, String reason, int changedIndex) {
         StringBuilder sb = new StringBuilder(reason);
         if (isEmergency()) {
             log("onEvalute aborted due to Emergency");
+            mEvaluatedCutoff = NO_CUTOFF;
             return;
         }
 
+        final long startNanos = System.nanoTime();
         boolean diffDetected = requestsChanged;
+        boolean subDiffDetected = false;
         final int dataSub = mSubscriptionController.getDefaultDataSubId();
         if (dataSub != mDefaultDataSubscription) {
             sb.append(" default ").append(mDefaultDataSubscription).append("->").append(dataSub);
             mDefaultDataSubscription = dataSub;
-            diffDetected = true;
-
+            subDiffDetected = true;
         }
 
         for (int i = 0; i < mNumPhones; i++) {
@@ -289,21 +330,38 @@ public class PhoneSwitcher extends Handler {
                 sb.append(" phone[").append(i).append("] ").append(mPhoneSubscriptions[i]);
                 sb.append("->").append(sub);
                 mPhoneSubscriptions[i] = sub;
-                diffDetected = true;
+                subDiffDetected = true;
             }
         }
 
+        if (subDiffDetected) {
+            mPhoneIdForDcRequest.clear();
+            diffDetected = true;
+        } else if (requestsChanged && changedIndex != NO_CUTOFF
+                && mEvaluatedCutoff != NO_CUTOFF && changedIndex > mEvaluatedCutoff) {
+            // The request was added or removed behind the request which filled the last active
+            // phone slot, so the active phones can't change.
+            mEvaluateSkippedCount++;
+            if (VDBG) log("onEvaluate skipped " + reason + " index=" + changedIndex);
+            return;
+        }
+
         if (diffDetected) {
             log("evaluating due to " + sb.toString());
+            mEvaluateCount++;
 
-            List<Integer> newActivePhones = new ArrayList<Integer>();
+            List<Integer> newActivePhones = new ArrayList<Integer>(mMaxActivePhones);
 
-            for (DcRequest dcRequest : mPrioritizedDcRequests) {
-                int phoneIdForRequest = phoneIdForRequest(dcRequest.networkRequest);
+            mEvaluatedCutoff = NO_CUTOFF;
+            for (int i = 0; i < mPrioritizedDcRequests.size(); i++) {
+                int phoneIdForRequest = phoneIdForRequest(mPrioritizedDcRequests.get(i));
                 if (phoneIdForRequest == INVALID_PHONE_INDEX) continue;
                 if (newActivePhones.contains(phoneIdForRequest)) continue;
                 newActivePhones.add(phoneIdForRequest);
-                if (newActivePhones.size() >= mMaxActivePhones) break;
+                if (newActivePhones.size() >= mMaxActivePhones) {
+                    mEvaluatedCutoff = i;
+                    break;
+                }
             }
 
             if (VDBG) {
@@ -325,6 +383,7 @@ public class PhoneSwitcher extends Handler {
             for (int phoneId : newActivePhones) {
                 activate(phoneId);
             }
+            mEvaluateTotalNanos += System.nanoTime() - startNanos;
         }
     }
 
@@ -367,8 +426,11 @@ public class PhoneSwitcher extends Handler {
         mCommandsInterfaces[phoneId].setDataAllowed(mPhoneStates[phoneId].active, null);
     }
 
-    private int phoneIdForRequest(NetworkRequest netRequest) {
-        String specifier = netRequest.networkCapabilities.getNetworkSpecifier();
+    private int phoneIdForRequest(DcRequest dcRequest) {
+        Integer cachedPhoneId = mPhoneIdForDcRequest.get(dcRequest);
+        if (cachedPhoneId != null) return cachedPhoneId;
+
+        String specifier = dcRequest.networkRequest.networkCapabilities.getNetworkSpecifier();
         int subId;
 
         if (TextUtils.isEmpty(specifier)) {
@@ -377,14 +439,15 @@ public class PhoneSwitcher extends Handler {
             subId = Integer.parseInt(specifier);
         }
         int phoneId = INVALID_PHONE_INDEX;
-        if (subId == INVALID_SUBSCRIPTION_ID) return phoneId;
-
-        for (int i = 0 ; i < mNumPhones; i++) {
-            if (mPhoneSubscriptions[i] == subId) {
-                phoneId = i;
-                break;
+        if (subId != INVALID_SUBSCRIPTION_ID) {
+            for (int i = 0 ; i < mNumPhones; i++) {
+                if (mPhoneSubscriptions[i] == subId) {
+                    phoneId = i;
+                    break;
+                }
             }
         }
+        mPhoneIdForDcRequest.put(dcRequest, phoneId);
         return phoneId;
     }
 
@@ -393,6 +456,16 @@ public class PhoneSwitcher extends Handler {
         return mPhoneStates[phoneId].active;
     }
 
+    @VisibleForTesting
+    public int getCachedPhoneIdCount() {
+        return mPhoneIdForDcRequest.size();
+    }
+
+    @VisibleForTesting
+    public long getEvaluateSkippedCount() {
+        return mEvaluateSkippedCount;
+    }
+
     public void registerForActivePhoneSwitch(int phoneId, Handler h, int what, Object o) {
         validatePhoneId(phoneId);
         Registrant r = new Registrant(h, what, o);
@@ -427,6 +500,9 @@ public class PhoneSwitcher extends Handler {
                     (ps.lastRequested == 0 ? "never" :
                      String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c)));
         }
+        pw.println("requests=" + mPrioritizedDcRequests.size() + ", evaluations=" + mEvaluateCount
+                + ", skipped=" + mEvaluateSkippedCount + ", avgEvaluateUs="
+                + (mEvaluateCount == 0 ? 0 : mEvaluateTotalNanos / mEvaluateCount / 1000));
         pw.increaseIndent();
         mLocalLog.dump(fd, pw, args);
         pw.decreaseIndent();
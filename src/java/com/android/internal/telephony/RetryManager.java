@@ -23,7 +23,6 @@ import android.os.SystemProperties;
 import android.telephony.CarrierConfigManager;
 import android.telephony.Rlog;
 import android.text.TextUtils;
-import android.util.Pair;
 
 import com.android.internal.telephony.dataconnection.ApnSetting;
 
@@ -151,22 +150,9 @@ public class RetryManager {
     private int mSameApnRetryCount = 0;
 
     /**
-     * Retry record with times in milli-seconds
+     * The compiled retry schedule, shared with all other RetryManagers using the same config
      */
-    private static class RetryRec {
-        RetryRec(int delayTime, int randomizationTime) {
-            mDelayTime = delayTime;
-            mRandomizationTime = randomizationTime;
-        }
-
-        int mDelayTime;
-        int mRandomizationTime;
-    }
-
-    /**
-     * The array of retry records
-     */
-    private ArrayList<RetryRec> mRetryArray = new ArrayList<RetryRec>();
+    private RetrySchedule mSchedule = RetrySchedule.get(null);
 
     private Phone mPhone;
 
@@ -187,9 +173,9 @@ public class RetryManager {
 
     /**
      * Random number generator. The random delay will be added into retry timer to avoid all devices
-     * around retrying the APN at the same time.
+     * around retrying the APN at the same time. Shared by all instances.
      */
-    private Random mRng = new Random();
+    private static final Random sRng = new Random();
 
     /**
      * Retry manager configuration string. See top of the detailed explanation.
@@ -226,10 +212,8 @@ public class RetryManager {
      * Configure for using string which allow arbitrary
      * sequences of times. See class comments for the
      * string format.
-     *
-     * @return true if successful
      */
-    private boolean configure(String configStr) {
+    private void configure(String configStr) {
         // Strip quotes if present.
         if ((configStr.startsWith("\"") && configStr.endsWith("\""))) {
             configStr = configStr.substring(1, configStr.length() - 1);
@@ -241,73 +225,10 @@ public class RetryManager {
         if (DBG) log("configure: '" + configStr + "'");
         mConfig = configStr;
 
-        if (!TextUtils.isEmpty(configStr)) {
-            int defaultRandomization = 0;
-
-            if (VDBG) log("configure: not empty");
-
-            String strArray[] = configStr.split(",");
-            for (int i = 0; i < strArray.length; i++) {
-                if (VDBG) log("configure: strArray[" + i + "]='" + strArray[i] + "'");
-                Pair<Boolean, Integer> value;
-                String splitStr[] = strArray[i].split("=", 2);
-                splitStr[0] = splitStr[0].trim();
-                if (VDBG) log("configure: splitStr[0]='" + splitStr[0] + "'");
-                if (splitStr.length > 1) {
-                    splitStr[1] = splitStr[1].trim();
-                    if (VDBG) log("configure: splitStr[1]='" + splitStr[1] + "'");
-                    if (TextUtils.equals(splitStr[0], "default_randomization")) {
-                        value = parseNonNegativeInt(splitStr[0], splitStr[1]);
-                        if (!value.first) return false;
-                        defaultRandomization = value.second;
-                    } else if (TextUtils.equals(splitStr[0], "max_retries")) {
-                        if (TextUtils.equals("infinite", splitStr[1])) {
-                            mRetryForever = true;
-                        } else {
-                            value = parseNonNegativeInt(splitStr[0], splitStr[1]);
-                            if (!value.first) return false;
-                            mMaxRetryCount = value.second;
-                        }
-                    } else {
-                        Rlog.e(LOG_TAG, "Unrecognized configuration name value pair: "
-                                        + strArray[i]);
-                        return false;
-                    }
-                } else {
-                    /**
-                     * Assume a retry time with an optional randomization value
-                     * following a ":"
-                     */
-                    splitStr = strArray[i].split(":", 2);
-                    splitStr[0] = splitStr[0].trim();
-                    RetryRec rr = new RetryRec(0, 0);
-                    value = parseNonNegativeInt("delayTime", splitStr[0]);
-                    if (!value.first) return false;
-                    rr.mDelayTime = value.second;
-
-                    // Check if optional randomization value present
-                    if (splitStr.length > 1) {
-                        splitStr[1] = splitStr[1].trim();
-                        if (VDBG) log("configure: splitStr[1]='" + splitStr[1] + "'");
-                        value = parseNonNegativeInt("randomizationTime", splitStr[1]);
-                        if (!value.first) return false;
-                        rr.mRandomizationTime = value.second;
-                    } else {
-                        rr.mRandomizationTime = defaultRandomization;
-                    }
-                    mRetryArray.add(rr);
-                }
-            }
-            if (mRetryArray.size() > mMaxRetryCount) {
-                mMaxRetryCount = mRetryArray.size();
-                if (VDBG) log("configure: setting mMaxRetryCount=" + mMaxRetryCount);
-            }
-        } else {
-            log("configure: cleared");
-        }
-
-        if (VDBG) log("configure: true");
-        return true;
+        mSchedule = RetrySchedule.get(configStr);
+        mMaxRetryCount = mSchedule.getMaxRetryCount();
+        mRetryForever = mSchedule.isRetryForever();
+        if (VDBG) log("configure: " + mSchedule);
     }
 
     /**
@@ -394,78 +315,12 @@ public class RetryManager {
      * Return the timer that should be used to trigger the data reconnection
      */
     private int getRetryTimer() {
-        int index;
-        if (mRetryCount < mRetryArray.size()) {
-            index = mRetryCount;
-        } else {
-            index = mRetryArray.size() - 1;
-        }
-
-        int retVal;
-        if ((index >= 0) && (index < mRetryArray.size())) {
-            retVal = mRetryArray.get(index).mDelayTime + nextRandomizationTime(index);
-        } else {
-            retVal = 0;
-        }
+        int retVal = mSchedule.getRetryTimer(mRetryCount, sRng);
 
         if (DBG) log("getRetryTimer: " + retVal);
         return retVal;
     }
 
-    /**
-     * Parse an integer validating the value is not negative.
-     * @param name Name
-     * @param stringValue Value
-     * @return Pair.first == true if stringValue an integer >= 0
-     */
-    private Pair<Boolean, Integer> parseNonNegativeInt(String name, String stringValue) {
-        int value;
-        Pair<Boolean, Integer> retVal;
-        try {
-            value = Integer.parseInt(stringValue);
-            retVal = new Pair<Boolean, Integer>(validateNonNegativeInt(name, value), value);
-        } catch (NumberFormatException e) {
-            Rlog.e(LOG_TAG, name + " bad value: " + stringValue, e);
-            retVal = new Pair<Boolean, Integer>(false, 0);
-        }
-        if (VDBG) {
-            log("parseNonNetativeInt: " + name + ", " + stringValue + ", "
-                    + retVal.first + ", " + retVal.second);
-        }
-        return retVal;
-    }
-
-    /**
-     * Validate an integer is >= 0 and logs an error if not
-     * @param name Name
-     * @param value Value
-     * @return Pair.first
-     */
-    private boolean validateNonNegativeInt(String name, int value) {
-        boolean retVal;
-        if (value < 0) {
-            Rlog.e(LOG_TAG, name + " bad value: is < 0");
-            retVal = false;
-        } else {
-            retVal = true;
-        }
-        if (VDBG) log("validateNonNegative: " + name + ", " + value + ", " + retVal);
-        return retVal;
-    }
-
-    /**
-     * Return next random number for the index
-     * @param index Retry index
-     */
-    private int nextRandomizationTime(int index) {
-        int randomTime = mRetryArray.get(index).mRandomizationTime;
-        if (randomTime == 0) {
-            return 0;
-        } else {
-            return mRng.nextInt(randomTime);
-        }
-    }
-
     /**
      * Get the next APN setting for data call setup.
      * @return APN setting to try
@@ -595,7 +450,8 @@ public class RetryManager {
         mCurrentApnIndex = -1;
         mSameApnRetryCount = 0;
         mModemSuggestedDelay = NO_SUGGESTED_RETRY_DELAY;
-        mRetryArray.clear();
+        mRetryForever = false;
+        mSchedule = RetrySchedule.get(null);
     }
 
     /**
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, compiled form of a retry configuration string as described in
+ * {@link RetryManager}. Schedules are cached by their configuration string so all
+ * RetryManagers using the same carrier config share one instance and the string is only
+ * parsed once.
+ *
+ * {@hide}
+ */
+public final class RetrySchedule {
+    private static final String LOG_TAG = "RetrySchedule";
+    private static final boolean VDBG = false; // STOPSHIP if true
+
+    /**
+     * Upper bound of the cache. Carrier configs only define a handful of schedules so this is
+     * only reached when the config is changed over and over, e.g. from test properties.
+     */
+    private static final int MAX_CACHED_SCHEDULES = 32;
+
+    private static final ConcurrentHashMap<String, RetrySchedule> sSchedules =
+            new ConcurrentHashMap<>();
+
+    /** The configuration string this schedule was compiled from */
+    private final String mConfig;
+
+    /** Delay of each retry in milliseconds */
+    private final int[] mDelayTimes;
+
+    /** Upper bound of the random time added to each delay in milliseconds */
+    private final int[] mRandomizationTimes;
+
+    /** The maximum number of retries to attempt */
+    private final int mMaxRetryCount;
+
+    /** Whether to retry forever regardless of mMaxRetryCount */
+    private final boolean mRetryForever;
+
+    /**
+     * Get the compiled schedule for a configuration string.
+     *
+     * @param configStr the configuration string without APN type prefix and quotes
+     * @return the shared schedule, never null
+     */
+    public static RetrySchedule get(String configStr) {
+        if (configStr == null) configStr = "";
+        RetrySchedule schedule = sSchedules.get(configStr);
+        if (schedule == null) {
+            schedule = new RetrySchedule(configStr);
+            if (sSchedules.size() >= MAX_CACHED_SCHEDULES) {
+                sSchedules.clear();
+            }
+            RetrySchedule existing = sSchedules.putIfAbsent(configStr, schedule);
+            if (existing != null) {
+                schedule = existing;
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * Parse the configuration string. If it is malformed, the delays parsed before the bad
+     * value are kept.
+     */
+    private RetrySchedule(String configStr) {
+        mConfig = configStr;
+
+        int maxRetryCount = 0;
+        boolean retryForever = false;
+        int count = 0;
+        int[] delayTimes = new int[0];
+        int[] randomizationTimes = new int[0];
+
+        if (!TextUtils.isEmpty(configStr)) {
+            int defaultRandomization = 0;
+            boolean valid = true;
+
+            String strArray[] = configStr.split(",");
+            delayTimes = new int[strArray.length];
+            randomizationTimes = new int[strArray.length];
+            for (int i = 0; i < strArray.length && valid; i++) {
+                if (VDBG) log("strArray[" + i + "]='" + strArray[i] + "'");
+                String splitStr[] = strArray[i].split("=", 2);
+                splitStr[0] = splitStr[0].trim();
+                if (splitStr.length > 1) {
+                    splitStr[1] = splitStr[1].trim();
+                    if (TextUtils.equals(splitStr[0], "default_randomization")) {
+                        defaultRandomization = parseNonNegativeInt(splitStr[0], splitStr[1]);
+                        valid = defaultRandomization >= 0;
+                    } else if (TextUtils.equals(splitStr[0], "max_retries")) {
+                        if (TextUtils.equals("infinite", splitStr[1])) {
+                            retryForever = true;
+                        } else {
+                            int value = parseNonNegativeInt(splitStr[0], splitStr[1]);
+                            valid = value >= 0;
+                            if (valid) maxRetryCount = value;
+                        }
+                    } else {
+                        Rlog.e(LOG_TAG, "Unrecognized configuration name value pair: "
+                                + strArray[i]);
+                        valid = false;
+                    }
+                } else {
+                    // Assume a retry time with an optional randomization value following a ":"
+                    splitStr = strArray[i].split(":", 2);
+                    splitStr[0] = splitStr[0].trim();
+                    int delayTime = parseNonNegativeInt("delayTime", splitStr[0]);
+                    int randomizationTime = defaultRandomization;
+                    if (splitStr.length > 1) {
+                        randomizationTime =
+                                parseNonNegativeInt("randomizationTime", splitStr[1].trim());
+                    }
+                    valid = delayTime >= 0 && randomizationTime >= 0;
+                    if (valid) {
+                        delayTimes[count] = delayTime;
+                        randomizationTimes[count] = randomizationTime;
+                        count++;
+                    }
+                }
+            }
+            if (valid && count > maxRetryCount) {
+                maxRetryCount = count;
+            }
+        }
+
+        mDelayTimes = Arrays.copyOf(delayTimes, count);
+        mRandomizationTimes = Arrays.copyOf(randomizationTimes, count);
+        mMaxRetryCount = maxRetryCount;
+        mRetryForever = retryForever;
+        if (VDBG) log("compiled " + this);
+    }
+
+    /**
+     * Parse an integer validating the value is not negative.
+     * @return the value, or -1 if stringValue is not an integer >= 0
+     */
+    private static int parseNonNegativeInt(String name, String stringValue) {
+        try {
+            int value = Integer.parseInt(stringValue);
+            if (value < 0) {
+                Rlog.e(LOG_TAG, name + " bad value: is < 0");
+                return -1;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            Rlog.e(LOG_TAG, name + " bad value: " + stringValue, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Return the delay for a retry. Retries beyond the configured delays use the last one.
+     *
+     * @param retryCount the number of retries done so far
+     * @param rng random number generator for the randomization time
+     * @return the delay in milliseconds
+     */
+    public int getRetryTimer(int retryCount, Random rng) {
+        if (mDelayTimes.length == 0) return 0;
+
+        int index = Math.min(retryCount, mDelayTimes.length - 1);
+        int randomTime = mRandomizationTimes[index];
+        return mDelayTimes[index] + (randomTime == 0 ? 0 : rng.nextInt(randomTime));
+    }
+
+    /**
+     * @return the number of configured delays
+     */
+    public int getDelayCount() {
+        return mDelayTimes.length;
+    }
+
+    public int getMaxRetryCount() {
+        return mMaxRetryCount;
+    }
+
+    public boolean isRetryForever() {
+        return mRetryForever;
+    }
+
+    public String getConfig() {
+        return mConfig;
+    }
+
+    @Override
+    public String toString() {
+        return "RetrySchedule{config=" + mConfig + " delays=" + Arrays.toString(mDelayTimes)
+                + " randomization=" + Arrays.toString(mRandomizationTimes)
+                + " maxRetryCount=" + mMaxRetryCount + " retryForever=" + mRetryForever + "}";
+    }
+
+    private static void log(String s) {
+        Rlog.d(LOG_TAG, s);
+    }
+}
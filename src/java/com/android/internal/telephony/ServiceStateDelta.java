@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.ServiceState;
+import android.text.TextUtils;
+
+/**
+ * The fields that changed between two polled ServiceStates, computed once per poll by
+ * ServiceStateTracker. Immutable, so it can be passed to registrants as is.
+ *
+ * {@hide}
+ */
+public final class ServiceStateDelta {
+    public static final int VOICE_REG_STATE = 1 << 0;
+    public static final int DATA_REG_STATE  = 1 << 1;
+    public static final int VOICE_RAT       = 1 << 2;
+    public static final int DATA_RAT        = 1 << 3;
+    public static final int VOICE_ROAMING   = 1 << 4;
+    public static final int DATA_ROAMING    = 1 << 5;
+    /** Voice or data operator name or numeric */
+    public static final int OPERATOR        = 1 << 6;
+    /** The cell location, which is not part of ServiceState */
+    public static final int LOCATION        = 1 << 7;
+    /** Any other field of ServiceState */
+    public static final int OTHER           = 1 << 8;
+
+    /** Fields recorded by TelephonyMetrics */
+    public static final int METRICS_FIELDS =
+            VOICE_RAT | DATA_RAT | VOICE_ROAMING | DATA_ROAMING | OPERATOR;
+
+    /** Nothing changed */
+    public static final ServiceStateDelta NONE = new ServiceStateDelta();
+
+    private final int mChanged;
+    private final int mOldVoiceRegState;
+    private final int mNewVoiceRegState;
+    private final int mOldDataRegState;
+    private final int mNewDataRegState;
+    private final int mOldVoiceRat;
+    private final int mNewVoiceRat;
+    private final int mOldDataRat;
+    private final int mNewDataRat;
+    private final boolean mNewVoiceRoaming;
+    private final boolean mNewDataRoaming;
+
+    private ServiceStateDelta() {
+        mChanged = 0;
+        mOldVoiceRegState = mNewVoiceRegState = ServiceState.STATE_OUT_OF_SERVICE;
+        mOldDataRegState = mNewDataRegState = ServiceState.STATE_OUT_OF_SERVICE;
+        mOldVoiceRat = mNewVoiceRat = ServiceState.RIL_RADIO_TECHNOLOGY_UNKNOWN;
+        mOldDataRat = mNewDataRat = ServiceState.RIL_RADIO_TECHNOLOGY_UNKNOWN;
+        mNewVoiceRoaming = false;
+        mNewDataRoaming = false;
+    }
+
+    private ServiceStateDelta(int changed, ServiceState oldSS, ServiceState newSS) {
+        mChanged = changed;
+        mOldVoiceRegState = oldSS.getVoiceRegState();
+        mNewVoiceRegState = newSS.getVoiceRegState();
+        mOldDataRegState = oldSS.getDataRegState();
+        mNewDataRegState = newSS.getDataRegState();
+        mOldVoiceRat = oldSS.getRilVoiceRadioTechnology();
+        mNewVoiceRat = newSS.getRilVoiceRadioTechnology();
+        mOldDataRat = oldSS.getRilDataRadioTechnology();
+        mNewDataRat = newSS.getRilDataRadioTechnology();
+        mNewVoiceRoaming = newSS.getVoiceRoaming();
+        mNewDataRoaming = newSS.getDataRoaming();
+    }
+
+    /**
+     * @param oldSS the current service state
+     * @param newSS the polled service state
+     * @param locationChanged whether the cell location changed
+     * @return the delta, {@link #NONE} if nothing changed
+     */
+    public static ServiceStateDelta compute(ServiceState oldSS, ServiceState newSS,
+            boolean locationChanged) {
+        int changed = 0;
+        if (oldSS.getVoiceRegState() != newSS.getVoiceRegState()) changed |= VOICE_REG_STATE;
+        if (oldSS.getDataRegState() != newSS.getDataRegState()) changed |= DATA_REG_STATE;
+        if (oldSS.getRilVoiceRadioTechnology() != newSS.getRilVoiceRadioTechnology()) {
+            changed |= VOICE_RAT;
+        }
+        if (oldSS.getRilDataRadioTechnology() != newSS.getRilDataRadioTechnology()) {
+            changed |= DATA_RAT;
+        }
+        if (oldSS.getVoiceRoaming() != newSS.getVoiceRoaming()) changed |= VOICE_ROAMING;
+        if (oldSS.getDataRoaming() != newSS.getDataRoaming()) changed |= DATA_ROAMING;
+        if (!TextUtils.equals(oldSS.getVoiceOperatorAlphaLong(),
+                        newSS.getVoiceOperatorAlphaLong())
+                || !TextUtils.equals(oldSS.getVoiceOperatorAlphaShort(),
+                        newSS.getVoiceOperatorAlphaShort())
+                || !TextUtils.equals(oldSS.getVoiceOperatorNumeric(),
+                        newSS.getVoiceOperatorNumeric())
+                || !TextUtils.equals(oldSS.getDataOperatorAlphaLong(),
+                        newSS.getDataOperatorAlphaLong())
+                || !TextUtils.equals(oldSS.getDataOperatorAlphaShort(),
+                        newSS.getDataOperatorAlphaShort())
+                || !TextUtils.equals(oldSS.getDataOperatorNumeric(),
+                        newSS.getDataOperatorNumeric())) {
+            changed |= OPERATOR;
+        }
+        if (changed == 0 && !newSS.equals(oldSS)) changed |= OTHER;
+        if (locationChanged) changed |= LOCATION;
+        if (changed == 0) return NONE;
+        return new ServiceStateDelta(changed, oldSS, newSS);
+    }
+
+    /**
+     * @return bitmask of the changed fields
+     */
+    public int getChangedFields() {
+        return mChanged;
+    }
+
+    /**
+     * @return true if any of the fields changed
+     */
+    public boolean has(int fields) {
+        return (mChanged & fields) != 0;
+    }
+
+    /**
+     * @return true if neither the service state nor the cell location changed
+     */
+    public boolean isEmpty() {
+        return mChanged == 0;
+    }
+
+    /**
+     * @return true if the service state changed, i.e. it has to be broadcast
+     */
+    public boolean hasServiceStateChanged() {
+        return (mChanged & ~LOCATION) != 0;
+    }
+
+    public boolean hasVoiceRegistered() {
+        return has(VOICE_REG_STATE) && mNewVoiceRegState == ServiceState.STATE_IN_SERVICE;
+    }
+
+    public boolean hasVoiceDeregistered() {
+        return has(VOICE_REG_STATE) && mOldVoiceRegState == ServiceState.STATE_IN_SERVICE;
+    }
+
+    public boolean hasDataAttached() {
+        return has(DATA_REG_STATE) && mNewDataRegState == ServiceState.STATE_IN_SERVICE;
+    }
+
+    public boolean hasDataDetached() {
+        return has(DATA_REG_STATE) && mOldDataRegState == ServiceState.STATE_IN_SERVICE;
+    }
+
+    public boolean hasVoiceRoamingOn() {
+        return has(VOICE_ROAMING) && mNewVoiceRoaming;
+    }
+
+    public boolean hasVoiceRoamingOff() {
+        return has(VOICE_ROAMING) && !mNewVoiceRoaming;
+    }
+
+    public boolean hasDataRoamingOn() {
+        return has(DATA_ROAMING) && mNewDataRoaming;
+    }
+
+    public boolean hasDataRoamingOff() {
+        return has(DATA_ROAMING) && !mNewDataRoaming;
+    }
+
+    public int getOldVoiceRat() {
+        return mOldVoiceRat;
+    }
+
+    public int getNewVoiceRat() {
+        return mNewVoiceRat;
+    }
+
+    public int getOldDataRat() {
+        return mOldDataRat;
+    }
+
+    public int getNewDataRat() {
+        return mNewDataRat;
+    }
+
+    @Override
+    public String toString() {
+        if (mChanged == 0) return "ServiceStateDelta{}";
+        StringBuilder sb = new StringBuilder("ServiceStateDelta{");
+        if (has(VOICE_REG_STATE)) {
+            sb.append(" voiceRegState=").append(mOldVoiceRegState).append("->")
+                    .append(mNewVoiceRegState);
+        }
+        if (has(DATA_REG_STATE)) {
+            sb.append(" dataRegState=").append(mOldDataRegState).append("->")
+                    .append(mNewDataRegState);
+        }
+        if (has(VOICE_RAT)) sb.append(" voiceRat=").append(mOldVoiceRat).append("->")
+                .append(mNewVoiceRat);
+        if (has(DATA_RAT)) sb.append(" dataRat=").append(mOldDataRat).append("->")
+                .append(mNewDataRat);
+        if (has(VOICE_ROAMING)) sb.append(" voiceRoaming=").append(mNewVoiceRoaming);
+        if (has(DATA_ROAMING)) sb.append(" dataRoaming=").append(mNewDataRoaming);
+        if (has(OPERATOR)) sb.append(" operator");
+        if (has(LOCATION)) sb.append(" location");
+        if (has(OTHER)) sb.append(" other");
+        return sb.append(" }").toString();
+    }
+}
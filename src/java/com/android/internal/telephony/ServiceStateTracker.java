@@ -74,8 +74,6 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -114,8 +112,22 @@ public class ServiceStateTracker extends Handler {
     private ServiceState mNewSS;
 
     private static final long LAST_CELL_INFO_LIST_MAX_AGE_MS = 2000;
+    private static final long CELL_INFO_LIST_TIMEOUT_MS = 5000;
+    /** Cell info lists younger than this are returned without asking the modem */
+    private final long mCellInfoListMaxAgeMs = SystemProperties.getLong(
+            "ro.telephony.cell_info_max_age", LAST_CELL_INFO_LIST_MAX_AGE_MS);
+    /** Guards the cell info list, the request in flight and the counters below */
+    private final Object mCellInfoLock = new Object();
     private long mLastCellInfoListTime;
     private List<CellInfo> mLastCellInfoList = null;
+    /** The RIL_REQUEST_GET_CELL_INFO_LIST in flight, joined by all concurrent callers */
+    private CellInfoResult mPendingCellInfoResult;
+    private long mCellInfoRequestsIssued;
+    private long mCellInfoRequestsJoined;
+    private long mCellInfoCacheHits;
+    private long mCellInfoTimeouts;
+    private long mCellInfoWaitTimeTotalMs;
+    private long mCellInfoWaitTimeMaxMs;
 
     private SignalStrength mSignalStrength;
 
@@ -138,6 +150,17 @@ public class ServiceStateTracker extends Handler {
      * expected responses in this pollingContext.
      */
     private int[] mPollingContext;
+
+    /** Triggers within this window are merged into a single pollState() */
+    private static final int POLL_STATE_COALESCE_MILLIS = 20;
+    private final int mPollStateCoalesceMs = SystemProperties.getInt(
+            "ro.telephony.poll_state_coalesce", POLL_STATE_COALESCE_MILLIS);
+    /** Whether any of the triggers merged into the pending EVENT_POLL_STATE_REQUEST was modem
+     * triggered */
+    private boolean mPendingPollModemTriggered;
+    private long mPollStateTriggeredCount;
+    private long mPollStateIssuedCount;
+    private long mPollStateDiscardedCount;
     private boolean mDesiredPowerState;
 
     /**
@@ -155,6 +178,9 @@ public class ServiceStateTracker extends Handler {
     protected RegistrantList mDetachedRegistrants = new RegistrantList();
     private RegistrantList mDataRegStateOrRatChangedRegistrants = new RegistrantList();
     private RegistrantList mNetworkAttachedRegistrants = new RegistrantList();
+    private RegistrantList mServiceStateDeltaRegistrants = new RegistrantList();
+    /** Number of polls that didn't change the service state or cell location */
+    private int mUnchangedPollCount;
     private RegistrantList mPsRestrictEnabledRegistrants = new RegistrantList();
     private RegistrantList mPsRestrictDisabledRegistrants = new RegistrantList();
 
@@ -164,6 +190,17 @@ public class ServiceStateTracker extends Handler {
 
     /** Signal strength poll rate. */
     private static final int POLL_PERIOD_MILLIS = 20 * 1000;
+    /** Signal strength poll rate while the screen is off. */
+    private static final int IDLE_POLL_PERIOD_MILLIS = 2 * 60 * 1000;
+    /** Signal strength polls are aligned to multiples of this. */
+    private static final int POLL_ALIGNMENT_MILLIS = 5 * 1000;
+    private SignalStrengthPollScheduler mSignalStrengthPollScheduler =
+            new SignalStrengthPollScheduler(
+                    SystemProperties.getInt("ro.telephony.ss_poll_period", POLL_PERIOD_MILLIS),
+                    SystemProperties.getInt("ro.telephony.ss_poll_period_idle",
+                            IDLE_POLL_PERIOD_MILLIS),
+                    SystemProperties.getInt("ro.telephony.ss_poll_alignment",
+                            POLL_ALIGNMENT_MILLIS));
 
     /** Waiting period before recheck gprs and voice registration. */
     public static final int DEFAULT_GPRS_CHECK_PERIOD_MILLIS = 60 * 1000;
@@ -211,6 +248,8 @@ public class ServiceStateTracker extends Handler {
     protected static final int EVENT_IMS_CAPABILITY_CHANGED            = 48;
     protected static final int EVENT_ALL_DATA_DISCONNECTED             = 49;
     protected static final int EVENT_PHONE_TYPE_SWITCHED               = 50;
+    protected static final int EVENT_DEFERRED_SIGNAL_STRENGTH          = 51;
+    protected static final int EVENT_POLL_STATE_REQUEST                = 52;
 
     protected static final String TIMEZONE_PROPERTY = "persist.sys.timezone";
 
@@ -245,6 +284,7 @@ public class ServiceStateTracker extends Handler {
 
     private class CellInfoResult {
         List<CellInfo> list;
+        boolean done;
         Object lockObj = new Object();
     }
 
@@ -372,6 +412,9 @@ public class ServiceStateTracker extends Handler {
     private int mZoneOffset;
     private boolean mZoneDst;
     private long mZoneTime;
+    /** Reused for each NITZ string */
+    private final NitzData mNitzData = new NitzData();
+    private final NitzTimeZoneIndex mNitzTimeZoneIndex = new NitzTimeZoneIndex();
     private boolean mGotCountryCode = false;
     private String mSavedTimeZone;
     private long mSavedTime;
@@ -469,6 +512,29 @@ public class ServiceStateTracker extends Handler {
     public static final int NITZ_UPDATE_DIFF_DEFAULT = 2000;
     private int mNitzUpdateDiff = SystemProperties.getInt("ro.nitz_update_diff",
             NITZ_UPDATE_DIFF_DEFAULT);
+    /** Minimum dBm change notified when the signal level stays the same */
+    public static final int SIGNAL_STRENGTH_HYSTERESIS_DBM_DEFAULT = 2;
+    /** Minimum time between signal strength notifications while the screen is on */
+    public static final int SIGNAL_STRENGTH_MIN_INTERVAL_DEFAULT = 1000;
+    /** Minimum time between signal strength notifications while the screen is off */
+    public static final int SIGNAL_STRENGTH_MIN_INTERVAL_SCREEN_OFF_DEFAULT = 10 * 1000;
+    private final SignalStrengthCoalescer mSignalStrengthCoalescer = new SignalStrengthCoalescer(
+            SystemProperties.getInt("ro.telephony.ss_hysteresis_dbm",
+                    SIGNAL_STRENGTH_HYSTERESIS_DBM_DEFAULT),
+            SystemProperties.getInt("ro.telephony.ss_min_interval",
+                    SIGNAL_STRENGTH_MIN_INTERVAL_DEFAULT),
+            SystemProperties.getInt("ro.telephony.ss_min_interval_screen_off",
+                    SIGNAL_STRENGTH_MIN_INTERVAL_SCREEN_OFF_DEFAULT));
+    private BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                onScreenStateChanged(true);
+            } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                onScreenStateChanged(false);
+            }
+        }
+    };
     private int mRoamingIndicator;
     private boolean mIsInPrl;
     private int mDefaultRoamingIndicator;
@@ -545,6 +611,15 @@ public class ServiceStateTracker extends Handler {
         filter.addAction(ACTION_RADIO_OFF);
         context.registerReceiver(mIntentReceiver, filter);
 
+        // Monitor screen state to rate limit signal strength notifications and polls
+        boolean screenOn = powerManager.isInteractive();
+        mSignalStrengthCoalescer.setScreenOn(screenOn);
+        mSignalStrengthPollScheduler.setScreenOn(screenOn);
+        filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        context.registerReceiver(mScreenStateReceiver, filter);
+
         mPhone.notifyOtaspChanged(OTASP_UNINITIALIZED);
 
         updatePhoneType();
@@ -554,9 +629,13 @@ public class ServiceStateTracker extends Handler {
     public void updatePhoneType() {
         mSS = new ServiceState();
         mNewSS = new ServiceState();
-        mLastCellInfoListTime = 0;
-        mLastCellInfoList = null;
+        synchronized (mCellInfoLock) {
+            mLastCellInfoListTime = 0;
+            mLastCellInfoList = null;
+        }
         mSignalStrength = new SignalStrength();
+        mSignalStrengthCoalescer.reset();
+        removeMessages(EVENT_DEFERRED_SIGNAL_STRENGTH);
         mRestrictedState = new RestrictedState();
         mStartedGprsRegCheck = false;
         mReportedGprsNoReg = false;
@@ -646,6 +725,8 @@ public class ServiceStateTracker extends Handler {
         mSubscriptionManager
             .removeOnSubscriptionsChangedListener(mOnSubscriptionsChangedListener);
         mCi.unregisterForImsNetworkStateChanged(this);
+        mPhone.getContext().unregisterReceiver(mScreenStateReceiver);
+        removeMessages(EVENT_DEFERRED_SIGNAL_STRENGTH);
     }
 
     public boolean getDesiredPowerState() {
@@ -654,20 +735,67 @@ public class ServiceStateTracker extends Handler {
     public boolean getPowerStateFromCarrier() { return !mRadioDisabledByCarrier; }
 
     private SignalStrength mLastSignalStrength = null;
+
+    /**
+     * Notify the new signal strength, unless the change is too small or it comes too soon
+     * after the last notification. A notification that comes too soon is deferred and then
+     * carries the latest signal strength.
+     *
+     * @return true if the signal strength was notified
+     */
     protected boolean notifySignalStrength() {
+        long delay = mSignalStrengthCoalescer.onSignalStrength(mSignalStrength,
+                SystemClock.elapsedRealtime());
+        if (delay == SignalStrengthCoalescer.DELIVER_NOW) {
+            removeMessages(EVENT_DEFERRED_SIGNAL_STRENGTH);
+            return doNotifySignalStrength();
+        }
+        if (delay > 0) {
+            sendMessageDelayed(obtainMessage(EVENT_DEFERRED_SIGNAL_STRENGTH), delay);
+        }
+        return false;
+    }
+
+    private boolean doNotifySignalStrength() {
         boolean notified = false;
-        if (!mSignalStrength.equals(mLastSignalStrength)) {
-            try {
-                mPhone.notifySignalStrength();
-                notified = true;
-            } catch (NullPointerException ex) {
-                loge("updateSignalStrength() Phone already destroyed: " + ex
-                        + "SignalStrength not notified");
-            }
+        try {
+            mPhone.notifySignalStrength();
+            mLastSignalStrength = new SignalStrength(mSignalStrength);
+            notified = true;
+        } catch (NullPointerException ex) {
+            loge("updateSignalStrength() Phone already destroyed: " + ex
+                    + "SignalStrength not notified");
         }
         return notified;
     }
 
+    private void onScreenStateChanged(boolean screenOn) {
+        if (DBG) log("onScreenStateChanged: screenOn=" + screenOn);
+        if (mSignalStrengthCoalescer.setScreenOn(screenOn)) {
+            // Deferred with the screen off interval, deliver it now
+            removeMessages(EVENT_DEFERRED_SIGNAL_STRENGTH);
+            sendMessage(obtainMessage(EVENT_DEFERRED_SIGNAL_STRENGTH));
+        }
+        mSignalStrengthPollScheduler.setScreenOn(screenOn);
+        if (screenOn) pollSignalStrengthNowIfScheduled();
+    }
+
+    @VisibleForTesting
+    public void setSignalStrengthPollScheduler(SignalStrengthPollScheduler scheduler) {
+        mSignalStrengthPollScheduler = scheduler;
+    }
+
+    /**
+     * Replace a poll scheduled at the idle period with one right away, so the signal strength
+     * is fresh when polling speeds up again.
+     */
+    private void pollSignalStrengthNowIfScheduled() {
+        if (hasMessages(EVENT_POLL_SIGNAL_STRENGTH)) {
+            removeMessages(EVENT_POLL_SIGNAL_STRENGTH);
+            sendMessage(obtainMessage(EVENT_POLL_SIGNAL_STRENGTH));
+        }
+    }
+
     /**
      * Notify all mDataConnectionRatChangeRegistrants using an
      * AsyncResult in msg.obj where AsyncResult#result contains the
@@ -894,21 +1022,28 @@ public class ServiceStateTracker extends Handler {
             case EVENT_GET_CELL_INFO_LIST: {
                 ar = (AsyncResult) msg.obj;
                 CellInfoResult result = (CellInfoResult) ar.userObj;
-                synchronized(result.lockObj) {
-                    if (ar.exception != null) {
-                        log("EVENT_GET_CELL_INFO_LIST: error ret null, e=" + ar.exception);
-                        result.list = null;
-                    } else {
-                        result.list = (List<CellInfo>) ar.result;
+                List<CellInfo> list = null;
+                if (ar.exception != null) {
+                    log("EVENT_GET_CELL_INFO_LIST: error ret null, e=" + ar.exception);
+                } else {
+                    list = (List<CellInfo>) ar.result;
 
-                        if (VDBG) {
-                            log("EVENT_GET_CELL_INFO_LIST: size=" + result.list.size()
-                                    + " list=" + result.list);
-                        }
+                    if (VDBG) {
+                        log("EVENT_GET_CELL_INFO_LIST: size=" + list.size()
+                                + " list=" + list);
+                    }
+                }
+                synchronized (mCellInfoLock) {
+                    if (mPendingCellInfoResult == result) {
+                        mPendingCellInfoResult = null;
                     }
                     mLastCellInfoListTime = SystemClock.elapsedRealtime();
-                    mLastCellInfoList = result.list;
-                    result.lockObj.notify();
+                    mLastCellInfoList = list;
+                }
+                synchronized (result.lockObj) {
+                    result.list = list;
+                    result.done = true;
+                    result.lockObj.notifyAll();
                 }
                 break;
             }
@@ -922,8 +1057,10 @@ public class ServiceStateTracker extends Handler {
                     if (VDBG) {
                         log("EVENT_UNSOL_CELL_INFO_LIST: size=" + list.size() + " list=" + list);
                     }
-                    mLastCellInfoListTime = SystemClock.elapsedRealtime();
-                    mLastCellInfoList = list;
+                    synchronized (mCellInfoLock) {
+                        mLastCellInfoListTime = SystemClock.elapsedRealtime();
+                        mLastCellInfoList = list;
+                    }
                     mPhone.notifyCellInfo(list);
                 }
                 break;
@@ -975,6 +1112,10 @@ public class ServiceStateTracker extends Handler {
                 modemTriggeredPollState();
                 break;
 
+            case EVENT_POLL_STATE_REQUEST:
+                doPollState(mPendingPollModemTriggered);
+                break;
+
             case EVENT_GET_SIGNAL_STRENGTH:
                 // This callback is called when signal strength is polled
                 // all by itself
@@ -989,6 +1130,13 @@ public class ServiceStateTracker extends Handler {
 
                 break;
 
+            case EVENT_DEFERRED_SIGNAL_STRENGTH:
+                if (mSignalStrengthCoalescer.onDeferredDelivery(mSignalStrength,
+                        SystemClock.elapsedRealtime())) {
+                    doNotifySignalStrength();
+                }
+                break;
+
             case EVENT_GET_LOC_DONE:
                 ar = (AsyncResult) msg.obj;
 
@@ -1082,6 +1230,7 @@ public class ServiceStateTracker extends Handler {
             case EVENT_POLL_SIGNAL_STRENGTH:
                 // Just poll signal strength...not part of pollState()
 
+                mSignalStrengthPollScheduler.onPoll(SystemClock.elapsedRealtime());
                 mCi.getSignalStrength(obtainMessage(EVENT_GET_SIGNAL_STRENGTH));
                 break;
 
@@ -2487,13 +2636,33 @@ public class ServiceStateTracker extends Handler {
      * We insist on polling even if the radio says its off.
      * Used when we get a network changed notification
      * but the radio is off - part of iwlan hack
+     *
+     * Modems tend to send several of these notifications in a row, so the poll is delayed by
+     * mPollStateCoalesceMs and all notifications in that window are served by one poll.
      */
     private void modemTriggeredPollState() {
-        pollState(true);
+        mPollStateTriggeredCount++;
+        mPendingPollModemTriggered = true;
+        if (!hasMessages(EVENT_POLL_STATE_REQUEST)) {
+            sendMessageDelayed(obtainMessage(EVENT_POLL_STATE_REQUEST), mPollStateCoalesceMs);
+        }
     }
 
     public void pollState(boolean modemTriggered) {
-        mPollingContext = new int[1];
+        mPollStateTriggeredCount++;
+        doPollState(modemTriggered);
+    }
+
+    private void doPollState(boolean modemTriggered) {
+        // This poll also serves a pending modem triggered one
+        if (hasMessages(EVENT_POLL_STATE_REQUEST)) {
+            removeMessages(EVENT_POLL_STATE_REQUEST);
+            modemTriggered |= mPendingPollModemTriggered;
+        }
+        mPendingPollModemTriggered = false;
+
+        // A poll in flight is superseded, its responses will be ignored
+        cancelPollState();
         mPollingContext[0] = 0;
 
         switch (mCi.getRadioState()) {
@@ -2524,6 +2693,7 @@ public class ServiceStateTracker extends Handler {
             default:
                 // Issue all poll-related commands at once then count down the responses, which
                 // are allowed to arrive out-of-order
+                mPollStateIssuedCount++;
                 mPollingContext[0]++;
                 mCi.getOperator(obtainMessage(EVENT_POLL_STATE_OPERATOR, mPollingContext));
 
@@ -2571,28 +2741,6 @@ public class ServiceStateTracker extends Handler {
                     " mNewReasonDataDenied=" + mNewReasonDataDenied);
         }
 
-        boolean hasRegistered =
-                mSS.getVoiceRegState() != ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getVoiceRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasDeregistered =
-                mSS.getVoiceRegState() == ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getVoiceRegState() != ServiceState.STATE_IN_SERVICE;
-
-        boolean hasGprsAttached =
-                mSS.getDataRegState() != ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasGprsDetached =
-                mSS.getDataRegState() == ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() != ServiceState.STATE_IN_SERVICE;
-
-        boolean hasDataRegStateChanged =
-                mSS.getDataRegState() != mNewSS.getDataRegState();
-
-        boolean hasVoiceRegStateChanged =
-                mSS.getVoiceRegState() != mNewSS.getVoiceRegState();
-
         boolean hasLocationChanged = !mNewCellLoc.equals(mCellLoc);
 
         // ratchet the new tech up through it's rat family but don't drop back down
@@ -2601,21 +2749,40 @@ public class ServiceStateTracker extends Handler {
             mRatRatcheter.ratchetRat(mSS, mNewSS);
         }
 
-        boolean hasRilVoiceRadioTechnologyChanged =
-                mSS.getRilVoiceRadioTechnology() != mNewSS.getRilVoiceRadioTechnology();
+        ServiceStateDelta delta = ServiceStateDelta.compute(mSS, mNewSS, hasLocationChanged);
+        mReasonDataDenied = mNewReasonDataDenied;
+        mMaxDataCalls = mNewMaxDataCalls;
+        if (delta.isEmpty()) {
+            onUnchangedPoll();
+            checkGprsConsistency();
+            return;
+        }
+
+        boolean hasRegistered = delta.hasVoiceRegistered();
+
+        boolean hasDeregistered = delta.hasVoiceDeregistered();
+
+        boolean hasGprsAttached = delta.hasDataAttached();
+
+        boolean hasGprsDetached = delta.hasDataDetached();
+
+        boolean hasDataRegStateChanged = delta.has(ServiceStateDelta.DATA_REG_STATE);
 
-        boolean hasRilDataRadioTechnologyChanged =
-                mSS.getRilDataRadioTechnology() != mNewSS.getRilDataRadioTechnology();
+        boolean hasVoiceRegStateChanged = delta.has(ServiceStateDelta.VOICE_REG_STATE);
 
-        boolean hasChanged = !mNewSS.equals(mSS);
+        boolean hasRilVoiceRadioTechnologyChanged = delta.has(ServiceStateDelta.VOICE_RAT);
 
-        boolean hasVoiceRoamingOn = !mSS.getVoiceRoaming() && mNewSS.getVoiceRoaming();
+        boolean hasRilDataRadioTechnologyChanged = delta.has(ServiceStateDelta.DATA_RAT);
 
-        boolean hasVoiceRoamingOff = mSS.getVoiceRoaming() && !mNewSS.getVoiceRoaming();
+        boolean hasChanged = delta.hasServiceStateChanged();
 
-        boolean hasDataRoamingOn = !mSS.getDataRoaming() && mNewSS.getDataRoaming();
+        boolean hasVoiceRoamingOn = delta.hasVoiceRoamingOn();
 
-        boolean hasDataRoamingOff = mSS.getDataRoaming() && !mNewSS.getDataRoaming();
+        boolean hasVoiceRoamingOff = delta.hasVoiceRoamingOff();
+
+        boolean hasDataRoamingOn = delta.hasDataRoamingOn();
+
+        boolean hasDataRoamingOff = delta.hasDataRoamingOff();
 
         TelephonyManager tm =
                 (TelephonyManager) mPhone.getContext().getSystemService(Context.TELEPHONY_SERVICE);
@@ -2662,9 +2829,6 @@ public class ServiceStateTracker extends Handler {
         mCellLoc = mNewCellLoc;
         mNewCellLoc = tcl;
 
-        mReasonDataDenied = mNewReasonDataDenied;
-        mMaxDataCalls = mNewMaxDataCalls;
-
         if (hasRilVoiceRadioTechnologyChanged) {
             updatePhoneObject();
         }
@@ -2761,7 +2925,9 @@ public class ServiceStateTracker extends Handler {
             log("Broadcasting ServiceState : " + mSS);
             mPhone.notifyServiceStateChanged(mSS);
 
-            TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            if (delta.has(ServiceStateDelta.METRICS_FIELDS)) {
+                TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            }
         }
 
         if (hasGprsAttached || hasGprsDetached || hasRegistered || hasDeregistered) {
@@ -2815,6 +2981,12 @@ public class ServiceStateTracker extends Handler {
             mPhone.notifyLocationChanged();
         }
 
+        notifyServiceStateDelta(delta);
+
+        checkGprsConsistency();
+    }
+
+    private void checkGprsConsistency() {
         if (!isGprsConsistent(mSS.getDataRegState(), mSS.getVoiceRegState())) {
             if (!mStartedGprsRegCheck && !mReportedGprsNoReg) {
                 mStartedGprsRegCheck = true;
@@ -2838,21 +3010,6 @@ public class ServiceStateTracker extends Handler {
         resetServiceStateInIwlanMode();
         if (DBG) log("pollStateDone: cdma oldSS=[" + mSS + "] newSS=[" + mNewSS + "]");
 
-        boolean hasRegistered =
-                mSS.getVoiceRegState() != ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getVoiceRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionAttached =
-                mSS.getDataRegState() != ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionDetached =
-                mSS.getDataRegState() == ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() != ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionChanged =
-                mSS.getDataRegState() != mNewSS.getDataRegState();
-
         boolean hasLocationChanged = !mNewCellLoc.equals(mCellLoc);
 
         // ratchet the new tech up through it's rat family but don't drop back down
@@ -2861,21 +3018,33 @@ public class ServiceStateTracker extends Handler {
             mRatRatcheter.ratchetRat(mSS, mNewSS);
         }
 
-        boolean hasRilVoiceRadioTechnologyChanged =
-                mSS.getRilVoiceRadioTechnology() != mNewSS.getRilVoiceRadioTechnology();
+        ServiceStateDelta delta = ServiceStateDelta.compute(mSS, mNewSS, hasLocationChanged);
+        if (delta.isEmpty()) {
+            onUnchangedPoll();
+            return;
+        }
+
+        boolean hasRegistered = delta.hasVoiceRegistered();
+
+        boolean hasCdmaDataConnectionAttached = delta.hasDataAttached();
+
+        boolean hasCdmaDataConnectionDetached = delta.hasDataDetached();
 
-        boolean hasRilDataRadioTechnologyChanged =
-                mSS.getRilDataRadioTechnology() != mNewSS.getRilDataRadioTechnology();
+        boolean hasCdmaDataConnectionChanged = delta.has(ServiceStateDelta.DATA_REG_STATE);
 
-        boolean hasChanged = !mNewSS.equals(mSS);
+        boolean hasRilVoiceRadioTechnologyChanged = delta.has(ServiceStateDelta.VOICE_RAT);
 
-        boolean hasVoiceRoamingOn = !mSS.getVoiceRoaming() && mNewSS.getVoiceRoaming();
+        boolean hasRilDataRadioTechnologyChanged = delta.has(ServiceStateDelta.DATA_RAT);
 
-        boolean hasVoiceRoamingOff = mSS.getVoiceRoaming() && !mNewSS.getVoiceRoaming();
+        boolean hasChanged = delta.hasServiceStateChanged();
 
-        boolean hasDataRoamingOn = !mSS.getDataRoaming() && mNewSS.getDataRoaming();
+        boolean hasVoiceRoamingOn = delta.hasVoiceRoamingOn();
 
-        boolean hasDataRoamingOff = mSS.getDataRoaming() && !mNewSS.getDataRoaming();
+        boolean hasVoiceRoamingOff = delta.hasVoiceRoamingOff();
+
+        boolean hasDataRoamingOn = delta.hasDataRoamingOn();
+
+        boolean hasDataRoamingOff = delta.hasDataRoamingOff();
 
         TelephonyManager tm =
                 (TelephonyManager) mPhone.getContext().getSystemService(Context.TELEPHONY_SERVICE);
@@ -2971,7 +3140,9 @@ public class ServiceStateTracker extends Handler {
             log("Broadcasting ServiceState : " + mSS);
             mPhone.notifyServiceStateChanged(mSS);
 
-            TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            if (delta.has(ServiceStateDelta.METRICS_FIELDS)) {
+                TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            }
         }
 
         if (hasCdmaDataConnectionAttached || hasCdmaDataConnectionDetached || hasRegistered) {
@@ -3023,6 +3194,8 @@ public class ServiceStateTracker extends Handler {
         if (hasLocationChanged) {
             mPhone.notifyLocationChanged();
         }
+
+        notifyServiceStateDelta(delta);
         // TODO: Add CdmaCellIdenity updating, see CdmaLteServiceStateTracker.
     }
 
@@ -3038,23 +3211,6 @@ public class ServiceStateTracker extends Handler {
         resetServiceStateInIwlanMode();
         log("pollStateDone: lte 1 ss=[" + mSS + "] newSS=[" + mNewSS + "]");
 
-        boolean hasRegistered = mSS.getVoiceRegState() != ServiceState.STATE_IN_SERVICE
-                && mNewSS.getVoiceRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasDeregistered = mSS.getVoiceRegState() == ServiceState.STATE_IN_SERVICE
-                && mNewSS.getVoiceRegState() != ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionAttached =
-                mSS.getDataRegState() != ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() == ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionDetached =
-                mSS.getDataRegState() == ServiceState.STATE_IN_SERVICE
-                        && mNewSS.getDataRegState() != ServiceState.STATE_IN_SERVICE;
-
-        boolean hasCdmaDataConnectionChanged =
-                mSS.getDataRegState() != mNewSS.getDataRegState();
-
         boolean hasLocationChanged = !mNewCellLoc.equals(mCellLoc);
 
         // ratchet the new tech up through it's rat family but don't drop back down
@@ -3063,21 +3219,35 @@ public class ServiceStateTracker extends Handler {
             mRatRatcheter.ratchetRat(mSS, mNewSS);
         }
 
-        boolean hasVoiceRadioTechnologyChanged = mSS.getRilVoiceRadioTechnology()
-                != mNewSS.getRilVoiceRadioTechnology();
+        ServiceStateDelta delta = ServiceStateDelta.compute(mSS, mNewSS, hasLocationChanged);
+        if (delta.isEmpty()) {
+            onUnchangedPoll();
+            return;
+        }
+
+        boolean hasRegistered = delta.hasVoiceRegistered();
+
+        boolean hasDeregistered = delta.hasVoiceDeregistered();
+
+        boolean hasCdmaDataConnectionAttached = delta.hasDataAttached();
+
+        boolean hasCdmaDataConnectionDetached = delta.hasDataDetached();
+
+        boolean hasCdmaDataConnectionChanged = delta.has(ServiceStateDelta.DATA_REG_STATE);
+
+        boolean hasVoiceRadioTechnologyChanged = delta.has(ServiceStateDelta.VOICE_RAT);
 
-        boolean hasDataRadioTechnologyChanged = mSS.getRilDataRadioTechnology()
-                != mNewSS.getRilDataRadioTechnology();
+        boolean hasDataRadioTechnologyChanged = delta.has(ServiceStateDelta.DATA_RAT);
 
-        boolean hasChanged = !mNewSS.equals(mSS);
+        boolean hasChanged = delta.hasServiceStateChanged();
 
-        boolean hasVoiceRoamingOn = !mSS.getVoiceRoaming() && mNewSS.getVoiceRoaming();
+        boolean hasVoiceRoamingOn = delta.hasVoiceRoamingOn();
 
-        boolean hasVoiceRoamingOff = mSS.getVoiceRoaming() && !mNewSS.getVoiceRoaming();
+        boolean hasVoiceRoamingOff = delta.hasVoiceRoamingOff();
 
-        boolean hasDataRoamingOn = !mSS.getDataRoaming() && mNewSS.getDataRoaming();
+        boolean hasDataRoamingOn = delta.hasDataRoamingOn();
 
-        boolean hasDataRoamingOff = mSS.getDataRoaming() && !mNewSS.getDataRoaming();
+        boolean hasDataRoamingOff = delta.hasDataRoamingOff();
 
         boolean has4gHandoff =
                 mNewSS.getDataRegState() == ServiceState.STATE_IN_SERVICE &&
@@ -3207,7 +3377,9 @@ public class ServiceStateTracker extends Handler {
             log("Broadcasting ServiceState : " + mSS);
             mPhone.notifyServiceStateChanged(mSS);
 
-            TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            if (delta.has(ServiceStateDelta.METRICS_FIELDS)) {
+                TelephonyMetrics.getInstance().writeServiceStateChanged(mPhone.getPhoneId(), mSS);
+            }
         }
 
         if (hasCdmaDataConnectionAttached || has4gHandoff || hasCdmaDataConnectionDetached ||
@@ -3260,6 +3432,8 @@ public class ServiceStateTracker extends Handler {
         if (hasLocationChanged) {
             mPhone.notifyLocationChanged();
         }
+
+        notifyServiceStateDelta(delta);
     }
 
     private void updateOperatorNameFromEri() {
@@ -3443,7 +3617,8 @@ public class ServiceStateTracker extends Handler {
             }
             if (DBG) log("fixTimeZone: using default TimeZone");
         } else {
-            zone = TimeUtils.getTimeZone(mZoneOffset, mZoneDst, mZoneTime, isoCountryCode);
+            zone = mNitzTimeZoneIndex.getTimeZone(mZoneOffset, mZoneDst, mZoneTime,
+                    isoCountryCode);
             if (DBG) log("fixTimeZone: using getTimeZone(off, dst, time, iso)");
         }
 
@@ -3488,23 +3663,7 @@ public class ServiceStateTracker extends Handler {
     }
 
     private TimeZone findTimeZone(int offset, boolean dst, long when) {
-        int rawOffset = offset;
-        if (dst) {
-            rawOffset -= MS_PER_HOUR;
-        }
-        String[] zones = TimeZone.getAvailableIDs(rawOffset);
-        TimeZone guess = null;
-        Date d = new Date(when);
-        for (String zone : zones) {
-            TimeZone tz = TimeZone.getTimeZone(zone);
-            if (tz.getOffset(when) == offset &&
-                    tz.inDaylightTime(d) == dst) {
-                guess = tz;
-                break;
-            }
-        }
-
-        return guess;
+        return mNitzTimeZoneIndex.findTimeZone(offset, dst, when);
     }
 
     /** code is registration state 0-5 from TS 27.007 7.2 */
@@ -3812,41 +3971,18 @@ public class ServiceStateTracker extends Handler {
         try {
             /* NITZ time (hour:min:sec) will be in UTC but it supplies the timezone
              * offset as well (which we won't worry about until later) */
-            Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
-
-            c.clear();
-            c.set(Calendar.DST_OFFSET, 0);
-
-            String[] nitzSubs = nitz.split("[/:,+-]");
+            NitzData nitzData = mNitzData;
+            if (!nitzData.parse(nitz)) {
+                loge("NITZ: Parsing NITZ time " + nitz + " failed");
+                return;
+            }
 
-            int year = 2000 + Integer.parseInt(nitzSubs[0]);
+            int year = nitzData.getYear();
             if (year > MAX_NITZ_YEAR) {
                 if (DBG) loge("NITZ year: " + year + " exceeds limit, skip NITZ time update");
                 return;
             }
-            c.set(Calendar.YEAR, year);
-
-            // month is 0 based!
-            int month = Integer.parseInt(nitzSubs[1]) - 1;
-            c.set(Calendar.MONTH, month);
-
-            int date = Integer.parseInt(nitzSubs[2]);
-            c.set(Calendar.DATE, date);
-
-            int hour = Integer.parseInt(nitzSubs[3]);
-            c.set(Calendar.HOUR, hour);
-
-            int minute = Integer.parseInt(nitzSubs[4]);
-            c.set(Calendar.MINUTE, minute);
-
-            int second = Integer.parseInt(nitzSubs[5]);
-            c.set(Calendar.SECOND, second);
-
-            boolean sign = (nitz.indexOf('-') == -1);
-
-            int tzOffset = Integer.parseInt(nitzSubs[6]);
-
-            int dst = (nitzSubs.length >= 8 ) ? Integer.parseInt(nitzSubs[7]) : 0;
+            long nitzTime = nitzData.getUtcTimeMillis();
 
             // The zone offset received from NITZ is for current local time,
             // so DST correction is already applied.  Don't add it again.
@@ -3854,8 +3990,8 @@ public class ServiceStateTracker extends Handler {
             // tzOffset += dst * 4;
             //
             // We could unapply it if we wanted the raw offset.
-
-            tzOffset = (sign ? 1 : -1) * tzOffset * 15 * 60 * 1000;
+            int tzOffset = nitzData.getZoneOffset();
+            int dst = nitzData.getDst();
 
             TimeZone    zone = null;
 
@@ -3863,8 +3999,8 @@ public class ServiceStateTracker extends Handler {
             // the host computer's timezone to the nitz string. this is zoneinfo
             // timezone name of the form Area!Location or Area!Location!SubLocation
             // so we need to convert the ! into /
-            if (nitzSubs.length >= 9) {
-                String  tzname = nitzSubs[8].replace('!','/');
+            String tzname = nitzData.getEmulatorTimeZoneId();
+            if (tzname != null) {
                 zone = TimeZone.getTimeZone( tzname );
             }
 
@@ -3876,15 +4012,13 @@ public class ServiceStateTracker extends Handler {
 
                 if (mGotCountryCode) {
                     if (iso != null && iso.length() > 0) {
-                        zone = TimeUtils.getTimeZone(tzOffset, dst != 0,
-                                c.getTimeInMillis(),
-                                iso);
+                        zone = mNitzTimeZoneIndex.getTimeZone(tzOffset, dst != 0, nitzTime, iso);
                     } else {
                         // We don't have a valid iso country code.  This is
                         // most likely because we're on a test network that's
                         // using a bogus MCC (eg, "001"), so get a TimeZone
                         // based only on the NITZ parameters.
-                        zone = getNitzTimeZone(tzOffset, (dst != 0), c.getTimeInMillis());
+                        zone = getNitzTimeZone(tzOffset, (dst != 0), nitzTime);
                     }
                 }
             }
@@ -3897,7 +4031,7 @@ public class ServiceStateTracker extends Handler {
                 mNeedFixZoneAfterNitz = true;
                 mZoneOffset  = tzOffset;
                 mZoneDst     = dst != 0;
-                mZoneTime    = c.getTimeInMillis();
+                mZoneTime    = nitzTime;
             }
             if (DBG) {
                 log("NITZ: tzOffset=" + tzOffset + " dst=" + dst + " zone=" +
@@ -3947,24 +4081,24 @@ public class ServiceStateTracker extends Handler {
                     }
 
                     // Note: with range checks above, cast to int is safe
-                    c.add(Calendar.MILLISECOND, (int)millisSinceNitzReceived);
+                    nitzTime += millisSinceNitzReceived;
 
                     if (DBG) {
-                        log("NITZ: Setting time of day to " + c.getTime()
+                        log("NITZ: Setting time of day to " + TimeUtils.logTimeOfDay(nitzTime)
                                 + " NITZ receive delay(ms): " + millisSinceNitzReceived
                                 + " gained(ms): "
-                                + (c.getTimeInMillis() - System.currentTimeMillis())
+                                + (nitzTime - System.currentTimeMillis())
                                 + " from " + nitz);
                     }
                     if (mPhone.isPhoneTypeGsm()) {
-                        setAndBroadcastNetworkSetTime(c.getTimeInMillis());
+                        setAndBroadcastNetworkSetTime(nitzTime);
                         Rlog.i(LOG_TAG, "NITZ: after Setting time of day");
                     } else {
                         if (getAutoTime()) {
                             /**
                              * Update system time automatically
                              */
-                            long gained = c.getTimeInMillis() - System.currentTimeMillis();
+                            long gained = nitzTime - System.currentTimeMillis();
                             long timeSinceLastUpdate = SystemClock.elapsedRealtime() - mSavedAtTime;
                             int nitzUpdateSpacing = Settings.Global.getInt(mCr,
                                     Settings.Global.NITZ_UPDATE_SPACING, mNitzUpdateSpacing);
@@ -3974,12 +4108,13 @@ public class ServiceStateTracker extends Handler {
                             if ((mSavedAtTime == 0) || (timeSinceLastUpdate > nitzUpdateSpacing)
                                     || (Math.abs(gained) > nitzUpdateDiff)) {
                                 if (DBG) {
-                                    log("NITZ: Auto updating time of day to " + c.getTime()
+                                    log("NITZ: Auto updating time of day to "
+                                            + TimeUtils.logTimeOfDay(nitzTime)
                                             + " NITZ receive delay=" + millisSinceNitzReceived
                                             + "ms gained=" + gained + "ms from " + nitz);
                                 }
 
-                                setAndBroadcastNetworkSetTime(c.getTimeInMillis());
+                                setAndBroadcastNetworkSetTime(nitzTime);
                             } else {
                                 if (DBG) {
                                     log("NITZ: ignore, a previous update was "
@@ -3990,8 +4125,8 @@ public class ServiceStateTracker extends Handler {
                         }
                     }
                 }
-                SystemProperties.set("gsm.nitz.time", String.valueOf(c.getTimeInMillis()));
-                saveNitzTime(c.getTimeInMillis());
+                SystemProperties.set("gsm.nitz.time", String.valueOf(nitzTime));
+                saveNitzTime(nitzTime);
                 mNitzUpdatedTime = true;
             } finally {
                 if (DBG) {
@@ -4182,15 +4317,16 @@ public class ServiceStateTracker extends Handler {
             return;
         }
 
+        // Several events restart polling, keep a single poll queued
+        removeMessages(EVENT_POLL_SIGNAL_STRENGTH);
+
         Message msg;
 
         msg = obtainMessage();
         msg.what = EVENT_POLL_SIGNAL_STRENGTH;
 
-        long nextTime;
-
-        // TODO Don't poll signal strength if screen is off
-        sendMessageDelayed(msg, POLL_PERIOD_MILLIS);
+        sendMessageDelayed(msg,
+                mSignalStrengthPollScheduler.getPollDelay(SystemClock.elapsedRealtime()));
     }
 
     private void notifyCdmaSubscriptionInfoReady() {
@@ -4272,6 +4408,43 @@ public class ServiceStateTracker extends Handler {
         mNetworkAttachedRegistrants.remove(h);
     }
 
+    /**
+     * Registration point for service state changes. Unlike the registrants for a single
+     * transition, e.g. roaming on, these are notified once per change with the
+     * ServiceStateDelta of all changed fields in AsyncResult.result.
+     * @param h handler to notify
+     * @param what what code of message when delivered
+     * @param obj placed in Message.obj
+     */
+    public void registerForServiceStateDelta(Handler h, int what, Object obj) {
+        Registrant r = new Registrant(h, what, obj);
+        mServiceStateDeltaRegistrants.add(r);
+    }
+
+    public void unregisterForServiceStateDelta(Handler h) {
+        mServiceStateDeltaRegistrants.remove(h);
+    }
+
+    private void notifyServiceStateDelta(ServiceStateDelta delta) {
+        if (VDBG) log("notifyServiceStateDelta: " + delta);
+        mServiceStateDeltaRegistrants.notifyRegistrants(new AsyncResult(null, delta, null));
+    }
+
+    /**
+     * Finish a poll that changed neither the service state nor the cell location, without
+     * any notification.
+     */
+    private void onUnchangedPoll() {
+        if (VDBG) log("pollStateDone: unchanged");
+        mUnchangedPollCount++;
+        // Still take the new state, for fields ServiceState.equals() doesn't compare
+        ServiceState tss = mSS;
+        mSS = mNewSS;
+        mNewSS = tss;
+        // clean slate for next time
+        mNewSS.setStateOutOfService();
+    }
+
     /**
      * Registration point for transition into packet service restricted zone.
      * @param h handler to notify
@@ -4471,6 +4644,10 @@ public class ServiceStateTracker extends Handler {
 
     /** Cancel a pending (if any) pollState() operation */
     protected void cancelPollState() {
+        if (mPollingContext != null && mPollingContext[0] > 0) {
+            if (DBG) log("cancelPollState: discarding " + mPollingContext[0] + " responses");
+            mPollStateDiscardedCount++;
+        }
         // This will effectively cancel the rest of the poll requests.
         mPollingContext = new int[1];
     }
@@ -4537,48 +4714,120 @@ public class ServiceStateTracker extends Handler {
     }
 
     /**
+     * Return all available cell information. The list is taken from the cache if it is younger
+     * than mCellInfoListMaxAgeMs, which is also fed by RIL_UNSOL_CELL_INFO_LIST. Otherwise the
+     * modem is asked, with concurrent callers sharing a single request.
+     *
      * @return all available cell information or null if none.
      */
     public List<CellInfo> getAllCellInfo() {
-        CellInfoResult result = new CellInfoResult();
+        List<CellInfo> list;
         if (VDBG) log("SST.getAllCellInfo(): E");
         int ver = mCi.getRilVersion();
         if (ver >= 8) {
             if (isCallerOnDifferentThread()) {
-                if ((SystemClock.elapsedRealtime() - mLastCellInfoListTime)
-                        > LAST_CELL_INFO_LIST_MAX_AGE_MS) {
-                    Message msg = obtainMessage(EVENT_GET_CELL_INFO_LIST, result);
-                    synchronized(result.lockObj) {
-                        result.list = null;
-                        mCi.getCellInfoList(msg);
-                        try {
-                            result.lockObj.wait(5000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else {
-                    if (DBG) log("SST.getAllCellInfo(): return last, back to back calls");
-                    result.list = mLastCellInfoList;
-                }
+                list = getCellInfoListBlocking();
             } else {
                 if (DBG) log("SST.getAllCellInfo(): return last, same thread can't block");
-                result.list = mLastCellInfoList;
+                synchronized (mCellInfoLock) {
+                    list = mLastCellInfoList;
+                }
             }
         } else {
             if (DBG) log("SST.getAllCellInfo(): not implemented");
-            result.list = null;
+            list = null;
+        }
+        if (list != null) {
+            if (VDBG) log("SST.getAllCellInfo(): X size=" + list.size() + " list=" + list);
+        } else {
+            if (DBG) log("SST.getAllCellInfo(): X size=0 list=null");
         }
-        synchronized(result.lockObj) {
-            if (result.list != null) {
-                if (VDBG) log("SST.getAllCellInfo(): X size=" + result.list.size()
-                        + " list=" + result.list);
-                return result.list;
+        return list;
+    }
+
+    /**
+     * Return the cached cell info list if it is fresh, otherwise issue or join the
+     * RIL_REQUEST_GET_CELL_INFO_LIST in flight and wait for its result.
+     * Must not be called on the handler thread.
+     */
+    private List<CellInfo> getCellInfoListBlocking() {
+        CellInfoResult result;
+        boolean issue = false;
+        long start = SystemClock.elapsedRealtime();
+        synchronized (mCellInfoLock) {
+            if (mLastCellInfoListTime != 0
+                    && start - mLastCellInfoListTime <= mCellInfoListMaxAgeMs) {
+                if (DBG) log("SST.getAllCellInfo(): return last, back to back calls");
+                mCellInfoCacheHits++;
+                return mLastCellInfoList;
+            }
+            result = mPendingCellInfoResult;
+            if (result == null) {
+                result = new CellInfoResult();
+                mPendingCellInfoResult = result;
+                mCellInfoRequestsIssued++;
+                issue = true;
             } else {
-                if (DBG) log("SST.getAllCellInfo(): X size=0 list=null");
-                return null;
+                if (DBG) log("SST.getAllCellInfo(): join request in flight");
+                mCellInfoRequestsJoined++;
             }
         }
+
+        List<CellInfo> list;
+        boolean done;
+        synchronized (result.lockObj) {
+            if (issue) {
+                mCi.getCellInfoList(obtainMessage(EVENT_GET_CELL_INFO_LIST, result));
+            }
+            long deadline = start + CELL_INFO_LIST_TIMEOUT_MS;
+            long remaining = CELL_INFO_LIST_TIMEOUT_MS;
+            while (!result.done && remaining > 0) {
+                try {
+                    result.lockObj.wait(remaining);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    break;
+                }
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+            list = result.list;
+            done = result.done;
+        }
+
+        long waitTime = SystemClock.elapsedRealtime() - start;
+        synchronized (mCellInfoLock) {
+            if (!done) {
+                loge("SST.getAllCellInfo(): timeout waiting for cell info list");
+                mCellInfoTimeouts++;
+                // Let the next caller issue a new request instead of joining a lost one
+                if (mPendingCellInfoResult == result) {
+                    mPendingCellInfoResult = null;
+                }
+            }
+            mCellInfoWaitTimeTotalMs += waitTime;
+            mCellInfoWaitTimeMaxMs = Math.max(mCellInfoWaitTimeMaxMs, waitTime);
+        }
+        return list;
+    }
+
+    /**
+     * @return number of RIL_REQUEST_GET_CELL_INFO_LIST issued by getAllCellInfo()
+     */
+    @VisibleForTesting
+    public long getCellInfoRequestsIssued() {
+        synchronized (mCellInfoLock) {
+            return mCellInfoRequestsIssued;
+        }
+    }
+
+    /**
+     * @return number of getAllCellInfo() calls that joined a request in flight
+     */
+    @VisibleForTesting
+    public long getCellInfoRequestsJoined() {
+        synchronized (mCellInfoLock) {
+            return mCellInfoRequestsJoined;
+        }
     }
 
     /**
@@ -4644,20 +4893,35 @@ public class ServiceStateTracker extends Handler {
         pw.println(" mSubId=" + mSubId);
         pw.println(" mSS=" + mSS);
         pw.println(" mNewSS=" + mNewSS);
+        pw.println(" mUnchangedPollCount=" + mUnchangedPollCount);
         pw.println(" mVoiceCapable=" + mVoiceCapable);
         pw.println(" mRestrictedState=" + mRestrictedState);
         pw.println(" mPollingContext=" + mPollingContext + " - " +
                 (mPollingContext != null ? mPollingContext[0] : ""));
+        pw.println(" mPollStateTriggeredCount=" + mPollStateTriggeredCount
+                + " mPollStateIssuedCount=" + mPollStateIssuedCount
+                + " mPollStateDiscardedCount=" + mPollStateDiscardedCount);
         pw.println(" mDesiredPowerState=" + mDesiredPowerState);
         pw.println(" mDontPollSignalStrength=" + mDontPollSignalStrength);
+        mSignalStrengthPollScheduler.dump(pw);
         pw.println(" mSignalStrength=" + mSignalStrength);
         pw.println(" mLastSignalStrength=" + mLastSignalStrength);
+        mSignalStrengthCoalescer.dump(pw);
         pw.println(" mRestrictedState=" + mRestrictedState);
         pw.println(" mPendingRadioPowerOffAfterDataOff=" + mPendingRadioPowerOffAfterDataOff);
         pw.println(" mPendingRadioPowerOffAfterDataOffTag=" + mPendingRadioPowerOffAfterDataOffTag);
         pw.println(" mCellLoc=" + mCellLoc);
         pw.println(" mNewCellLoc=" + mNewCellLoc);
-        pw.println(" mLastCellInfoListTime=" + mLastCellInfoListTime);
+        synchronized (mCellInfoLock) {
+            pw.println(" mLastCellInfoListTime=" + mLastCellInfoListTime);
+            pw.println(" mCellInfoListMaxAgeMs=" + mCellInfoListMaxAgeMs);
+            pw.println(" mCellInfoRequestsIssued=" + mCellInfoRequestsIssued
+                    + " mCellInfoRequestsJoined=" + mCellInfoRequestsJoined
+                    + " mCellInfoCacheHits=" + mCellInfoCacheHits
+                    + " mCellInfoTimeouts=" + mCellInfoTimeouts);
+            pw.println(" mCellInfoWaitTimeTotalMs=" + mCellInfoWaitTimeTotalMs
+                    + " mCellInfoWaitTimeMaxMs=" + mCellInfoWaitTimeMaxMs);
+        }
         pw.println(" mPreferredNetworkType=" + mPreferredNetworkType);
         pw.println(" mMaxDataCalls=" + mMaxDataCalls);
         pw.println(" mNewMaxDataCalls=" + mNewMaxDataCalls);
@@ -4671,6 +4935,7 @@ public class ServiceStateTracker extends Handler {
         pw.println(" mZoneOffset=" + mZoneOffset);
         pw.println(" mZoneDst=" + mZoneDst);
         pw.println(" mZoneTime=" + mZoneTime);
+        mNitzTimeZoneIndex.dump(pw);
         pw.println(" mGotCountryCode=" + mGotCountryCode);
         pw.println(" mNitzUpdatedTime=" + mNitzUpdatedTime);
         pw.println(" mSavedTimeZone=" + mSavedTimeZone);
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.internal.telephony;
+
+import android.telephony.SignalStrength;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides which signal strength updates are worth a notification to the telephony registry.
+ * Modems reporting RSRP jitter can push several updates per second, each of which would
+ * otherwise be a binder call and wake up every listener.
+ *
+ * An update is delivered right away if the signal level or the technology changed. A change of
+ * the raw dBm value of at least the hysteresis is delivered, but not more often than the
+ * minimum interval. Smaller changes are suppressed. While a delivery is deferred, newer
+ * updates replace the pending one, so only the last value is delivered. With the screen off
+ * level changes are rate limited as well, using a longer interval. When the screen turns on, a
+ * deferred delivery is due right away.
+ *
+ * The caller owns the timer: {@link #onSignalStrength} returns the delay after which
+ * {@link #onDeferredDelivery} has to be called.
+ */
+public class SignalStrengthCoalescer {
+    /** Don't notify */
+    public static final long SUPPRESS = -1;
+    /** Notify now */
+    public static final long DELIVER_NOW = 0;
+
+    private final int mDbmHysteresis;
+    private final long mMinIntervalMs;
+    private final long mMinIntervalScreenOffMs;
+
+    private boolean mScreenOn = true;
+    private SignalStrength mLastDelivered;
+    private long mLastDeliveryTime;
+    private boolean mPending;
+
+    private long mDeliveredCount;
+    private long mSuppressedCount;
+    private long mMergedCount;
+
+    /**
+     * @param dbmHysteresis minimum change of the dBm value to notify when the level is the same
+     * @param minIntervalMs minimum time between notifications with the screen on
+     * @param minIntervalScreenOffMs minimum time between notifications with the screen off
+     */
+    public SignalStrengthCoalescer(int dbmHysteresis, long minIntervalMs,
+            long minIntervalScreenOffMs) {
+        mDbmHysteresis = dbmHysteresis;
+        mMinIntervalMs = minIntervalMs;
+        mMinIntervalScreenOffMs = minIntervalScreenOffMs;
+    }
+
+    /**
+     * @return true if the screen turned on while a delivery deferred with the screen off
+     * interval is pending. onDeferredDelivery has to be called now then, or the user would see
+     * stale values for up to that interval.
+     */
+    public boolean setScreenOn(boolean screenOn) {
+        boolean flush = screenOn && !mScreenOn && mPending;
+        mScreenOn = screenOn;
+        return flush;
+    }
+
+    /**
+     * Forget the last delivered value, e.g. after a phone type switch, so the next update is
+     * delivered.
+     */
+    public void reset() {
+        mLastDelivered = null;
+        mPending = false;
+    }
+
+    /**
+     * @param ss the new signal strength
+     * @param now current time in milliseconds
+     * @return DELIVER_NOW, SUPPRESS, or the delay in milliseconds after which
+     * onDeferredDelivery must be called. A positive value is only returned if no deferred
+     * delivery is pending yet.
+     */
+    public long onSignalStrength(SignalStrength ss, long now) {
+        if (mLastDelivered == null) {
+            return deliver(ss, now);
+        }
+        if (ss.equals(mLastDelivered)) {
+            mSuppressedCount++;
+            return SUPPRESS;
+        }
+
+        boolean levelChanged = isLevelChanged(ss);
+        if (!levelChanged && !isDbmChanged(ss)) {
+            mSuppressedCount++;
+            return SUPPRESS;
+        }
+
+        if (levelChanged && mScreenOn) {
+            return deliver(ss, now);
+        }
+
+        long minInterval = mScreenOn ? mMinIntervalMs : mMinIntervalScreenOffMs;
+        long elapsed = now - mLastDeliveryTime;
+        if (elapsed >= minInterval && !mPending) {
+            return deliver(ss, now);
+        }
+        if (mPending) {
+            // The pending delivery will pick up this value
+            mMergedCount++;
+            return SUPPRESS;
+        }
+        mPending = true;
+        return Math.max(minInterval - elapsed, 1);
+    }
+
+    /**
+     * Called when the delay returned by onSignalStrength has expired.
+     *
+     * @param ss the current signal strength
+     * @param now current time in milliseconds
+     * @return true if ss has to be delivered now
+     */
+    public boolean onDeferredDelivery(SignalStrength ss, long now) {
+        if (!mPending) return false;
+        mPending = false;
+        if (!isLevelChanged(ss) && !isDbmChanged(ss)) {
+            // Went back to the delivered value while waiting
+            mSuppressedCount++;
+            return false;
+        }
+        deliver(ss, now);
+        return true;
+    }
+
+    private boolean isLevelChanged(SignalStrength ss) {
+        return ss.isGsm() != mLastDelivered.isGsm() || ss.getLevel() != mLastDelivered.getLevel();
+    }
+
+    private boolean isDbmChanged(SignalStrength ss) {
+        return Math.abs(ss.getDbm() - mLastDelivered.getDbm()) >= mDbmHysteresis;
+    }
+
+    /**
+     * @return true if a deferred delivery is pending
+     */
+    public boolean isPending() {
+        return mPending;
+    }
+
+    private long deliver(SignalStrength ss, long now) {
+        mLastDelivered = new SignalStrength(ss);
+        mLastDeliveryTime = now;
+        mPending = false;
+        mDeliveredCount++;
+        return DELIVER_NOW;
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    public long getMergedCount() {
+        return mMergedCount;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(" SignalStrengthCoalescer: dbmHysteresis=" + mDbmHysteresis
+                + " minIntervalMs=" + mMinIntervalMs
+                + " minIntervalScreenOffMs=" + mMinIntervalScreenOffMs
+                + " screenOn=" + mScreenOn + " pending=" + mPending);
+        pw.println("  delivered=" + mDeliveredCount + " suppressed=" + mSuppressedCount
+                + " merged=" + mMergedCount);
+        pw.println("  lastDelivered=" + mLastDelivered);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides when ServiceStateTracker polls the signal strength on radios that don't report it
+ * unsolicited.
+ *
+ * While the screen is on, polls are done every period. With the screen off the longer idle
+ * period is used. Poll times are rounded up to a multiple of the alignment on the
+ * elapsed realtime clock, so the polls of all phones, and other radio work aligned the same
+ * way, wake up the modem together.
+ *
+ * Subclasses can override {@link #getPollDelay} to implement a different policy.
+ */
+public class SignalStrengthPollScheduler {
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private final long mPeriodMs;
+    private final long mIdlePeriodMs;
+    private final long mAlignmentMs;
+
+    private boolean mScreenOn = true;
+
+    private long mPollCount;
+    private long mIdlePollCount;
+    private long mHourStartTime = -1;
+    private int mPollsThisHour;
+    private int mPollsLastHour;
+
+    /**
+     * @param periodMs poll period while the screen is on
+     * @param idlePeriodMs poll period while the screen is off
+     * @param alignmentMs polls are aligned to multiples of this, 0 to not align
+     */
+    public SignalStrengthPollScheduler(long periodMs, long idlePeriodMs, long alignmentMs) {
+        mPeriodMs = periodMs;
+        mIdlePeriodMs = idlePeriodMs;
+        mAlignmentMs = alignmentMs;
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        mScreenOn = screenOn;
+    }
+
+    /**
+     * @return true if polls are done at the longer idle period
+     */
+    public boolean isIdle() {
+        return !mScreenOn;
+    }
+
+    /**
+     * @param now current elapsed realtime in milliseconds
+     * @return the delay in milliseconds until the next poll
+     */
+    public long getPollDelay(long now) {
+        long pollTime = now + (isIdle() ? mIdlePeriodMs : mPeriodMs);
+        if (mAlignmentMs > 0) {
+            pollTime = ((pollTime + mAlignmentMs - 1) / mAlignmentMs) * mAlignmentMs;
+        }
+        return pollTime - now;
+    }
+
+    /**
+     * Record a poll for the statistics.
+     *
+     * @param now current elapsed realtime in milliseconds
+     */
+    public void onPoll(long now) {
+        mPollCount++;
+        if (isIdle()) mIdlePollCount++;
+        if (mHourStartTime < 0) {
+            mHourStartTime = now;
+        } else if (now - mHourStartTime >= HOUR_MS) {
+            // Only the last complete hour is kept
+            mPollsLastHour = now - mHourStartTime < 2 * HOUR_MS ? mPollsThisHour : 0;
+            mPollsThisHour = 0;
+            mHourStartTime = now;
+        }
+        mPollsThisHour++;
+    }
+
+    public long getPollCount() {
+        return mPollCount;
+    }
+
+    public long getIdlePollCount() {
+        return mIdlePollCount;
+    }
+
+    /**
+     * @return the number of polls in the last complete hour
+     */
+    public int getPollsLastHour() {
+        return mPollsLastHour;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(" SignalStrengthPollScheduler: periodMs=" + mPeriodMs
+                + " idlePeriodMs=" + mIdlePeriodMs + " alignmentMs=" + mAlignmentMs
+                + " screenOn=" + mScreenOn);
+        pw.println("  polls=" + mPollCount + " idlePolls=" + mIdlePollCount
+                + " pollsThisHour=" + mPollsThisHour + " pollsLastHour=" + mPollsLastHour);
+    }
+}
@@ -127,6 +127,48 @@ public class UiccPhoneBookController extends IIccPhoneBook.Stub {
         }
     }
 
+    @Override
+    public void loadAdnRecordsInEfForSubscriber(int subId, int efid,
+            IAdnRecordsCallback callback) throws android.os.RemoteException {
+        IccPhoneBookInterfaceManager iccPbkIntMgr =
+                             getIccPhoneBookInterfaceManager(subId);
+        if (iccPbkIntMgr != null) {
+            iccPbkIntMgr.loadAdnRecordsInEf(efid, callback);
+        } else {
+            Rlog.e(TAG,"loadAdnRecordsInEf iccPbkIntMgr is" +
+                      " null for Subscription:"+subId);
+            callback.onAdnRecordsLoaded(IccPhoneBookInterfaceManager.NO_SNAPSHOT, 0);
+        }
+    }
+
+    @Override
+    public List<AdnRecord> getAdnRecordsInEfPageForSubscriber(int subId, int efid,
+            int snapshot, int start, int count, int[] positions)
+            throws android.os.RemoteException {
+        IccPhoneBookInterfaceManager iccPbkIntMgr =
+                             getIccPhoneBookInterfaceManager(subId);
+        if (iccPbkIntMgr != null) {
+            return iccPbkIntMgr.getAdnRecordsInEfPage(efid, snapshot, start, count, positions);
+        } else {
+            Rlog.e(TAG,"getAdnRecordsInEfPage iccPbkIntMgr is" +
+                      " null for Subscription:"+subId);
+            return null;
+        }
+    }
+
+    @Override
+    public void releaseAdnRecordsSnapshotForSubscriber(int subId, int snapshot)
+            throws android.os.RemoteException {
+        IccPhoneBookInterfaceManager iccPbkIntMgr =
+                             getIccPhoneBookInterfaceManager(subId);
+        if (iccPbkIntMgr != null) {
+            iccPbkIntMgr.releaseAdnRecordsSnapshot(snapshot);
+        } else {
+            Rlog.e(TAG,"releaseAdnRecordsSnapshot iccPbkIntMgr is" +
+                      " null for Subscription:"+subId);
+        }
+    }
+
     /**
      * get phone book interface manager object based on subscription.
      **/
@@ -576,6 +576,11 @@ class CommandParamsFactory extends Handler {
 
         CatLog.d(this, "process Refresh");
 
+        // Any REFRESH may change EF_IMG, the cached icons can't be trusted anymore
+        if (mIconLoader != null) {
+            mIconLoader.clearCache();
+        }
+
         // REFRESH proactive command is rerouted by the baseband and handled by
         // the telephony layer. IDLE TEXT should be removed for a REFRESH command
         // with "initialization" or "reset"
@@ -25,53 +25,92 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import java.util.HashMap;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
 
 /**
- * Class for loading icons from the SIM card. Has two states: single, for loading
- * one icon. Multi, for loading icons list.
+ * Class for loading icons from the SIM card, one icon or a list of icons at a time. The EF_IMG
+ * records of a list are all requested at once, each record once however many items show it,
+ * so a SET UP MENU prefetches the icons of all its items. Decoded icons are kept in a cache
+ * bounded by their size in bytes, dropped on REFRESH. The cache lives as long as the loader,
+ * which is disposed with the card.
  *
  */
 class IconLoader extends Handler {
     // members
-    private int mState = STATE_SINGLE_ICON;
-    private ImageDescriptor mId = null;
-    private Bitmap mCurrentIcon = null;
-    private int mRecordNumber;
     private IccFileHandler mSimFH = null;
-    private Message mEndMsg = null;
-    private byte[] mIconData = null;
-    // multi icons state members
-    private int[] mRecordNumbers = null;
-    private int mCurrentRecordIndex = 0;
-    private Bitmap[] mIcons = null;
-    private HashMap<Integer, Bitmap> mIconsCache = null;
+    // Icons by record number of EF_IMG
+    private LruCache<Integer, Bitmap> mIconsCache = null;
+    // Pixels of the icon being decoded, reused for the icons of a request and dropped once it
+    // is answered, so the largest icon ever seen is not kept outside the cache
+    private int[] mPixels = NO_PIXELS;
+    private static final int[] NO_PIXELS = new int[0];
 
     private static IconLoader sLoader = null;
     private static HandlerThread sThread = null;
 
-    // Loader state values.
-    private static final int STATE_SINGLE_ICON = 1;
-    private static final int STATE_MULTI_ICONS = 2;
-
     // Finished loading single record from a linear-fixed EF-IMG.
     private static final int EVENT_READ_EF_IMG_RECOED_DONE  = 1;
     // Finished loading single icon from a Transparent DF-Graphics.
     private static final int EVENT_READ_ICON_DONE           = 2;
     // Finished loading single colour icon lookup table.
     private static final int EVENT_READ_CLUT_DONE           = 3;
+    // Start loading the icons of a request.
+    private static final int EVENT_LOAD_ICONS               = 4;
+    // Drop the cached icons.
+    private static final int EVENT_CLEAR_CACHE              = 5;
 
     // Color lookup table offset inside the EF.
     private static final int CLUT_LOCATION_OFFSET = 4;
     // CLUT entry size, {Red, Green, Black}
     private static final int CLUT_ENTRY_SIZE = 3;
 
+    // Maximum size of the cached icons, a full screen of large icons.
+    private static final int MAX_CACHE_BYTES = 512 * 1024;
+
+    // Icons requested by a caller, sent back once all are loaded.
+    private static class IconsRequest {
+        final int[] mRecordNumbers;
+        final Bitmap[] mIcons;
+        final Message mEndMsg;
+        // Whether the caller expects one Bitmap rather than an array
+        final boolean mSingle;
+        int mPending;
+
+        IconsRequest(int[] recordNumbers, Message endMsg, boolean single) {
+            mRecordNumbers = recordNumbers;
+            mIcons = new Bitmap[recordNumbers.length];
+            mEndMsg = endMsg;
+            mSingle = single;
+        }
+    }
+
+    // Loading of one EF_IMG record, for all the positions of a request showing it.
+    private static class IconLoad {
+        final IconsRequest mRequest;
+        final int mRecordNumber;
+        final ArrayList<Integer> mIndexes = new ArrayList<Integer>();
+        ImageDescriptor mId;
+        byte[] mIconData;
+
+        IconLoad(IconsRequest request, int recordNumber) {
+            mRequest = request;
+            mRecordNumber = recordNumber;
+        }
+    }
 
     private IconLoader(Looper looper , IccFileHandler fh) {
         super(looper);
         mSimFH = fh;
 
-        mIconsCache = new HashMap<Integer, Bitmap>(50);
+        mIconsCache = new LruCache<Integer, Bitmap>(MAX_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(Integer recordNumber, Bitmap icon) {
+                return icon.getByteCount();
+            }
+        };
     }
 
     static IconLoader getInstance(Handler caller, IccFileHandler fh) {
@@ -90,52 +129,73 @@ class IconLoader extends Handler {
         if (recordNumbers == null || recordNumbers.length == 0 || msg == null) {
             return;
         }
-        mEndMsg = msg;
-        // initialize multi icons load variables.
-        mIcons = new Bitmap[recordNumbers.length];
-        mRecordNumbers = recordNumbers;
-        mCurrentRecordIndex = 0;
-        mState = STATE_MULTI_ICONS;
-        startLoadingIcon(recordNumbers[0]);
+        obtainMessage(EVENT_LOAD_ICONS, new IconsRequest(recordNumbers, msg, false))
+                .sendToTarget();
     }
 
     void loadIcon(int recordNumber, Message msg) {
         if (msg == null) {
             return;
         }
-        mEndMsg = msg;
-        mState = STATE_SINGLE_ICON;
-        startLoadingIcon(recordNumber);
+        obtainMessage(EVENT_LOAD_ICONS, new IconsRequest(new int[] {recordNumber}, msg, true))
+                .sendToTarget();
     }
 
-    private void startLoadingIcon(int recordNumber) {
-        // Reset the load variables.
-        mId = null;
-        mIconData = null;
-        mCurrentIcon = null;
-        mRecordNumber = recordNumber;
-
-        // make sure the icon was not already loaded and saved in the local cache.
-        if (mIconsCache.containsKey(recordNumber)) {
-            mCurrentIcon = mIconsCache.get(recordNumber);
-            postIcon();
-            return;
+    /**
+     * Drop the cached icons, the SIM may have changed EF_IMG.
+     */
+    void clearCache() {
+        obtainMessage(EVENT_CLEAR_CACHE).sendToTarget();
+    }
+
+    private void startLoadingIcons(IconsRequest request) {
+        SparseArray<IconLoad> loads = new SparseArray<IconLoad>();
+        request.mPending = request.mRecordNumbers.length;
+        for (int i = 0; i < request.mRecordNumbers.length; i++) {
+            int recordNumber = request.mRecordNumbers[i];
+            // make sure the icon was not already loaded and saved in the local cache.
+            Bitmap icon = recordNumber < 0 ? null : mIconsCache.get(recordNumber);
+            if (recordNumber < 0 || icon != null) {
+                request.mIcons[i] = icon;
+                request.mPending--;
+                continue;
+            }
+            IconLoad load = loads.get(recordNumber);
+            if (load == null) {
+                load = new IconLoad(request, recordNumber);
+                loads.put(recordNumber, load);
+            }
+            load.mIndexes.add(i);
         }
 
-        // start the first phase ==> loading Image Descriptor.
-        readId();
+        if (request.mPending == 0) {
+            postIcons(request);
+            return;
+        }
+        // start the first phase of all the icons ==> loading Image Descriptor.
+        for (int i = 0; i < loads.size(); i++) {
+            readId(loads.valueAt(i));
+        }
     }
 
     @Override
     public void handleMessage(Message msg) {
         AsyncResult ar;
+        IconLoad load = null;
 
         try {
             switch (msg.what) {
+            case EVENT_LOAD_ICONS:
+                startLoadingIcons((IconsRequest) msg.obj);
+                break;
+            case EVENT_CLEAR_CACHE:
+                mIconsCache.evictAll();
+                break;
             case EVENT_READ_EF_IMG_RECOED_DONE:
                 ar = (AsyncResult) msg.obj;
-                if (handleImageDescriptor((byte[]) ar.result)) {
-                    readIconData();
+                load = (IconLoad) ar.userObj;
+                if (handleImageDescriptor(load, (byte[]) ar.result)) {
+                    readIconData(load);
                 } else {
                     throw new Exception("Unable to parse image descriptor");
                 }
@@ -143,32 +203,35 @@ class IconLoader extends Handler {
             case EVENT_READ_ICON_DONE:
                 CatLog.d(this, "load icon done");
                 ar = (AsyncResult) msg.obj;
+                load = (IconLoad) ar.userObj;
                 byte[] rawData = ((byte[]) ar.result);
-                if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
-                    mCurrentIcon = parseToBnW(rawData, rawData.length);
-                    mIconsCache.put(mRecordNumber, mCurrentIcon);
-                    postIcon();
-                } else if (mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
-                    mIconData = rawData;
-                    readClut();
+                if (load.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_BASIC) {
+                    Bitmap icon = decodeBnW(rawData, pixels(rawData));
+                    mIconsCache.put(load.mRecordNumber, icon);
+                    onIconLoaded(load, icon);
+                } else if (load.mId.mCodingScheme == ImageDescriptor.CODING_SCHEME_COLOUR) {
+                    load.mIconData = rawData;
+                    readClut(load);
                 } else {
                     CatLog.d(this, "else  /postIcon ");
-                    postIcon();
+                    onIconLoaded(load, null);
                 }
                 break;
             case EVENT_READ_CLUT_DONE:
                 ar = (AsyncResult) msg.obj;
+                load = (IconLoad) ar.userObj;
                 byte [] clut = ((byte[]) ar.result);
-                mCurrentIcon = parseToRGB(mIconData, mIconData.length,
-                        false, clut);
-                mIconsCache.put(mRecordNumber, mCurrentIcon);
-                postIcon();
+                Bitmap icon = decodeRgb(load.mIconData, false, clut, pixels(load.mIconData));
+                mIconsCache.put(load.mRecordNumber, icon);
+                onIconLoaded(load, icon);
                 break;
             }
         } catch (Exception e) {
             CatLog.d(this, "Icon load failed");
             // post null icon back to the caller.
-            postIcon();
+            if (load != null) {
+                onIconLoaded(load, null);
+            }
         }
     }
 
@@ -179,57 +242,67 @@ class IconLoader extends Handler {
      * @param rawData byte [] containing Image Instance descriptor as defined in
      * TS 51.011.
      */
-    private boolean handleImageDescriptor(byte[] rawData) {
-        mId = ImageDescriptor.parse(rawData, 1);
-        if (mId == null) {
+    private boolean handleImageDescriptor(IconLoad load, byte[] rawData) {
+        load.mId = ImageDescriptor.parse(rawData, 1);
+        if (load.mId == null) {
             return false;
         }
         return true;
     }
 
     // Start reading color lookup table from SIM card.
-    private void readClut() {
-        int length = mIconData[3] * CLUT_ENTRY_SIZE;
-        Message msg = obtainMessage(EVENT_READ_CLUT_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId,
-                mIconData[CLUT_LOCATION_OFFSET],
-                mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
+    private void readClut(IconLoad load) {
+        int length = load.mIconData[3] * CLUT_ENTRY_SIZE;
+        Message msg = obtainMessage(EVENT_READ_CLUT_DONE, load);
+        mSimFH.loadEFImgTransparent(load.mId.mImageId,
+                load.mIconData[CLUT_LOCATION_OFFSET],
+                load.mIconData[CLUT_LOCATION_OFFSET + 1], length, msg);
     }
 
     // Start reading Image Descriptor from SIM card.
-    private void readId() {
-        if (mRecordNumber < 0) {
-            mCurrentIcon = null;
-            postIcon();
-            return;
-        }
-        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE);
-        mSimFH.loadEFImgLinearFixed(mRecordNumber, msg);
+    private void readId(IconLoad load) {
+        Message msg = obtainMessage(EVENT_READ_EF_IMG_RECOED_DONE, load);
+        mSimFH.loadEFImgLinearFixed(load.mRecordNumber, msg);
     }
 
     // Start reading icon bytes array from SIM card.
-    private void readIconData() {
-        Message msg = obtainMessage(EVENT_READ_ICON_DONE);
-        mSimFH.loadEFImgTransparent(mId.mImageId, 0, 0, mId.mLength ,msg);
+    private void readIconData(IconLoad load) {
+        Message msg = obtainMessage(EVENT_READ_ICON_DONE, load);
+        mSimFH.loadEFImgTransparent(load.mId.mImageId, 0, 0, load.mId.mLength ,msg);
     }
 
-    // When all is done pass icon back to caller.
-    private void postIcon() {
-        if (mState == STATE_SINGLE_ICON) {
-            mEndMsg.obj = mCurrentIcon;
-            mEndMsg.sendToTarget();
-        } else if (mState == STATE_MULTI_ICONS) {
-            mIcons[mCurrentRecordIndex++] = mCurrentIcon;
-            // If not all icons were loaded, start loading the next one.
-            if (mCurrentRecordIndex < mRecordNumbers.length) {
-                startLoadingIcon(mRecordNumbers[mCurrentRecordIndex]);
-            } else {
-                mEndMsg.obj = mIcons;
-                mEndMsg.sendToTarget();
-            }
+    // Store the icon at all the positions showing it.
+    private void onIconLoaded(IconLoad load, Bitmap icon) {
+        IconsRequest request = load.mRequest;
+        for (int index : load.mIndexes) {
+            request.mIcons[index] = icon;
+        }
+        request.mPending -= load.mIndexes.size();
+        if (request.mPending == 0) {
+            postIcons(request);
         }
     }
 
+    // When all is done pass icons back to caller.
+    private void postIcons(IconsRequest request) {
+        mPixels = NO_PIXELS;
+        if (request.mSingle) {
+            request.mEndMsg.obj = request.mIcons[0];
+        } else {
+            request.mEndMsg.obj = request.mIcons;
+        }
+        request.mEndMsg.sendToTarget();
+    }
+
+    // The pixel buffer, large enough for the image instance.
+    private int[] pixels(byte[] data) {
+        int numOfPixels = (data[0] & 0xFF) * (data[1] & 0xFF);
+        if (mPixels.length < numOfPixels) {
+            mPixels = new int[numOfPixels];
+        }
+        return mPixels;
+    }
+
     /**
      * Convert a TS 131.102 image instance of code scheme '11' into Bitmap
      * @param data The raw data
@@ -237,13 +310,16 @@ class IconLoader extends Handler {
      * @return The bitmap
      */
     public static Bitmap parseToBnW(byte[] data, int length){
+        return decodeBnW(data, new int[(data[0] & 0xFF) * (data[1] & 0xFF)]);
+    }
+
+    // Decode a black and white image instance, pixels is large enough for the image.
+    private static Bitmap decodeBnW(byte[] data, int[] pixels) {
         int valueIndex = 0;
         int width = data[valueIndex++] & 0xFF;
         int height = data[valueIndex++] & 0xFF;
         int numOfPixels = width*height;
 
-        int[] pixels = new int[numOfPixels];
-
         int pixelIndex = 0;
         int bitIndex = 7;
         byte currentByte = 0x00;
@@ -259,7 +335,7 @@ class IconLoader extends Handler {
         if (pixelIndex != numOfPixels) {
             CatLog.d("IconLoader", "parseToBnW; size error");
         }
-        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        return Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
     }
 
     /**
@@ -288,6 +364,13 @@ class IconLoader extends Handler {
      */
     public static Bitmap parseToRGB(byte[] data, int length,
             boolean transparency, byte[] clut) {
+        return decodeRgb(data, transparency, clut,
+                new int[(data[0] & 0xFF) * (data[1] & 0xFF)]);
+    }
+
+    // Decode a colour image instance, pixels is large enough for the image.
+    private static Bitmap decodeRgb(byte[] data, boolean transparency, byte[] clut,
+            int[] pixels) {
         int valueIndex = 0;
         int width = data[valueIndex++] & 0xFF;
         int height = data[valueIndex++] & 0xFF;
@@ -298,8 +381,14 @@ class IconLoader extends Handler {
             clut[numOfClutEntries - 1] = Color.TRANSPARENT;
         }
 
+        // Colors of the entries present in the table, computed once rather than per pixel
+        int[] colors = new int[Math.min(numOfClutEntries, clut.length / CLUT_ENTRY_SIZE)];
+        for (int i = 0; i < colors.length; i++) {
+            int clutIndex = i * CLUT_ENTRY_SIZE;
+            colors[i] = Color.rgb(clut[clutIndex], clut[clutIndex + 1], clut[clutIndex + 2]);
+        }
+
         int numOfPixels = width * height;
-        int[] pixels = new int[numOfPixels];
 
         valueIndex = 6;
         int pixelIndex = 0;
@@ -315,13 +404,17 @@ class IconLoader extends Handler {
                 bitIndex = bitsOverlaps ? (bitsStartOffset) : (bitIndex * -1);
             }
             int clutEntry = ((currentByte >> bitIndex) & mask);
-            int clutIndex = clutEntry * CLUT_ENTRY_SIZE;
-            pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
-                    clut[clutIndex + 1], clut[clutIndex + 2]);
+            if (clutEntry < colors.length) {
+                pixels[pixelIndex++] = colors[clutEntry];
+            } else {
+                int clutIndex = clutEntry * CLUT_ENTRY_SIZE;
+                pixels[pixelIndex++] = Color.rgb(clut[clutIndex],
+                        clut[clutIndex + 1], clut[clutIndex + 2]);
+            }
             bitIndex -= bitsPerImg;
         }
 
-        return Bitmap.createBitmap(pixels, width, height,
+        return Bitmap.createBitmap(pixels, 0, width, width, height,
                 Bitmap.Config.ARGB_8888);
     }
 
@@ -368,7 +461,7 @@ class IconLoader extends Handler {
             sThread.quit();
             sThread = null;
         }
-        mIconsCache = null;
+        mIconsCache.evictAll();
         sLoader = null;
     }
 }
@@ -22,6 +22,7 @@ import android.content.res.XmlResourceParser;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
 import android.telephony.Rlog;
+import android.util.SparseArray;
 import android.util.Xml;
 
 import com.android.internal.telephony.Phone;
@@ -31,9 +32,11 @@ import com.android.internal.util.XmlUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -42,7 +45,11 @@ import java.util.HashMap;
  */
 public class EriManager {
 
-    class EriFile {
+    /**
+     * A parsed ERI file. Immutable once parsed, so it is shared by all EriManagers that load
+     * the same file.
+     */
+    static class EriFile {
 
         int mVersionNumber;                      // File version number
         int mNumberOfEriEntries;                 // Number of entries
@@ -50,14 +57,65 @@ public class EriManager {
         //int mNumberOfIconImages;               // reserved for future use
         //int mIconImageType;                    // reserved for future use
         String[] mCallPromptId;                  // reserved for future use
-        HashMap<Integer, EriInfo> mRoamIndTable; // Roaming Indicator Table
+
+        // Roaming Indicator Table, sorted by roaming indicator for binary search, with the
+        // icon index, icon mode, call prompt id and alert id of entry i at ENTRY_SIZE * i
+        int[] mRoamingIndicators;
+        int[] mEntries;
+        String[] mEriText;
+
+        static final int ENTRY_SIZE = 4;
 
         EriFile() {
             mVersionNumber = -1;
             mNumberOfEriEntries = 0;
             mEriFileType = -1;
             mCallPromptId = new String[] { "", "", "" };
-            mRoamIndTable = new HashMap<Integer, EriInfo>();
+            mRoamingIndicators = new int[0];
+            mEntries = new int[0];
+            mEriText = new String[0];
+        }
+
+        void setRoamIndTable(SparseArray<EriInfo> roamIndTable) {
+            int size = roamIndTable.size();
+            mRoamingIndicators = new int[size];
+            mEntries = new int[size * ENTRY_SIZE];
+            mEriText = new String[size];
+            HashMap<String, String> textPool = new HashMap<String, String>();
+            for (int i = 0; i < size; i++) {
+                EriInfo eriInfo = roamIndTable.valueAt(i);
+                mRoamingIndicators[i] = roamIndTable.keyAt(i);
+                mEntries[i * ENTRY_SIZE] = eriInfo.iconIndex;
+                mEntries[i * ENTRY_SIZE + 1] = eriInfo.iconMode;
+                mEntries[i * ENTRY_SIZE + 2] = eriInfo.callPromptId;
+                mEntries[i * ENTRY_SIZE + 3] = eriInfo.alertId;
+                String text = textPool.get(eriInfo.eriText);
+                if (text == null && eriInfo.eriText != null) {
+                    text = eriInfo.eriText;
+                    textPool.put(text, text);
+                }
+                mEriText[i] = text;
+            }
+        }
+
+        /**
+         * @return the index of the entry of the roaming indicator, or -1
+         */
+        int indexOf(int roamingIndicator) {
+            int index = Arrays.binarySearch(mRoamingIndicators, roamingIndicator);
+            return index >= 0 ? index : -1;
+        }
+
+        int getIconIndex(int index) {
+            return mEntries[index * ENTRY_SIZE];
+        }
+
+        int getIconMode(int index) {
+            return mEntries[index * ENTRY_SIZE + 1];
+        }
+
+        String getEriText(int index) {
+            return mEriText[index];
         }
     }
 
@@ -93,6 +151,9 @@ public class EriManager {
     static final int ERI_FROM_FILE_SYSTEM  = 1;
     static final int ERI_FROM_MODEM        = 2;
 
+    /** Parsed ERI files by source, shared by the phones */
+    private static final HashMap<String, EriFile> sEriFileCache = new HashMap<String, EriFile>();
+
     private Context mContext;
     private int mEriFileSource = ERI_FROM_XML;
     private boolean mIsEriFileLoaded;
@@ -157,11 +218,15 @@ public class EriManager {
         XmlPullParser parser = null;
         FileInputStream stream = null;
         Resources r = mContext.getResources();
+        String cacheKey = null;
 
         try {
             if (DBG) Rlog.d(LOG_TAG, "loadEriFileFromXml: check for alternate file");
-            stream = new FileInputStream(
-                            r.getString(com.android.internal.R.string.alternate_eri_file));
+            File alternateFile = new File(
+                    r.getString(com.android.internal.R.string.alternate_eri_file));
+            cacheKey = "file:" + alternateFile.getPath() + ":" + alternateFile.lastModified();
+            if (useCachedEriFile(cacheKey)) return;
+            stream = new FileInputStream(alternateFile);
             parser = Xml.newPullParser();
             parser.setInput(stream, null);
             if (DBG) Rlog.d(LOG_TAG, "loadEriFileFromXml: opened alternate file");
@@ -192,6 +257,10 @@ public class EriManager {
                 return;
             }
 
+            // Assets don't change while the process runs
+            cacheKey = "asset:" + eriFile;
+            if (useCachedEriFile(cacheKey)) return;
+
             try {
                 parser = Xml.newPullParser();
                 parser.setInput(mContext.getAssets().open(eriFile), null);
@@ -202,12 +271,14 @@ public class EriManager {
         }
 
         try {
+            EriFile parsedEriFile = new EriFile();
+            SparseArray<EriInfo> roamIndTable = new SparseArray<EriInfo>();
             XmlUtils.beginDocument(parser, "EriFile");
-            mEriFile.mVersionNumber = Integer.parseInt(
+            parsedEriFile.mVersionNumber = Integer.parseInt(
                     parser.getAttributeValue(null, "VersionNumber"));
-            mEriFile.mNumberOfEriEntries = Integer.parseInt(
+            parsedEriFile.mNumberOfEriEntries = Integer.parseInt(
                     parser.getAttributeValue(null, "NumberOfEriEntries"));
-            mEriFile.mEriFileType = Integer.parseInt(
+            parsedEriFile.mEriFileType = Integer.parseInt(
                     parser.getAttributeValue(null, "EriFileType"));
 
             int parsedEriEntries = 0;
@@ -215,15 +286,16 @@ public class EriManager {
                 XmlUtils.nextElement(parser);
                 String name = parser.getName();
                 if (name == null) {
-                    if (parsedEriEntries != mEriFile.mNumberOfEriEntries)
-                        Rlog.e(LOG_TAG, "Error Parsing ERI file: " +  mEriFile.mNumberOfEriEntries
-                                + " defined, " + parsedEriEntries + " parsed!");
+                    if (parsedEriEntries != parsedEriFile.mNumberOfEriEntries)
+                        Rlog.e(LOG_TAG, "Error Parsing ERI file: "
+                                + parsedEriFile.mNumberOfEriEntries + " defined, "
+                                + parsedEriEntries + " parsed!");
                     break;
                 } else if (name.equals("CallPromptId")) {
                     int id = Integer.parseInt(parser.getAttributeValue(null, "Id"));
                     String text = parser.getAttributeValue(null, "CallPromptText");
                     if (id >= 0 && id <= 2) {
-                        mEriFile.mCallPromptId[id] = text;
+                        parsedEriFile.mCallPromptId[id] = text;
                     } else {
                         Rlog.e(LOG_TAG, "Error Parsing ERI file: found" + id + " CallPromptId");
                     }
@@ -238,15 +310,21 @@ public class EriManager {
                             parser.getAttributeValue(null, "CallPromptId"));
                     int alertId = Integer.parseInt(parser.getAttributeValue(null, "AlertId"));
                     parsedEriEntries++;
-                    mEriFile.mRoamIndTable.put(roamingIndicator, new EriInfo (roamingIndicator,
+                    roamIndTable.put(roamingIndicator, new EriInfo (roamingIndicator,
                             iconIndex, iconMode, eriText, callPromptId, alertId));
                 }
             }
+            parsedEriFile.setRoamIndTable(roamIndTable);
 
             Rlog.d(LOG_TAG, "loadEriFileFromXml: eri parsing successful, file loaded. ver = " +
-                    mEriFile.mVersionNumber + ", # of entries = " + mEriFile.mNumberOfEriEntries);
+                    parsedEriFile.mVersionNumber + ", # of entries = "
+                    + parsedEriFile.mNumberOfEriEntries);
 
+            mEriFile = parsedEriFile;
             mIsEriFileLoaded = true;
+            synchronized (sEriFileCache) {
+                sEriFileCache.put(cacheKey, parsedEriFile);
+            }
 
         } catch (Exception e) {
             Rlog.e(LOG_TAG, "Got exception while loading ERI file.", e);
@@ -264,6 +342,23 @@ public class EriManager {
         }
     }
 
+    /**
+     * Use the ERI file parsed earlier from the same source, if any.
+     *
+     * @return true if the cached file was used
+     */
+    private boolean useCachedEriFile(String cacheKey) {
+        EriFile eriFile;
+        synchronized (sEriFileCache) {
+            eriFile = sEriFileCache.get(cacheKey);
+        }
+        if (eriFile == null) return false;
+        if (DBG) Rlog.d(LOG_TAG, "loadEriFileFromXml: using parsed " + cacheKey);
+        mEriFile = eriFile;
+        mIsEriFileLoaded = true;
+        return true;
+    }
+
     /**
      * Returns the version of the ERI file
      *
@@ -297,15 +392,18 @@ public class EriManager {
     }
 
     /**
-     * Returns the EriInfo record associated with roamingIndicator
-     * or null if the entry is not found
+     * Returns the index of the ERI file entry associated with roamingIndicator
+     * or -1 if the entry is not found
      */
-    private EriInfo getEriInfo(int roamingIndicator) {
-        if (mEriFile.mRoamIndTable.containsKey(roamingIndicator)) {
-            return mEriFile.mRoamIndTable.get(roamingIndicator);
-        } else {
-            return null;
-        }
+    private int getEriIndex(int roamingIndicator) {
+        return mEriFile.indexOf(roamingIndicator);
+    }
+
+    private EriDisplayInformation newEriDisplayInformation(int index) {
+        return new EriDisplayInformation(
+                mEriFile.getIconIndex(index),
+                mEriFile.getIconMode(index),
+                mEriFile.getEriText(index));
     }
 
     private EriDisplayInformation getEriDisplayInformation(int roamInd, int defRoamInd){
@@ -313,13 +411,10 @@ public class EriManager {
 
         // Carrier can use carrier config to customize any built-in roaming display indications
         if (mIsEriFileLoaded) {
-            EriInfo eriInfo = getEriInfo(roamInd);
-            if (eriInfo != null) {
+            int eriIndex = getEriIndex(roamInd);
+            if (eriIndex >= 0) {
                 if (VDBG) Rlog.v(LOG_TAG, "ERI roamInd " + roamInd + " found in ERI file");
-                ret = new EriDisplayInformation(
-                        eriInfo.iconIndex,
-                        eriInfo.iconMode,
-                        eriInfo.eriText);
+                ret = newEriDisplayInformation(eriIndex);
                 return ret;
             }
         }
@@ -464,14 +559,14 @@ public class EriManager {
                 }
             } else {
                 // ERI file loaded
-                EriInfo eriInfo = getEriInfo(roamInd);
-                EriInfo defEriInfo = getEriInfo(defRoamInd);
-                if (eriInfo == null) {
+                int eriIndex = getEriIndex(roamInd);
+                int defEriIndex = getEriIndex(defRoamInd);
+                if (eriIndex < 0) {
                     if (VDBG) {
                         Rlog.v(LOG_TAG, "ERI roamInd " + roamInd
                             + " not found in ERI file ...using defRoamInd " + defRoamInd);
                     }
-                    if(defEriInfo == null) {
+                    if(defEriIndex < 0) {
                         Rlog.e(LOG_TAG, "ERI defRoamInd " + defRoamInd
                                 + " not found in ERI file ...on");
                         ret = new EriDisplayInformation(
@@ -484,17 +579,11 @@ public class EriManager {
                         if (VDBG) {
                             Rlog.v(LOG_TAG, "ERI defRoamInd " + defRoamInd + " found in ERI file");
                         }
-                        ret = new EriDisplayInformation(
-                                defEriInfo.iconIndex,
-                                defEriInfo.iconMode,
-                                defEriInfo.eriText);
+                        ret = newEriDisplayInformation(defEriIndex);
                     }
                 } else {
                     if (VDBG) Rlog.v(LOG_TAG, "ERI roamInd " + roamInd + " found in ERI file");
-                    ret = new EriDisplayInformation(
-                            eriInfo.iconIndex,
-                            eriInfo.iconMode,
-                            eriInfo.eriText);
+                    ret = newEriDisplayInformation(eriIndex);
                 }
             }
             break;
@@ -29,10 +29,11 @@ import com.android.internal.telephony.uicc.IccRecords;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a apn setting for create PDP link
@@ -112,17 +113,93 @@ public class ApnSetting {
      * */
     public boolean permanentFailed = false;
 
+    /**
+     * Bitmask of the well known APN types in {@link #types}, see {@link #getApnTypeBitmask}.
+     */
+    private final int mTypesBitmask;
+
+    /**
+     * Whether {@link #types} contains a type which has no bit in {@link #mTypesBitmask}.
+     */
+    private final boolean mHasUnknownTypes;
+
+    private static final int APN_TYPE_BIT_DEFAULT   = 1 << 0;
+    private static final int APN_TYPE_BIT_MMS       = 1 << 1;
+    private static final int APN_TYPE_BIT_SUPL      = 1 << 2;
+    private static final int APN_TYPE_BIT_DUN       = 1 << 3;
+    private static final int APN_TYPE_BIT_HIPRI     = 1 << 4;
+    private static final int APN_TYPE_BIT_FOTA      = 1 << 5;
+    private static final int APN_TYPE_BIT_IMS       = 1 << 6;
+    private static final int APN_TYPE_BIT_CBS       = 1 << 7;
+    private static final int APN_TYPE_BIT_IA        = 1 << 8;
+    private static final int APN_TYPE_BIT_EMERGENCY = 1 << 9;
+    private static final int APN_TYPE_BIT_ALL       = 1 << 10;
+
     /**
      * Metered APN types which would be accounted for in data usage. This is a map of subId ->
-     * set of metered apn strings for the carrier.
+     * metered apn types for the carrier. Entries are immutable so lookups don't need a lock.
      */
-    private static HashMap<Integer, HashSet<String>> sMeteredApnTypes = new HashMap<>();
+    private static final ConcurrentHashMap<Integer, MeteredApnTypes> sMeteredApnTypes =
+            new ConcurrentHashMap<>();
 
     /**
      * Metered Roaming APN types which would be accounted for in data usage. This is a map of
-     * subId -> set of metered roaming apn strings for the carrier.
+     * subId -> metered roaming apn types for the carrier.
+     */
+    private static final ConcurrentHashMap<Integer, MeteredApnTypes> sMeteredRoamingApnTypes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every carrier config change. Cache entries built from an older carrier
+     * config are ignored, even if they were added while the caches were being cleared.
      */
-    private static HashMap<Integer, HashSet<String>> sMeteredRoamingApnTypes = new HashMap<>();
+    private static final AtomicInteger sCarrierConfigGeneration = new AtomicInteger();
+
+    /**
+     * Immutable set of metered APN types of a carrier config, compiled into a bitmask.
+     */
+    private static final class MeteredApnTypes {
+        final int generation;
+        // All APN types are metered
+        final boolean allMetered;
+        // Bits of the metered well known types. APN_TYPE_BIT_ALL is set if any type is metered.
+        final int meteredBitmask;
+        // Metered types which have no bit
+        final HashSet<String> unknownTypes;
+
+        MeteredApnTypes(int generation, String[] meteredApnTypes) {
+            this.generation = generation;
+            int bitmask = 0;
+            HashSet<String> unknown = new HashSet<String>();
+            for (String type : meteredApnTypes) {
+                int bit = getApnTypeBitmask(type);
+                if (bit == 0) {
+                    unknown.add(type);
+                } else {
+                    bitmask |= bit;
+                }
+            }
+            // Assuming no configuration error, if at least one APN type is
+            // metered, then an APN_TYPE_ALL APN setting is metered.
+            if (meteredApnTypes.length > 0) {
+                bitmask |= APN_TYPE_BIT_ALL;
+            }
+            this.allMetered = Arrays.asList(meteredApnTypes).contains(PhoneConstants.APN_TYPE_ALL);
+            this.meteredBitmask = bitmask;
+            this.unknownTypes = unknown;
+        }
+
+        boolean isMetered(String type, int typeBitmask) {
+            return allMetered || (meteredBitmask & typeBitmask) != 0
+                    || (typeBitmask == 0 && unknownTypes.contains(type));
+        }
+
+        @Override
+        public String toString() {
+            return "{allMetered=" + allMetered + " meteredBitmask=0x"
+                    + Integer.toHexString(meteredBitmask) + " unknownTypes=" + unknownTypes + "}";
+        }
+    }
 
     public ApnSetting(int id, String numeric, String carrier, String apn,
             String proxy, String port,
@@ -161,6 +238,17 @@ public class ApnSetting {
         this.mvnoType = mvnoType;
         this.mvnoMatchData = mvnoMatchData;
 
+        int typesBitmask = 0;
+        boolean hasUnknownTypes = false;
+        for (String type : this.types) {
+            int bit = getApnTypeBitmask(type);
+            if (bit == 0) {
+                hasUnknownTypes = true;
+            }
+            typesBitmask |= bit;
+        }
+        this.mTypesBitmask = typesBitmask;
+        this.mHasUnknownTypes = hasUnknownTypes;
     }
 
     public ApnSetting(ApnSetting apn) {
@@ -410,82 +498,117 @@ public class ApnSetting {
         return false;
     }
 
-    public static boolean isMeteredApnType(String type, Context context, int subId,
-                                           boolean isRoaming) {
+    /**
+     * @return the bit of a well known APN type, or 0 if the type is unknown
+     */
+    private static int getApnTypeBitmask(String type) {
+        switch (type) {
+            case PhoneConstants.APN_TYPE_DEFAULT: return APN_TYPE_BIT_DEFAULT;
+            case PhoneConstants.APN_TYPE_MMS: return APN_TYPE_BIT_MMS;
+            case PhoneConstants.APN_TYPE_SUPL: return APN_TYPE_BIT_SUPL;
+            case PhoneConstants.APN_TYPE_DUN: return APN_TYPE_BIT_DUN;
+            case PhoneConstants.APN_TYPE_HIPRI: return APN_TYPE_BIT_HIPRI;
+            case PhoneConstants.APN_TYPE_FOTA: return APN_TYPE_BIT_FOTA;
+            case PhoneConstants.APN_TYPE_IMS: return APN_TYPE_BIT_IMS;
+            case PhoneConstants.APN_TYPE_CBS: return APN_TYPE_BIT_CBS;
+            case PhoneConstants.APN_TYPE_IA: return APN_TYPE_BIT_IA;
+            case PhoneConstants.APN_TYPE_EMERGENCY: return APN_TYPE_BIT_EMERGENCY;
+            case PhoneConstants.APN_TYPE_ALL: return APN_TYPE_BIT_ALL;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Drop the cached metered APN types of all subscriptions. Must be called when the
+     * carrier config has changed.
+     */
+    public static void onCarrierConfigChanged() {
+        sCarrierConfigGeneration.incrementAndGet();
+        sMeteredApnTypes.clear();
+        sMeteredRoamingApnTypes.clear();
+        if (DBG) Rlog.d(LOG_TAG, "onCarrierConfigChanged: metered APN types cleared");
+    }
 
-        HashMap<Integer, HashSet<String>> meteredApnTypesCache = (isRoaming) ?
-                sMeteredApnTypes : sMeteredRoamingApnTypes;
+    /**
+     * @return the metered APN types of the carrier, or null if the carrier config is not
+     * available
+     */
+    private static MeteredApnTypes getMeteredApnTypes(Context context, int subId,
+            boolean isRoaming) {
+        ConcurrentHashMap<Integer, MeteredApnTypes> meteredApnTypesCache = (isRoaming) ?
+                sMeteredRoamingApnTypes : sMeteredApnTypes;
+        int generation = sCarrierConfigGeneration.get();
+
+        MeteredApnTypes meteredApnTypes = meteredApnTypesCache.get(subId);
+        if (meteredApnTypes != null && meteredApnTypes.generation == generation) {
+            return meteredApnTypes;
+        }
+
+        // In case of cache miss, we need to look up the settings from carrier config.
         String carrierConfig = (isRoaming) ?
                 CarrierConfigManager.KEY_CARRIER_METERED_ROAMING_APN_TYPES_STRINGS :
                 CarrierConfigManager.KEY_CARRIER_METERED_APN_TYPES_STRINGS;
+        CarrierConfigManager configManager = (CarrierConfigManager)
+                context.getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        if (configManager == null) {
+            Rlog.e(LOG_TAG, "Carrier config service is not available");
+            return null;
+        }
 
-        synchronized (meteredApnTypesCache) {
-            HashSet<String> meteredApnSet = meteredApnTypesCache.get(subId);
-
-            // In case of cache miss, we need to look up the settings from carrier config.
-            if (meteredApnSet == null) {
-                // Retrieve the metered APN types from carrier config
-                CarrierConfigManager configManager = (CarrierConfigManager)
-                        context.getSystemService(Context.CARRIER_CONFIG_SERVICE);
-                if (configManager == null) {
-                    Rlog.e(LOG_TAG, "Carrier config service is not available");
-                    return true;
-                }
-
-                PersistableBundle b = configManager.getConfigForSubId(subId);
-                if (b == null) {
-                    Rlog.e(LOG_TAG, "Can't get the config. subId = " + subId);
-                    return true;
-                }
+        PersistableBundle b = configManager.getConfigForSubId(subId);
+        if (b == null) {
+            Rlog.e(LOG_TAG, "Can't get the config. subId = " + subId);
+            return null;
+        }
 
-                String[] meteredApnTypes = b.getStringArray(carrierConfig);
-                if (meteredApnTypes == null) {
-                    Rlog.e(LOG_TAG, carrierConfig +  " is not available. " + "subId = " + subId);
-                    return true;
-                }
+        String[] meteredApnTypesStrings = b.getStringArray(carrierConfig);
+        if (meteredApnTypesStrings == null) {
+            Rlog.e(LOG_TAG, carrierConfig +  " is not available. " + "subId = " + subId);
+            return null;
+        }
 
-                meteredApnSet = new HashSet<String>(Arrays.asList(meteredApnTypes));
-                meteredApnTypesCache.put(subId, meteredApnSet);
-                if (DBG) {
-                    Rlog.d(LOG_TAG, "For subId = " + subId + ", metered APN types are " +
-                            Arrays.toString(meteredApnSet.toArray()) +
-                            " isRoaming: " + isRoaming);
-                }
-            }
-            // If all types of APN are metered, then this APN setting must be metered.
-            if (meteredApnSet.contains(PhoneConstants.APN_TYPE_ALL)) {
-                if (DBG) Rlog.d(LOG_TAG, "All APN types are metered. isRoaming: " + isRoaming);
-                return true;
-            }
+        meteredApnTypes = new MeteredApnTypes(generation, meteredApnTypesStrings);
+        meteredApnTypesCache.put(subId, meteredApnTypes);
+        if (DBG) {
+            Rlog.d(LOG_TAG, "For subId = " + subId + ", metered APN types are " +
+                    Arrays.toString(meteredApnTypesStrings) + " " + meteredApnTypes +
+                    " isRoaming: " + isRoaming);
+        }
+        return meteredApnTypes;
+    }
 
-            if (meteredApnSet.contains(type)) {
-                if (DBG) Rlog.d(LOG_TAG, type + " is metered. isRoaming: " + isRoaming);
-                return true;
-            } else if (type.equals(PhoneConstants.APN_TYPE_ALL)) {
-                // Assuming no configuration error, if at least one APN type is
-                // metered, then this APN setting is metered.
-                if (meteredApnSet.size() > 0) {
-                    if (DBG) Rlog.d(LOG_TAG, "APN_TYPE_ALL APN is metered. isRoaming: " +
-                            isRoaming);
-                    return true;
-                }
-            }
+    public static boolean isMeteredApnType(String type, Context context, int subId,
+                                           boolean isRoaming) {
+        MeteredApnTypes meteredApnTypes = getMeteredApnTypes(context, subId, isRoaming);
+        if (meteredApnTypes == null) {
+            return true;
         }
-        if (DBG) Rlog.d(LOG_TAG, type + " is not metered. isRoaming: " + isRoaming);
-        return false;
+
+        boolean metered = meteredApnTypes.isMetered(type, getApnTypeBitmask(type));
+        if (DBG) Rlog.d(LOG_TAG, type + " is metered=" + metered + ". isRoaming: " + isRoaming);
+        return metered;
     }
 
     public boolean isMetered(Context context, int subId, boolean isRoaming ) {
-        for (String type : types) {
-            // If one of the APN type is metered, then this APN setting is metered.
-            if (isMeteredApnType(type, context, subId, isRoaming)) {
-                if (DBG) Rlog.d(LOG_TAG, "Metered. APN = " + toString() +
-                        "isRoaming: " + isRoaming);
-                return true;
+        MeteredApnTypes meteredApnTypes = getMeteredApnTypes(context, subId, isRoaming);
+        if (meteredApnTypes == null) {
+            return true;
+        }
+
+        // If one of the APN type is metered, then this APN setting is metered.
+        boolean metered = meteredApnTypes.allMetered
+                || (meteredApnTypes.meteredBitmask & mTypesBitmask) != 0;
+        if (!metered && mHasUnknownTypes) {
+            for (String type : types) {
+                if (getApnTypeBitmask(type) == 0 && meteredApnTypes.unknownTypes.contains(type)) {
+                    metered = true;
+                    break;
+                }
             }
         }
-        if (DBG) Rlog.d(LOG_TAG, "Not metered. APN = " + toString() + "isRoaming: " + isRoaming);
-        return false;
+        if (DBG) Rlog.d(LOG_TAG, "Metered=" + metered + ". APN = " + toString() +
+                "isRoaming: " + isRoaming);
+        return metered;
     }
 
     // TODO - if we have this function we should also have hashCode.
@@ -30,6 +30,8 @@ import com.android.internal.telephony.dataconnection.DcFailCause;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * This is RIL_Data_Call_Response_v5 from ril.h
@@ -74,6 +76,52 @@ public class DataCallResponse {
         }
     }
 
+    /**
+     * @return a copy of this response which is not affected by later changes made to
+     * this instance, e.g. by {@link #setLinkProperties}
+     */
+    public DataCallResponse copy() {
+        DataCallResponse dcr = new DataCallResponse();
+        dcr.version = version;
+        dcr.status = status;
+        dcr.cid = cid;
+        dcr.active = active;
+        dcr.type = type;
+        dcr.ifname = ifname;
+        dcr.addresses = (addresses == null) ? null : addresses.clone();
+        dcr.dnses = (dnses == null) ? null : dnses.clone();
+        dcr.gateways = (gateways == null) ? null : gateways.clone();
+        dcr.suggestedRetryTime = suggestedRetryTime;
+        dcr.pcscf = (pcscf == null) ? null : pcscf.clone();
+        dcr.mtu = mtu;
+        return dcr;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DataCallResponse)) return false;
+
+        DataCallResponse other = (DataCallResponse) o;
+        return version == other.version
+                && status == other.status
+                && cid == other.cid
+                && active == other.active
+                && suggestedRetryTime == other.suggestedRetryTime
+                && mtu == other.mtu
+                && Objects.equals(type, other.type)
+                && Objects.equals(ifname, other.ifname)
+                && Arrays.equals(addresses, other.addresses)
+                && Arrays.equals(dnses, other.dnses)
+                && Arrays.equals(gateways, other.gateways)
+                && Arrays.equals(pcscf, other.pcscf);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cid, active, status, ifname, Arrays.hashCode(addresses));
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
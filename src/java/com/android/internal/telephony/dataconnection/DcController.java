@@ -58,6 +58,17 @@ public class DcController extends StateMachine {
     private HashMap<Integer, DataConnection> mDcListActiveByCid =
             new HashMap<Integer, DataConnection>();
 
+    // Snapshot of the last data call list reported by RIL_UNSOL_DATA_CALL_LIST_CHANGED keyed
+    // by cid. An entry is dropped whenever the DataConnection owning that cid changes so the
+    // next report for it is always processed.
+    private HashMap<Integer, DataCallResponse> mLastDataCallListByCid =
+            new HashMap<Integer, DataCallResponse>();
+
+    // Statistics for the data call list reconciliation, see dump()
+    private long mDataCallListChangedCount;
+    private long mDataCallListNoOpCount;
+    private long mDataCallUnchangedCount;
+
     /**
      * Constants for the data connection activity:
      * physical link down/up
@@ -129,6 +140,7 @@ public class DcController extends StateMachine {
 
     void removeDc(DataConnection dc) {
         mDcListActiveByCid.remove(dc.mCid);
+        mLastDataCallListByCid.remove(dc.mCid);
         mDcListAll.remove(dc);
     }
 
@@ -137,6 +149,7 @@ public class DcController extends StateMachine {
             log("addActiveDcByCid dc.mCid < 0 dc=" + dc);
         }
         mDcListActiveByCid.put(dc.mCid, dc);
+        mLastDataCallListByCid.remove(dc.mCid);
     }
 
     public DataConnection getActiveDcByCid(int cid) {
@@ -148,6 +161,7 @@ public class DcController extends StateMachine {
         if (DBG && removedDc == null) {
             log("removeActiveDcByCid removedDc=null dc=" + dc);
         }
+        mLastDataCallListByCid.remove(dc.mCid);
     }
 
     boolean isExecutingCarrierChange() {
@@ -221,12 +235,17 @@ public class DcController extends StateMachine {
                 log("onDataStateChanged: mDcListAll=" + mDcListAll);
             }
 
-            // Create hashmap of cid to DataCallResponse
+            mDataCallListChangedCount++;
+
+            // Create hashmap of cid to DataCallResponse. A copy is kept as the snapshot for
+            // the next notification since updateLinkProperty() may modify the response.
             HashMap<Integer, DataCallResponse> dataCallResponseListByCid =
                     new HashMap<Integer, DataCallResponse>();
             for (DataCallResponse dcs : dcsList) {
-                dataCallResponseListByCid.put(dcs.cid, dcs);
+                dataCallResponseListByCid.put(dcs.cid, dcs.copy());
             }
+            HashMap<Integer, DataCallResponse> lastDataCallListByCid = mLastDataCallListByCid;
+            mLastDataCallListByCid = dataCallResponseListByCid;
 
             // Add a DC that is active but not in the
             // dcsList to the list of DC's to retry
@@ -239,6 +258,17 @@ public class DcController extends StateMachine {
             }
             if (DBG) log("onDataStateChanged: dcsToRetry=" + dcsToRetry);
 
+            if (dcsToRetry.isEmpty() && isDataCallListUnchanged(dcsList, lastDataCallListByCid)) {
+                // Nothing has changed since the last notification, so neither the data
+                // connections nor the data activity need to be updated.
+                mDataCallListNoOpCount++;
+                if (DBG) {
+                    lr("onDataStateChanged: no-op, unchanged data call list count="
+                            + mDataCallListNoOpCount);
+                }
+                return;
+            }
+
             // Find which connections have changed state and send a notification or cleanup
             // and any that are in active need to be retried.
             ArrayList<ApnContext> apnsToCleanup = new ArrayList<ApnContext>();
@@ -257,6 +287,10 @@ public class DcController extends StateMachine {
 
                 if (dc.mApnContexts.size() == 0) {
                     if (DBG) loge("onDataStateChanged: no connected apns, ignore");
+                } else if (isDataCallUnchanged(newState, lastDataCallListByCid)) {
+                    // Link properties were already updated from an identical response
+                    mDataCallUnchangedCount++;
+                    if (VDBG) log("onDataStateChanged: unchanged cid=" + newState.cid);
                 } else {
                     // Determine if the connection/apnContext should be cleaned up
                     // or just a notification should be sent out.
@@ -398,6 +432,32 @@ public class DcController extends StateMachine {
 
             if (VDBG) log("onDataStateChanged: X");
         }
+
+        /**
+         * @return true if newState is active and identical to the response previously
+         * processed for the same cid
+         */
+        private boolean isDataCallUnchanged(DataCallResponse newState,
+                HashMap<Integer, DataCallResponse> lastDataCallListByCid) {
+            if (newState.active == DATA_CONNECTION_ACTIVE_PH_LINK_INACTIVE) {
+                // Inactive calls always need to be cleaned up or retried
+                return false;
+            }
+            return newState.equals(lastDataCallListByCid.get(newState.cid));
+        }
+
+        /**
+         * @return true if every data call in dcsList is unchanged and no data call has
+         * disappeared since the last notification
+         */
+        private boolean isDataCallListUnchanged(ArrayList<DataCallResponse> dcsList,
+                HashMap<Integer, DataCallResponse> lastDataCallListByCid) {
+            if (dcsList.size() != lastDataCallListByCid.size()) return false;
+            for (DataCallResponse newState : dcsList) {
+                if (!isDataCallUnchanged(newState, lastDataCallListByCid)) return false;
+            }
+            return true;
+        }
     }
 
     /**
@@ -442,5 +502,8 @@ public class DcController extends StateMachine {
         pw.println(" mPhone=" + mPhone);
         pw.println(" mDcListAll=" + mDcListAll);
         pw.println(" mDcListActiveByCid=" + mDcListActiveByCid);
+        pw.println(" mDataCallListChangedCount=" + mDataCallListChangedCount);
+        pw.println(" mDataCallListNoOpCount=" + mDataCallListNoOpCount);
+        pw.println(" mDataCallUnchangedCount=" + mDataCallUnchangedCount);
     }
 }
@@ -43,11 +43,26 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private Boolean mIsPbrPresent;
     private IccFileHandler mFh;
     private AdnRecordCache mAdnCache;
-    private Object mLock = new Object();
     private ArrayList<AdnRecord> mPhoneBookRecords;
+    // EF_IAP and EF_EMAIL of the PBR record whose email list is being built
     private ArrayList<byte[]> mIapFileRecord;
     private ArrayList<byte[]> mEmailFileRecord;
 
+    // People waiting for the phonebook to be loaded
+    private ArrayList<Message> mLoadWaiters = new ArrayList<Message>();
+    private boolean mLoading;
+    private boolean mLoadingEmails;
+    // Number of EFs of the current load not received yet
+    private int mPendingLoads;
+    // Incremented on reset, responses of the loads started before are ignored
+    private int mGeneration;
+    // EFs received by the current load, by PBR record
+    private SparseArray<ArrayList<AdnRecord>> mAdnRecordsByPbr =
+            new SparseArray<ArrayList<AdnRecord>>();
+    private SparseArray<ArrayList<byte[]>> mIapRecordsByPbr = new SparseArray<ArrayList<byte[]>>();
+    private SparseArray<ArrayList<byte[]>> mEmailRecordsByPbr =
+            new SparseArray<ArrayList<byte[]>>();
+
     // email list for each ADN record. The key would be
     // ADN's efid << 8 + record #
     private SparseArray<ArrayList<String>> mEmailsForAdnRec;
@@ -62,6 +77,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private static final int EVENT_USIM_ADN_LOAD_DONE = 2;
     private static final int EVENT_IAP_LOAD_DONE = 3;
     private static final int EVENT_EMAIL_LOAD_DONE = 4;
+    private static final int EVENT_LOAD_REQUEST = 5;
 
     private static final int USIM_TYPE1_TAG   = 0xA8;
     private static final int USIM_TYPE2_TAG   = 0xA9;
@@ -128,52 +144,51 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         mRefreshCache = false;
         mEmailsForAdnRec.clear();
         mSfiEfidTable.clear();
-    }
-
-    // Load all phonebook related EFs from the SIM.
-    public ArrayList<AdnRecord> loadEfFilesFromUsim() {
-        synchronized (mLock) {
-            if (!mPhoneBookRecords.isEmpty()) {
-                if (mRefreshCache) {
-                    mRefreshCache = false;
-                    refreshCache();
-                }
-                return mPhoneBookRecords;
-            }
-
-            if (!mIsPbrPresent) return null;
-
-            // Check if the PBR file is present in the cache, if not read it
-            // from the USIM.
-            if (mPbrRecords == null) {
-                readPbrFileAndWait();
-            }
 
-            if (mPbrRecords == null)
-                return null;
-
-            int numRecs = mPbrRecords.size();
+        // The waiters are answered by AdnRecordCache.reset()
+        mGeneration++;
+        mLoading = false;
+        mLoadWaiters.clear();
+        clearLoadResults();
+    }
 
-            log("loadEfFilesFromUsim: Loading adn and emails");
-            for (int i = 0; i < numRecs; i++) {
-                readAdnFileAndWait(i);
-                readEmailFileAndWait(i);
-            }
+    /**
+     * Load all phonebook related EFs from the SIM. The EFs of all PBR records are requested at
+     * once, the caller is not blocked.
+     *
+     * @param response ((AsyncResult)response.obj).result is the ArrayList<AdnRecord> of the
+     *        phonebook, or null if the USIM has no phonebook
+     */
+    public void loadEfFilesFromUsim(Message response) {
+        obtainMessage(EVENT_LOAD_REQUEST, response).sendToTarget();
+    }
 
-            updatePhoneAdnRecord();
-            // All EF files are loaded, return all the records
+    private void onLoadRequest(Message response) {
+        if (!mPhoneBookRecords.isEmpty() && !mRefreshCache) {
+            sendResult(response, mPhoneBookRecords);
+            return;
         }
-        return mPhoneBookRecords;
-    }
 
-    // Refresh the phonebook cache.
-    private void refreshCache() {
-        if (mPbrRecords == null) return;
-        mPhoneBookRecords.clear();
+        if (!mIsPbrPresent) {
+            sendResult(response, null);
+            return;
+        }
 
-        int numRecs = mPbrRecords.size();
-        for (int i = 0; i < numRecs; i++) {
-            readAdnFileAndWait(i);
+        mLoadWaiters.add(response);
+        if (mLoading) {
+            return;
+        }
+        mLoading = true;
+
+        if (!mPhoneBookRecords.isEmpty()) {
+            // Refresh the phonebook cache
+            mRefreshCache = false;
+            loadPhoneBookFiles(false);
+        } else if (mPbrRecords == null) {
+            // The PBR file is not in the cache, read it from the USIM
+            mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE, 0, mGeneration));
+        } else {
+            loadPhoneBookFiles(true);
         }
     }
 
@@ -182,97 +197,176 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         mRefreshCache = true;
     }
 
-    // Read the phonebook reference file EF_PBR.
-    private void readPbrFileAndWait() {
-        mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
+    // Request the EF_ADN of every PBR record, and the EF_EMAIL and EF_IAP if withEmails.
+    private void loadPhoneBookFiles(boolean withEmails) {
+        log("loadPhoneBookFiles: Loading adn" + (withEmails ? " and emails" : ""));
+        clearLoadResults();
+        if (withEmails) {
+            mEmailsForAdnRec.clear();
         }
-    }
+        mLoadingEmails = withEmails;
+        // Held until all requests are sent
+        mPendingLoads = 1;
+
+        int numRecs = mPbrRecords.size();
+        for (int i = 0; i < numRecs; i++) {
+            SparseArray<File> files = mPbrRecords.get(i).mFileIds;
+            if (files == null || files.size() == 0 || files.get(USIM_EFADN_TAG) == null) {
+                continue;
+            }
 
-    // Read EF_EMAIL which contains the email records.
-    private void readEmailFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null) return;
+            int extEf = 0;
+            // Only call fileIds.get while EF_EXT1_TAG is available
+            if (files.get(USIM_EFEXT1_TAG) != null) {
+                extEf = files.get(USIM_EFEXT1_TAG).getEfid();
+            }
 
-        File email = files.get(USIM_EFEMAIL_TAG);
-        if (email != null) {
+            mPendingLoads++;
+            mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
+                    extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE, i, mGeneration));
 
-            /**
-             * Check if the EF_EMAIL is a Type 1 file or a type 2 file.
-             * If mEmailPresentInIap is true, its a type 2 file.
-             * So we read the IAP file and then read the email records.
-             * instead of reading directly.
-             */
-            if (email.getParentTag() == USIM_TYPE2_TAG) {
-                if (files.get(USIM_EFIAP_TAG) == null) {
-                    Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
-                    return;
-                }
+            if (withEmails) {
+                loadEmailFiles(i);
+            }
+        }
+        onFileLoaded();
+    }
 
-                log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
-                readIapFileAndWait(files.get(USIM_EFIAP_TAG).getEfid());
-                if (mIapFileRecord == null) {
-                    Rlog.e(LOG_TAG, "Error: IAP file is empty");
-                    return;
+    // Request EF_EMAIL which contains the email records, and EF_IAP for a type 2 EF_EMAIL.
+    private void loadEmailFiles(int recId) {
+        SparseArray<File> files = mPbrRecords.get(recId).mFileIds;
+        File email = files.get(USIM_EFEMAIL_TAG);
+        if (email == null) return;
+
+        int emailEfid = email.getEfid();
+        log("EF_EMAIL exists in PBR. efid = 0x" +
+                Integer.toHexString(emailEfid).toUpperCase());
+
+        // Make sure this EF_EMAIL is not read twice. Sometimes two PBR records point
+        // to the same EF_EMAIL
+        for (int i = 0; i < recId; i++) {
+            if (mPbrRecords.get(i) != null) {
+                SparseArray<File> previousFileIds = mPbrRecords.get(i).mFileIds;
+                if (previousFileIds != null) {
+                    File id = previousFileIds.get(USIM_EFEMAIL_TAG);
+                    if (id != null && id.getEfid() == emailEfid) {
+                        log("Skipped this EF_EMAIL which was loaded earlier");
+                        return;
+                    }
                 }
+            }
+        }
 
-                log("EF_EMAIL order in PBR record: " + email.getIndex());
+        /**
+         * Check if the EF_EMAIL is a Type 1 file or a type 2 file.
+         * If mEmailPresentInIap is true, its a type 2 file.
+         * So we read the IAP file and then read the email records.
+         * instead of reading directly.
+         */
+        if (email.getParentTag() == USIM_TYPE2_TAG) {
+            if (files.get(USIM_EFIAP_TAG) == null) {
+                Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
+                return;
             }
 
-            int emailEfid = email.getEfid();
-            log("EF_EMAIL exists in PBR. efid = 0x" +
-                    Integer.toHexString(emailEfid).toUpperCase());
+            log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
+            mPendingLoads++;
+            mFh.loadEFLinearFixedAll(files.get(USIM_EFIAP_TAG).getEfid(),
+                    obtainMessage(EVENT_IAP_LOAD_DONE, recId, mGeneration));
+            log("EF_EMAIL order in PBR record: " + email.getIndex());
+        }
+
+        // Read the EFEmail file.
+        mPendingLoads++;
+        mFh.loadEFLinearFixedAll(emailEfid,
+                obtainMessage(EVENT_EMAIL_LOAD_DONE, recId, mGeneration));
+    }
+
+    // Called when an EF of the current load is received, builds the phonebook after the last.
+    private void onFileLoaded() {
+        if (--mPendingLoads > 0) return;
 
+        mPhoneBookRecords.clear();
+        int numRecs = mPbrRecords.size();
+        for (int i = 0; i < numRecs; i++) {
+            ArrayList<AdnRecord> adnRecords = mAdnRecordsByPbr.get(i);
+            if (adnRecords == null) continue;
+            mPhoneBookRecords.addAll(adnRecords);
             /**
-             * Make sure this EF_EMAIL was never read earlier. Sometimes two PBR record points
+             * The ADN record # would be the reference record size
+             * for the rest of EFs associated within this PBR.
              */
-            // to the same EF_EMAIL
-            for (int i = 0; i < recId; i++) {
-                if (mPbrRecords.get(i) != null) {
-                    SparseArray<File> previousFileIds = mPbrRecords.get(i).mFileIds;
-                    if (previousFileIds != null) {
-                        File id = previousFileIds.get(USIM_EFEMAIL_TAG);
-                        if (id != null && id.getEfid() == emailEfid) {
-                            log("Skipped this EF_EMAIL which was loaded earlier");
-                            return;
-                        }
-                    }
-                }
-            }
+            mPbrRecords.get(i).mMasterFileRecordNum = adnRecords.size();
+        }
 
-            // Read the EFEmail file.
-            mFh.loadEFLinearFixedAll(emailEfid,
-                    obtainMessage(EVENT_EMAIL_LOAD_DONE));
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                Rlog.e(LOG_TAG, "Interrupted Exception in readEmailFileAndWait");
+        if (mLoadingEmails) {
+            for (int i = 0; i < numRecs; i++) {
+                buildEmailList(i);
             }
+            updatePhoneAdnRecord();
+        }
 
-            if (mEmailFileRecord == null) {
-                Rlog.e(LOG_TAG, "Error: Email file is empty");
-                return;
-            }
+        clearLoadResults();
+        mLoading = false;
+        // All EF files are loaded, return all the records
+        notifyLoadWaiters(mPhoneBookRecords);
+    }
 
-            // Build email list
-            if (email.getParentTag() == USIM_TYPE2_TAG && mIapFileRecord != null) {
-                // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
-                buildType2EmailList(recId);
-            }
-            else {
-                // If one the followings is true, we build type 1 email list
-                // 1. EF_IAP does not exist or it is failed to load
-                // 2. ICC cards can be made such that they have an IAP file but all
-                //    records are empty. In that case buildType2EmailList will fail and
-                //    we need to build type 1 email list.
-
-                // Build type 1 email list
-                buildType1EmailList(recId);
-            }
+    private void buildEmailList(int recId) {
+        SparseArray<File> files = mPbrRecords.get(recId).mFileIds;
+        File email = files == null ? null : files.get(USIM_EFEMAIL_TAG);
+        if (email == null || mEmailRecordsByPbr.indexOfKey(recId) < 0) {
+            // No EF_EMAIL, or it was loaded for an earlier PBR record
+            return;
+        }
+
+        mIapFileRecord = mIapRecordsByPbr.get(recId);
+        mEmailFileRecord = mEmailRecordsByPbr.get(recId);
+        if (email.getParentTag() == USIM_TYPE2_TAG && mIapFileRecord == null) {
+            Rlog.e(LOG_TAG, "Error: IAP file is empty");
+            return;
+        }
+        if (mEmailFileRecord == null) {
+            Rlog.e(LOG_TAG, "Error: Email file is empty");
+            return;
+        }
+
+        // Build email list
+        if (email.getParentTag() == USIM_TYPE2_TAG && mIapFileRecord != null) {
+            // If the tag is type 2 and EF_IAP exists, we need to build tpe 2 email list
+            buildType2EmailList(recId);
+        }
+        else {
+            // If one the followings is true, we build type 1 email list
+            // 1. EF_IAP does not exist or it is failed to load
+            // 2. ICC cards can be made such that they have an IAP file but all
+            //    records are empty. In that case buildType2EmailList will fail and
+            //    we need to build type 1 email list.
+
+            // Build type 1 email list
+            buildType1EmailList(recId);
+        }
+    }
+
+    private void clearLoadResults() {
+        mAdnRecordsByPbr.clear();
+        mIapRecordsByPbr.clear();
+        mEmailRecordsByPbr.clear();
+        mIapFileRecord = null;
+        mEmailFileRecord = null;
+    }
+
+    private void notifyLoadWaiters(ArrayList<AdnRecord> result) {
+        for (Message waiter : mLoadWaiters) {
+            sendResult(waiter, result);
+        }
+        mLoadWaiters.clear();
+    }
+
+    private void sendResult(Message response, ArrayList<AdnRecord> result) {
+        if (response != null) {
+            AsyncResult.forMessage(response, result, null);
+            response.sendToTarget();
         }
     }
 
@@ -401,16 +495,6 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return true;
     }
 
-    // Read Phonebook Index Admistration EF_IAP file
-    private void readIapFileAndWait(int efid) {
-        mFh.loadEFLinearFixedAll(efid, obtainMessage(EVENT_IAP_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readIapFileAndWait");
-        }
-    }
-
     private void updatePhoneAdnRecord() {
 
         int numAdnRecs = mPhoneBookRecords.size();
@@ -457,37 +541,6 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return IccUtils.adnStringFieldToString(emailRec, 0, emailRec.length - 2);
     }
 
-    // Read EF_ADN file
-    private void readAdnFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null || files.size() == 0) return;
-
-        int extEf = 0;
-        // Only call fileIds.get while EF_EXT1_TAG is available
-        if (files.get(USIM_EFEXT1_TAG) != null) {
-            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
-        }
-
-        if (files.get(USIM_EFADN_TAG) == null)
-            return;
-
-        int previousSize = mPhoneBookRecords.size();
-        mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
-            extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
-        }
-
-        /**
-         * The recent added ADN record # would be the reference record size
-         * for the rest of EFs associated within this PBR.
-         */
-        mPbrRecords.get(recId).mMasterFileRecordNum = mPhoneBookRecords.size() - previousSize;
-    }
-
     // Create the phonebook reference file based on EF_PBR
     private void createPbrFile(ArrayList<byte[]> records) {
         if (records == null) {
@@ -522,45 +575,50 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         AsyncResult ar;
 
         switch(msg.what) {
+        case EVENT_LOAD_REQUEST:
+            onLoadRequest((Message) msg.obj);
+            break;
         case EVENT_PBR_LOAD_DONE:
+            if (msg.arg2 != mGeneration) break;
             ar = (AsyncResult) msg.obj;
             if (ar.exception == null) {
                 createPbrFile((ArrayList<byte[]>)ar.result);
             }
-            synchronized (mLock) {
-                mLock.notify();
+            if (mPbrRecords == null) {
+                mLoading = false;
+                notifyLoadWaiters(null);
+            } else {
+                loadPhoneBookFiles(true);
             }
             break;
         case EVENT_USIM_ADN_LOAD_DONE:
+            if (msg.arg2 != mGeneration) break;
             log("Loading USIM ADN records done");
             ar = (AsyncResult) msg.obj;
             if (ar.exception == null) {
-                mPhoneBookRecords.addAll((ArrayList<AdnRecord>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
+                mAdnRecordsByPbr.put(msg.arg1, (ArrayList<AdnRecord>)ar.result);
+            } else {
+                mAdnRecordsByPbr.put(msg.arg1, new ArrayList<AdnRecord>());
             }
+            onFileLoaded();
             break;
         case EVENT_IAP_LOAD_DONE:
+            if (msg.arg2 != mGeneration) break;
             log("Loading USIM IAP records done");
             ar = (AsyncResult) msg.obj;
             if (ar.exception == null) {
-                mIapFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
+                mIapRecordsByPbr.put(msg.arg1, (ArrayList<byte[]>)ar.result);
             }
+            onFileLoaded();
             break;
         case EVENT_EMAIL_LOAD_DONE:
+            if (msg.arg2 != mGeneration) break;
             log("Loading USIM Email records done");
             ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mEmailFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            // A null entry marks an EF_EMAIL that failed to load
+            mEmailRecordsByPbr.put(msg.arg1,
+                    ar.exception == null ? (ArrayList<byte[]>)ar.result : null);
+            onFileLoaded();
             break;
         }
     }
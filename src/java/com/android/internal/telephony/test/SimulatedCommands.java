@@ -50,6 +50,7 @@ import com.android.internal.telephony.gsm.SuppServiceNotification;
 import com.android.internal.telephony.LastCallFailCause;
 import com.android.internal.telephony.uicc.IccCardStatus;
 import com.android.internal.telephony.uicc.IccIoResult;
+import com.android.internal.telephony.uicc.IccRefreshResponse;
 
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -128,6 +129,10 @@ public class SimulatedCommands extends BaseCommands
 
     private boolean mDcSuccess = true;
     private DataCallResponse mDcResponse;
+    private long mDcSetupLatencyMs;
+    private final ArrayList<Integer> mDcFailCauses = new ArrayList<Integer>();
+    private final AtomicInteger mSetupDataCallCount = new AtomicInteger();
+    private final AtomicInteger mDeactivateDataCallCount = new AtomicInteger();
 
     //***** Constructor
     public
@@ -1078,6 +1083,43 @@ public class SimulatedCommands extends BaseCommands
         mDcSuccess = success;
     }
 
+    /**
+     * Delay the response to every setupDataCall, simulating the time the modem and network
+     * need to bring up a data call.
+     */
+    public void setDataCallSetupLatency(long latencyMs) {
+        mDcSetupLatencyMs = latencyMs;
+    }
+
+    /**
+     * Script the fail causes of the next setupDataCall requests. Each request consumes one
+     * cause, 0 (DcFailCause.NONE) succeeds. Requests beyond the script use
+     * setDataCallResponse.
+     */
+    public void setDataCallFailCauses(int... failCauses) {
+        synchronized (mDcFailCauses) {
+            mDcFailCauses.clear();
+            for (int failCause : failCauses) {
+                mDcFailCauses.add(failCause);
+            }
+        }
+    }
+
+    /**
+     * Simulate RIL_UNSOL_DATA_CALL_LIST_CHANGED
+     */
+    public void triggerDataCallListChanged(ArrayList<DataCallResponse> dcList) {
+        mDataNetworkStateRegistrants.notifyRegistrants(new AsyncResult(null, dcList, null));
+    }
+
+    public int getSetupDataCallCount() {
+        return mSetupDataCallCount.get();
+    }
+
+    public int getDeactivateDataCallCount() {
+        return mDeactivateDataCallCount.get();
+    }
+
     public void triggerNITZupdate(String NITZStr) {
         if (NITZStr != null) {
             mNITZTimeRegistrant.notifyRegistrant(new AsyncResult (null, new Object[]{NITZStr,
@@ -1108,16 +1150,40 @@ public class SimulatedCommands extends BaseCommands
             mDcResponse.pcscf = new String[]{};
         }
 
-        if (mDcSuccess) {
-            resultSuccess(result, mDcResponse);
+        mSetupDataCallCount.incrementAndGet();
+        int failCause = 0;
+        synchronized (mDcFailCauses) {
+            if (!mDcFailCauses.isEmpty()) {
+                failCause = mDcFailCauses.remove(0);
+            }
+        }
+        if (result == null) return;
+
+        if (failCause != 0) {
+            DataCallResponse response = mDcResponse.copy();
+            response.status = failCause;
+            response.active = 0;
+            AsyncResult.forMessage(result, response, null);
+        } else if (mDcSuccess) {
+            AsyncResult.forMessage(result, mDcResponse, null);
+        } else {
+            AsyncResult.forMessage(result, mDcResponse,
+                    new RuntimeException("Setup data call failed!"));
+        }
+
+        if (mPausedResponseCount > 0) {
+            mPausedResponses.add(result);
+        } else if (mDcSetupLatencyMs > 0) {
+            result.getTarget().sendMessageDelayed(result, mDcSetupLatencyMs);
         } else {
-            resultFail(result, mDcResponse, new RuntimeException("Setup data call failed!"));
+            result.sendToTarget();
         }
     }
 
     @Override
     public void deactivateDataCall(int cid, int reason, Message result) {
         SimulatedCommandsVerifier.getInstance().deactivateDataCall(cid, reason, result);
+        mDeactivateDataCallCount.incrementAndGet();
         resultSuccess(result, null);
     }
 
@@ -1989,6 +2055,10 @@ public class SimulatedCommands extends BaseCommands
         }
     }
 
+    public void notifyIccRefresh(IccRefreshResponse response) {
+        mIccRefreshRegistrants.notifyRegistrants(new AsyncResult(null, response, null));
+    }
+
     public void notifyEmergencyCallbackMode() {
         if (mEmergencyCallbackModeRegistrant != null) {
             mEmergencyCallbackModeRegistrant.notifyRegistrant();
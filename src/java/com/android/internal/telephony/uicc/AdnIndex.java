@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Index of a list of ADN records kept by AdnRecordCache, to find a record as
+ * {@link AdnRecord#isEqual} would without scanning the list.
+ *
+ * Records are bucketed by a hash of name, number and emails, and the empty records are kept
+ * in a bitmap so an insert finds the first free record right away. A position found through
+ * the index is checked against the list, if the list was changed behind the index's back
+ * {@link #STALE} is returned and the index has to be rebuilt.
+ *
+ * {@hide}
+ */
+class AdnIndex {
+    /** The record is not in the list */
+    static final int NOT_FOUND = -1;
+    /** The list changed since the index was built */
+    static final int STALE = -2;
+
+    private final ArrayList<AdnRecord> mList;
+    // The indexed records by position, to detect changes of the list
+    private final AdnRecord[] mRecords;
+    // Positions by hash of the records, in ascending order
+    private final SparseArray<int[]> mPositionsByHash = new SparseArray<int[]>();
+    private final BitSet mEmpty = new BitSet();
+
+    AdnIndex(ArrayList<AdnRecord> list) {
+        mList = list;
+        mRecords = list.toArray(new AdnRecord[list.size()]);
+        for (int i = 0; i < mRecords.length; i++) {
+            add(i, mRecords[i]);
+        }
+    }
+
+    /**
+     * @return whether the index was built for the list, and the list still has the same size
+     */
+    boolean isValidFor(ArrayList<AdnRecord> list) {
+        return list == mList && list.size() == mRecords.length;
+    }
+
+    /**
+     * @return the 0-based position of the first record equal to adn, {@link #NOT_FOUND} or
+     *         {@link #STALE}
+     */
+    int indexOf(AdnRecord adn) {
+        if (adn.isEmpty()) {
+            int position = mEmpty.nextSetBit(0);
+            if (position < 0) return NOT_FOUND;
+            return isCurrent(position) && mRecords[position].isEmpty() ? position : STALE;
+        }
+
+        int[] positions = mPositionsByHash.get(hash(adn));
+        if (positions != null) {
+            for (int position : positions) {
+                if (!isCurrent(position)) return STALE;
+                if (adn.isEqual(mRecords[position])) return position;
+            }
+        }
+        // Records can be changed in place, e.g. when the emails are added. Make sure none
+        // matches before failing the update.
+        for (int i = 0; i < mRecords.length; i++) {
+            if (adn.isEqual(mList.get(i))) return STALE;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Replace the record at position, as AdnRecordCache does after writing it to the SIM.
+     */
+    void set(int position, AdnRecord adn) {
+        remove(position, mRecords[position]);
+        mRecords[position] = adn;
+        add(position, adn);
+    }
+
+    private boolean isCurrent(int position) {
+        return mList.get(position) == mRecords[position];
+    }
+
+    private void add(int position, AdnRecord adn) {
+        if (adn.isEmpty()) {
+            mEmpty.set(position);
+            return;
+        }
+        int hash = hash(adn);
+        int[] positions = mPositionsByHash.get(hash);
+        if (positions == null) {
+            mPositionsByHash.put(hash, new int[] {position});
+            return;
+        }
+        int i = Arrays.binarySearch(positions, position);
+        if (i >= 0) return;
+        i = -i - 1;
+        int[] newPositions = new int[positions.length + 1];
+        System.arraycopy(positions, 0, newPositions, 0, i);
+        newPositions[i] = position;
+        System.arraycopy(positions, i, newPositions, i + 1, positions.length - i);
+        mPositionsByHash.put(hash, newPositions);
+    }
+
+    private void remove(int position, AdnRecord adn) {
+        if (adn.isEmpty()) {
+            mEmpty.clear(position);
+            return;
+        }
+        int hash = hash(adn);
+        int[] positions = mPositionsByHash.get(hash);
+        if (positions == null) return;
+        int i = Arrays.binarySearch(positions, position);
+        if (i < 0) return;
+        if (positions.length == 1) {
+            mPositionsByHash.remove(hash);
+            return;
+        }
+        int[] newPositions = new int[positions.length - 1];
+        System.arraycopy(positions, 0, newPositions, 0, i);
+        System.arraycopy(positions, i + 1, newPositions, i, positions.length - i - 1);
+        mPositionsByHash.put(hash, newPositions);
+    }
+
+    /**
+     * Hash consistent with {@link AdnRecord#isEqual}, where null and empty strings are equal.
+     */
+    private static int hash(AdnRecord adn) {
+        int hash = adn.mAlphaTag == null ? 0 : adn.mAlphaTag.hashCode();
+        hash = 31 * hash + (adn.mNumber == null ? 0 : adn.mNumber.hashCode());
+        return 31 * hash + Arrays.hashCode(adn.mEmails);
+    }
+}
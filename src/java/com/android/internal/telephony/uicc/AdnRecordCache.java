@@ -20,11 +20,11 @@ import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Message;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.internal.telephony.gsm.UsimPhoneBookManager;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * {@hide}
@@ -39,6 +39,12 @@ public class AdnRecordCache extends Handler implements IccConstants {
     SparseArray<ArrayList<AdnRecord>> mAdnLikeFiles
         = new SparseArray<ArrayList<AdnRecord>>();
 
+    // Indexes of the lists searched by updateAdnBySearch, by EF ID. EF_PBR indexes the
+    // USIM phonebook of UsimPhoneBookManager.
+    private final SparseArray<AdnIndex> mAdnIndexes = new SparseArray<AdnIndex>();
+    // Position in the USIM phonebook of the records being written, by EF ID
+    private final SparseIntArray mPendingPbrPositions = new SparseIntArray();
+
     // People waiting for ADN-like files to be loaded
     SparseArray<ArrayList<Message>> mAdnLikeWaiters
         = new SparseArray<ArrayList<Message>>();
@@ -46,10 +52,30 @@ public class AdnRecordCache extends Handler implements IccConstants {
     // People waiting for adn record to be updated
     SparseArray<Message> mUserWriteResponse = new SparseArray<Message>();
 
+    // Incremented on the handler thread whenever any ADN-like list is loaded, changed or
+    // dropped. The USIM phonebook is built from the ADN lists, so it changes with any of them.
+    private volatile int mGeneration;
+
     //***** Event Constants
 
     static final int EVENT_LOAD_ALL_ADN_LIKE_DONE = 1;
     static final int EVENT_UPDATE_ADN_DONE = 2;
+    static final int EVENT_PBR_LOADED_FOR_UPDATE = 3;
+
+    // An updateAdnBySearch of the USIM phonebook waiting for the phonebook to be loaded
+    private static class PendingUpdate {
+        final AdnRecord mOldAdn;
+        final AdnRecord mNewAdn;
+        final String mPin2;
+        final Message mResponse;
+
+        PendingUpdate(AdnRecord oldAdn, AdnRecord newAdn, String pin2, Message response) {
+            mOldAdn = oldAdn;
+            mNewAdn = newAdn;
+            mPin2 = pin2;
+            mResponse = response;
+        }
+    }
 
     //***** Constructor
 
@@ -66,8 +92,13 @@ public class AdnRecordCache extends Handler implements IccConstants {
      * Called from SIMRecords.onRadioNotAvailable and SIMRecords.handleSimRefresh.
      */
     public void reset() {
+        mGeneration++;
         mAdnLikeFiles.clear();
         mUsimPhoneBookManager.reset();
+        synchronized (mAdnIndexes) {
+            mAdnIndexes.clear();
+            mPendingPbrPositions.clear();
+        }
 
         clearWaiters();
         clearUserWriters();
@@ -101,6 +132,15 @@ public class AdnRecordCache extends Handler implements IccConstants {
         return mAdnLikeFiles.get(efid);
     }
 
+    /**
+     * @return a number that changes whenever the contents of any ADN-like list may change, so
+     *         a copy of a list taken after reading it is known to be current while it is the
+     *         same. It may be read from any thread.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
     /**
      * Returns extension ef associated with ADN-like EF or -1 if
      * we don't know.
@@ -187,36 +227,35 @@ public class AdnRecordCache extends Handler implements IccConstants {
             return;
         }
 
-        ArrayList<AdnRecord>  oldAdnList;
-
         if (efid == EF_PBR) {
-            oldAdnList = mUsimPhoneBookManager.loadEfFilesFromUsim();
-        } else {
-            oldAdnList = getRecordsIfLoaded(efid);
+            // Search once the USIM phonebook is loaded
+            requestLoadAllAdnLike(EF_PBR, extensionEF, obtainMessage(EVENT_PBR_LOADED_FOR_UPDATE,
+                    new PendingUpdate(oldAdn, newAdn, pin2, response)));
+            return;
         }
 
+        updateAdnBySearch(efid, extensionEF, getRecordsIfLoaded(efid), oldAdn, newAdn, pin2,
+                response);
+    }
+
+    private void updateAdnBySearch(int efid, int extensionEF, ArrayList<AdnRecord> oldAdnList,
+            AdnRecord oldAdn, AdnRecord newAdn, String pin2, Message response) {
         if (oldAdnList == null) {
             sendErrorResponse(response, "Adn list not exist for EF:0x" +
                     Integer.toHexString(efid).toUpperCase());
             return;
         }
 
-        int index = -1;
-        int count = 1;
-        for (Iterator<AdnRecord> it = oldAdnList.iterator(); it.hasNext(); ) {
-            if (oldAdn.isEqual(it.next())) {
-                index = count;
-                break;
-            }
-            count++;
-        }
+        int index = indexOf(efid, oldAdnList, oldAdn) + 1;
 
-        if (index == -1) {
+        if (index == 0) {
             sendErrorResponse(response, "Adn record don't exist for " + oldAdn);
             return;
         }
 
+        int pbrPosition = -1;
         if (efid == EF_PBR) {
+            pbrPosition = index - 1;
             AdnRecord foundAdn = oldAdnList.get(index-1);
             efid = foundAdn.mEfid;
             extensionEF = foundAdn.mExtRecord;
@@ -236,6 +275,9 @@ public class AdnRecordCache extends Handler implements IccConstants {
         }
 
         mUserWriteResponse.put(efid, response);
+        synchronized (mAdnIndexes) {
+            mPendingPbrPositions.put(efid, pbrPosition);
+        }
 
         new AdnRecordLoader(mFh).updateEF(newAdn, efid, extensionEF,
                 index, pin2,
@@ -243,6 +285,26 @@ public class AdnRecordCache extends Handler implements IccConstants {
     }
 
 
+    /**
+     * @return the 0-based position of the first record of adnList equal to adn, or
+     *         AdnIndex.NOT_FOUND
+     */
+    private int indexOf(int efid, ArrayList<AdnRecord> adnList, AdnRecord adn) {
+        synchronized (mAdnIndexes) {
+            AdnIndex index = mAdnIndexes.get(efid);
+            int position = AdnIndex.STALE;
+            if (index != null && index.isValidFor(adnList)) {
+                position = index.indexOf(adn);
+            }
+            if (position == AdnIndex.STALE) {
+                index = new AdnIndex(adnList);
+                mAdnIndexes.put(efid, index);
+                position = index.indexOf(adn);
+            }
+            return position;
+        }
+    }
+
     /**
      * Responds with exception (in response) if efid is not a known ADN-like
      * record
@@ -252,8 +314,9 @@ public class AdnRecordCache extends Handler implements IccConstants {
         ArrayList<Message> waiters;
         ArrayList<AdnRecord> result;
 
+        // The USIM phonebook is cached by UsimPhoneBookManager
         if (efid == EF_PBR) {
-            result = mUsimPhoneBookManager.loadEfFilesFromUsim();
+            result = null;
         } else {
             result = getRecordsIfLoaded(efid);
         }
@@ -301,6 +364,12 @@ public class AdnRecordCache extends Handler implements IccConstants {
             return;
         }
 
+        if (efid == EF_PBR) {
+            mUsimPhoneBookManager.loadEfFilesFromUsim(
+                    obtainMessage(EVENT_LOAD_ALL_ADN_LIKE_DONE, efid, 0));
+            return;
+        }
+
         new AdnRecordLoader(mFh).loadAllFromEF(efid, extensionEf,
             obtainMessage(EVENT_LOAD_ALL_ADN_LIKE_DONE, efid, 0));
     }
@@ -340,11 +409,27 @@ public class AdnRecordCache extends Handler implements IccConstants {
                 waiters = mAdnLikeWaiters.get(efid);
                 mAdnLikeWaiters.delete(efid);
 
-                if (ar.exception == null) {
+                if (ar.exception == null && efid != EF_PBR) {
+                    mGeneration++;
                     mAdnLikeFiles.put(efid, (ArrayList<AdnRecord>) ar.result);
+                    synchronized (mAdnIndexes) {
+                        mAdnIndexes.remove(efid);
+                    }
                 }
                 notifyWaiters(waiters, ar);
                 break;
+            case EVENT_PBR_LOADED_FOR_UPDATE:
+                ar = (AsyncResult) msg.obj;
+                PendingUpdate update = (PendingUpdate) ar.userObj;
+                if (ar.exception != null) {
+                    sendErrorResponse(update.mResponse, "Adn list not exist for EF:0x" +
+                            Integer.toHexString(EF_PBR).toUpperCase());
+                    break;
+                }
+                updateAdnBySearch(EF_PBR, extensionEfForEf(EF_PBR),
+                        (ArrayList<AdnRecord>) ar.result, update.mOldAdn, update.mNewAdn,
+                        update.mPin2, update.mResponse);
+                break;
             case EVENT_UPDATE_ADN_DONE:
                 ar = (AsyncResult)msg.obj;
                 efid = msg.arg1;
@@ -352,8 +437,28 @@ public class AdnRecordCache extends Handler implements IccConstants {
                 AdnRecord adn = (AdnRecord) (ar.userObj);
 
                 if (ar.exception == null) {
-                    mAdnLikeFiles.get(efid).set(index - 1, adn);
+                    ArrayList<AdnRecord> adnList = mAdnLikeFiles.get(efid);
+                    mGeneration++;
+                    adnList.set(index - 1, adn);
                     mUsimPhoneBookManager.invalidateCache();
+                    synchronized (mAdnIndexes) {
+                        AdnIndex adnIndex = mAdnIndexes.get(efid);
+                        if (adnIndex != null && adnIndex.isValidFor(adnList)) {
+                            adnIndex.set(index - 1, adn);
+                        }
+                        // The USIM phonebook is rebuilt from the ADN lists on its next load,
+                        // with adn at the same position
+                        int pbrPosition = mPendingPbrPositions.get(efid, -1);
+                        AdnIndex pbrIndex = mAdnIndexes.get(EF_PBR);
+                        if (pbrIndex != null && pbrPosition >= 0) {
+                            pbrIndex.set(pbrPosition, adn);
+                        } else {
+                            mAdnIndexes.remove(EF_PBR);
+                        }
+                    }
+                }
+                synchronized (mAdnIndexes) {
+                    mPendingPbrPositions.delete(efid);
                 }
 
                 Message response = mUserWriteResponse.get(efid);
@@ -17,9 +17,14 @@
 package com.android.internal.telephony.uicc;
 
 import android.os.*;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * {@hide}
@@ -91,11 +96,26 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     static protected final int EVENT_READ_ICON_DONE = 10;
     /** Finished retrieving size of record for EFimg now. */
     static protected final int EVENT_GET_RECORD_SIZE_IMG_DONE = 11;
+    /** SIM REFRESH, the cached EF headers may be stale. */
+    static protected final int EVENT_REFRESH = 12;
+
+    /**
+     * Number of READ RECORD commands of loadEFLinearFixedAll outstanding at a time, so the
+     * modem is not idle between records. 1 reads one record after the other.
+     */
+    private static final int DEFAULT_READ_RECORD_WINDOW =
+            SystemProperties.getInt("ro.telephony.sim_read_window", 8);
 
      // member variables
     protected final CommandsInterface mCi;
     protected final UiccCardApplication mParentApp;
     protected final String mAid;
+    private int mReadRecordWindow = DEFAULT_READ_RECORD_WINDOW;
+
+    // GET RESPONSE payloads of the EFs of this application by efHeaderKey(), so repeated loads
+    // of an EF skip the GET RESPONSE. Dropped on REFRESH, and with the handler when the card
+    // or application goes away.
+    private final HashMap<String, byte[]> mEfHeaders = new HashMap<String, byte[]>();
 
     static class LoadLinearFixedContext {
 
@@ -104,6 +124,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         boolean mLoadAll;
         String mPath;
 
+        // Records of a load all that are requested and not received yet
+        int mPending;
+        int mCountReceived;
+        boolean mFailed;
+
         Message mOnLoaded;
 
         ArrayList<byte[]> results;
@@ -148,9 +173,19 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         mParentApp = app;
         mAid = aid;
         mCi = ci;
+        mCi.registerForIccRefresh(this, EVENT_REFRESH, null);
     }
 
     public void dispose() {
+        mCi.unregisterForIccRefresh(this);
+        synchronized (mEfHeaders) {
+            mEfHeaders.clear();
+        }
+    }
+
+    @VisibleForTesting
+    public void setReadRecordWindow(int window) {
+        mReadRecordWindow = Math.max(1, window);
     }
 
     //***** Public Methods
@@ -171,8 +206,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         Message response
                 = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
                         new LoadLinearFixedContext(fileid, recordNum, efPath, onLoaded));
+        if (sendCachedEfHeader(efHeaderKey(fileid, efPath), response)) {
+            return;
+        }
 
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
+        iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
                         0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
     }
 
@@ -203,8 +241,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         Message response = obtainMessage(EVENT_GET_RECORD_SIZE_IMG_DONE,
                 new LoadLinearFixedContext(IccConstants.EF_IMG, recordNum,
                         onLoaded));
+        if (sendCachedEfHeader(efImgHeaderKey(), response)) {
+            return;
+        }
 
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, IccConstants.EF_IMG,
+        iccIOForApp(COMMAND_GET_RESPONSE, IccConstants.EF_IMG,
                     getEFPath(IccConstants.EF_IMG), recordNum,
                     READ_RECORD_MODE_ABSOLUTE, GET_RESPONSE_EF_IMG_SIZE_BYTES,
                     null, null, mAid, response);
@@ -225,7 +266,10 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         Message response
                 = obtainMessage(EVENT_GET_EF_LINEAR_RECORD_SIZE_DONE,
                         new LoadLinearFixedContext(fileid, efPath, onLoaded));
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
+        if (sendCachedEfHeader(efHeaderKey(fileid, efPath), response)) {
+            return;
+        }
+        iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
                     0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
     }
 
@@ -256,8 +300,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         String efPath = (path == null) ? getEFPath(fileid) : path;
         Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
                         new LoadLinearFixedContext(fileid, efPath, onLoaded));
+        if (sendCachedEfHeader(efHeaderKey(fileid, efPath), response)) {
+            return;
+        }
 
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
+        iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
                         0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
     }
 
@@ -287,8 +334,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     public void loadEFTransparent(int fileid, Message onLoaded) {
         Message response = obtainMessage(EVENT_GET_BINARY_SIZE_DONE,
                         fileid, 0, onLoaded);
+        if (sendCachedEfHeader(efHeaderKey(fileid, getEFPath(fileid)), response)) {
+            return;
+        }
 
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, getEFPath(fileid),
+        iccIOForApp(COMMAND_GET_RESPONSE, fileid, getEFPath(fileid),
                         0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
     }
 
@@ -306,7 +356,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         Message response = obtainMessage(EVENT_READ_BINARY_DONE,
                         fileid, 0, onLoaded);
 
-        mCi.iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(fileid),
+        iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(fileid),
                         0, 0, size, null, null, mAid, response);
     }
 
@@ -335,7 +385,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
          * EF img ( 4F20, linear fixed file) are : 4F01 ... 4F05.
          * It should be MF_SIM + DF_TELECOM + DF_GRAPHICS, same path as EF IMG
          */
-        mCi.iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(EF_IMG),
+        iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(EF_IMG),
                 highOffset, lowOffset, length, null, null, mAid, response);
     }
 
@@ -352,7 +402,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     public void updateEFLinearFixed(int fileid, String path, int recordNum, byte[] data,
             String pin2, Message onComplete) {
         String efPath = (path == null) ? getEFPath(fileid) : path;
-        mCi.iccIOForApp(COMMAND_UPDATE_RECORD, fileid, efPath,
+        iccIOForApp(COMMAND_UPDATE_RECORD, fileid, efPath,
                         recordNum, READ_RECORD_MODE_ABSOLUTE, data.length,
                         IccUtils.bytesToHexString(data), pin2, mAid, onComplete);
     }
@@ -368,7 +418,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      */
     public void updateEFLinearFixed(int fileid, int recordNum, byte[] data,
             String pin2, Message onComplete) {
-        mCi.iccIOForApp(COMMAND_UPDATE_RECORD, fileid, getEFPath(fileid),
+        iccIOForApp(COMMAND_UPDATE_RECORD, fileid, getEFPath(fileid),
                         recordNum, READ_RECORD_MODE_ABSOLUTE, data.length,
                         IccUtils.bytesToHexString(data), pin2, mAid, onComplete);
     }
@@ -379,7 +429,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      * @param data must be exactly as long as the EF
      */
     public void updateEFTransparent(int fileid, byte[] data, Message onComplete) {
-        mCi.iccIOForApp(COMMAND_UPDATE_BINARY, fileid, getEFPath(fileid),
+        iccIOForApp(COMMAND_UPDATE_BINARY, fileid, getEFPath(fileid),
                         0, 0, data.length,
                         IccUtils.bytesToHexString(data), null, mAid, onComplete);
     }
@@ -390,6 +440,31 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     //***** Private Methods
 
+    /**
+     * Sends the command through the IO scheduler of the card, which orders the SIM IO of all
+     * its applications, or directly if there is none.
+     */
+    protected void iccIOForApp(int command, int fileid, String path, int p1, int p2, int p3,
+            String data, String pin2, String aid, Message response) {
+        iccIOForApp(command, fileid, path, p1, p2, p3, data, pin2, aid, response, 0);
+    }
+
+    /**
+     * Like the other overload. The scheduler sends the command while fewer than window
+     * commands are outstanding, even if its own window is smaller.
+     */
+    private void iccIOForApp(int command, int fileid, String path, int p1, int p2, int p3,
+            String data, String pin2, String aid, Message response, int window) {
+        UiccCard card = mParentApp != null ? mParentApp.getUiccCard() : null;
+        UiccIoScheduler scheduler = card != null ? card.getIoScheduler() : null;
+        if (scheduler != null) {
+            scheduler.iccIOForApp(mCi, command, fileid, path, p1, p2, p3, data, pin2, aid,
+                    response, window);
+        } else {
+            mCi.iccIOForApp(command, fileid, path, p1, p2, p3, data, pin2, aid, response);
+        }
+    }
+
     private void sendResult(Message response, Object result, Throwable ex) {
         if (response == null) {
             return;
@@ -451,6 +526,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                     EF_TYPE_LINEAR_FIXED != data[RESPONSE_DATA_STRUCTURE]) {
                     throw new IccFileTypeMismatch();
                 }
+                putEfHeader(efHeaderKey(lc.mEfid, lc.mPath), data);
 
                 recordSize = new int[3];
                 recordSize[0] = data[RESPONSE_DATA_RECORD_LENGTH] & 0xFF;
@@ -482,6 +558,8 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 if (EF_TYPE_LINEAR_FIXED != data[RESPONSE_DATA_STRUCTURE]) {
                     throw new IccFileTypeMismatch();
                 }
+                putEfHeader(msg.what == EVENT_GET_RECORD_SIZE_IMG_DONE ? efImgHeaderKey()
+                        : efHeaderKey(lc.mEfid, path), data);
 
                 lc.mRecordSize = data[RESPONSE_DATA_RECORD_LENGTH] & 0xFF;
 
@@ -490,14 +568,24 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
                 lc.mCountRecords = size / lc.mRecordSize;
 
+                 if (path == null) {
+                     path = getEFPath(lc.mEfid);
+                 }
+
                  if (lc.mLoadAll) {
                      lc.results = new ArrayList<byte[]>(lc.mCountRecords);
+                     for (int i = 0; i < lc.mCountRecords; i++) {
+                         lc.results.add(null);
+                     }
+                     if (lc.mCountRecords == 0) {
+                         sendResult(response, lc.results, null);
+                     } else {
+                         readRecords(lc, path);
+                     }
+                     break;
                  }
 
-                 if (path == null) {
-                     path = getEFPath(lc.mEfid);
-                 }
-                 mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
+                 iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
                          lc.mRecordNum,
                          READ_RECORD_MODE_ABSOLUTE,
                          lc.mRecordSize, null, null, mAid,
@@ -523,11 +611,12 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 if (EF_TYPE_TRANSPARENT != data[RESPONSE_DATA_STRUCTURE]) {
                     throw new IccFileTypeMismatch();
                 }
+                putEfHeader(efHeaderKey(fileid, getEFPath(fileid)), data);
 
                 size = ((data[RESPONSE_DATA_FILE_SIZE_1] & 0xff) << 8)
                        + (data[RESPONSE_DATA_FILE_SIZE_2] & 0xff);
 
-                mCi.iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(fileid),
+                iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(fileid),
                                 0, 0, size, null, null, mAid,
                                 obtainMessage(EVENT_READ_BINARY_DONE,
                                               fileid, 0, response));
@@ -542,29 +631,32 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 response = lc.mOnLoaded;
                 path = lc.mPath;
 
+                if (lc.mFailed) {
+                    // The load already failed on an earlier record
+                    response = null;
+                    break;
+                }
+
                 if (processException(response, (AsyncResult) msg.obj)) {
+                    lc.mFailed = true;
                     break;
                 }
 
                 if (!lc.mLoadAll) {
                     sendResult(response, result.payload, null);
                 } else {
-                    lc.results.add(result.payload);
-
-                    lc.mRecordNum++;
+                    // Responses may arrive out of order, arg1 is the record number
+                    lc.mPending--;
+                    lc.results.set(msg.arg1 - 1, result.payload);
+                    lc.mCountReceived++;
 
-                    if (lc.mRecordNum > lc.mCountRecords) {
+                    if (lc.mCountReceived == lc.mCountRecords) {
                         sendResult(response, lc.results, null);
                     } else {
                         if (path == null) {
                             path = getEFPath(lc.mEfid);
                         }
-
-                        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
-                                    lc.mRecordNum,
-                                    READ_RECORD_MODE_ABSOLUTE,
-                                    lc.mRecordSize, null, null, mAid,
-                                    obtainMessage(EVENT_READ_RECORD_DONE, lc));
+                        readRecords(lc, path);
                     }
                 }
 
@@ -583,6 +675,13 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 sendResult(response, result.payload, null);
             break;
 
+            case EVENT_REFRESH:
+                ar = (AsyncResult)msg.obj;
+                if (ar.exception == null) {
+                    onRefresh((IccRefreshResponse) ar.result);
+                }
+            break;
+
         }} catch (Exception exc) {
             if (response != null) {
                 sendResult(response, null, exc);
@@ -592,6 +691,82 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         }
     }
 
+    private static String efHeaderKey(int efid, String path) {
+        return path + "/" + Integer.toHexString(efid);
+    }
+
+    // EF_IMG is selected with a shorter GET RESPONSE, keep it apart from the other loads
+    private static String efImgHeaderKey() {
+        return "img";
+    }
+
+    private void putEfHeader(String key, byte[] header) {
+        synchronized (mEfHeaders) {
+            mEfHeaders.put(key, header);
+        }
+    }
+
+    /**
+     * Answer a GET RESPONSE from the cache.
+     *
+     * @return false if the header of the EF is not cached
+     */
+    private boolean sendCachedEfHeader(String key, Message response) {
+        byte[] header;
+        synchronized (mEfHeaders) {
+            header = mEfHeaders.get(key);
+        }
+        if (header == null) {
+            return false;
+        }
+        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00, header), null);
+        response.sendToTarget();
+        return true;
+    }
+
+    private void onRefresh(IccRefreshResponse refreshResponse) {
+        if (refreshResponse == null) {
+            return;
+        }
+        if (!TextUtils.isEmpty(refreshResponse.aid) && !TextUtils.isEmpty(mAid)
+                && !refreshResponse.aid.equals(mAid)) {
+            // This is for different app. Ignore.
+            return;
+        }
+        synchronized (mEfHeaders) {
+            if (refreshResponse.refreshResult == IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE) {
+                String suffix = "/" + Integer.toHexString(refreshResponse.efId);
+                Iterator<String> it = mEfHeaders.keySet().iterator();
+                while (it.hasNext()) {
+                    String key = it.next();
+                    if (key.endsWith(suffix)
+                            || (refreshResponse.efId == EF_IMG && key.equals(efImgHeaderKey()))) {
+                        it.remove();
+                    }
+                }
+            } else {
+                mEfHeaders.clear();
+            }
+        }
+    }
+
+    /**
+     * Request the next records of a load all, up to mReadRecordWindow outstanding.
+     */
+    private void readRecords(LoadLinearFixedContext lc, String path) {
+        while (lc.mPending < mReadRecordWindow && lc.mRecordNum <= lc.mCountRecords) {
+            // Not limited to the window of the card scheduler
+            iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
+                    lc.mRecordNum,
+                    READ_RECORD_MODE_ABSOLUTE,
+                    lc.mRecordSize, null, null, mAid,
+                    obtainMessage(EVENT_READ_RECORD_DONE, lc.mRecordNum, 0, lc),
+                    mReadRecordWindow);
+            lc.mRecordNum++;
+            lc.mPending++;
+        }
+    }
+
     /**
      * Returns the root path of the EF file.
      * i.e returns MasterFile + DFfile as a string.
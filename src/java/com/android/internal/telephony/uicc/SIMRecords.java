@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.AsyncResult;
 import android.os.Message;
+import android.os.SystemProperties;
 import android.telephony.CarrierConfigManager;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsMessage;
@@ -30,6 +31,7 @@ import android.text.TextUtils;
 import android.telephony.Rlog;
 import android.content.res.Resources;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.MccTable;
 import com.android.internal.telephony.SmsConstants;
@@ -38,6 +40,7 @@ import com.android.internal.telephony.gsm.SimTlv;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
 import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppType;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -58,6 +61,11 @@ public class SIMRecords extends IccRecords {
 
     SpnOverride mSpnOverride;
 
+    // Contents of the static EFs by ICCID, null if disabled
+    private SimRecordCache mSimRecordCache;
+    private int mCachedEfsServed;
+    private int mCachedEfsMismatched;
+
     // ***** Cached SIM State; cleared on channel close
 
     private int mCallForwardingStatus;
@@ -168,6 +176,22 @@ public class SIMRecords extends IccRecords {
     private static final int EVENT_APP_LOCKED = 35;
     private static final int EVENT_GET_GID2_DONE = 36;
     private static final int EVENT_CARRIER_CONFIG_CHANGED = 37;
+    private static final int EVENT_VERIFY_CACHED_EF_DONE = 38;
+    private static final int EVENT_SIM_RECORD_CACHE_LOADED = 39;
+
+    private static final String SIM_RECORD_CACHE_DIRECTORY = "/data/misc/radio";
+
+    // EFs whose contents only change with the SIM, on REFRESH or through OTA, so they can be
+    // served from mSimRecordCache, and the events of their responses. Linear fixed EFs are
+    // read from record 1.
+    private static final int[] CACHEABLE_EFS = {
+        EF_AD, EF_MBI, EF_SPDI, EF_PNN, EF_SST, EF_INFO_CPHS, EF_CSP_CPHS, EF_GID1, EF_GID2
+    };
+    private static final int[] CACHEABLE_EF_EVENTS = {
+        EVENT_GET_AD_DONE, EVENT_GET_MBI_DONE, EVENT_GET_SPDI_DONE, EVENT_GET_PNN_DONE,
+        EVENT_GET_SST_DONE, EVENT_GET_INFO_CPHS_DONE, EVENT_GET_CSP_CPHS_DONE,
+        EVENT_GET_GID1_DONE, EVENT_GET_GID2_DONE
+    };
 
     // Lookup table for carriers known to produce SIMs which incorrectly indicate MNC length.
 
@@ -201,6 +225,11 @@ public class SIMRecords extends IccRecords {
         mVmConfig = new VoiceMailConstants();
         mSpnOverride = new SpnOverride();
 
+        if (SystemProperties.getBoolean("ro.telephony.sim_record_cache", true)) {
+            mSimRecordCache = new SimRecordCache(new File(SIM_RECORD_CACHE_DIRECTORY,
+                    "sim_records_" + mParentApp.getPhoneId()));
+        }
+
         mRecordsRequested = false;  // No load request is made till SIM ready
 
         // recordsToLoad is set to 0 because no requests are made yet
@@ -229,6 +258,11 @@ public class SIMRecords extends IccRecords {
         }
     };
 
+    @VisibleForTesting
+    public void setSimRecordCache(SimRecordCache cache) {
+        mSimRecordCache = cache;
+    }
+
     @Override
     public void dispose() {
         if (DBG) log("Disposing SIMRecords this=" + this);
@@ -604,6 +638,16 @@ public class SIMRecords extends IccRecords {
             // A future optimization would be to inspect fileList and
             // only reload those files that we care about.  For now,
             // just re-fetch all SIM records that we cache.
+            if (mSimRecordCache != null) {
+                if (fileList == null) {
+                    mSimRecordCache.clear();
+                } else {
+                    for (int efid : fileList) {
+                        mSimRecordCache.remove(efid);
+                    }
+                }
+                mSimRecordCache.save();
+            }
             fetchSimRecords();
         }
     }
@@ -643,6 +687,10 @@ public class SIMRecords extends IccRecords {
             return;
         }
 
+        if (mSimRecordCache != null) {
+            cacheRecordResponse(msg);
+        }
+
         try { switch (msg.what) {
             case EVENT_APP_READY:
                 onReady();
@@ -882,6 +930,10 @@ public class SIMRecords extends IccRecords {
                 data = (byte[])ar.result;
 
                 if (ar.exception != null) {
+                    if (mSimRecordCache != null) {
+                        // Without the ICCID the cache can't be trusted
+                        loadSimRecordCache(null);
+                    }
                     break;
                 }
 
@@ -890,8 +942,25 @@ public class SIMRecords extends IccRecords {
 
                 log("iccid: " + SubscriptionInfo.givePrintableIccid(mFullIccId));
 
+                if (mSimRecordCache != null) {
+                    loadSimRecordCache(mFullIccId);
+                }
             break;
 
+            case EVENT_SIM_RECORD_CACHE_LOADED:
+                isRecordLoadResponse = true;
+                ar = (AsyncResult)msg.obj;
+                // A stale load is followed by another one, which loads the records
+                if (mSimRecordCache.onLoaded(ar)) {
+                    loadCacheableRecords(mSimRecordCache.hasEntries());
+                }
+                break;
+
+            case EVENT_VERIFY_CACHED_EF_DONE:
+                ar = (AsyncResult)msg.obj;
+                onCachedEfVerified(msg.arg1, ar);
+                break;
+
 
             case EVENT_GET_AD_DONE:
                 try {
@@ -1339,16 +1408,28 @@ public class SIMRecords extends IccRecords {
         switch (refreshResponse.refreshResult) {
             case IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE:
                 if (DBG) log("handleSimRefresh with SIM_FILE_UPDATED");
+                if (mSimRecordCache != null) {
+                    mSimRecordCache.remove(refreshResponse.efId);
+                    mSimRecordCache.save();
+                }
                 handleFileUpdate(refreshResponse.efId);
                 break;
             case IccRefreshResponse.REFRESH_RESULT_INIT:
                 if (DBG) log("handleSimRefresh with SIM_REFRESH_INIT");
+                if (mSimRecordCache != null) {
+                    mSimRecordCache.clear();
+                    mSimRecordCache.save();
+                }
                 // need to reload all files (that we care about)
                 onIccRefreshInit();
                 break;
             case IccRefreshResponse.REFRESH_RESULT_RESET:
                 // Refresh reset is handled by the UiccCard object.
                 if (DBG) log("handleSimRefresh with SIM_REFRESH_RESET");
+                if (mSimRecordCache != null) {
+                    mSimRecordCache.clear();
+                    mSimRecordCache.save();
+                }
                 break;
             default:
                 // unknown refresh operation
@@ -1457,6 +1538,10 @@ public class SIMRecords extends IccRecords {
     protected void onAllRecordsLoaded() {
         if (DBG) log("record load complete");
 
+        if (mSimRecordCache != null) {
+            mSimRecordCache.save();
+        }
+
         Resources resource = Resources.getSystem();
         if (resource.getBoolean(com.android.internal.R.bool.config_use_sim_language_file)) {
             setSimLanguage(mEfLi, mEfPl);
@@ -1586,12 +1671,10 @@ public class SIMRecords extends IccRecords {
                     obtainMessage(EVENT_GET_MSISDN_DONE));
         mRecordsToLoad++;
 
-        // Record number is subscriber profile
-        mFh.loadEFLinearFixed(EF_MBI, 1, obtainMessage(EVENT_GET_MBI_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_AD, obtainMessage(EVENT_GET_AD_DONE));
-        mRecordsToLoad++;
+        // With the cache, the static EFs are loaded once the ICCID is known
+        if (mSimRecordCache == null) {
+            loadCacheableRecords(false);
+        }
 
         // Record number is subscriber profile
         mFh.loadEFLinearFixed(EF_MWIS, 1, obtainMessage(EVENT_GET_MWIS_DONE));
@@ -1613,27 +1696,6 @@ public class SIMRecords extends IccRecords {
 
         getSpnFsm(true, null);
 
-        mFh.loadEFTransparent(EF_SPDI, obtainMessage(EVENT_GET_SPDI_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFLinearFixed(EF_PNN, 1, obtainMessage(EVENT_GET_PNN_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_SST, obtainMessage(EVENT_GET_SST_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_INFO_CPHS, obtainMessage(EVENT_GET_INFO_CPHS_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_CSP_CPHS,obtainMessage(EVENT_GET_CSP_CPHS_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_GID1, obtainMessage(EVENT_GET_GID1_DONE));
-        mRecordsToLoad++;
-
-        mFh.loadEFTransparent(EF_GID2, obtainMessage(EVENT_GET_GID2_DONE));
-        mRecordsToLoad++;
-
         loadEfLiAndEfPl();
 
         // XXX should seek instead of examining them all
@@ -1657,6 +1719,90 @@ public class SIMRecords extends IccRecords {
         if (DBG) log("fetchSimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
     }
 
+    /**
+     * Read the entries cached for the SIM from disk, then load the EFs of CACHEABLE_EFS on
+     * EVENT_SIM_RECORD_CACHE_LOADED. The load counts as a record so that the records aren't
+     * reported loaded meanwhile.
+     */
+    private void loadSimRecordCache(String iccId) {
+        mSimRecordCache.load(iccId, obtainMessage(EVENT_SIM_RECORD_CACHE_LOADED));
+        mRecordsToLoad++;
+    }
+
+    /**
+     * Load the EFs of CACHEABLE_EFS. If useCache, the contents cached for the SIM are sent
+     * to the handlers right away, and the EFs are read from the card in the background to
+     * check them.
+     */
+    private void loadCacheableRecords(boolean useCache) {
+        for (int i = 0; i < CACHEABLE_EFS.length; i++) {
+            int efid = CACHEABLE_EFS[i];
+            Message response = obtainMessage(CACHEABLE_EF_EVENTS[i]);
+            if (useCache && mSimRecordCache.contains(efid)) {
+                byte[] data = mSimRecordCache.get(efid);
+                AsyncResult.forMessage(response, data,
+                        data == null ? new IccFileNotFound(efid) : null);
+                response.sendToTarget();
+                mCachedEfsServed++;
+                loadCacheableEf(efid, obtainMessage(EVENT_VERIFY_CACHED_EF_DONE, efid, 0));
+            } else {
+                loadCacheableEf(efid, response);
+            }
+            mRecordsToLoad++;
+        }
+    }
+
+    private void loadCacheableEf(int efid, Message response) {
+        if (efid == EF_MBI || efid == EF_PNN) {
+            // Record number is subscriber profile
+            mFh.loadEFLinearFixed(efid, 1, response);
+        } else {
+            mFh.loadEFTransparent(efid, response);
+        }
+    }
+
+    /**
+     * Keep the contents of a cacheable EF read from the card.
+     */
+    private void cacheRecordResponse(Message msg) {
+        for (int i = 0; i < CACHEABLE_EF_EVENTS.length; i++) {
+            if (CACHEABLE_EF_EVENTS[i] == msg.what) {
+                AsyncResult ar = (AsyncResult) msg.obj;
+                if (ar.exception == null) {
+                    mSimRecordCache.put(CACHEABLE_EFS[i], (byte[]) ar.result);
+                } else if (ar.exception instanceof IccFileNotFound) {
+                    mSimRecordCache.put(CACHEABLE_EFS[i], null);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compare an EF served from the cache with the card. If they differ, the cache is dropped
+     * and the records are loaded again from the card.
+     */
+    private void onCachedEfVerified(int efid, AsyncResult ar) {
+        byte[] data;
+        if (ar.exception == null) {
+            data = (byte[]) ar.result;
+        } else if (ar.exception instanceof IccFileNotFound) {
+            data = null;
+        } else {
+            // Can't tell
+            return;
+        }
+        if (!mSimRecordCache.contains(efid) || mSimRecordCache.matches(efid, data)) {
+            return;
+        }
+
+        log("cached EF 0x" + Integer.toHexString(efid) + " differs from the SIM, reloading");
+        mCachedEfsMismatched++;
+        mSimRecordCache.clear();
+        mSimRecordCache.save();
+        fetchSimRecords();
+    }
+
     /**
      * Returns the SpnDisplayRule based on settings on the SIM and the
      * specified plmn (currently-registered PLMN).  See TS 22.101 Annex A
@@ -1992,6 +2138,11 @@ public class SIMRecords extends IccRecords {
         super.dump(fd, pw, args);
         pw.println(" mVmConfig=" + mVmConfig);
         pw.println(" mSpnOverride=" + mSpnOverride);
+        if (mSimRecordCache != null) {
+            mSimRecordCache.dump(pw);
+            pw.println(" mCachedEfsServed=" + mCachedEfsServed
+                    + " mCachedEfsMismatched=" + mCachedEfsMismatched);
+        }
         pw.println(" mCallForwardingStatus=" + mCallForwardingStatus);
         pw.println(" mSpnState=" + mSpnState);
         pw.println(" mCphsInfo=" + mCphsInfo);
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.telephony.Rlog;
+import android.util.AtomicFile;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * On-disk copy of the contents of static EFs of one SIM, keyed by its ICCID, so the records of
+ * a known SIM can be served without reading the card. The ICCID is stored as a SHA-256 hash.
+ *
+ * An EF that is not on the card is kept as absent, so it isn't read again either. The owner is
+ * responsible for checking the cached contents against the card and for dropping entries on
+ * REFRESH.
+ *
+ * The file is read and written on a background thread, so the owner's looper, the main one for
+ * SIMRecords, never waits for the disk. Reads and writes are done in the order they are
+ * requested. Apart from that it is not thread safe, and is owned by the handler of SIMRecords.
+ *
+ * {@hide}
+ */
+public class SimRecordCache {
+    private static final String LOG_TAG = "SimRecordCache";
+    private static final boolean DBG = true;
+
+    private static final int VERSION = 1;
+    private static final int ABSENT = -1;
+    /** EFs read for records are far smaller, anything larger is a corrupt file */
+    private static final int MAX_EF_SIZE = 4096;
+
+    /** Marks an EF that is not on the card */
+    private static final byte[] ABSENT_EF = new byte[0];
+
+    private static HandlerThread sIoThread;
+
+    /**
+     * Entries read from disk, for the owner's thread
+     */
+    private static final class Loaded {
+        final int mGeneration;
+        final SparseArray<byte[]> mEfs;
+
+        Loaded(int generation, SparseArray<byte[]> efs) {
+            mGeneration = generation;
+            mEfs = efs;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final Handler mIoHandler;
+    private String mIccIdHash;
+    private final SparseArray<byte[]> mEfs = new SparseArray<byte[]>();
+    private boolean mDirty;
+
+    // Incremented by each load, so the entries of an earlier one are dropped
+    private int mGeneration;
+    private boolean mLoading;
+    // Changes made while loading, which the entries read from disk must not undo
+    private boolean mClearedWhileLoading;
+    private final SparseBooleanArray mRemovedWhileLoading = new SparseBooleanArray();
+
+    public SimRecordCache(File file) {
+        this(file, getIoLooper());
+    }
+
+    @VisibleForTesting
+    public SimRecordCache(File file, Looper ioLooper) {
+        mFile = new AtomicFile(file);
+        mIoHandler = new Handler(ioLooper);
+    }
+
+    private static synchronized Looper getIoLooper() {
+        if (sIoThread == null) {
+            sIoThread = new HandlerThread(LOG_TAG);
+            sIoThread.start();
+        }
+        return sIoThread.getLooper();
+    }
+
+    /**
+     * Select the SIM, reading its entries from disk in the background. Until
+     * {@link #onLoaded} is called with the response, the cache has none of them.
+     *
+     * @param response sent on completion, with an AsyncResult to pass to {@link #onLoaded}
+     */
+    public void load(String iccId, final Message response) {
+        mEfs.clear();
+        mDirty = false;
+        mIccIdHash = hash(iccId);
+        mGeneration++;
+        mLoading = true;
+        mClearedWhileLoading = false;
+        mRemovedWhileLoading.clear();
+
+        final int generation = mGeneration;
+        final String iccIdHash = mIccIdHash;
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SparseArray<byte[]> efs = iccIdHash == null
+                        ? new SparseArray<byte[]>() : read(iccIdHash);
+                AsyncResult.forMessage(response, new Loaded(generation, efs), null);
+                response.sendToTarget();
+            }
+        });
+    }
+
+    /**
+     * Take the entries read by {@link #load}.
+     *
+     * @return false if another load was started since, and the response must be ignored
+     */
+    public boolean onLoaded(AsyncResult ar) {
+        Loaded loaded = (Loaded) ar.result;
+        if (loaded.mGeneration != mGeneration) return false;
+
+        mLoading = false;
+        if (mClearedWhileLoading) return true;
+        for (int i = 0; i < loaded.mEfs.size(); i++) {
+            int efid = loaded.mEfs.keyAt(i);
+            // Entries put or removed meanwhile are newer
+            if (mEfs.indexOfKey(efid) < 0 && !mRemovedWhileLoading.get(efid)) {
+                mEfs.put(efid, loaded.mEfs.valueAt(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether there are cached entries for the selected SIM
+     */
+    public boolean hasEntries() {
+        return mEfs.size() > 0;
+    }
+
+    /**
+     * @return whether the EF is cached for the selected SIM
+     */
+    public boolean contains(int efid) {
+        return mEfs.indexOfKey(efid) >= 0;
+    }
+
+    /**
+     * @return the cached contents, or null if the EF is absent from the card or not cached
+     */
+    public byte[] get(int efid) {
+        byte[] data = mEfs.get(efid);
+        return data == null || data == ABSENT_EF ? null : data;
+    }
+
+    /**
+     * @return whether the cached contents equal data, null meaning absent from the card.
+     * False if the EF is not cached.
+     */
+    public boolean matches(int efid, byte[] data) {
+        byte[] cached = mEfs.get(efid);
+        if (cached == null) return false;
+        if (cached == ABSENT_EF) return data == null;
+        return Arrays.equals(cached, data);
+    }
+
+    /**
+     * @param data the contents, or null if the EF is absent from the card
+     */
+    public void put(int efid, byte[] data) {
+        if (mIccIdHash == null) return;
+        if (mEfs.indexOfKey(efid) >= 0 && matches(efid, data)) return;
+        mEfs.put(efid, data == null ? ABSENT_EF : data.clone());
+        mDirty = true;
+    }
+
+    public void remove(int efid) {
+        if (mLoading) {
+            mRemovedWhileLoading.put(efid, true);
+            mDirty = true;
+        }
+        if (mEfs.indexOfKey(efid) >= 0) {
+            mEfs.remove(efid);
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Drop all entries of the selected SIM, e.g. on a REFRESH that doesn't list the files.
+     */
+    public void clear() {
+        if (mLoading) {
+            mClearedWhileLoading = true;
+            mDirty = true;
+        }
+        if (mEfs.size() > 0) {
+            mEfs.clear();
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Write the entries of the selected SIM to disk in the background if they changed,
+     * replacing those of any other SIM. While loading, the write waits for the next call.
+     */
+    public void save() {
+        if (!mDirty || mLoading || mIccIdHash == null) return;
+        final String iccIdHash = mIccIdHash;
+        final SparseArray<byte[]> efs = mEfs.clone();
+        mDirty = false;
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write(iccIdHash, efs);
+            }
+        });
+    }
+
+    private SparseArray<byte[]> read(String iccIdHash) {
+        SparseArray<byte[]> efs = new SparseArray<byte[]>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION || !iccIdHash.equals(in.readUTF())) {
+                if (DBG) log("read: no entries for this SIM");
+                return efs;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int efid = in.readInt();
+                int length = in.readInt();
+                if (length == ABSENT) {
+                    efs.put(efid, ABSENT_EF);
+                } else if (length >= 0 && length <= MAX_EF_SIZE) {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    efs.put(efid, data);
+                } else {
+                    throw new IOException("Bad length " + length);
+                }
+            }
+            if (DBG) log("read: " + efs.size() + " entries");
+        } catch (FileNotFoundException e) {
+            if (DBG) log("read: no file");
+        } catch (IOException e) {
+            loge("read: " + e);
+            efs.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return efs;
+    }
+
+    private void write(String iccIdHash, SparseArray<byte[]> efs) {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeUTF(iccIdHash);
+            out.writeInt(efs.size());
+            for (int i = 0; i < efs.size(); i++) {
+                byte[] data = efs.valueAt(i);
+                out.writeInt(efs.keyAt(i));
+                if (data == ABSENT_EF) {
+                    out.writeInt(ABSENT);
+                } else {
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            if (DBG) log("write: " + efs.size() + " entries");
+        } catch (IOException e) {
+            loge("write: " + e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    private static String hash(String iccId) {
+        if (iccId == null || iccId.isEmpty()) return null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return IccUtils.bytesToHexString(md.digest(iccId.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            loge("hash: " + e);
+            return null;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(" SimRecordCache: entries=" + mEfs.size() + " dirty=" + mDirty
+                + " loading=" + mLoading);
+    }
+
+    private static void log(String s) {
+        Rlog.d(LOG_TAG, s);
+    }
+
+    private static void loge(String s) {
+        Rlog.e(LOG_TAG, s);
+    }
+}
@@ -20,6 +20,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -29,61 +31,141 @@ import android.os.Environment;
 import android.telephony.Rlog;
 import android.util.Xml;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.XmlUtils;
 
+/**
+ * SPN overrides from spn-conf.xml by MCC/MNC.
+ *
+ * The file is parsed on the first lookup rather than at construction, once per process, into
+ * a table shared by all instances: the numeric keys are packed into a sorted long array searched
+ * by binary search, and the SPNs are pooled so each distinct name is held once.
+ */
 public class SpnOverride {
-    private HashMap<String, String> mCarrierSpnMap;
-
-
     static final String LOG_TAG = "SpnOverride";
     static final String PARTNER_SPN_OVERRIDE_PATH ="etc/spn-conf.xml";
     static final String OEM_SPN_OVERRIDE_PATH = "telephony/spn-conf.xml";
 
+    private static final Object sLock = new Object();
+    private static Table sTable;
+
     SpnOverride () {
-        mCarrierSpnMap = new HashMap<String, String>();
-        loadSpnOverrides();
     }
 
     boolean containsCarrier(String carrier) {
-        return mCarrierSpnMap.containsKey(carrier);
+        return getTable().contains(carrier);
     }
 
     String getSpn(String carrier) {
-        return mCarrierSpnMap.get(carrier);
+        return getTable().get(carrier);
     }
 
-    private void loadSpnOverrides() {
-        FileReader spnReader;
+    private static Table getTable() {
+        synchronized (sLock) {
+            if (sTable == null) {
+                sTable = loadSpnOverrides();
+            }
+            return sTable;
+        }
+    }
 
-        File spnFile = new File(Environment.getRootDirectory(),
-                PARTNER_SPN_OVERRIDE_PATH);
-        File oemSpnFile = new File(Environment.getOemDirectory(),
-                OEM_SPN_OVERRIDE_PATH);
+    @Override
+    public String toString() {
+        synchronized (sLock) {
+            return "SpnOverride{" + (sTable == null ? "not loaded" : sTable.toString()) + "}";
+        }
+    }
 
-        if (oemSpnFile.exists()) {
-            // OEM image exist SPN xml, get the timestamp from OEM & System image for comparison.
-            long oemSpnTime = oemSpnFile.lastModified();
-            long sysSpnTime = spnFile.lastModified();
-            Rlog.d(LOG_TAG, "SPN Timestamp: oemTime = " + oemSpnTime + " sysTime = " + sysSpnTime);
+    /**
+     * Immutable SPN table. Keys of up to 15 digits are packed into a long with their length, so
+     * "310260" and "3100260" stay distinct; any other key is kept in a map.
+     */
+    @VisibleForTesting
+    static final class Table {
+        private final long[] mKeys;
+        private final int[] mValueIndex;
+        private final String[] mValues;
+        private final HashMap<String, String> mOtherKeys;
+
+        private Table(HashMap<String, String> map) {
+            mOtherKeys = new HashMap<String, String>();
+            HashMap<Long, String> numericKeys = new HashMap<Long, String>();
+            for (String key : map.keySet()) {
+                long packed = pack(key);
+                if (packed < 0) {
+                    mOtherKeys.put(key, map.get(key));
+                } else {
+                    numericKeys.put(packed, map.get(key));
+                }
+            }
+            mKeys = new long[numericKeys.size()];
+            int i = 0;
+            for (long key : numericKeys.keySet()) {
+                mKeys[i++] = key;
+            }
+            Arrays.sort(mKeys);
+
+            HashMap<String, Integer> pool = new HashMap<String, Integer>();
+            mValueIndex = new int[mKeys.length];
+            for (i = 0; i < mKeys.length; i++) {
+                String value = numericKeys.get(mKeys[i]);
+                Integer index = pool.get(value);
+                if (index == null) {
+                    index = pool.size();
+                    pool.put(value, index);
+                }
+                mValueIndex[i] = index;
+            }
+            mValues = new String[pool.size()];
+            for (String value : pool.keySet()) {
+                mValues[pool.get(value)] = value;
+            }
+        }
 
-            // To get the newer version of SPN from OEM image
-            if (oemSpnTime > sysSpnTime) {
-                Rlog.d(LOG_TAG, "SPN in OEM image is newer than System image");
-                spnFile = oemSpnFile;
+        /**
+         * @return the key as (length << 56 | value), or -1 if it is not a numeric of 1 to 15
+         * digits
+         */
+        private static long pack(String key) {
+            if (key == null || key.length() == 0 || key.length() > 15) return -1;
+            long value = 0;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                value = value * 10 + (c - '0');
             }
-        } else {
-            // No SPN in OEM image, so load it from system image.
-            Rlog.d(LOG_TAG, "No SPN in OEM image = " + oemSpnFile.getPath() +
-                " Load SPN from system image");
+            return ((long) key.length() << 56) | value;
         }
 
-        try {
-            spnReader = new FileReader(spnFile);
-        } catch (FileNotFoundException e) {
-            Rlog.w(LOG_TAG, "Can not open " + spnFile.getAbsolutePath());
-            return;
+        boolean contains(String key) {
+            long packed = pack(key);
+            if (packed < 0) return key != null && mOtherKeys.containsKey(key);
+            return Arrays.binarySearch(mKeys, packed) >= 0;
         }
 
+        String get(String key) {
+            long packed = pack(key);
+            if (packed < 0) return key == null ? null : mOtherKeys.get(key);
+            int index = Arrays.binarySearch(mKeys, packed);
+            return index >= 0 ? mValues[mValueIndex[index]] : null;
+        }
+
+        int size() {
+            return mKeys.length + mOtherKeys.size();
+        }
+
+        @Override
+        public String toString() {
+            return "entries=" + size() + " spns=" + (mValues.length + mOtherKeys.size());
+        }
+    }
+
+    /**
+     * Parse an spn-conf.xml document. Closes the reader.
+     */
+    @VisibleForTesting
+    static Table parseSpnOverrides(Reader spnReader) {
+        HashMap<String, String> carrierSpnMap = new HashMap<String, String>();
         try {
             XmlPullParser parser = Xml.newPullParser();
             parser.setInput(spnReader);
@@ -101,7 +183,7 @@ public class SpnOverride {
                 String numeric = parser.getAttributeValue(null, "numeric");
                 String data    = parser.getAttributeValue(null, "spn");
 
-                mCarrierSpnMap.put(numeric, data);
+                carrierSpnMap.put(numeric, data);
             }
             spnReader.close();
         } catch (XmlPullParserException e) {
@@ -109,6 +191,41 @@ public class SpnOverride {
         } catch (IOException e) {
             Rlog.w(LOG_TAG, "Exception in spn-conf parser " + e);
         }
+        return new Table(carrierSpnMap);
     }
 
+    private static Table loadSpnOverrides() {
+        FileReader spnReader;
+
+        File spnFile = new File(Environment.getRootDirectory(),
+                PARTNER_SPN_OVERRIDE_PATH);
+        File oemSpnFile = new File(Environment.getOemDirectory(),
+                OEM_SPN_OVERRIDE_PATH);
+
+        if (oemSpnFile.exists()) {
+            // OEM image exist SPN xml, get the timestamp from OEM & System image for comparison.
+            long oemSpnTime = oemSpnFile.lastModified();
+            long sysSpnTime = spnFile.lastModified();
+            Rlog.d(LOG_TAG, "SPN Timestamp: oemTime = " + oemSpnTime + " sysTime = " + sysSpnTime);
+
+            // To get the newer version of SPN from OEM image
+            if (oemSpnTime > sysSpnTime) {
+                Rlog.d(LOG_TAG, "SPN in OEM image is newer than System image");
+                spnFile = oemSpnFile;
+            }
+        } else {
+            // No SPN in OEM image, so load it from system image.
+            Rlog.d(LOG_TAG, "No SPN in OEM image = " + oemSpnFile.getPath() +
+                " Load SPN from system image");
+        }
+
+        try {
+            spnReader = new FileReader(spnFile);
+        } catch (FileNotFoundException e) {
+            Rlog.w(LOG_TAG, "Can not open " + spnFile.getAbsolutePath());
+            return new Table(new HashMap<String, String>());
+        }
+
+        return parseSpnOverrides(spnReader);
+    }
 }
@@ -85,6 +85,8 @@ public class UiccCard {
     private CatService mCatService;
     private RadioState mLastRadioState =  RadioState.RADIO_UNAVAILABLE;
     private UiccCarrierPrivilegeRules mCarrierPrivilegeRules;
+    // Orders the SIM IO of the applications
+    private final UiccIoScheduler mIoScheduler = new UiccIoScheduler();
 
     private RegistrantList mAbsentRegistrants = new RegistrantList();
     private RegistrantList mCarrierPrivilegeRegistrants = new RegistrantList();
@@ -129,9 +131,17 @@ public class UiccCard {
             mCatService = null;
             mUiccApplications = null;
             mCarrierPrivilegeRules = null;
+            mIoScheduler.dispose();
         }
     }
 
+    /**
+     * @return the scheduler the IccFileHandlers of the applications send their SIM IO through
+     */
+    public UiccIoScheduler getIoScheduler() {
+        return mIoScheduler;
+    }
+
     public void update(Context c, CommandsInterface ci, IccCardStatus ics) {
         synchronized (mLock) {
             CardState oldState = mCardState;
@@ -780,6 +790,7 @@ public class UiccCard {
         pw.println(" mCdmaSubscriptionAppIndex=" + mCdmaSubscriptionAppIndex);
         pw.println(" mImsSubscriptionAppIndex=" + mImsSubscriptionAppIndex);
         pw.println(" mImsSubscriptionAppIndex=" + mImsSubscriptionAppIndex);
+        mIoScheduler.dump(pw);
         pw.println(" mUiccApplications: length=" + mUiccApplications.length);
         for (int i = 0; i < mUiccApplications.length; i++) {
             if (mUiccApplications[i] == null) {
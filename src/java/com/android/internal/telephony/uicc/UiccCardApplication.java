@@ -51,6 +51,7 @@ public class UiccCardApplication {
     private static final int EVENT_CHANGE_FACILITY_LOCK_DONE = 7;
     private static final int EVENT_PIN2_PUK2_DONE = 8;
     private static final int EVENT_RADIO_UNAVAILABLE = 9;
+    private static final int EVENT_RECORDS_LOADED = 10;
 
     /**
      * These values are for authContext (parameter P2) per 3GPP TS 31.102 (Section 7.1.2)
@@ -108,6 +109,7 @@ public class UiccCardApplication {
 
         mIccFh = createIccFileHandler(as.app_type);
         mIccRecords = createIccRecords(as.app_type, mContext, mCi);
+        registerForRecordsLoaded();
         if (mAppState == AppState.APPSTATE_READY) {
             queryFdn();
             queryPin1State();
@@ -143,6 +145,7 @@ public class UiccCardApplication {
                 if (mIccRecords != null) { mIccRecords.dispose();}
                 mIccFh = createIccFileHandler(as.app_type);
                 mIccRecords = createIccRecords(as.app_type, c, ci);
+                registerForRecordsLoaded();
             }
 
             if (mPersoSubState != oldPersoSubState &&
@@ -173,6 +176,15 @@ public class UiccCardApplication {
             mIccRecords = null;
             mIccFh = null;
             mCi.unregisterForNotAvailable(mHandler);
+            UiccIoScheduler scheduler = mUiccCard.getIoScheduler();
+            if (scheduler != null) scheduler.onAppDisposed(mAid);
+        }
+    }
+
+    // Lets the IO scheduler of the card measure how long the records took to load
+    private void registerForRecordsLoaded() {
+        if (mIccRecords != null) {
+            mIccRecords.registerForRecordsLoaded(mHandler, EVENT_RECORDS_LOADED, null);
         }
     }
 
@@ -412,6 +424,10 @@ public class UiccCardApplication {
                     if (DBG) log("handleMessage (EVENT_RADIO_UNAVAILABLE)");
                     mAppState = AppState.APPSTATE_UNKNOWN;
                     break;
+                case EVENT_RECORDS_LOADED:
+                    UiccIoScheduler scheduler = mUiccCard.getIoScheduler();
+                    if (scheduler != null) scheduler.onRecordsLoaded(mAid, mAppType);
+                    break;
                 default:
                     loge("Unknown Event " + msg.what);
             }
@@ -30,6 +30,7 @@ import android.telephony.Rlog;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.uicc.IccUtils;
@@ -39,6 +40,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.lang.IllegalArgumentException;
 import java.lang.IndexOutOfBoundsException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
@@ -47,8 +49,10 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -96,13 +100,13 @@ public class UiccCarrierPrivilegeRules extends Handler {
      *       DB
      */
     // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
+    private static final int TAG_ALL_REF_AR_DO = 0xFF40;
+    private static final int TAG_REF_AR_DO = 0xE2;
+    private static final int TAG_REF_DO = 0xE1;
+    private static final int TAG_DEVICE_APP_ID_REF_DO = 0xC1;
+    private static final int TAG_PKG_REF_DO = 0xCA;
+    private static final int TAG_AR_DO = 0xE3;
+    private static final int TAG_PERM_AR_DO = 0xDB;
 
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
@@ -117,9 +121,15 @@ public class UiccCarrierPrivilegeRules extends Handler {
     // Max number of retries for open logical channel, interval is 10s.
     private static final int MAX_RETRY = 1;
     private static final int RETRY_INTERVAL_MS = 10000;
+    // Time the ARA-M read waits for the SIM IO of the applications to stop.
+    private static final int OPEN_CHANNEL_IDLE_TIMEOUT_MS = 20000;
+
+    // Max number of (package, signature) results remembered.
+    private static final int MAX_CACHED_STATUSES = 64;
 
     // Describes a single rule.
-    private static class AccessRule {
+    @VisibleForTesting
+    static class AccessRule {
         public byte[] certificateHash;
         public String packageName;
         public long accessType;   // This bit is not currently used, but reserved for future use.
@@ -142,7 +152,214 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     }
 
-    // Used for parsing the data from the UICC.
+    // Key of a remembered result of getCarrierPrivilegeStatus(Signature, String).
+    private static final class StatusKey {
+        final String packageName;
+        final Signature signature;
+
+        StatusKey(String packageName, Signature signature) {
+            this.packageName = packageName;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StatusKey)) return false;
+            StatusKey other = (StatusKey) o;
+            return TextUtils.equals(packageName, other.packageName)
+                    && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * signature.hashCode() + (packageName == null ? 0 : packageName.hashCode());
+        }
+    }
+
+    /**
+     * Decodes the ALL-REF-AR-DO of the ARA-M as the GET DATA responses arrive, without
+     * converting them to hex strings. Each REF-AR-DO is parsed as soon as it is complete.
+     */
+    @VisibleForTesting
+    static class RuleParser {
+        private byte[] mData = new byte[256];
+        private int mLength;
+        // Start of the next REF-AR-DO, -1 until the ALL-REF-AR-DO header is received.
+        private int mOffset = -1;
+        // End of the ALL-REF-AR-DO value.
+        private int mEnd;
+        private final List<AccessRule> mRules = new ArrayList<AccessRule>();
+        private final TlvHeader mHeader = new TlvHeader();
+
+        /**
+         * Appends the payload of a GET DATA response and parses the rules it completes.
+         *
+         * @return true if the ALL-REF-AR-DO is complete, false if more data is needed.
+         * @throws IllegalArgumentException if the data is malformed.
+         */
+        boolean append(byte[] chunk) {
+            if (mData.length - mLength < chunk.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mLength + chunk.length));
+            }
+            System.arraycopy(chunk, 0, mData, mLength, chunk.length);
+            mLength += chunk.length;
+
+            if (mOffset < 0) {
+                if (!mHeader.read(mData, 0, mLength)) {
+                    return false;
+                }
+                if (mHeader.tag != TAG_ALL_REF_AR_DO) {
+                    throw new IllegalArgumentException("Tags don't match.");
+                }
+                mOffset = mHeader.valueOffset;
+                mEnd = mHeader.valueOffset + mHeader.valueLength;
+            }
+            if (mLength > mEnd) {
+                throw new IllegalArgumentException("Did not consume all.");
+            }
+
+            while (mOffset < mEnd && mHeader.read(mData, mOffset, mLength)) {
+                int valueEnd = mHeader.valueOffset + mHeader.valueLength;
+                if (mHeader.tag != TAG_REF_AR_DO) {
+                    throw new IllegalArgumentException("Tags don't match.");
+                }
+                if (valueEnd > mEnd) {
+                    throw new IllegalArgumentException("Not enough data.");
+                }
+                if (valueEnd > mLength) {
+                    break;
+                }
+                AccessRule accessRule = parseRefArDo(mData, mHeader.valueOffset, valueEnd);
+                if (accessRule != null) {
+                    mRules.add(accessRule);
+                } else {
+                    Rlog.e(LOG_TAG, "Skip unrecognized rule." + IccUtils.bytesToHexString(
+                            Arrays.copyOfRange(mData, mOffset, valueEnd)));
+                }
+                mOffset = valueEnd;
+            }
+            return mOffset == mEnd;
+        }
+
+        List<AccessRule> getRules() {
+            return mRules;
+        }
+
+        /*
+         * Parses a single rule, the value of a REF-AR-DO in data[offset, end).
+         */
+        private static AccessRule parseRefArDo(byte[] data, int offset, int end) {
+            TlvHeader tlv = new TlvHeader();
+            byte[] certificateHash = null;
+            String packageName = null;
+
+            while (offset < end) {
+                tlv.readAll(data, offset, end);
+                int valueEnd = tlv.valueOffset + tlv.valueLength;
+                if (tlv.tag == TAG_REF_DO) {
+                    // Skip unrelated rules.
+                    if (tlv.valueLength == 0
+                            || (data[tlv.valueOffset] & 0xFF) != TAG_DEVICE_APP_ID_REF_DO) {
+                        return null;
+                    }
+                    TlvHeader deviceDo = new TlvHeader();
+                    deviceDo.readAll(data, tlv.valueOffset, valueEnd);
+                    int deviceEnd = deviceDo.valueOffset + deviceDo.valueLength;
+                    certificateHash = Arrays.copyOfRange(data, deviceDo.valueOffset, deviceEnd);
+
+                    if (deviceEnd < valueEnd) {
+                        if ((data[deviceEnd] & 0xFF) != TAG_PKG_REF_DO) {
+                            return null;
+                        }
+                        TlvHeader pkgDo = new TlvHeader();
+                        pkgDo.readAll(data, deviceEnd, valueEnd);
+                        if (pkgDo.valueOffset + pkgDo.valueLength != valueEnd) {
+                            throw new IllegalArgumentException("Did not consume all.");
+                        }
+                        packageName = new String(data, pkgDo.valueOffset, pkgDo.valueLength);
+                    } else {
+                        packageName = null;
+                    }
+                } else if (tlv.tag == TAG_AR_DO) {
+                    // Skip unrelated rules.
+                    if (tlv.valueLength == 0
+                            || (data[tlv.valueOffset] & 0xFF) != TAG_PERM_AR_DO) {
+                        return null;
+                    }
+                    TlvHeader permDo = new TlvHeader();
+                    permDo.readAll(data, tlv.valueOffset, valueEnd);
+                    if (permDo.valueOffset + permDo.valueLength != valueEnd) {
+                        throw new IllegalArgumentException("Did not consume all.");
+                    }
+                } else {
+                    // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
+                    throw new IllegalArgumentException("Invalid Rule type");
+                }
+                offset = valueEnd;
+            }
+
+            return new AccessRule(certificateHash, packageName, 0);
+        }
+    }
+
+    /**
+     * Tag and length of a BER-TLV, see GPC_Specification_2.2.1: 11.1.5 for the length.
+     */
+    private static class TlvHeader {
+        int tag;
+        int valueOffset;
+        int valueLength;
+
+        /**
+         * Reads the header at data[offset], the value may extend past limit.
+         *
+         * @return false if the header itself extends past limit.
+         */
+        boolean read(byte[] data, int offset, int limit) {
+            if (offset >= limit) return false;
+            tag = data[offset++] & 0xFF;
+            if ((tag & 0x1F) == 0x1F) {
+                // Multi byte tag, e.g. FF40
+                int b;
+                do {
+                    if (offset >= limit) return false;
+                    b = data[offset++] & 0xFF;
+                    tag = (tag << 8) | b;
+                } while ((b & 0x80) != 0 && tag <= 0xFFFFFF);
+            }
+            if (offset >= limit) return false;
+            int firstByte = data[offset++] & 0xFF;
+            if (firstByte < 0x80) {
+                valueLength = firstByte;
+            } else {
+                int numBytes = firstByte - 0x80;
+                if (numBytes == 0 || numBytes > 3) {
+                    throw new IllegalArgumentException("Bad length.");
+                }
+                if (offset + numBytes > limit) return false;
+                valueLength = 0;
+                for (int i = 0; i < numBytes; i++) {
+                    valueLength = (valueLength << 8) | (data[offset++] & 0xFF);
+                }
+            }
+            valueOffset = offset;
+            return true;
+        }
+
+        /**
+         * Reads a TLV that must be entirely within data[offset, end).
+         */
+        void readAll(byte[] data, int offset, int end) {
+            if (!read(data, offset, end)) {
+                throw new IllegalArgumentException("No length.");
+            }
+            if (valueOffset + valueLength > end) {
+                throw new IllegalArgumentException("Not enough data.");
+            }
+        }
+    }
+
+    // Used for parsing hex string data from the UICC, e.g. by UiccPkcs15.
     public static class TLV {
         private static final int SINGLE_BYTE_MAX_LENGTH = 0x80;
         private String tag;
@@ -212,7 +429,22 @@ public class UiccCarrierPrivilegeRules extends Handler {
     private UiccPkcs15 mUiccPkcs15; // ARF fallback
     private AtomicInteger mState;
     private List<AccessRule> mAccessRules;
-    private String mRules;
+    // mAccessRules by certificate hash, rebuilt when the rules are loaded.
+    private volatile HashMap<ByteBuffer, List<AccessRule>> mAccessRulesByCertHash =
+            new HashMap<ByteBuffer, List<AccessRule>>();
+    // Whether a (package, signature) has access, in LRU order. Only used once the rules are
+    // loaded and cleared when they change. The signature is part of the key, so results
+    // can't go stale when a package changes.
+    private final LinkedHashMap<StatusKey, Boolean> mStatusCache =
+            new LinkedHashMap<StatusKey, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<StatusKey, Boolean> eldest) {
+                    return size() > MAX_CACHED_STATUSES;
+                }
+            };
+    private int mStatusCacheHits;
+    private int mStatusCacheMisses;
+    private RuleParser mRuleParser;
     private Message mLoadedCallback;
     private String mStatusMessage;  // Only used for debugging.
     private int mChannelId; // Channel Id for communicating with UICC.
@@ -224,10 +456,23 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     };
 
+    private final Runnable mOpenChannelRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Send open logical channel request.
+            mUiccCard.iccOpenLogicalChannel(AID,
+                obtainMessage(EVENT_OPEN_LOGICAL_CHANNEL_DONE, null));
+        }
+    };
+
     private void openChannel() {
-        // Send open logical channel request.
-        mUiccCard.iccOpenLogicalChannel(AID,
-            obtainMessage(EVENT_OPEN_LOGICAL_CHANNEL_DONE, null));
+        // The rules are not needed to register, let the records of the applications load first
+        UiccIoScheduler scheduler = mUiccCard.getIoScheduler();
+        if (scheduler != null) {
+            scheduler.runWhenIdle(mOpenChannelRunnable, OPEN_CHANNEL_IDLE_TIMEOUT_MS);
+        } else {
+            mOpenChannelRunnable.run();
+        }
     }
 
     public UiccCarrierPrivilegeRules(UiccCard uiccCard, Message loadedCallback) {
@@ -236,7 +481,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mState = new AtomicInteger(STATE_LOADING);
         mStatusMessage = "Not loaded.";
         mLoadedCallback = loadedCallback;
-        mRules = "";
+        mRuleParser = new RuleParser();
         mAccessRules = new ArrayList<AccessRule>();
 
         openChannel();
@@ -288,16 +533,44 @@ public class UiccCarrierPrivilegeRules extends Handler {
             return TelephonyManager.CARRIER_PRIVILEGE_STATUS_ERROR_LOADING_RULES;
         }
 
-        // SHA-1 is for backward compatible support only, strongly discouraged for new use.
-        byte[] certHash = getCertHash(signature, "SHA-1");
-        byte[] certHash256 = getCertHash(signature, "SHA-256");
-        for (AccessRule ar : mAccessRules) {
-            if (ar.matches(certHash, packageName) || ar.matches(certHash256, packageName)) {
-                return TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS;
+        StatusKey key = new StatusKey(packageName, signature);
+        Boolean hasAccess;
+        synchronized (mStatusCache) {
+            hasAccess = mStatusCache.get(key);
+            if (hasAccess != null) {
+                mStatusCacheHits++;
+            } else {
+                mStatusCacheMisses++;
+            }
+        }
+        if (hasAccess == null) {
+            HashMap<ByteBuffer, List<AccessRule>> rulesByCertHash = mAccessRulesByCertHash;
+            // SHA-1 is for backward compatible support only, strongly discouraged for new use.
+            hasAccess = matchesRule(rulesByCertHash, getCertHash(signature, "SHA-1"), packageName)
+                    || matchesRule(rulesByCertHash, getCertHash(signature, "SHA-256"),
+                            packageName);
+            synchronized (mStatusCache) {
+                // Don't remember a result computed with rules that have been replaced since
+                if (rulesByCertHash == mAccessRulesByCertHash) {
+                    mStatusCache.put(key, hasAccess);
+                }
             }
         }
 
-        return TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
+        return hasAccess ? TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS
+                : TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
+    }
+
+    private static boolean matchesRule(HashMap<ByteBuffer, List<AccessRule>> rulesByCertHash,
+            byte[] certHash, String packageName) {
+        if (certHash == null) return false;
+        List<AccessRule> rules = rulesByCertHash.get(ByteBuffer.wrap(certHash));
+        if (rules != null) {
+            for (AccessRule ar : rules) {
+                if (ar.matches(certHash, packageName)) return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -455,9 +728,8 @@ public class UiccCarrierPrivilegeRules extends Handler {
                   if (response.sw1 == 0x90 && response.sw2 == 0x00 &&
                       response.payload != null && response.payload.length > 0) {
                       try {
-                          mRules += IccUtils.bytesToHexString(response.payload).toUpperCase(Locale.US);
-                          if (isDataComplete()) {
-                              mAccessRules = parseRules(mRules);
+                          if (mRuleParser.append(response.payload)) {
+                              mAccessRules = mRuleParser.getRules();
                               updateState(STATE_LOADED, "Success!");
                           } else {
                               mUiccCard.iccTransmitApduLogicalChannel(mChannelId, CLA, COMMAND, P1, P2_EXTENDED_DATA, P3, DATA,
@@ -506,110 +778,6 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     }
 
-    /*
-     * Check if all rule bytes have been read from UICC.
-     * For long payload, we need to fetch it repeatly before start parsing it.
-     */
-    private boolean isDataComplete() {
-        log("isDataComplete mRules:" + mRules);
-        if (mRules.startsWith(TAG_ALL_REF_AR_DO)) {
-            TLV allRules = new TLV(TAG_ALL_REF_AR_DO);
-            String lengthBytes = allRules.parseLength(mRules);
-            log("isDataComplete lengthBytes: " + lengthBytes);
-            if (mRules.length() == TAG_ALL_REF_AR_DO.length() + lengthBytes.length() +
-                                   allRules.length) {
-                log("isDataComplete yes");
-                return true;
-            } else {
-                log("isDataComplete no");
-                return false;
-            }
-        } else {
-            throw new IllegalArgumentException("Tags don't match.");
-        }
-    }
-
-    /*
-     * Parses the rules from the input string.
-     */
-    private static List<AccessRule> parseRules(String rules) {
-        log("Got rules: " + rules);
-
-        TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
-
-        String arDos = allRefArDo.value;
-        List<AccessRule> accessRules = new ArrayList<AccessRule>();
-        while (!arDos.isEmpty()) {
-            TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            AccessRule accessRule = parseRefArdo(refArDo.value);
-            if (accessRule != null) {
-                accessRules.add(accessRule);
-            } else {
-              Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
-            }
-        }
-        return accessRules;
-    }
-
-    /*
-     * Parses a single rule.
-     */
-    private static AccessRule parseRefArdo(String rule) {
-        log("Got rule: " + rule);
-
-        String certificateHash = null;
-        String packageName = null;
-        String tmp = null;
-        long accessType = 0;
-
-        while (!rule.isEmpty()) {
-            if (rule.startsWith(TAG_REF_DO)) {
-                TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
-
-                // Skip unrelated rules.
-                if (!refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                    return null;
-                }
-
-                TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                tmp = deviceDo.parse(refDo.value, false);
-                certificateHash = deviceDo.value;
-
-                if (!tmp.isEmpty()) {
-                  if (!tmp.startsWith(TAG_PKG_REF_DO)) {
-                      return null;
-                  }
-                  TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                  pkgDo.parse(tmp, true);
-                  packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
-                } else {
-                  packageName = null;
-                }
-            } else if (rule.startsWith(TAG_AR_DO)) {
-                TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
-
-                // Skip unrelated rules.
-                if (!arDo.value.startsWith(TAG_PERM_AR_DO)) {
-                    return null;
-                }
-
-                TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(arDo.value, true);
-            } else  {
-                // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
-                throw new RuntimeException("Invalid Rule type");
-            }
-        }
-
-        AccessRule accessRule = new AccessRule(IccUtils.hexStringToBytes(certificateHash),
-            packageName, accessType);
-        return accessRule;
-    }
-
     /*
      * Converts a Signature into a Certificate hash usable for comparison.
      */
@@ -627,6 +795,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
      * Updates the state and notifies the UiccCard that the rules have finished loading.
      */
     private void updateState(int newState, String statusMessage) {
+        onAccessRulesChanged();
         mState.set(newState);
         if (mLoadedCallback != null) {
             mLoadedCallback.sendToTarget();
@@ -635,6 +804,43 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mStatusMessage = statusMessage;
     }
 
+    @VisibleForTesting
+    void replaceAccessRules(List<AccessRule> accessRules) {
+        mAccessRules = accessRules;
+        onAccessRulesChanged();
+    }
+
+    @VisibleForTesting
+    int getStatusCacheHits() {
+        synchronized (mStatusCache) {
+            return mStatusCacheHits;
+        }
+    }
+
+    /*
+     * Indexes the rules by certificate hash and forgets the results of the previous rules.
+     */
+    private void onAccessRulesChanged() {
+        HashMap<ByteBuffer, List<AccessRule>> rulesByCertHash =
+                new HashMap<ByteBuffer, List<AccessRule>>();
+        if (mAccessRules != null) {
+            for (AccessRule ar : mAccessRules) {
+                if (ar.certificateHash == null) continue;
+                ByteBuffer key = ByteBuffer.wrap(ar.certificateHash);
+                List<AccessRule> rules = rulesByCertHash.get(key);
+                if (rules == null) {
+                    rules = new ArrayList<AccessRule>(1);
+                    rulesByCertHash.put(key, rules);
+                }
+                rules.add(ar);
+            }
+        }
+        synchronized (mStatusCache) {
+            mAccessRulesByCertHash = rulesByCertHash;
+            mStatusCache.clear();
+        }
+    }
+
     private static void log(String msg) {
         if (DBG) Rlog.d(LOG_TAG, msg);
     }
@@ -654,6 +860,10 @@ public class UiccCarrierPrivilegeRules extends Handler {
         } else {
             pw.println(" mAccessRules: null");
         }
+        synchronized (mStatusCache) {
+            pw.println(" mStatusCache: size=" + mStatusCache.size() + " hits=" + mStatusCacheHits
+                    + " misses=" + mStatusCacheMisses);
+        }
         if (mUiccPkcs15 != null) {
             pw.println(" mUiccPkcs15: " + mUiccPkcs15);
             mUiccPkcs15.dump(fd, pw, args);
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.Rlog;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.CommandException;
+import com.android.internal.telephony.CommandsInterface;
+import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppType;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Orders the SIM IO of the applications of a UiccCard. The IccFileHandlers of USIM, ISIM and
+ * CSIM each request their EFs as soon as their application is READY; here at most a window of
+ * commands is outstanding at the modem and the rest wait, so the EFs needed for registration
+ * (ICCID, AD, IMSI of CSIM, IMS identities) are read first and the other reads of the
+ * applications are interleaved instead of one application's whole load going first.
+ *
+ * The pipelined READ RECORD commands of IccFileHandler.loadEFLinearFixedAll carry their own
+ * window, ro.telephony.sim_read_window, which the card window doesn't lower. They still wait
+ * behind queued commands of a higher priority.
+ *
+ * Work that can wait for the records, like reading the ARA-M rules, is run once no SIM IO is
+ * pending, or at a deadline. The time each application took to load its records is measured
+ * from its first read.
+ *
+ * {@hide}
+ */
+public class UiccIoScheduler extends Handler implements IccConstants {
+    private static final String LOG_TAG = "UiccIoScheduler";
+    private static final boolean DBG = true;
+
+    /**
+     * Maximum number of SIM IO commands outstanding at the modem, which executes them one by
+     * one anyway. The default keeps one queued behind the running one. Requests with a larger
+     * window of their own may exceed it.
+     */
+    private static final int DEFAULT_WINDOW = SystemProperties.getInt("ro.telephony.sim_io_window",
+            2);
+
+    private static final int PRIORITY_REGISTRATION = 0;
+    private static final int PRIORITY_DEFAULT = 1;
+    private static final int PRIORITY_COUNT = 2;
+
+    /** EFs needed to register to the network, read before any other */
+    private static final int[] REGISTRATION_EFS = {
+        EF_ICCID, EF_AD, EF_CSIM_IMSIM, EF_IMPI, EF_IMPU, EF_DOMAIN
+    };
+
+    private static final int EVENT_IO_DONE = 1;
+
+    private static class Request {
+        final CommandsInterface mCi;
+        final int mCommand;
+        final int mFileId;
+        final String mPath;
+        final int mP1;
+        final int mP2;
+        final int mP3;
+        final String mData;
+        final String mPin2;
+        final String mAid;
+        final Message mResponse;
+        final int mWindow;
+
+        Request(CommandsInterface ci, int command, int fileid, String path, int p1, int p2,
+                int p3, String data, String pin2, String aid, Message response, int window) {
+            mCi = ci;
+            mCommand = command;
+            mFileId = fileid;
+            mPath = path;
+            mP1 = p1;
+            mP2 = p2;
+            mP3 = p3;
+            mData = data;
+            mPin2 = pin2;
+            mAid = aid;
+            mResponse = response;
+            mWindow = window;
+        }
+    }
+
+    private static class App {
+        final String mAid;
+        final ArrayList<ArrayDeque<Request>> mQueues = new ArrayList<ArrayDeque<Request>>();
+        AppType mType;
+        int mRequestCount;
+        // Time of the first read, and how long the records then took to load, -1 if unknown
+        long mFirstRequestMs = -1;
+        long mLoadMs = -1;
+        long mLoadedAfterCardMs = -1;
+
+        App(String aid) {
+            mAid = aid;
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mQueues.add(new ArrayDeque<Request>());
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final ArrayList<App> mApps = new ArrayList<App>();
+    private final ArrayList<Runnable> mIdleRunnables = new ArrayList<Runnable>();
+    private final long mCreatedMs = SystemClock.elapsedRealtime();
+    private int mWindow = DEFAULT_WINDOW;
+    // Application whose requests go first among those of the same priority
+    private int mNextApp;
+    private int mQueued;
+    private int mOutstanding;
+    private int mCompleted;
+
+    public UiccIoScheduler() {
+    }
+
+    @VisibleForTesting
+    public UiccIoScheduler(Looper looper) {
+        super(looper);
+    }
+
+    @VisibleForTesting
+    public void setWindow(int window) {
+        synchronized (mLock) {
+            mWindow = Math.max(window, 1);
+        }
+        dispatch();
+    }
+
+    /**
+     * Schedules {@link CommandsInterface#iccIOForApp}, same parameters. The response is sent
+     * as if ci had answered it.
+     */
+    public void iccIOForApp(CommandsInterface ci, int command, int fileid, String path, int p1,
+            int p2, int p3, String data, String pin2, String aid, Message response) {
+        iccIOForApp(ci, command, fileid, path, p1, p2, p3, data, pin2, aid, response, 0);
+    }
+
+    /**
+     * Schedules {@link CommandsInterface#iccIOForApp} like the other overload, sending it while
+     * fewer than window commands are outstanding if that is more than the card window. Used
+     * for the commands of a caller that pipelines its own.
+     */
+    public void iccIOForApp(CommandsInterface ci, int command, int fileid, String path, int p1,
+            int p2, int p3, String data, String pin2, String aid, Message response,
+            int window) {
+        Request request = new Request(ci, command, fileid, path, p1, p2, p3, data, pin2, aid,
+                response, window);
+        synchronized (mLock) {
+            App app = getApp(aid);
+            if (app.mFirstRequestMs < 0 && app.mLoadMs < 0) {
+                app.mFirstRequestMs = SystemClock.elapsedRealtime();
+            }
+            app.mRequestCount++;
+            app.mQueues.get(priorityOf(fileid)).add(request);
+            mQueued++;
+        }
+        dispatch();
+    }
+
+    /**
+     * Run r on this handler once no SIM IO is queued or outstanding, or after timeoutMs if the
+     * SIM IO doesn't stop by then.
+     */
+    public void runWhenIdle(final Runnable r, long timeoutMs) {
+        synchronized (mLock) {
+            if (!isIdle()) {
+                // A new instance for each call, so the deadline of an earlier call of r doesn't
+                // run this one
+                final Runnable idleRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        r.run();
+                    }
+                };
+                mIdleRunnables.add(idleRunnable);
+                postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean expired;
+                        synchronized (mLock) {
+                            expired = mIdleRunnables.remove(idleRunnable);
+                        }
+                        if (expired) {
+                            log("runWhenIdle: still not idle, running " + r);
+                            idleRunnable.run();
+                        }
+                    }
+                }, timeoutMs);
+                return;
+            }
+        }
+        post(r);
+    }
+
+    /**
+     * Called when the records of an application are loaded, to measure how long they took.
+     */
+    public void onRecordsLoaded(String aid, AppType type) {
+        synchronized (mLock) {
+            App app = getApp(aid);
+            app.mType = type;
+            if (app.mFirstRequestMs < 0) return;
+
+            long now = SystemClock.elapsedRealtime();
+            app.mLoadMs = now - app.mFirstRequestMs;
+            app.mLoadedAfterCardMs = now - mCreatedMs;
+            app.mFirstRequestMs = -1;
+            log("records of " + type + " loaded in " + app.mLoadMs + "ms, "
+                    + app.mLoadedAfterCardMs + "ms after the card, " + app.mRequestCount
+                    + " SIM IO");
+        }
+    }
+
+    /**
+     * Forget the measurements of a disposed application.
+     */
+    public void onAppDisposed(String aid) {
+        synchronized (mLock) {
+            App app = findApp(aid);
+            if (app != null) {
+                app.mFirstRequestMs = -1;
+                app.mLoadMs = -1;
+                app.mLoadedAfterCardMs = -1;
+                app.mRequestCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Fail the queued requests, the card is gone.
+     */
+    public void dispose() {
+        ArrayList<Request> failed = new ArrayList<Request>();
+        synchronized (mLock) {
+            for (App app : mApps) {
+                for (ArrayDeque<Request> queue : app.mQueues) {
+                    failed.addAll(queue);
+                    queue.clear();
+                }
+            }
+            mQueued = 0;
+            mIdleRunnables.clear();
+        }
+        for (Request request : failed) {
+            sendResponse(request, null,
+                    new CommandException(CommandException.Error.RADIO_NOT_AVAILABLE));
+        }
+    }
+
+    private static int priorityOf(int fileid) {
+        for (int efid : REGISTRATION_EFS) {
+            if (efid == fileid) return PRIORITY_REGISTRATION;
+        }
+        return PRIORITY_DEFAULT;
+    }
+
+    private App findApp(String aid) {
+        for (int i = 0; i < mApps.size(); i++) {
+            if (TextUtils.equals(mApps.get(i).mAid, aid)) return mApps.get(i);
+        }
+        return null;
+    }
+
+    private App getApp(String aid) {
+        App app = findApp(aid);
+        if (app == null) {
+            app = new App(aid);
+            mApps.add(app);
+        }
+        return app;
+    }
+
+    private boolean isIdle() {
+        return mQueued == 0 && mOutstanding == 0;
+    }
+
+    /**
+     * @return the next request: the highest priority first, taking turns between applications
+     *         within a priority. Null if it has to wait for outstanding commands.
+     */
+    private Request nextRequest() {
+        int count = mApps.size();
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            for (int i = 0; i < count; i++) {
+                int index = (mNextApp + i) % count;
+                ArrayDeque<Request> queue = mApps.get(index).mQueues.get(priority);
+                if (!queue.isEmpty()) {
+                    if (mOutstanding >= Math.max(mWindow, queue.peek().mWindow)) return null;
+                    mNextApp = (index + 1) % count;
+                    return queue.poll();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Request request;
+            synchronized (mLock) {
+                request = nextRequest();
+                if (request == null) return;
+                mQueued--;
+                mOutstanding++;
+            }
+            request.mCi.iccIOForApp(request.mCommand, request.mFileId, request.mPath,
+                    request.mP1, request.mP2, request.mP3, request.mData, request.mPin2,
+                    request.mAid, obtainMessage(EVENT_IO_DONE, request));
+        }
+    }
+
+    private void sendResponse(Request request, Object result, Throwable ex) {
+        if (request.mResponse != null) {
+            AsyncResult.forMessage(request.mResponse, result, ex);
+            request.mResponse.sendToTarget();
+        }
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        switch (msg.what) {
+            case EVENT_IO_DONE:
+                AsyncResult ar = (AsyncResult) msg.obj;
+                Request request = (Request) ar.userObj;
+                ArrayList<Runnable> idleRunnables = null;
+                synchronized (mLock) {
+                    mOutstanding--;
+                    mCompleted++;
+                }
+                sendResponse(request, ar.result, ar.exception);
+                dispatch();
+                synchronized (mLock) {
+                    if (isIdle() && !mIdleRunnables.isEmpty()) {
+                        idleRunnables = new ArrayList<Runnable>(mIdleRunnables);
+                        mIdleRunnables.clear();
+                    }
+                }
+                if (idleRunnables != null) {
+                    for (Runnable r : idleRunnables) {
+                        r.run();
+                    }
+                }
+                break;
+            default:
+                loge("Unknown event " + msg.what);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println(" UiccIoScheduler: window=" + mWindow + " queued=" + mQueued
+                    + " outstanding=" + mOutstanding + " completed=" + mCompleted
+                    + " idleRunnables=" + mIdleRunnables.size());
+            for (App app : mApps) {
+                pw.println("  app=" + app.mType + " requests=" + app.mRequestCount
+                        + " loadMs=" + app.mLoadMs + " loadedAfterCardMs="
+                        + app.mLoadedAfterCardMs);
+            }
+        }
+    }
+
+    private void log(String s) {
+        Rlog.d(LOG_TAG, s);
+    }
+
+    private void loge(String s) {
+        Rlog.e(LOG_TAG, s);
+    }
+}
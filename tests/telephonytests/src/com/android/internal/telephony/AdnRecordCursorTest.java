@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.uicc.AdnRecord;
+import com.android.internal.telephony.uicc.IccConstants;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdnRecordCursorTest extends AndroidTestCase {
+    private static final int SUB_ID = 1;
+    private static final int PAGE_SIZE = 4;
+
+    private List<AdnRecord> mRecords;
+    // Copies of mRecords not released yet, by snapshot id
+    private final SparseArray<List<AdnRecord>> mSnapshots = new SparseArray<List<AdnRecord>>();
+    private int mSnapshotId;
+    // Whether the loads wait for releaseHeldLoads()
+    private boolean mHoldLoads;
+    private final List<IAdnRecordsCallback> mHeldLoads = new ArrayList<IAdnRecordsCallback>();
+    private IIccPhoneBook mIccPhoneBook;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecords = new ArrayList<AdnRecord>();
+        for (int i = 0; i < 10; i++) {
+            // Every third record is empty
+            if (i % 3 == 1) {
+                mRecords.add(new AdnRecord("", ""));
+            } else {
+                mRecords.add(new AdnRecord(IccConstants.EF_ADN, i + 1, "name" + i,
+                        "555010" + i, new String[] {"a" + i + "@example.com"}));
+            }
+        }
+
+        // Serves pages of snapshots of mRecords like IccPhoneBookInterfaceManager
+        mIccPhoneBook = mock(IIccPhoneBook.class, new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                String method = invocation.getMethod().getName();
+                if (method.equals("loadAdnRecordsInEfForSubscriber")) {
+                    IAdnRecordsCallback callback = (IAdnRecordsCallback) args[2];
+                    if (mHoldLoads) {
+                        mHeldLoads.add(callback);
+                    } else {
+                        load(callback);
+                    }
+                } else if (method.equals("getAdnRecordsInEfPageForSubscriber")) {
+                    return getPage((Integer) args[2], (Integer) args[3], (Integer) args[4],
+                            (int[]) args[5]);
+                } else if (method.equals("releaseAdnRecordsSnapshotForSubscriber")) {
+                    mSnapshots.remove((Integer) args[1]);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void load(IAdnRecordsCallback callback) throws Exception {
+        mSnapshots.put(++mSnapshotId, new ArrayList<AdnRecord>(mRecords));
+        callback.onAdnRecordsLoaded(mSnapshotId,
+                getPage(mSnapshotId, 0, Integer.MAX_VALUE, null).size());
+    }
+
+    private void releaseHeldLoads() throws Exception {
+        mHoldLoads = false;
+        for (IAdnRecordsCallback callback : mHeldLoads) {
+            load(callback);
+        }
+        mHeldLoads.clear();
+    }
+
+    private List<AdnRecord> getPage(int snapshot, int start, int count, int[] positions) {
+        List<AdnRecord> records = mSnapshots.get(snapshot);
+        if (records == null) return null;
+        List<AdnRecord> page = new ArrayList<AdnRecord>();
+        int index = 0;
+        for (int i = 0; i < records.size() && page.size() < count; i++) {
+            if (records.get(i).isEmpty()) continue;
+            if (index++ >= start) {
+                if (positions != null) positions[page.size()] = i;
+                page.add(records.get(i));
+            }
+        }
+        return page;
+    }
+
+    @SmallTest
+    public void testAllColumns() throws Exception {
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertEquals(7, cursor.getCount());
+        assertEquals(4, cursor.getColumnCount());
+
+        int row = 0;
+        while (cursor.moveToNext()) {
+            int position = cursor.getInt(cursor.getColumnIndex("_id"));
+            AdnRecord record = mRecords.get(position);
+            assertFalse(record.isEmpty());
+            assertEquals(record.getAlphaTag(), cursor.getString(0));
+            assertEquals(record.getNumber(), cursor.getString(1));
+            assertEquals(record.getEmails()[0] + ",", cursor.getString(2));
+            assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(3));
+            row++;
+        }
+        assertEquals(7, row);
+        // Two pages, fetched once each
+        verify(mIccPhoneBook, times(2)).getAdnRecordsInEfPageForSubscriber(anyInt(), anyInt(),
+                eq(mSnapshotId), anyInt(), anyInt(), (int[]) any());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testProjection() {
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN,
+                new String[] {"number", "unknown"}, PAGE_SIZE);
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToPosition(6));
+        assertEquals("5550109", cursor.getString(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testPhoneBookChanged() {
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertTrue(cursor.moveToFirst());
+        mRecords.subList(5, mRecords.size()).clear();
+
+        // The next cursor reads the new records
+        Cursor other = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertEquals(3, other.getCount());
+        assertTrue(other.moveToLast());
+        assertEquals("name3", other.getString(0));
+        other.close();
+
+        // The first one still reads the records as they were
+        assertEquals(7, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals("name9", cursor.getString(0));
+        assertEquals(9, cursor.getInt(3));
+        cursor.close();
+        assertEquals(0, mSnapshots.size());
+    }
+
+    @SmallTest
+    public void testCloseReleasesSnapshot() throws Exception {
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertEquals(1, mSnapshots.size());
+        cursor.close();
+        cursor.close();
+        verify(mIccPhoneBook, times(1)).releaseAdnRecordsSnapshotForSubscriber(SUB_ID,
+                mSnapshotId);
+        assertEquals(0, mSnapshots.size());
+    }
+
+    @SmallTest
+    public void testSnapshotLost() {
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertTrue(cursor.moveToFirst());
+        // As if the service was restarted
+        mSnapshots.clear();
+        try {
+            cursor.moveToLast();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testLoadedBeforeRead() throws Exception {
+        mHoldLoads = true;
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        Cursor other = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        // Both loads are started before either cursor is read
+        assertEquals(2, mHeldLoads.size());
+
+        releaseHeldLoads();
+        assertEquals(7, cursor.getCount());
+        assertEquals(7, other.getCount());
+        cursor.close();
+        other.close();
+        assertEquals(0, mSnapshots.size());
+    }
+
+    @SmallTest
+    public void testClosedBeforeLoaded() throws Exception {
+        mHoldLoads = true;
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        cursor.close();
+
+        // The snapshot taken for the closed cursor is released as soon as it comes
+        releaseHeldLoads();
+        verify(mIccPhoneBook, times(1)).releaseAdnRecordsSnapshotForSubscriber(SUB_ID,
+                mSnapshotId);
+        assertEquals(0, mSnapshots.size());
+    }
+
+    @SmallTest
+    public void testNoSnapshot() throws Exception {
+        // The callback of an EF that could not be loaded
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((IAdnRecordsCallback) invocation.getArguments()[2]).onAdnRecordsLoaded(
+                        IccPhoneBookInterfaceManager.NO_SNAPSHOT, 5);
+                return null;
+            }
+        }).when(mIccPhoneBook).loadAdnRecordsInEfForSubscriber(anyInt(), anyInt(),
+                (IAdnRecordsCallback) any());
+        Cursor cursor = new AdnRecordCursor(mIccPhoneBook, SUB_ID, IccConstants.EF_ADN, null,
+                PAGE_SIZE);
+        assertEquals(0, cursor.getCount());
+        assertFalse(cursor.moveToFirst());
+        cursor.close();
+    }
+
+    @SmallTest
+    public void testNoPhoneBook() {
+        Cursor cursor = new AdnRecordCursor(null, SUB_ID, IccConstants.EF_ADN, null, PAGE_SIZE);
+        assertEquals(0, cursor.getCount());
+        assertFalse(cursor.moveToFirst());
+        cursor.close();
+    }
+}
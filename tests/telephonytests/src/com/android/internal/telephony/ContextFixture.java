@@ -66,6 +66,7 @@ import android.util.Log;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -256,6 +257,9 @@ public class ContextFixture implements TestFixture<Context> {
 
         @Override
         public void unregisterReceiver(BroadcastReceiver receiver) {
+            synchronized (mBroadcastReceiversByAction) {
+                mBroadcastReceiversByAction.values().removeAll(Collections.singleton(receiver));
+            }
         }
 
         @Override
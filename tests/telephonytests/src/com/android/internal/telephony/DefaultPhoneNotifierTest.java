@@ -18,14 +18,23 @@ package com.android.internal.telephony;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static com.android.internal.telephony.TelephonyTestUtils.waitForLooper;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.anyInt;
@@ -40,11 +49,14 @@ import android.telephony.TelephonyManager;
 import android.telephony.VoLteServiceState;
 import android.telephony.gsm.GsmCellLocation;
 import android.os.Bundle;
+import android.os.HandlerThread;
 import android.test.suitebuilder.annotation.SmallTest;
 
 public class DefaultPhoneNotifierTest extends TelephonyTest {
 
     private DefaultPhoneNotifier mDefaultPhoneNotifierUT;
+    // Dispatch thread of the async notifier
+    private HandlerThread mDispatchThread;
     @Mock
     ITelephonyRegistry.Stub mTelephonyRegisteryMock;
     @Mock
@@ -70,6 +82,9 @@ public class DefaultPhoneNotifierTest extends TelephonyTest {
 
     @After
     public void tearDown() throws Exception {
+        if (mDispatchThread != null) {
+            mDispatchThread.quit();
+        }
         super.tearDown();
     }
 
@@ -281,4 +296,50 @@ public class DefaultPhoneNotifierTest extends TelephonyTest {
         mDefaultPhoneNotifierUT.notifyVoLteServiceStateChanged(mPhone, state);
         verify(mTelephonyRegisteryMock).notifyVoLteServiceStateChanged(state);
     }
+
+    @Test @SmallTest
+    public void testAsyncNotifierCollapsesState() throws Exception {
+        mDispatchThread = new HandlerThread(TAG);
+        mDispatchThread.start();
+        DefaultPhoneNotifier notifier = new DefaultPhoneNotifier(mDispatchThread.getLooper());
+
+        // Block the dispatch thread in the registry until all notifications are queued
+        final CountDownLatch registryBlocked = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                registryBlocked.await();
+                return null;
+            }
+        }).when(mTelephonyRegisteryMock).notifyDisconnectCause(anyInt(), anyInt());
+        notifier.notifyDisconnectCause(DisconnectCause.LOCAL,
+                PreciseDisconnectCause.CHANNEL_NOT_AVAIL);
+
+        SignalStrength first = new SignalStrength();
+        SignalStrength second = new SignalStrength();
+        doReturn(first).when(mPhone).getSignalStrength();
+        notifier.notifySignalStrength(mPhone);
+        notifier.notifyDataConnectionFailed(mPhone, "BUSY", "APN_0");
+        doReturn(second).when(mPhone).getSignalStrength();
+        notifier.notifySignalStrength(mPhone);
+        notifier.notifyDataConnectionFailed(mPhone, "LOCAL", "APN_0");
+
+        // Notifications are not sent on the caller's thread
+        verify(mTelephonyRegisteryMock, never()).notifySignalStrengthForPhoneId(anyInt(),
+                anyInt(), any(SignalStrength.class));
+
+        // All the queued notifications are sent before the dispatch thread is idle again
+        registryBlocked.countDown();
+        waitForLooper(mDispatchThread.getLooper());
+
+        verify(mTelephonyRegisteryMock, never()).notifySignalStrengthForPhoneId(0, 0, first);
+        verify(mTelephonyRegisteryMock, times(1)).notifySignalStrengthForPhoneId(0, 0, second);
+        InOrder inOrder = inOrder(mTelephonyRegisteryMock);
+        inOrder.verify(mTelephonyRegisteryMock).notifyDisconnectCause(DisconnectCause.LOCAL,
+                PreciseDisconnectCause.CHANNEL_NOT_AVAIL);
+        inOrder.verify(mTelephonyRegisteryMock).notifyDataConnectionFailedForSubscriber(0,
+                "BUSY", "APN_0");
+        inOrder.verify(mTelephonyRegisteryMock).notifyDataConnectionFailedForSubscriber(0,
+                "LOCAL", "APN_0");
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.HbpcdLookup.ArbitraryMccSidMatch;
+import com.android.internal.telephony.HbpcdLookup.MccIdd;
+import com.android.internal.telephony.HbpcdLookup.MccSidConflicts;
+import com.android.internal.telephony.HbpcdLookup.MccSidRange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HbpcdUtilsTest extends TelephonyTest {
+
+    // Full tables, as the provider returns them without a selection
+    private class HbpcdContentProvider extends MockContentProvider {
+        int mQueryCount;
+        boolean mTablesAvailable = true;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder) {
+            mQueryCount++;
+            if (!mTablesAvailable) return null;
+            MatrixCursor c = new MatrixCursor(projection);
+            if (uri.equals(ArbitraryMccSidMatch.CONTENT_URI)) {
+                c.addRow(new Object[] {4, 310});
+                c.addRow(new Object[] {7, 330});
+                c.addRow(new Object[] {7, 332});
+            } else if (uri.equals(MccSidConflicts.CONTENT_URI)) {
+                // SID, MCC, GMT offset low/high, GMT DST low/high
+                c.addRow(new Object[] {2000, 440, 9, 9, 9, 9});
+                c.addRow(new Object[] {2000, 460, 8, 8, 8, 8});
+            } else if (uri.equals(MccSidRange.CONTENT_URI)) {
+                c.addRow(new Object[] {310, 1, 2175});
+                c.addRow(new Object[] {460, 13568, 14335});
+            } else if (uri.equals(MccIdd.CONTENT_URI)) {
+                c.addRow(new Object[] {310, "011"});
+                c.addRow(new Object[] {466, "002"});
+                c.addRow(new Object[] {466, "005"});
+            }
+            return c;
+        }
+    }
+
+    private HbpcdContentProvider mHbpcdContentProvider;
+    private HbpcdUtils mHbpcdUtilsUT;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        HbpcdUtils.onTablesChanged();
+        mHbpcdContentProvider = new HbpcdContentProvider();
+        ((MockContentResolver) mContextFixture.getTestDouble().getContentResolver())
+                .addProvider(HbpcdLookup.AUTHORITY, mHbpcdContentProvider);
+        mHbpcdUtilsUT = new HbpcdUtils(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HbpcdUtils.onTablesChanged();
+        super.tearDown();
+    }
+
+    @Test @SmallTest
+    public void testGetMcc() {
+        // Arbitrary match, only used if the SID has a single row
+        assertEquals(310, mHbpcdUtilsUT.getMcc(4, 0, 0, false));
+        assertEquals(310, mHbpcdUtilsUT.getMcc(7, 0, 0, false));
+
+        // Conflicting SID resolved by the time zone, only trusted from NITZ
+        assertEquals(440, mHbpcdUtilsUT.getMcc(2000, 9, 0, true));
+        assertEquals(460, mHbpcdUtilsUT.getMcc(2000, 8, 1, true));
+        assertEquals(0, mHbpcdUtilsUT.getMcc(2000, 9, 0, false));
+        assertEquals(0, mHbpcdUtilsUT.getMcc(2000, 9, 2, true));
+
+        // Range
+        assertEquals(460, mHbpcdUtilsUT.getMcc(14000, 0, 0, false));
+        assertEquals(0, mHbpcdUtilsUT.getMcc(20000, 0, 0, false));
+    }
+
+    @Test @SmallTest
+    public void testGetIddByMcc() {
+        assertEquals("011", mHbpcdUtilsUT.getIddByMcc(310));
+        assertEquals("002", mHbpcdUtilsUT.getIddByMcc(466));
+        assertEquals("", mHbpcdUtilsUT.getIddByMcc(440));
+    }
+
+    @Test @SmallTest
+    public void testTablesReadOnce() {
+        mHbpcdUtilsUT.getMcc(14000, 0, 0, false);
+        int queryCount = mHbpcdContentProvider.mQueryCount;
+        assertEquals(4, queryCount);
+
+        for (int i = 0; i < 10; i++) {
+            mHbpcdUtilsUT.getMcc(2000, 9, 0, true);
+            mHbpcdUtilsUT.getIddByMcc(310);
+            new HbpcdUtils(mContext).getMcc(4, 0, 0, false);
+        }
+        assertEquals(queryCount, mHbpcdContentProvider.mQueryCount);
+
+        HbpcdUtils.onTablesChanged();
+        mHbpcdUtilsUT.getIddByMcc(310);
+        assertEquals(2 * queryCount, mHbpcdContentProvider.mQueryCount);
+    }
+
+    @Test @SmallTest
+    public void testFallbackToQuery() {
+        mHbpcdContentProvider.mTablesAvailable = false;
+        assertEquals(0, mHbpcdUtilsUT.getMcc(14000, 0, 0, false));
+        // Tables, then the arbitrary, conflict and range queries
+        assertEquals(7, mHbpcdContentProvider.mQueryCount);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.internal.telephony.TelephonyBenchmark.Measurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Compares the lookups of the direct-indexed MccTable with the binary search it replaced.
+ */
+public class MccTableBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "MccTableBenchmarkTest";
+    private static final int ITERATIONS = 100;
+    private static final int COUNT = ITERATIONS * 1000;
+
+    /**
+     * The entries and lookup MccTable used before the direct-indexed table.
+     */
+    private static class ReferenceEntry implements Comparable<ReferenceEntry> {
+        final int mMcc;
+        final String mIso;
+        final int mSmallestDigitsMnc;
+
+        ReferenceEntry(int mcc, String iso, int smallestDigitsMnc) {
+            mMcc = mcc;
+            mIso = iso;
+            mSmallestDigitsMnc = smallestDigitsMnc;
+        }
+
+        @Override
+        public int compareTo(ReferenceEntry o) {
+            return mMcc - o.mMcc;
+        }
+    }
+
+    private static ReferenceEntry referenceEntryForMcc(ArrayList<ReferenceEntry> table, int mcc) {
+        int index = Collections.binarySearch(table, new ReferenceEntry(mcc, "", 0));
+        return index < 0 ? null : table.get(index);
+    }
+
+    // Sum of the smallest MNC digits found by each lookup, to compare the two
+    private int mSum;
+
+    @LargeTest
+    public void testLookup() {
+        final ArrayList<ReferenceEntry> reference = new ArrayList<ReferenceEntry>();
+        for (int mcc = 0; mcc < 1000; mcc++) {
+            String iso = MccTable.countryCodeForMcc(mcc);
+            if (!iso.isEmpty()) {
+                reference.add(new ReferenceEntry(mcc, iso,
+                        MccTable.smallestDigitsMccForMnc(mcc)));
+            }
+        }
+
+        Measurement referenceMeasured = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (int mcc = 0; mcc < 1000; mcc++) {
+                        ReferenceEntry entry = referenceEntryForMcc(reference, mcc);
+                        mSum += entry == null ? 2 : entry.mSmallestDigitsMnc;
+                    }
+                }
+            }
+        });
+        Measurement measured = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (int mcc = 0; mcc < 1000; mcc++) {
+                        MccTable.countryCodeForMcc(mcc);
+                        mSum -= MccTable.smallestDigitsMccForMnc(mcc);
+                    }
+                }
+            }
+        });
+        TelephonyBenchmark.log(TAG, "MccTable lookup", referenceMeasured, measured);
+
+        assertEquals(0, mSum);
+        assertEquals(0, measured.allocations);
+    }
+}
@@ -79,4 +79,19 @@ public class MccTableTest extends AndroidTestCase {
         assertEquals(MccTable.smallestDigitsMccForMnc(0), 2);    // mcc not defined, hence default
         assertEquals(MccTable.smallestDigitsMccForMnc(2000), 2); // mcc not defined, hence default
     }
+
+    @SmallTest
+    public void testAllMccs() throws Exception {
+        for (int mcc = -1; mcc <= 1000; mcc++) {
+            String iso = MccTable.countryCodeForMcc(mcc);
+            assertNotNull(iso);
+            if (iso.isEmpty()) {
+                assertEquals(2, MccTable.smallestDigitsMccForMnc(mcc));
+                assertNull(MccTable.defaultTimeZoneForMcc(mcc));
+            } else {
+                int digits = MccTable.smallestDigitsMccForMnc(mcc);
+                assertTrue(digits == 2 || digits == 3);
+            }
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.NitzDataTest.CORPUS;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.internal.telephony.TelephonyBenchmark.Measurement;
+
+/**
+ * Compares parsing and time zone lookup of the NitzDataTest corpus with the code it replaced.
+ */
+public class NitzDataBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "NitzDataBenchmarkTest";
+    private static final int ITERATIONS = 200;
+    private static final int COUNT = ITERATIONS * CORPUS.length;
+
+    private final NitzData mNitzData = new NitzData();
+
+    @LargeTest
+    public void testParse() {
+        Measurement reference = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (String nitz : CORPUS) {
+                        NitzDataTest.referenceParse(nitz);
+                    }
+                }
+            }
+        });
+        Measurement measured = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (String nitz : CORPUS) {
+                        mNitzData.parse(nitz);
+                        mNitzData.getUtcTimeMillis();
+                    }
+                }
+            }
+        });
+        TelephonyBenchmark.log(TAG, "parse", reference, measured);
+        assertEquals(0, measured.allocations);
+    }
+
+    @LargeTest
+    public void testTimeZoneLookup() {
+        final NitzTimeZoneIndex index = new NitzTimeZoneIndex();
+        Measurement reference = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (String nitz : CORPUS) {
+                        mNitzData.parse(nitz);
+                        NitzDataTest.referenceFindTimeZone(mNitzData.getZoneOffset(),
+                                mNitzData.getDst() != 0, mNitzData.getUtcTimeMillis());
+                    }
+                }
+            }
+        });
+        Measurement measured = TelephonyBenchmark.measure(COUNT, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (String nitz : CORPUS) {
+                        mNitzData.parse(nitz);
+                        index.findTimeZone(mNitzData.getZoneOffset(), mNitzData.getDst() != 0,
+                                mNitzData.getUtcTimeMillis());
+                    }
+                }
+            }
+        });
+        TelephonyBenchmark.log(TAG, "zone lookup", reference, measured);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+public class NitzDataTest extends AndroidTestCase {
+    /** NITZ strings as sent by networks in various time zones */
+    static final String[] CORPUS = {
+        "15/06/20,01:58:25+00",
+        "15/06/20,01:58:25+04,01",
+        "15/06/20,01:58:25-28,01",
+        "15/06/20,01:58:25-32,01",
+        "15/12/31,23:59:59-20",
+        "16/01/01,00:00:00+36",
+        "16/02/29,12:00:00+22",
+        "16/03/27,01:00:00+08,01",
+        "16/10/30,00:59:59+08,01",
+        "16/07/04,18:30:00-16,01",
+        "16/11/06,09:00:00-32",
+        "17/01/15,04:45:10+23",
+        "17/04/02,16:00:00+44,01",
+        "17/08/15,08:15:00+18",
+        "17/09/01,20:00:00-12",
+        "18/05/05,05:05:05+39",
+    };
+
+    /**
+     * The parser ServiceStateTracker used before NitzData.
+     *
+     * @return {utc time, zone offset, dst}
+     */
+    static long[] referenceParse(String nitz) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        c.clear();
+        c.set(Calendar.DST_OFFSET, 0);
+        String[] nitzSubs = nitz.split("[/:,+-]");
+        c.set(Calendar.YEAR, 2000 + Integer.parseInt(nitzSubs[0]));
+        c.set(Calendar.MONTH, Integer.parseInt(nitzSubs[1]) - 1);
+        c.set(Calendar.DATE, Integer.parseInt(nitzSubs[2]));
+        c.set(Calendar.HOUR, Integer.parseInt(nitzSubs[3]));
+        c.set(Calendar.MINUTE, Integer.parseInt(nitzSubs[4]));
+        c.set(Calendar.SECOND, Integer.parseInt(nitzSubs[5]));
+        boolean sign = (nitz.indexOf('-') == -1);
+        int tzOffset = Integer.parseInt(nitzSubs[6]);
+        int dst = (nitzSubs.length >= 8 ) ? Integer.parseInt(nitzSubs[7]) : 0;
+        tzOffset = (sign ? 1 : -1) * tzOffset * 15 * 60 * 1000;
+        return new long[] {c.getTimeInMillis(), tzOffset, dst};
+    }
+
+    /**
+     * The time zone lookup ServiceStateTracker used before NitzTimeZoneIndex.
+     */
+    static TimeZone referenceFindTimeZone(int offset, boolean dst, long when) {
+        int rawOffset = offset;
+        if (dst) {
+            rawOffset -= ServiceStateTracker.MS_PER_HOUR;
+        }
+        Date d = new Date(when);
+        for (String zone : TimeZone.getAvailableIDs(rawOffset)) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            if (tz.getOffset(when) == offset && tz.inDaylightTime(d) == dst) {
+                return tz;
+            }
+        }
+        return null;
+    }
+
+    @SmallTest
+    public void testParse() {
+        NitzData nitzData = new NitzData();
+        assertTrue(nitzData.parse("15/06/20,01:58:25-32,01"));
+        assertEquals(2015, nitzData.getYear());
+        assertEquals(1434765505000L, nitzData.getUtcTimeMillis());
+        assertEquals(-8 * ServiceStateTracker.MS_PER_HOUR, nitzData.getZoneOffset());
+        assertEquals(1, nitzData.getDst());
+        assertNull(nitzData.getEmulatorTimeZoneId());
+
+        assertTrue(nitzData.parse("16/02/29,12:00:00+22"));
+        assertEquals(0, nitzData.getDst());
+        assertEquals(22 * 15 * 60 * 1000, nitzData.getZoneOffset());
+    }
+
+    @SmallTest
+    public void testParseMatchesReference() {
+        NitzData nitzData = new NitzData();
+        for (String nitz : CORPUS) {
+            long[] expected = referenceParse(nitz);
+            assertTrue(nitz, nitzData.parse(nitz));
+            assertEquals(nitz, expected[0], nitzData.getUtcTimeMillis());
+            assertEquals(nitz, expected[1], nitzData.getZoneOffset());
+            assertEquals(nitz, expected[2], nitzData.getDst());
+        }
+    }
+
+    @SmallTest
+    public void testEmulatorTimeZone() {
+        NitzData nitzData = new NitzData();
+        assertTrue(nitzData.parse("16/07/04,18:30:00-28,1,America!Los_Angeles"));
+        assertEquals("America/Los_Angeles", nitzData.getEmulatorTimeZoneId());
+        assertEquals(-7 * ServiceStateTracker.MS_PER_HOUR, nitzData.getZoneOffset());
+    }
+
+    @SmallTest
+    public void testParseMalformed() {
+        NitzData nitzData = new NitzData();
+        assertFalse(nitzData.parse(""));
+        assertFalse(nitzData.parse("15/06/20"));
+        assertFalse(nitzData.parse("15/06/20,01:58:25"));
+        assertFalse(nitzData.parse("15/13/20,01:58:25+00"));
+        assertFalse(nitzData.parse("15/06/20,01:58:25+"));
+        assertFalse(nitzData.parse("15/06/xx,01:58:25+00"));
+    }
+
+    @SmallTest
+    public void testTimeZoneIndexMatchesReference() {
+        NitzTimeZoneIndex index = new NitzTimeZoneIndex();
+        NitzData nitzData = new NitzData();
+        for (int i = 0; i < 2; i++) {
+            for (String nitz : CORPUS) {
+                nitzData.parse(nitz);
+                boolean dst = nitzData.getDst() != 0;
+                long when = nitzData.getUtcTimeMillis();
+                TimeZone expected = referenceFindTimeZone(nitzData.getZoneOffset(), dst, when);
+                TimeZone zone = index.findTimeZone(nitzData.getZoneOffset(), dst, when);
+                assertEquals(nitz, expected == null ? null : expected.getID(),
+                        zone == null ? null : zone.getID());
+            }
+        }
+    }
+}
@@ -544,6 +544,150 @@ public class PhoneSwitcherTest extends AndroidTestCase {
         handlerThread.quit();
     }
 
+    private PhoneSwitcher makePhoneSwitcher(int maxActivePhones, int numPhones,
+            Context context, SubscriptionControllerMock subControllerMock,
+            HandlerThread handlerThread, ITelephonyRegistry.Stub telRegistryMock,
+            SimulatedCommands[] commandsInterfaces) {
+        for (int i = 0; i < numPhones; i++) {
+            commandsInterfaces[i] = new SimulatedCommands();
+        }
+        return new PhoneSwitcher(maxActivePhones, numPhones, context, subControllerMock,
+                handlerThread.getLooper(), telRegistryMock, commandsInterfaces,
+                new PhoneMock[numPhones]);
+    }
+
+    /**
+     * Test that the phone id cached for a request is dropped when the request is released
+     * or the subscriptions move, so the request follows its subscription.
+     */
+    @SmallTest
+    public void testCachedPhoneIdDropped() throws Exception {
+        mTestName = "testCachedPhoneIdDropped";
+        final int numPhones = 2;
+        final HandlerThread handlerThread = new HandlerThread("PhoneSwitcherTestThread");
+        handlerThread.start();
+        final ContextFixture contextFixture = new ContextFixture();
+        String[] networkConfigString = getContext().getResources().getStringArray(
+                com.android.internal.R.array.networkAttributes);
+        contextFixture.putStringArrayResource(com.android.internal.R.array.networkAttributes,
+                networkConfigString);
+        final Context contextMock = contextFixture.getTestDouble();
+        final ConnectivityServiceMock connectivityServiceMock =
+                new ConnectivityServiceMock(contextMock);
+        final ConnectivityManager cm =
+                new ConnectivityManager(contextMock, connectivityServiceMock);
+        contextFixture.setSystemService(Context.CONNECTIVITY_SERVICE, cm);
+        final ITelephonyRegistry.Stub telRegistryMock = new TelephonyRegistryMock();
+        final SubscriptionControllerMock subControllerMock =
+                new SubscriptionControllerMock(contextMock, telRegistryMock, numPhones);
+        final SimulatedCommands[] commandsInterfaces = new SimulatedCommands[numPhones];
+        PhoneSwitcher phoneSwitcher = makePhoneSwitcher(1, numPhones, contextMock,
+                subControllerMock, handlerThread, telRegistryMock, commandsInterfaces);
+
+        connectivityServiceMock.addDefaultRequest();
+        subControllerMock.setSlotSubId(0, 0);
+        subControllerMock.setSlotSubId(1, 1);
+        subControllerMock.setDefaultDataSubId(0);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        assertEquals(1, phoneSwitcher.getCachedPhoneIdCount());
+
+        // a higher priority request on sub 1 takes phone 1
+        NetworkRequest request = makeSubSpecificMmsRequest(connectivityServiceMock, 1);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed()) fail("data allowed");
+        if (commandsInterfaces[1].isDataAllowed() == false) fail("data not allowed");
+        assertEquals(2, phoneSwitcher.getCachedPhoneIdCount());
+
+        // released, its phone id is forgotten
+        connectivityServiceMock.releaseNetworkRequest(request);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        if (commandsInterfaces[1].isDataAllowed()) fail("data allowed");
+        assertEquals(1, phoneSwitcher.getCachedPhoneIdCount());
+
+        // sub 1 moves to phone 0, the request follows it
+        request = makeSubSpecificMmsRequest(connectivityServiceMock, 1);
+        waitABit();
+        if (commandsInterfaces[1].isDataAllowed() == false) fail("data not allowed");
+        subControllerMock.setSlotSubId(1, 2);
+        subControllerMock.setSlotSubId(0, 1);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        if (commandsInterfaces[1].isDataAllowed()) fail("data allowed");
+
+        // and the default data sub moving to phone 1 takes the default request along
+        connectivityServiceMock.releaseNetworkRequest(request);
+        subControllerMock.setDefaultDataSubId(2);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed()) fail("data allowed");
+        if (commandsInterfaces[1].isDataAllowed() == false) fail("data not allowed");
+
+        handlerThread.quit();
+    }
+
+    /**
+     * Test that requests behind the one filling the last active phone are not evaluated, and
+     * that releasing a request in front of it evaluates all of them again.
+     */
+    @SmallTest
+    public void testEvaluateCutoff() throws Exception {
+        mTestName = "testEvaluateCutoff";
+        final int numPhones = 2;
+        final HandlerThread handlerThread = new HandlerThread("PhoneSwitcherTestThread");
+        handlerThread.start();
+        final ContextFixture contextFixture = new ContextFixture();
+        String[] networkConfigString = getContext().getResources().getStringArray(
+                com.android.internal.R.array.networkAttributes);
+        contextFixture.putStringArrayResource(com.android.internal.R.array.networkAttributes,
+                networkConfigString);
+        final Context contextMock = contextFixture.getTestDouble();
+        final ConnectivityServiceMock connectivityServiceMock =
+                new ConnectivityServiceMock(contextMock);
+        final ConnectivityManager cm =
+                new ConnectivityManager(contextMock, connectivityServiceMock);
+        contextFixture.setSystemService(Context.CONNECTIVITY_SERVICE, cm);
+        final ITelephonyRegistry.Stub telRegistryMock = new TelephonyRegistryMock();
+        final SubscriptionControllerMock subControllerMock =
+                new SubscriptionControllerMock(contextMock, telRegistryMock, numPhones);
+        final SimulatedCommands[] commandsInterfaces = new SimulatedCommands[numPhones];
+        PhoneSwitcher phoneSwitcher = makePhoneSwitcher(1, numPhones, contextMock,
+                subControllerMock, handlerThread, telRegistryMock, commandsInterfaces);
+
+        connectivityServiceMock.addDefaultRequest();
+        subControllerMock.setSlotSubId(0, 0);
+        subControllerMock.setSlotSubId(1, 1);
+        subControllerMock.setDefaultDataSubId(0);
+        waitABit();
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        assertEquals(0, phoneSwitcher.getEvaluateSkippedCount());
+
+        // same priority as the default request, queued behind it: nothing to evaluate
+        NetworkRequest request = makeSubSpecificDefaultRequest(connectivityServiceMock, 1);
+        waitABit();
+        assertEquals(1, phoneSwitcher.getEvaluateSkippedCount());
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        if (commandsInterfaces[1].isDataAllowed()) fail("data allowed");
+
+        // the default request was in front, the skipped request now gets its phone
+        connectivityServiceMock.removeDefaultRequest();
+        waitABit();
+        assertEquals(1, phoneSwitcher.getEvaluateSkippedCount());
+        if (commandsInterfaces[0].isDataAllowed()) fail("data allowed");
+        if (commandsInterfaces[1].isDataAllowed() == false) fail("data not allowed");
+
+        // a request in front of the cutoff is always evaluated
+        NetworkRequest mmsRequest = makeSubSpecificMmsRequest(connectivityServiceMock, 0);
+        waitABit();
+        assertEquals(1, phoneSwitcher.getEvaluateSkippedCount());
+        if (commandsInterfaces[0].isDataAllowed() == false) fail("data not allowed");
+        if (commandsInterfaces[1].isDataAllowed()) fail("data allowed");
+
+        connectivityServiceMock.releaseNetworkRequest(mmsRequest);
+        connectivityServiceMock.releaseNetworkRequest(request);
+        handlerThread.quit();
+    }
+
     /**
      * Test MSMA testing prioritiziation
      * - leave multiple on (up to the limit)
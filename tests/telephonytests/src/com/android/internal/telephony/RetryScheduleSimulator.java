@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replays data call setup failure sequences against a {@link RetrySchedule} and reports the
+ * resulting time-to-connect distribution. Each setup attempt is assumed to take
+ * setupTimeMs, and a failed attempt is followed by the delay of the schedule, the same way
+ * RetryManager does it for a single APN.
+ */
+public class RetryScheduleSimulator {
+    /** Time-to-connect of a sequence which never connected */
+    public static final long NEVER_CONNECTED = -1;
+
+    private final RetrySchedule mSchedule;
+    private final long mSetupTimeMs;
+    private final Random mRng;
+
+    public RetryScheduleSimulator(RetrySchedule schedule, long setupTimeMs, long seed) {
+        mSchedule = schedule;
+        mSetupTimeMs = setupTimeMs;
+        mRng = new Random(seed);
+    }
+
+    /**
+     * Replay one failure sequence.
+     *
+     * @param failures failures[i] is true if the i-th setup attempt fails. Attempts beyond the
+     * end of the array succeed.
+     * @return time until the data call is connected in milliseconds, or NEVER_CONNECTED if the
+     * schedule gave up first
+     */
+    public long replay(boolean[] failures) {
+        long time = 0;
+        int retryCount = 0;
+        for (int attempt = 0; ; attempt++) {
+            time += mSetupTimeMs;
+            if (attempt >= failures.length || !failures[attempt]) {
+                return time;
+            }
+            if (!mSchedule.isRetryForever() && retryCount + 1 > mSchedule.getMaxRetryCount()) {
+                return NEVER_CONNECTED;
+            }
+            time += mSchedule.getRetryTimer(retryCount, mRng);
+            retryCount++;
+        }
+    }
+
+    /**
+     * Replay random failure sequences where every attempt fails independently.
+     *
+     * @param failureProbability probability of a single setup attempt failing
+     * @param maxAttempts attempts after this many are assumed to succeed
+     * @param runs number of sequences to replay
+     * @return the result of all runs
+     */
+    public Result simulate(double failureProbability, int maxAttempts, int runs) {
+        long[] times = new long[runs];
+        int neverConnected = 0;
+        boolean[] failures = new boolean[maxAttempts];
+        for (int run = 0; run < runs; run++) {
+            for (int i = 0; i < maxAttempts; i++) {
+                failures[i] = mRng.nextDouble() < failureProbability;
+            }
+            times[run] = replay(failures);
+            if (times[run] == NEVER_CONNECTED) neverConnected++;
+        }
+        return new Result(times, neverConnected);
+    }
+
+    /**
+     * Time-to-connect distribution of a simulation.
+     */
+    public static class Result {
+        /** Sorted times-to-connect of the runs which connected */
+        public final long[] connectTimes;
+        public final int neverConnected;
+
+        Result(long[] times, int neverConnected) {
+            this.neverConnected = neverConnected;
+            long[] connected = new long[times.length - neverConnected];
+            int i = 0;
+            for (long t : times) {
+                if (t != NEVER_CONNECTED) connected[i++] = t;
+            }
+            Arrays.sort(connected);
+            this.connectTimes = connected;
+        }
+
+        /**
+         * @param p percentile between 0 and 100
+         * @return the time-to-connect percentile of the connected runs
+         */
+        public long percentile(int p) {
+            if (connectTimes.length == 0) return NEVER_CONNECTED;
+            int index = (int) Math.ceil(p / 100.0 * connectTimes.length) - 1;
+            return connectTimes[Math.max(0, Math.min(index, connectTimes.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return "connected=" + connectTimes.length + " neverConnected=" + neverConnected
+                    + " p50=" + percentile(50) + " p90=" + percentile(90)
+                    + " p99=" + percentile(99);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.Rlog;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Random;
+
+public class RetryScheduleTest extends AndroidTestCase {
+    private static final String LOG_TAG = "RetryScheduleTest";
+
+    @SmallTest
+    public void testCompile() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get(
+                "max_retries=10, default_randomization=0, 1000, 2000, 4000:0");
+        assertEquals(3, schedule.getDelayCount());
+        assertEquals(10, schedule.getMaxRetryCount());
+        assertFalse(schedule.isRetryForever());
+
+        Random rng = new Random(0);
+        assertEquals(1000, schedule.getRetryTimer(0, rng));
+        assertEquals(2000, schedule.getRetryTimer(1, rng));
+        assertEquals(4000, schedule.getRetryTimer(2, rng));
+        // Retries beyond the configured delays use the last one
+        assertEquals(4000, schedule.getRetryTimer(9, rng));
+    }
+
+    @SmallTest
+    public void testCompileInfinite() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get("max_retries=infinite,1000,2000");
+        assertTrue(schedule.isRetryForever());
+        assertEquals(2, schedule.getMaxRetryCount());
+    }
+
+    @SmallTest
+    public void testCompileEmpty() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get("");
+        assertEquals(0, schedule.getDelayCount());
+        assertEquals(0, schedule.getMaxRetryCount());
+        assertEquals(0, schedule.getRetryTimer(0, new Random(0)));
+    }
+
+    @SmallTest
+    public void testCompileMalformed() throws Exception {
+        // Delays before the bad value are kept
+        RetrySchedule schedule = RetrySchedule.get("1000, -5, 3000");
+        assertEquals(1, schedule.getDelayCount());
+        assertEquals(1000, schedule.getRetryTimer(0, new Random(0)));
+    }
+
+    @SmallTest
+    public void testRandomization() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get("default_randomization=500, 1000, 2000:100");
+        Random rng = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            int delay = schedule.getRetryTimer(0, rng);
+            assertTrue(delay >= 1000 && delay < 1500);
+            delay = schedule.getRetryTimer(1, rng);
+            assertTrue(delay >= 2000 && delay < 2100);
+        }
+    }
+
+    @SmallTest
+    public void testShared() throws Exception {
+        assertSame(RetrySchedule.get("5000, 10000, 20000"),
+                RetrySchedule.get("5000, 10000, 20000"));
+    }
+
+    @SmallTest
+    public void testReplay() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get("1000, 2000");
+        RetryScheduleSimulator sim = new RetryScheduleSimulator(schedule, 100, 0);
+
+        assertEquals(100, sim.replay(new boolean[0]));
+        assertEquals(100 + 1000 + 100, sim.replay(new boolean[]{true}));
+        assertEquals(100 + 1000 + 100 + 2000 + 100, sim.replay(new boolean[]{true, true}));
+        // Two retries configured, the third failure gives up
+        assertEquals(RetryScheduleSimulator.NEVER_CONNECTED,
+                sim.replay(new boolean[]{true, true, true}));
+    }
+
+    @SmallTest
+    public void testSimulate() throws Exception {
+        RetrySchedule schedule = RetrySchedule.get(
+                "max_retries=infinite, default_randomization=2000, 5000, 10000, 20000, 40000");
+        RetryScheduleSimulator sim = new RetryScheduleSimulator(schedule, 500, 0);
+        RetryScheduleSimulator.Result result = sim.simulate(0.5, 20, 1000);
+        Rlog.d(LOG_TAG, "testSimulate: " + result);
+
+        assertEquals(0, result.neverConnected);
+        assertEquals(500, result.percentile(0));
+        assertTrue(result.percentile(50) <= result.percentile(90));
+        assertTrue(result.percentile(90) <= result.percentile(99));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.ServiceState;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class ServiceStateDeltaTest extends AndroidTestCase {
+
+    private static ServiceState createInService() {
+        ServiceState ss = new ServiceState();
+        ss.setVoiceRegState(ServiceState.STATE_IN_SERVICE);
+        ss.setDataRegState(ServiceState.STATE_IN_SERVICE);
+        ss.setRilVoiceRadioTechnology(ServiceState.RIL_RADIO_TECHNOLOGY_LTE);
+        ss.setRilDataRadioTechnology(ServiceState.RIL_RADIO_TECHNOLOGY_LTE);
+        ss.setOperatorName("Test Operator", "Test", "310260");
+        return ss;
+    }
+
+    @SmallTest
+    public void testUnchanged() {
+        ServiceStateDelta delta = ServiceStateDelta.compute(createInService(), createInService(),
+                false);
+        assertSame(ServiceStateDelta.NONE, delta);
+        assertTrue(delta.isEmpty());
+        assertFalse(delta.hasServiceStateChanged());
+    }
+
+    @SmallTest
+    public void testLocationOnly() {
+        ServiceStateDelta delta = ServiceStateDelta.compute(createInService(), createInService(),
+                true);
+        assertFalse(delta.isEmpty());
+        assertFalse(delta.hasServiceStateChanged());
+        assertEquals(ServiceStateDelta.LOCATION, delta.getChangedFields());
+    }
+
+    @SmallTest
+    public void testRegistration() {
+        ServiceState oldSS = new ServiceState();
+        oldSS.setStateOutOfService();
+        ServiceState newSS = createInService();
+
+        ServiceStateDelta delta = ServiceStateDelta.compute(oldSS, newSS, false);
+        assertTrue(delta.hasServiceStateChanged());
+        assertTrue(delta.hasVoiceRegistered());
+        assertFalse(delta.hasVoiceDeregistered());
+        assertTrue(delta.hasDataAttached());
+        assertFalse(delta.hasDataDetached());
+        assertTrue(delta.has(ServiceStateDelta.VOICE_RAT | ServiceStateDelta.DATA_RAT));
+        assertEquals(ServiceState.RIL_RADIO_TECHNOLOGY_LTE, delta.getNewDataRat());
+
+        delta = ServiceStateDelta.compute(newSS, oldSS, false);
+        assertFalse(delta.hasVoiceRegistered());
+        assertTrue(delta.hasVoiceDeregistered());
+        assertTrue(delta.hasDataDetached());
+        assertEquals(ServiceState.RIL_RADIO_TECHNOLOGY_LTE, delta.getOldDataRat());
+    }
+
+    @SmallTest
+    public void testRoaming() {
+        ServiceState oldSS = createInService();
+        ServiceState newSS = createInService();
+        newSS.setDataRoaming(true);
+
+        ServiceStateDelta delta = ServiceStateDelta.compute(oldSS, newSS, false);
+        assertEquals(ServiceStateDelta.DATA_ROAMING, delta.getChangedFields());
+        assertTrue(delta.hasDataRoamingOn());
+        assertFalse(delta.hasDataRoamingOff());
+        assertFalse(delta.hasVoiceRoamingOn());
+        assertTrue(delta.has(ServiceStateDelta.METRICS_FIELDS));
+
+        delta = ServiceStateDelta.compute(newSS, oldSS, false);
+        assertTrue(delta.hasDataRoamingOff());
+    }
+
+    @SmallTest
+    public void testOperatorAndOther() {
+        ServiceState oldSS = createInService();
+        ServiceState newSS = createInService();
+        newSS.setOperatorName("Other Operator", "Other", "310410");
+        assertEquals(ServiceStateDelta.OPERATOR,
+                ServiceStateDelta.compute(oldSS, newSS, false).getChangedFields());
+
+        newSS = createInService();
+        newSS.setCssIndicator(1);
+        ServiceStateDelta delta = ServiceStateDelta.compute(oldSS, newSS, false);
+        assertEquals(ServiceStateDelta.OTHER, delta.getChangedFields());
+        assertTrue(delta.hasServiceStateChanged());
+        assertFalse(delta.has(ServiceStateDelta.METRICS_FIELDS));
+    }
+}
@@ -49,8 +49,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.android.internal.telephony.TelephonyTestUtils.waitForMs;
 import static org.junit.Assert.assertEquals;
@@ -61,8 +65,11 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -227,6 +234,27 @@ public class ServiceStateTrackerTest extends TelephonyTest {
                 mSimulatedCommands.getGetNetworkSelectionModeCallCount());
     }
 
+    @Test
+    @MediumTest
+    public void testPollStateCoalescesNetworkStateChanges() {
+        sst.setRadioPower(true);
+        waitForMs(100);
+        final int getOperatorCallCount = mSimulatedCommands.getGetOperatorCallCount();
+        final int getVoiceRegistrationStateCallCount =
+                mSimulatedCommands.getGetVoiceRegistrationStateCallCount();
+
+        // A burst of network state changes is served by a single poll
+        for (int i = 0; i < 3; i++) {
+            sst.sendMessage(sst.obtainMessage(ServiceStateTracker.EVENT_NETWORK_STATE_CHANGED,
+                    null));
+        }
+        waitForMs(200);
+
+        assertEquals(getOperatorCallCount + 1, mSimulatedCommands.getGetOperatorCallCount());
+        assertEquals(getVoiceRegistrationStateCallCount + 1,
+                mSimulatedCommands.getGetVoiceRegistrationStateCallCount());
+    }
+
     @Test
     @MediumTest
     public void testSpnUpdateShowPlmnOnly() {
@@ -268,9 +296,7 @@ public class ServiceStateTrackerTest extends TelephonyTest {
                 intArgumentCaptor.getValue().intValue());
     }
 
-    @Test
-    @MediumTest
-    public void testCellInfoList() {
+    private CellInfoGsm createCellInfoGsm() {
         Parcel p = Parcel.obtain();
         p.writeInt(1);
         p.writeInt(1);
@@ -284,15 +310,58 @@ public class ServiceStateTrackerTest extends TelephonyTest {
         p.writeInt(3);
         p.setDataPosition(0);
 
-        CellInfoGsm cellInfo = CellInfoGsm.CREATOR.createFromParcel(p);
+        return CellInfoGsm.CREATOR.createFromParcel(p);
+    }
 
+    @Test
+    @MediumTest
+    public void testCellInfoList() {
         ArrayList<CellInfo> list = new ArrayList();
-        list.add(cellInfo);
+        list.add(createCellInfoGsm());
         mSimulatedCommands.setCellInfoList(list);
 
         assertEquals(sst.getAllCellInfo(), list);
     }
 
+    @Test
+    @MediumTest
+    public void testCellInfoListSingleFlight() throws Exception {
+        final ArrayList<CellInfo> list = new ArrayList();
+        list.add(createCellInfoGsm());
+        mSimulatedCommands.setCellInfoList(list);
+
+        // Hold the modem response so all callers find the first request in flight
+        mSimulatedCommands.pauseResponses();
+        final int callers = 3;
+        final List<CellInfo>[] results = new List[callers];
+        Thread[] threads = new Thread[callers];
+        for (int i = 0; i < callers; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    results[index] = sst.getAllCellInfo();
+                }
+            };
+            threads[i].start();
+        }
+        waitForMs(200);
+        mSimulatedCommands.resumeResponses();
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+
+        for (int i = 0; i < callers; i++) {
+            assertEquals(list, results[i]);
+        }
+        assertEquals(1, sst.getCellInfoRequestsIssued());
+        assertEquals(callers - 1, sst.getCellInfoRequestsJoined());
+
+        // Served from the cache
+        assertEquals(list, sst.getAllCellInfo());
+        assertEquals(1, sst.getCellInfoRequestsIssued());
+    }
+
     @Test
     @MediumTest
     public void testImsRegState() {
@@ -878,4 +947,53 @@ public class ServiceStateTrackerTest extends TelephonyTest {
         waitForMs(100);
         verify(mAlarmManager, times(1)).setTime(anyLong());
     }
+
+    private static SignalStrength gsmSignalStrength(int asu) {
+        return new SignalStrength(asu, 0, -1, -1, -1, -1, -1, 99, SignalStrength.INVALID,
+                SignalStrength.INVALID, SignalStrength.INVALID, SignalStrength.INVALID,
+                SignalStrength.INVALID, true);
+    }
+
+    @Test
+    @MediumTest
+    public void testScreenOnFlushesDeferredSignalStrength() {
+        sst.setSignalStrengthPollScheduler(mock(SignalStrengthPollScheduler.class));
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        mSimulatedCommands.setSignalStrength(gsmSignalStrength(30));
+        mSimulatedCommands.notifySignalStrength();
+        waitForMs(200);
+
+        final AtomicInteger notified = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                notified.incrementAndGet();
+                return null;
+            }
+        }).when(mPhone).notifySignalStrength();
+
+        // Same level, deferred by the screen off interval
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        mSimulatedCommands.setSignalStrength(gsmSignalStrength(25));
+        mSimulatedCommands.notifySignalStrength();
+        waitForMs(200);
+        assertEquals(0, notified.get());
+
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        waitForMs(200);
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    @MediumTest
+    public void testDisposeUnregistersScreenStateReceiver() {
+        SignalStrengthPollScheduler scheduler = mock(SignalStrengthPollScheduler.class);
+        sst.setSignalStrengthPollScheduler(scheduler);
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        verify(scheduler).setScreenOn(false);
+
+        sst.dispose();
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        verify(scheduler, never()).setScreenOn(true);
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.telephony.SignalStrength;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class SignalStrengthCoalescerTest extends AndroidTestCase {
+    private static final int HYSTERESIS_DBM = 4;
+    private static final long MIN_INTERVAL = 1000;
+    private static final long MIN_INTERVAL_SCREEN_OFF = 10000;
+
+    private SignalStrengthCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new SignalStrengthCoalescer(HYSTERESIS_DBM, MIN_INTERVAL,
+                MIN_INTERVAL_SCREEN_OFF);
+    }
+
+    /**
+     * GSM signal strength, dBm is -113 + 2 * asu
+     */
+    private static SignalStrength gsm(int asu) {
+        return new SignalStrength(
+                asu, // gsmSignalStrength
+                0,  // gsmBitErrorRate
+                -1, // cdmaDbm
+                -1, // cdmaEcio
+                -1, // evdoDbm
+                -1, // evdoEcio
+                -1, // evdoSnr
+                99, // lteSignalStrength
+                SignalStrength.INVALID,     // lteRsrp
+                SignalStrength.INVALID,     // lteRsrq
+                SignalStrength.INVALID,     // lteRssnr
+                SignalStrength.INVALID,     // lteCqi
+                SignalStrength.INVALID,     // tdScdmaRscp
+                true                        // gsmFlag
+        );
+    }
+
+    @SmallTest
+    public void testFirstUpdateDelivered() {
+        assertEquals(SignalStrengthCoalescer.DELIVER_NOW, mCoalescer.onSignalStrength(gsm(30), 0));
+        assertEquals(1, mCoalescer.getDeliveredCount());
+    }
+
+    @SmallTest
+    public void testSmallChangeSuppressed() {
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(SignalStrengthCoalescer.SUPPRESS, mCoalescer.onSignalStrength(gsm(30), 5000));
+        // 2 dBm, below the hysteresis and same level
+        assertEquals(SignalStrengthCoalescer.SUPPRESS, mCoalescer.onSignalStrength(gsm(31), 5000));
+        assertEquals(1, mCoalescer.getDeliveredCount());
+        assertEquals(2, mCoalescer.getSuppressedCount());
+    }
+
+    @SmallTest
+    public void testLevelChangeDeliveredImmediately() {
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(SignalStrengthCoalescer.DELIVER_NOW, mCoalescer.onSignalStrength(gsm(6), 10));
+        assertFalse(mCoalescer.isPending());
+    }
+
+    @SmallTest
+    public void testRateLimitMergesUpdates() {
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(900, mCoalescer.onSignalStrength(gsm(25), 100));
+        assertTrue(mCoalescer.isPending());
+        assertEquals(SignalStrengthCoalescer.SUPPRESS, mCoalescer.onSignalStrength(gsm(24), 200));
+        assertEquals(1, mCoalescer.getMergedCount());
+
+        assertTrue(mCoalescer.onDeferredDelivery(gsm(24), 1000));
+        assertFalse(mCoalescer.isPending());
+        assertEquals(2, mCoalescer.getDeliveredCount());
+
+        // Enough time passed since the deferred delivery
+        assertEquals(SignalStrengthCoalescer.DELIVER_NOW,
+                mCoalescer.onSignalStrength(gsm(20), 2000));
+    }
+
+    @SmallTest
+    public void testDeferredDeliveryBackToLastValue() {
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(900, mCoalescer.onSignalStrength(gsm(25), 100));
+        assertFalse(mCoalescer.onDeferredDelivery(gsm(30), 1000));
+        assertFalse(mCoalescer.isPending());
+        assertEquals(1, mCoalescer.getDeliveredCount());
+    }
+
+    @SmallTest
+    public void testScreenOffRateLimitsLevelChange() {
+        mCoalescer.setScreenOn(false);
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(MIN_INTERVAL_SCREEN_OFF - 100, mCoalescer.onSignalStrength(gsm(6), 100));
+
+        mCoalescer.setScreenOn(true);
+        assertEquals(SignalStrengthCoalescer.DELIVER_NOW, mCoalescer.onSignalStrength(gsm(3), 200));
+        assertFalse(mCoalescer.isPending());
+        assertFalse(mCoalescer.onDeferredDelivery(gsm(3), MIN_INTERVAL_SCREEN_OFF));
+    }
+
+    @SmallTest
+    public void testScreenOnFlushesDeferredDelivery() {
+        mCoalescer.setScreenOn(false);
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertEquals(MIN_INTERVAL_SCREEN_OFF - 100, mCoalescer.onSignalStrength(gsm(25), 100));
+
+        // Waiting for the screen off interval would show stale values
+        assertTrue(mCoalescer.setScreenOn(true));
+        assertTrue(mCoalescer.onDeferredDelivery(gsm(25), 200));
+        assertFalse(mCoalescer.isPending());
+        assertEquals(2, mCoalescer.getDeliveredCount());
+
+        // Back to the screen on interval
+        assertEquals(MIN_INTERVAL - 100, mCoalescer.onSignalStrength(gsm(20), 300));
+        assertFalse(mCoalescer.setScreenOn(true));
+    }
+
+    @SmallTest
+    public void testScreenOnWithoutPendingDelivery() {
+        mCoalescer.setScreenOn(false);
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        assertFalse(mCoalescer.setScreenOn(true));
+        assertFalse(mCoalescer.setScreenOn(false));
+    }
+
+    @SmallTest
+    public void testReset() {
+        mCoalescer.onSignalStrength(gsm(30), 0);
+        mCoalescer.onSignalStrength(gsm(25), 100);
+        mCoalescer.reset();
+        assertFalse(mCoalescer.isPending());
+        assertEquals(SignalStrengthCoalescer.DELIVER_NOW,
+                mCoalescer.onSignalStrength(gsm(30), 200));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class SignalStrengthPollSchedulerTest extends AndroidTestCase {
+    private static final long PERIOD = 20000;
+    private static final long IDLE_PERIOD = 120000;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @SmallTest
+    public void testPeriod() {
+        SignalStrengthPollScheduler scheduler =
+                new SignalStrengthPollScheduler(PERIOD, IDLE_PERIOD, 0);
+        assertFalse(scheduler.isIdle());
+        assertEquals(PERIOD, scheduler.getPollDelay(1234));
+
+        scheduler.setScreenOn(false);
+        assertTrue(scheduler.isIdle());
+        assertEquals(IDLE_PERIOD, scheduler.getPollDelay(1234));
+
+        scheduler.setScreenOn(true);
+        assertFalse(scheduler.isIdle());
+        assertEquals(PERIOD, scheduler.getPollDelay(1234));
+    }
+
+    @SmallTest
+    public void testAlignment() {
+        SignalStrengthPollScheduler scheduler =
+                new SignalStrengthPollScheduler(PERIOD, IDLE_PERIOD, 5000);
+        assertEquals(PERIOD, scheduler.getPollDelay(0));
+        assertEquals(PERIOD, scheduler.getPollDelay(5000));
+        // 1234 + 20000 is rounded up to 25000
+        assertEquals(25000 - 1234, scheduler.getPollDelay(1234));
+    }
+
+    @SmallTest
+    public void testPollCounts() {
+        SignalStrengthPollScheduler scheduler =
+                new SignalStrengthPollScheduler(PERIOD, IDLE_PERIOD, 0);
+        long now = 1000;
+        for (int i = 0; i < 10; i++) {
+            scheduler.onPoll(now);
+            now += PERIOD;
+        }
+        scheduler.setScreenOn(false);
+        scheduler.onPoll(now);
+        assertEquals(11, scheduler.getPollCount());
+        assertEquals(1, scheduler.getIdlePollCount());
+        assertEquals(0, scheduler.getPollsLastHour());
+
+        scheduler.onPoll(1000 + HOUR);
+        assertEquals(11, scheduler.getPollsLastHour());
+
+        // Nothing polled for more than an hour
+        scheduler.onPoll(1000 + 3 * HOUR);
+        assertEquals(0, scheduler.getPollsLastHour());
+    }
+}
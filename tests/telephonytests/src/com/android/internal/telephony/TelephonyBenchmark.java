@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+/**
+ * Time and allocation counting shared by the LargeTest benchmarks, which compare an
+ * implementation with the code it replaced. Benchmarks live in their own *BenchmarkTest
+ * classes, the unit tests only check behaviour.
+ */
+public final class TelephonyBenchmark {
+    private TelephonyBenchmark() {
+    }
+
+    /**
+     * Time and allocations of a number of operations
+     */
+    public static final class Measurement {
+        public final long nanos;
+        public final int allocations;
+        public final int count;
+
+        Measurement(long nanos, int allocations, int count) {
+            this.nanos = nanos;
+            this.allocations = allocations;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return nanos / count + "ns " + allocations / count + " allocs";
+        }
+    }
+
+    /**
+     * Run body once, counting the allocations of the calling thread.
+     *
+     * @param count the number of operations body performs, to report per operation figures
+     */
+    public static Measurement measure(int count, Runnable body) {
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = SystemClock.elapsedRealtimeNanos();
+            body.run();
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+            return new Measurement(nanos, Debug.getThreadAllocCount(), count);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Start counting the allocations of all threads, for code running on other loopers.
+     * Must be followed by {@link #stopAllocCounting}.
+     */
+    public static void startGlobalAllocCounting() {
+        Debug.startAllocCounting();
+        Debug.resetGlobalAllocCount();
+    }
+
+    /**
+     * @return the allocations of all threads since the last call, or since counting started
+     */
+    public static int takeGlobalAllocCount() {
+        int count = Debug.getGlobalAllocCount();
+        Debug.resetGlobalAllocCount();
+        return count;
+    }
+
+    public static void stopAllocCounting() {
+        Debug.stopAllocCounting();
+    }
+
+    public static void log(String tag, String name, Measurement reference,
+            Measurement measured) {
+        Rlog.d(tag, name + ": reference " + reference + ", new " + measured);
+    }
+}
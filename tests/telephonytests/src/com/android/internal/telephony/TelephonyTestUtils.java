@@ -16,6 +16,8 @@
 
 package com.android.internal.telephony;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.telephony.SmsCbMessage;
 import android.util.Log;
 
@@ -24,6 +26,8 @@ import com.android.internal.telephony.cdma.SmsMessage;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import junit.framework.Assert;
 
 /**
@@ -161,6 +165,32 @@ public class TelephonyTestUtils {
         }
     }
 
+    /**
+     * Runs r on looper, and waits for it to finish
+     */
+    public static void runOnLooper(Looper looper, final Runnable r) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(looper).post(new Runnable() {
+            @Override
+            public void run() {
+                r.run();
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Waits for the messages already sent to looper to be handled
+     */
+    public static void waitForLooper(Looper looper) throws InterruptedException {
+        runOnLooper(looper, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
     private static void logd(String s) {
         Log.d(TAG, s);
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cat;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandlerFixture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class IconLoaderTest extends AndroidTestCase {
+    private static final int IMAGE_ID = 0x4f01;
+
+    // 8x1 black and white image, white on even pixels
+    private static final byte[] ICON_DATA = {8, 1, (byte) 0xaa};
+
+    private HandlerThread mThread;
+    private IconLoader mIconLoader;
+    private final IccFileHandlerFixture mCard = new IccFileHandlerFixture();
+    private Handler mCaller;
+    private CountDownLatch mDone;
+    private Object mResult;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("IconLoaderTest");
+        mThread.start();
+        mCaller = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                mResult = msg.obj;
+                mDone.countDown();
+            }
+        };
+
+        // Two records of EF_IMG holding the same image descriptor
+        byte[] descriptor = {1, 8, 1, ImageDescriptor.CODING_SCHEME_BASIC,
+                (byte) (IMAGE_ID >> 8), (byte) IMAGE_ID, 0, 0, 0, (byte) ICON_DATA.length};
+        mCard.putEf(IccConstants.EF_IMG, descriptor, descriptor);
+        mCard.putEf(IMAGE_ID, ICON_DATA);
+        mIconLoader = IconLoader.getInstance(mCaller, mCard.getIccFileHandler());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mIconLoader.dispose();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private Bitmap[] loadIcons(int[] recordNumbers) throws InterruptedException {
+        mDone = new CountDownLatch(1);
+        mIconLoader.loadIcons(recordNumbers, mCaller.obtainMessage());
+        assertTrue(mDone.await(1, TimeUnit.SECONDS));
+        return (Bitmap[]) mResult;
+    }
+
+    @SmallTest
+    public void testSharedRecordsReadOnce() throws Exception {
+        Bitmap[] icons = loadIcons(new int[] {1, 2, 1, -1});
+
+        assertEquals(4, icons.length);
+        assertEquals(2, mCard.getReadCount(IccConstants.EF_IMG));
+        assertTrue(mCard.getReadRecords(IccConstants.EF_IMG).contains(1));
+        assertTrue(mCard.getReadRecords(IccConstants.EF_IMG).contains(2));
+        assertSame(icons[0], icons[2]);
+        assertNull(icons[3]);
+        assertEquals(8, icons[0].getWidth());
+        assertEquals(Color.WHITE, icons[0].getPixel(0, 0));
+        assertEquals(Color.BLACK, icons[0].getPixel(1, 0));
+    }
+
+    @SmallTest
+    public void testCachedUntilRefresh() throws Exception {
+        loadIcons(new int[] {1, 2});
+        mDone = new CountDownLatch(1);
+        mIconLoader.loadIcon(2, mCaller.obtainMessage());
+        assertTrue(mDone.await(1, TimeUnit.SECONDS));
+        assertTrue(mResult instanceof Bitmap);
+        assertEquals(2, mCard.getReadCount(IccConstants.EF_IMG));
+
+        mIconLoader.clearCache();
+        loadIcons(new int[] {1, 2});
+        assertEquals(4, mCard.getReadCount(IccConstants.EF_IMG));
+    }
+
+    @SmallTest
+    public void testParseToBnW() {
+        Bitmap icon = IconLoader.parseToBnW(ICON_DATA, ICON_DATA.length);
+        assertEquals(1, icon.getHeight());
+        for (int x = 0; x < 8; x++) {
+            assertEquals(x % 2 == 0 ? Color.WHITE : Color.BLACK, icon.getPixel(x, 0));
+        }
+    }
+}
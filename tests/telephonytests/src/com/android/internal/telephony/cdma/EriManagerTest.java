@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.cdma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+public class EriManagerTest extends TelephonyTest {
+    // Roaming indicator, icon index, icon mode, call prompt id and alert id of the entries, not
+    // sorted, with indicator 1 overriding the built-in ROAMING_INDICATOR_OFF
+    private static final int[][] ENTRIES = {
+        {99, 2, 1, 0, 0},
+        {64, 1, 0, 1, 2},
+        {1, 3, 0, 0, 0},
+        {70, 1, 1, 2, 1}
+    };
+    private static final String[] ENTRY_TEXTS = {
+        "Roaming Flash", "Extended Network", "Home Override", "Extended Network"
+    };
+
+    // Built-in texts of the standard roaming indicators
+    private static final int[] ROAMING_TEXTS = {
+        com.android.internal.R.string.roamingText0,
+        com.android.internal.R.string.roamingText1,
+        com.android.internal.R.string.roamingText2,
+        com.android.internal.R.string.roamingText3,
+        com.android.internal.R.string.roamingText4,
+        com.android.internal.R.string.roamingText5,
+        com.android.internal.R.string.roamingText6,
+        com.android.internal.R.string.roamingText7,
+        com.android.internal.R.string.roamingText8,
+        com.android.internal.R.string.roamingText9,
+        com.android.internal.R.string.roamingText10,
+        com.android.internal.R.string.roamingText11,
+        com.android.internal.R.string.roamingText12
+    };
+
+    private File mFile;
+    private EriManager mEriManagerUT;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        for (int i = 0; i < ROAMING_TEXTS.length; i++) {
+            mContextFixture.putResource(ROAMING_TEXTS[i], "roamingText" + i);
+        }
+
+        mFile = File.createTempFile(TAG, ".xml");
+        FileWriter writer = new FileWriter(mFile);
+        writer.write(buildEriXml());
+        writer.close();
+        mContextFixture.putResource(com.android.internal.R.string.alternate_eri_file,
+                mFile.getPath());
+
+        mEriManagerUT = new EriManager(mPhone, mContext, EriManager.ERI_FROM_XML);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static String buildEriXml() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        xml.append("<EriFile VersionNumber=\"1357\" NumberOfEriEntries=\"" + ENTRIES.length
+                + "\" EriFileType=\"1\">\n");
+        xml.append("  <CallPromptId Id=\"0\" CallPromptText=\"CallPromptId0\"/>\n");
+        xml.append("  <CallPromptId Id=\"1\" CallPromptText=\"CallPromptId1\"/>\n");
+        xml.append("  <CallPromptId Id=\"2\" CallPromptText=\"CallPromptId2\"/>\n");
+        for (int i = 0; i < ENTRIES.length; i++) {
+            int[] entry = ENTRIES[i];
+            xml.append("  <EriInfo RoamingIndicator=\"" + entry[0] + "\" IconIndex=\"" + entry[1]
+                    + "\" IconMode=\"" + entry[2] + "\" EriText=\"" + ENTRY_TEXTS[i]
+                    + "\" CallPromptId=\"" + entry[3] + "\" AlertId=\"" + entry[4] + "\"/>\n");
+        }
+        xml.append("</EriFile>\n");
+        return xml.toString();
+    }
+
+    private void assertEri(int roamInd, int defRoamInd, int iconIndex, int iconMode,
+            String text) {
+        assertEquals(iconIndex, mEriManagerUT.getCdmaEriIconIndex(roamInd, defRoamInd));
+        assertEquals(iconMode, mEriManagerUT.getCdmaEriIconMode(roamInd, defRoamInd));
+        assertEquals(text, mEriManagerUT.getCdmaEriText(roamInd, defRoamInd));
+    }
+
+    @Test
+    @SmallTest
+    public void testLoadFromXml() {
+        mEriManagerUT.loadEriFile();
+        assertTrue(mEriManagerUT.isEriFileLoaded());
+        assertEquals(1357, mEriManagerUT.getEriFileVersion());
+        assertEquals(ENTRIES.length, mEriManagerUT.getEriNumberOfEntries());
+        assertEquals(1, mEriManagerUT.getEriFileType());
+
+        // Every entry is found whatever its position in the file
+        for (int i = 0; i < ENTRIES.length; i++) {
+            int[] entry = ENTRIES[i];
+            assertEri(entry[0], EriInfo.ROAMING_INDICATOR_OFF, entry[1], entry[2],
+                    ENTRY_TEXTS[i]);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testBuiltInIndicators() {
+        mEriManagerUT.loadEriFile();
+        // Not in the file
+        assertEri(EriInfo.ROAMING_INDICATOR_ON, EriInfo.ROAMING_INDICATOR_ON,
+                EriInfo.ROAMING_INDICATOR_ON, EriInfo.ROAMING_ICON_MODE_NORMAL, "roamingText0");
+        assertEri(EriInfo.ROAMING_INDICATOR_FLASH, EriInfo.ROAMING_INDICATOR_ON,
+                EriInfo.ROAMING_INDICATOR_FLASH, EriInfo.ROAMING_ICON_MODE_FLASH,
+                "roamingText2");
+        assertEri(12, EriInfo.ROAMING_INDICATOR_ON, 12, EriInfo.ROAMING_ICON_MODE_NORMAL,
+                "roamingText12");
+        // Customized by the file
+        assertEri(EriInfo.ROAMING_INDICATOR_OFF, EriInfo.ROAMING_INDICATOR_ON, 3,
+                EriInfo.ROAMING_ICON_MODE_NORMAL, "Home Override");
+    }
+
+    @Test
+    @SmallTest
+    public void testDefaultIndicator() {
+        mEriManagerUT.loadEriFile();
+        // Unknown, with the default in the file
+        assertEri(100, 64, 1, 0, "Extended Network");
+        // Neither in the file
+        assertEri(100, 101, EriInfo.ROAMING_INDICATOR_ON, EriInfo.ROAMING_ICON_MODE_NORMAL,
+                "roamingText0");
+    }
+
+    @Test
+    @SmallTest
+    public void testNotLoaded() {
+        assertFalse(mEriManagerUT.isEriFileLoaded());
+        assertEri(64, EriInfo.ROAMING_INDICATOR_OFF, EriInfo.ROAMING_INDICATOR_OFF,
+                EriInfo.ROAMING_ICON_MODE_NORMAL, "roamingText1");
+        assertEri(64, 5, EriInfo.ROAMING_INDICATOR_FLASH, EriInfo.ROAMING_ICON_MODE_FLASH,
+                "roamingText2");
+    }
+
+    @Test
+    @SmallTest
+    public void testSharedByManagers() {
+        mEriManagerUT.loadEriFile();
+        EriManager other = new EriManager(mPhone, mContext, EriManager.ERI_FROM_XML);
+        other.loadEriFile();
+        assertTrue(other.isEriFileLoaded());
+        assertEquals(mEriManagerUT.getEriFileVersion(), other.getEriFileVersion());
+        assertEquals("Roaming Flash", other.getCdmaEriText(99, EriInfo.ROAMING_INDICATOR_OFF));
+
+        // Reloaded after a dispose
+        mEriManagerUT.dispose();
+        assertFalse(mEriManagerUT.isEriFileLoaded());
+        mEriManagerUT.loadEriFile();
+        assertEri(70, EriInfo.ROAMING_INDICATOR_OFF, 1, 1, "Extended Network");
+    }
+}
@@ -495,4 +495,38 @@ public class ApnSettingTest extends TelephonyTest {
                 isMetered(mContext, 4, isRoaming));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    @SmallTest
+    public void testIsMeteredAfterCarrierConfigChanged() throws Exception {
+        mBundle.putStringArray(CarrierConfigManager.KEY_CARRIER_METERED_APN_TYPES_STRINGS,
+                new String[]{PhoneConstants.APN_TYPE_DEFAULT, "xcap"});
+
+        assertTrue(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_DEFAULT}).
+                isMetered(mContext, 5, isRoaming));
+        assertTrue(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_IA, "xcap"}).
+                isMetered(mContext, 5, isRoaming));
+        assertFalse(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_MMS}).
+                isMetered(mContext, 5, isRoaming));
+
+        // The cached metered types must not be used after a carrier config update
+        mBundle.putStringArray(CarrierConfigManager.KEY_CARRIER_METERED_APN_TYPES_STRINGS,
+                new String[]{PhoneConstants.APN_TYPE_MMS});
+        ApnSetting.onCarrierConfigChanged();
+
+        assertFalse(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_DEFAULT}).
+                isMetered(mContext, 5, isRoaming));
+        assertFalse(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_IA, "xcap"}).
+                isMetered(mContext, 5, isRoaming));
+        assertTrue(createApnSetting(
+                new String[]{PhoneConstants.APN_TYPE_MMS}).
+                isMetered(mContext, 5, isRoaming));
+        assertTrue(ApnSetting.isMeteredApnType(PhoneConstants.APN_TYPE_ALL,
+                mContext, 5, isRoaming));
+    }
+}
@@ -129,4 +129,41 @@ public class DcControllerTest extends TelephonyTest {
 
         verify(mDcTracker, times(1)).sendStopNetStatPoll(eq(DctConstants.Activity.DORMANT));
     }
-}
\ No newline at end of file
+
+    @Test
+    @SmallTest
+    public void testUnchangedDataCallListIgnored() {
+        ArrayList<DataCallResponse> l = new ArrayList<DataCallResponse>();
+        DataCallResponse dcResponse = DcTrackerTest.createDataCallResponse();
+        dcResponse.active = DATA_CONNECTION_ACTIVE_PH_LINK_DORMANT;
+        l.add(dcResponse);
+
+        mDc.mCid = 1;
+        mDcc.addActiveDcByCid(mDc);
+
+        mDcc.sendMessage(EVENT_DATA_STATE_CHANGED, new AsyncResult(null, l, null));
+        waitForMs(100);
+
+        // Same list again, e.g. a modem repeating the unsol during handover
+        ArrayList<DataCallResponse> l2 = new ArrayList<DataCallResponse>();
+        DataCallResponse dcResponse2 = DcTrackerTest.createDataCallResponse();
+        dcResponse2.active = DATA_CONNECTION_ACTIVE_PH_LINK_DORMANT;
+        l2.add(dcResponse2);
+        mDcc.sendMessage(EVENT_DATA_STATE_CHANGED, new AsyncResult(null, l2, null));
+        waitForMs(100);
+
+        verify(mDc, times(1)).updateLinkProperty(any(DataCallResponse.class));
+        verify(mDcTracker, times(1)).sendStopNetStatPoll(eq(DctConstants.Activity.DORMANT));
+
+        // A changed address has to be processed
+        ArrayList<DataCallResponse> l3 = new ArrayList<DataCallResponse>();
+        DataCallResponse dcResponse3 = DcTrackerTest.createDataCallResponse();
+        dcResponse3.active = DATA_CONNECTION_ACTIVE_PH_LINK_DORMANT;
+        dcResponse3.addresses = new String[]{"12.34.56.79"};
+        l3.add(dcResponse3);
+        mDcc.sendMessage(EVENT_DATA_STATE_CHANGED, new AsyncResult(null, l3, null));
+        waitForMs(100);
+
+        verify(mDc, times(2)).updateLinkProperty(any(DataCallResponse.class));
+    }
+}
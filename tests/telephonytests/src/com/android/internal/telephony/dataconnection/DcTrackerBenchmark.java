@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.dataconnection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+import android.util.Printer;
+
+import com.android.internal.telephony.DctConstants;
+import com.android.internal.telephony.TelephonyBenchmark;
+import com.android.internal.telephony.test.SimulatedCommands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives connect/disconnect cycles through DcTracker, DcController and DataConnection against
+ * a scripted SimulatedCommands modem and measures
+ * <ul>
+ * <li>setup latency: from enabling the APN until DcTracker reports it CONNECTED
+ * <li>handler messages dispatched on the data looper per cycle
+ * <li>handler lag: how long a probe posted to the data looper waits behind queued messages,
+ *     as a measure of the queue depth
+ * <li>allocations per cycle
+ * </ul>
+ * The DcTracker must already be able to set up the APN, see DcTrackerTest.
+ */
+public class DcTrackerBenchmark {
+    private static final String LOG_TAG = "DcTrackerBenchmark";
+    private static final long POLL_INTERVAL_MS = 1;
+
+    private final DcTracker mDct;
+    private final SimulatedCommands mSimulatedCommands;
+    private final Handler mHandler;
+    private final int mApnId;
+    private final String mApnType;
+
+    private int mDataCallListChurn;
+
+    private final AtomicInteger mDispatchedMessages = new AtomicInteger();
+    private final Printer mDispatchCounter = new Printer() {
+        @Override
+        public void println(String x) {
+            if (x.startsWith(">>>>> Dispatching")) mDispatchedMessages.incrementAndGet();
+        }
+    };
+
+    public DcTrackerBenchmark(DcTracker dct, SimulatedCommands simulatedCommands, int apnId,
+            String apnType) {
+        mDct = dct;
+        mSimulatedCommands = simulatedCommands;
+        mHandler = new Handler(dct.getLooper());
+        mApnId = apnId;
+        mApnType = apnType;
+    }
+
+    /**
+     * Number of repeated RIL_UNSOL_DATA_CALL_LIST_CHANGED sent while connected in each cycle
+     */
+    public void setDataCallListChurn(int count) {
+        mDataCallListChurn = count;
+    }
+
+    /**
+     * Run connect/disconnect cycles.
+     *
+     * @param cycles number of cycles
+     * @param timeoutMs maximum time to wait for each state change
+     * @return the measurements, or null if a state change timed out
+     */
+    public Result run(int cycles, long timeoutMs) {
+        Result result = new Result(cycles);
+        Looper looper = mDct.getLooper();
+        looper.setMessageLogging(mDispatchCounter);
+        TelephonyBenchmark.startGlobalAllocCounting();
+        try {
+            for (int i = 0; i < cycles; i++) {
+                mDispatchedMessages.set(0);
+                TelephonyBenchmark.takeGlobalAllocCount();
+
+                long start = SystemClock.elapsedRealtime();
+                mDct.setEnabled(mApnId, true);
+                long lag = measureHandlerLag();
+                if (!waitForState(DctConstants.State.CONNECTED, timeoutMs)) {
+                    Rlog.e(LOG_TAG, "cycle " + i + ": timeout connecting");
+                    return null;
+                }
+                result.setupLatencyMs[i] = SystemClock.elapsedRealtime() - start;
+
+                for (int j = 0; j < mDataCallListChurn; j++) {
+                    ArrayList<DataCallResponse> dcList = new ArrayList<DataCallResponse>();
+                    dcList.add(DcTrackerTest.createDataCallResponse());
+                    mSimulatedCommands.triggerDataCallListChanged(dcList);
+                }
+                lag = Math.max(lag, measureHandlerLag());
+
+                start = SystemClock.elapsedRealtime();
+                mDct.setEnabled(mApnId, false);
+                lag = Math.max(lag, measureHandlerLag());
+                if (!waitForState(DctConstants.State.IDLE, timeoutMs)) {
+                    Rlog.e(LOG_TAG, "cycle " + i + ": timeout disconnecting");
+                    return null;
+                }
+                result.teardownLatencyMs[i] = SystemClock.elapsedRealtime() - start;
+
+                result.handlerLagMs[i] = lag;
+                result.dispatchedMessages[i] = mDispatchedMessages.get();
+                result.allocations[i] = TelephonyBenchmark.takeGlobalAllocCount();
+            }
+        } finally {
+            TelephonyBenchmark.stopAllocCounting();
+            looper.setMessageLogging(null);
+        }
+        return result;
+    }
+
+    private boolean waitForState(DctConstants.State state, long timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (mDct.getState(mApnType) != state) {
+            if (SystemClock.elapsedRealtime() > deadline) return false;
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
+    /**
+     * @return the time a message posted now waits before it is handled by the data looper
+     */
+    private long measureHandlerLag() {
+        final long posted = SystemClock.elapsedRealtime();
+        final long[] handled = new long[]{-1};
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (handled) {
+                    handled[0] = SystemClock.elapsedRealtime();
+                    handled.notifyAll();
+                }
+            }
+        });
+        synchronized (handled) {
+            while (handled[0] < 0) {
+                try {
+                    handled.wait();
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            return handled[0] - posted;
+        }
+    }
+
+    /**
+     * Per cycle measurements
+     */
+    public static class Result {
+        public final long[] setupLatencyMs;
+        public final long[] teardownLatencyMs;
+        public final long[] handlerLagMs;
+        public final int[] dispatchedMessages;
+        public final int[] allocations;
+
+        Result(int cycles) {
+            setupLatencyMs = new long[cycles];
+            teardownLatencyMs = new long[cycles];
+            handlerLagMs = new long[cycles];
+            dispatchedMessages = new int[cycles];
+            allocations = new int[cycles];
+        }
+
+        private static long median(long[] values) {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+        }
+
+        private static long median(int[] values) {
+            long[] l = new long[values.length];
+            for (int i = 0; i < values.length; i++) l[i] = values[i];
+            return median(l);
+        }
+
+        public long medianSetupLatencyMs() {
+            return median(setupLatencyMs);
+        }
+
+        public long medianDispatchedMessages() {
+            return median(dispatchedMessages);
+        }
+
+        @Override
+        public String toString() {
+            return "cycles=" + setupLatencyMs.length
+                    + " medianSetupMs=" + median(setupLatencyMs)
+                    + " medianTeardownMs=" + median(teardownLatencyMs)
+                    + " maxHandlerLagMs=" + max(handlerLagMs)
+                    + " medianMessages=" + median(dispatchedMessages)
+                    + " medianAllocations=" + median(allocations);
+        }
+
+        private static long max(long[] values) {
+            long max = 0;
+            for (long v : values) max = Math.max(max, v);
+            return max;
+        }
+    }
+}
@@ -40,6 +40,7 @@ import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.test.mock.MockContentProvider;
 import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.util.LocalLog;
 
@@ -813,4 +814,48 @@ public class DcTrackerTest extends TelephonyTest {
         mDct.setDataEnabled(dataEnabled);
         waitForMs(200);
     }
+
+    // Run connect/disconnect cycles against a modem with setup latency, transient failures
+    // and a repeating data call list. DcTrackerBenchmark measures them, here only the
+    // behaviour is checked.
+    @Test
+    @LargeTest
+    public void testSetupTeardownCycles() {
+        mBundle.putStringArray(CarrierConfigManager.KEY_CARRIER_DATA_CALL_RETRY_CONFIG_STRINGS,
+                new String[]{"default:max_retries=infinite,50"});
+
+        boolean dataEnabled = mDct.getDataEnabled();
+        mDct.setDataEnabled(true);
+        mSimulatedCommands.setDataCallResponse(true, createDataCallResponse());
+        mSimulatedCommands.setDataCallSetupLatency(20);
+
+        mDct.sendMessage(mDct.obtainMessage(DctConstants.EVENT_RECORDS_LOADED, null));
+        mDct.sendMessage(mDct.obtainMessage(DctConstants.EVENT_DATA_CONNECTION_ATTACHED, null));
+        waitForMs(200);
+
+        DcTrackerBenchmark benchmark = new DcTrackerBenchmark(mDct, mSimulatedCommands,
+                DctConstants.APN_DEFAULT_ID, PhoneConstants.APN_TYPE_DEFAULT);
+        benchmark.setDataCallListChurn(10);
+
+        int setups = mSimulatedCommands.getSetupDataCallCount();
+        int deactivates = mSimulatedCommands.getDeactivateDataCallCount();
+        DcTrackerBenchmark.Result result = benchmark.run(10, 5000);
+        assertTrue(result != null);
+        assertTrue(result.medianSetupLatencyMs() >= 20);
+        // The repeated data call list doesn't bring the call down or up again
+        assertEquals(10, mSimulatedCommands.getSetupDataCallCount() - setups);
+        assertEquals(10, mSimulatedCommands.getDeactivateDataCallCount() - deactivates);
+
+        // Every other setup fails once with a transient cause before succeeding
+        int transientFailCause = DcFailCause.INSUFFICIENT_RESOURCES.getErrorCode();
+        mSimulatedCommands.setDataCallFailCauses(transientFailCause, 0, transientFailCause, 0);
+        setups = mSimulatedCommands.getSetupDataCallCount();
+        result = benchmark.run(4, 5000);
+        assertTrue(result != null);
+        assertEquals(4 + 2, mSimulatedCommands.getSetupDataCallCount() - setups);
+
+        mSimulatedCommands.setDataCallSetupLatency(0);
+        mDct.setDataEnabled(dataEnabled);
+        waitForMs(200);
+    }
 }
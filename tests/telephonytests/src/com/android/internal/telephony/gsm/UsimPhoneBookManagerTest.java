@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.TelephonyTestUtils;
+import com.android.internal.telephony.uicc.AdnRecord;
+import com.android.internal.telephony.uicc.AdnRecordCache;
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandlerFixture;
+import com.android.internal.telephony.uicc.IccUtils;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class UsimPhoneBookManagerTest extends AndroidTestCase {
+    private static final String TAG = "UsimPhoneBookManagerTest";
+
+    private static final int EF_ADN1 = 0x4F3A;
+    private static final int EF_ADN2 = 0x4F3B;
+    private static final int EF_IAP2 = 0x4F25;
+    private static final int EF_EMAIL1 = 0x4F50;
+    private static final int EF_EMAIL2 = 0x4F51;
+    private static final int ADN_RECORD_SIZE = 30;
+    private static final int EMAIL_RECORD_SIZE = 20;
+
+    // A type 1 EF_EMAIL with the first EF_ADN, a type 2 EF_EMAIL and its EF_IAP with the second
+    private static final String[] PBR = {
+        "A809C0034F3A01CA024F50",
+        "A809C0034F3B02C1024F25A904CA024F51"
+    };
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private UsimPhoneBookManager mManager;
+
+    private final IccFileHandlerFixture mCard = new IccFileHandlerFixture();
+    // Responses to loadEfFilesFromUsim
+    private final ArrayList<AsyncResult> mResults = new ArrayList<AsyncResult>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCard.putEf(IccConstants.EF_PBR, IccUtils.hexStringToBytes(PBR[0]),
+                IccUtils.hexStringToBytes(PBR[1]));
+        mCard.putEf(EF_ADN1, adn("Ann", "5550100"), adn("", ""), adn("Bob", "5550101"));
+        mCard.putEf(EF_ADN2, adn("Cat", "5550102"), adn("Dan", "5550103"));
+        // Type 1: the SFI and record of the ADN, with no SFI for the ADN of the same PBR record
+        mCard.putEf(EF_EMAIL1, email("ann@example.com", 1, 1),
+                email("bob@example.com", 0xFF, 3), email("", 0xFF, 0xFF));
+        // Type 2: the record of the EF_EMAIL of each ADN
+        mCard.putEf(EF_IAP2, new byte[] {0x02}, new byte[] {(byte) 0xFF});
+        mCard.putEf(EF_EMAIL2, email("old@example.com", 2, 0xFF),
+                email("cat@example.com", 2, 1));
+
+        // Parses the EF_ADN on the card like AdnRecordLoader
+        final AdnRecordCache adnCache = mock(AdnRecordCache.class, new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                if (invocation.getMethod().getName().equals("requestLoadAllAdnLike")) {
+                    Object[] args = invocation.getArguments();
+                    int efid = (Integer) args[0];
+                    mCard.read(efid, (Message) args[2], adnParser(efid));
+                }
+                return null;
+            }
+        });
+
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                synchronized (mResults) {
+                    mResults.add((AsyncResult) msg.obj);
+                }
+            }
+        };
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mManager = new UsimPhoneBookManager(mCard.getIccFileHandler(), adnCache);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private static byte[] adn(String name, String number) {
+        return new AdnRecord(name, number).buildAdnString(ADN_RECORD_SIZE);
+    }
+
+    /**
+     * @return a record of EF_EMAIL, ending with the SFI and record number of the ADN
+     */
+    private static byte[] email(String email, int sfi, int adnRecordNumber) {
+        byte[] record = new byte[EMAIL_RECORD_SIZE];
+        Arrays.fill(record, (byte) 0xFF);
+        byte[] packed = GsmAlphabet.stringToGsm8BitPacked(email);
+        System.arraycopy(packed, 0, record, 0, packed.length);
+        record[EMAIL_RECORD_SIZE - 2] = (byte) sfi;
+        record[EMAIL_RECORD_SIZE - 1] = (byte) adnRecordNumber;
+        return record;
+    }
+
+    private static IccFileHandlerFixture.RecordsParser adnParser(final int efid) {
+        return new IccFileHandlerFixture.RecordsParser() {
+            @Override
+            public Object parse(ArrayList<byte[]> records) {
+                ArrayList<AdnRecord> adns = new ArrayList<AdnRecord>();
+                for (int i = 0; i < records.size(); i++) {
+                    adns.add(new AdnRecord(efid, i + 1, records.get(i)));
+                }
+                return adns;
+            }
+        };
+    }
+
+    private void releaseHeldReads() throws InterruptedException {
+        mCard.releaseHeldReads();
+        waitForIdle();
+    }
+
+    private List<AsyncResult> getResults() {
+        synchronized (mResults) {
+            return new ArrayList<AsyncResult>(mResults);
+        }
+    }
+
+    private void runOnThread(Runnable r) throws InterruptedException {
+        TelephonyTestUtils.runOnLooper(mThread.getLooper(), r);
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        // Each round lets one more hop between the manager and the files through
+        for (int i = 0; i < 5; i++) {
+            TelephonyTestUtils.waitForLooper(mThread.getLooper());
+        }
+    }
+
+    private void load() throws InterruptedException {
+        mManager.loadEfFilesFromUsim(mHandler.obtainMessage());
+        waitForIdle();
+    }
+
+    private static ArrayList<AdnRecord> getPhoneBook(AsyncResult ar) {
+        assertNull(ar.exception);
+        return (ArrayList<AdnRecord>) ar.result;
+    }
+
+    @SmallTest
+    public void testLoadSharedByWaiters() throws Exception {
+        mCard.holdReads(IccConstants.EF_PBR);
+        load();
+        load();
+        assertEquals(1, mCard.getReadCount(IccConstants.EF_PBR));
+        assertEquals(0, getResults().size());
+
+        releaseHeldReads();
+        List<AsyncResult> results = getResults();
+        assertEquals(2, results.size());
+        assertEquals(5, getPhoneBook(results.get(0)).size());
+        assertSame(results.get(0).result, results.get(1).result);
+        assertEquals(1, mCard.getReadCount(EF_ADN1));
+        assertEquals(1, mCard.getReadCount(EF_ADN2));
+        assertEquals(1, mCard.getReadCount(EF_EMAIL1));
+
+        // Answered from the loaded phonebook
+        load();
+        assertEquals(3, getResults().size());
+        assertSame(results.get(0).result, getResults().get(2).result);
+        assertEquals(1, mCard.getReadCount(IccConstants.EF_PBR));
+        assertEquals(1, mCard.getReadCount(EF_ADN1));
+    }
+
+    @SmallTest
+    public void testResetDuringLoad() throws Exception {
+        mCard.holdReads(EF_ADN2);
+        load();
+        assertEquals(1, mCard.getReadCount(EF_ADN1));
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mManager.reset();
+            }
+        });
+
+        // The response of the earlier load is dropped, its waiter answered by AdnRecordCache
+        releaseHeldReads();
+        assertEquals(0, getResults().size());
+
+        load();
+        assertEquals(2, mCard.getReadCount(IccConstants.EF_PBR));
+        assertEquals(2, mCard.getReadCount(EF_ADN2));
+        List<AsyncResult> results = getResults();
+        assertEquals(1, results.size());
+        assertEquals(5, getPhoneBook(results.get(0)).size());
+    }
+
+    @SmallTest
+    public void testEmails() throws Exception {
+        load();
+        ArrayList<AdnRecord> phoneBook = getPhoneBook(getResults().get(0));
+        assertEquals(5, phoneBook.size());
+
+        // Type 1, by SFI or by the PBR record
+        assertEquals("Ann", phoneBook.get(0).getAlphaTag());
+        assertTrue(Arrays.equals(new String[] {"ann@example.com"},
+                phoneBook.get(0).getEmails()));
+        assertTrue(phoneBook.get(1).isEmpty());
+        assertEquals("Bob", phoneBook.get(2).getAlphaTag());
+        assertTrue(Arrays.equals(new String[] {"bob@example.com"},
+                phoneBook.get(2).getEmails()));
+
+        // Type 2, through EF_IAP
+        assertEquals("Cat", phoneBook.get(3).getAlphaTag());
+        assertTrue(Arrays.equals(new String[] {"cat@example.com"},
+                phoneBook.get(3).getEmails()));
+        assertEquals("Dan", phoneBook.get(4).getAlphaTag());
+        assertNull(phoneBook.get(4).getEmails());
+    }
+}
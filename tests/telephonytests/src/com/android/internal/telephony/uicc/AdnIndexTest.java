@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+public class AdnIndexTest extends AndroidTestCase {
+    private static final int SIZE = 500;
+
+    /**
+     * The search AdnRecordCache.updateAdnBySearch used before AdnIndex.
+     */
+    private static int referenceIndexOf(ArrayList<AdnRecord> list, AdnRecord adn) {
+        for (int i = 0; i < list.size(); i++) {
+            if (adn.isEqual(list.get(i))) return i;
+        }
+        return AdnIndex.NOT_FOUND;
+    }
+
+    /**
+     * A phonebook with every 3rd record empty and some duplicate entries.
+     */
+    private static ArrayList<AdnRecord> createPhonebook() {
+        ArrayList<AdnRecord> list = new ArrayList<AdnRecord>();
+        for (int i = 0; i < SIZE; i++) {
+            if (i % 3 == 0) {
+                list.add(new AdnRecord(IccConstants.EF_ADN, i + 1, "", null));
+            } else {
+                list.add(new AdnRecord(IccConstants.EF_ADN, i + 1, "Name" + (i % 100),
+                        "555" + (i % 100)));
+            }
+        }
+        return list;
+    }
+
+    private static void assertMatchesReference(ArrayList<AdnRecord> list, AdnIndex index) {
+        for (int i = 0; i < 100; i++) {
+            AdnRecord adn = new AdnRecord("Name" + i, "555" + i);
+            assertEquals(adn.toString(), referenceIndexOf(list, adn), index.indexOf(adn));
+        }
+        AdnRecord empty = new AdnRecord("", "");
+        assertEquals(referenceIndexOf(list, empty), index.indexOf(empty));
+        AdnRecord missing = new AdnRecord("Nobody", "0");
+        assertEquals(AdnIndex.NOT_FOUND, index.indexOf(missing));
+    }
+
+    @SmallTest
+    public void testIndexOf() {
+        ArrayList<AdnRecord> list = createPhonebook();
+        AdnIndex index = new AdnIndex(list);
+        assertTrue(index.isValidFor(list));
+        assertMatchesReference(list, index);
+
+        // null and empty strings are equal
+        assertEquals(0, index.indexOf(new AdnRecord(null, null)));
+        assertEquals(1, index.indexOf(new AdnRecord("Name1", "5551", null)));
+    }
+
+    @SmallTest
+    public void testSet() {
+        ArrayList<AdnRecord> list = createPhonebook();
+        AdnIndex index = new AdnIndex(list);
+
+        // Fill all empty records, then delete some entries, as AdnRecordCache does
+        for (int i = 0; i < SIZE; i += 3) {
+            AdnRecord adn = new AdnRecord("New" + i, "123" + i);
+            int position = index.indexOf(new AdnRecord("", ""));
+            assertEquals(i, position);
+            list.set(position, adn);
+            index.set(position, adn);
+        }
+        assertEquals(AdnIndex.NOT_FOUND, index.indexOf(new AdnRecord("", "")));
+        for (int i = 0; i < 10; i++) {
+            AdnRecord adn = new AdnRecord("Name" + (i + 1), "555" + (i + 1));
+            int position = index.indexOf(adn);
+            AdnRecord empty = new AdnRecord("", "");
+            list.set(position, empty);
+            index.set(position, empty);
+        }
+        assertMatchesReference(list, index);
+        assertEquals(6, index.indexOf(new AdnRecord("New6", "1236")));
+    }
+
+    @SmallTest
+    public void testStale() {
+        ArrayList<AdnRecord> list = createPhonebook();
+        AdnIndex index = new AdnIndex(list);
+
+        list.set(1, new AdnRecord("Other", "1"));
+        assertEquals(AdnIndex.STALE, index.indexOf(new AdnRecord("Name1", "5551")));
+        assertEquals(AdnIndex.STALE, index.indexOf(new AdnRecord("Other", "1")));
+
+        // Changed in place
+        list = createPhonebook();
+        index = new AdnIndex(list);
+        list.get(2).setEmails(new String[] {"a@b.c"});
+        assertEquals(AdnIndex.STALE,
+                index.indexOf(new AdnRecord("Name2", "5552", new String[] {"a@b.c"})));
+
+        list.add(new AdnRecord("", ""));
+        assertFalse(index.isValidFor(list));
+        assertFalse(index.isValidFor(createPhonebook()));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.TelephonyTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdnRecordCacheTest extends AndroidTestCase {
+    private static final String TAG = "AdnRecordCacheTest";
+
+    private static final int EF_ADN1 = 0x4F3A;
+    private static final int ADN_RECORD_SIZE = 30;
+    // A single PBR record with EF_ADN1
+    private static final String PBR = "A805C0034F3A01";
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private AdnRecordCache mAdnCache;
+
+    private final IccFileHandlerFixture mCard = new IccFileHandlerFixture();
+    private final ArrayList<AsyncResult> mResults = new ArrayList<AsyncResult>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A USIM with EF_PBR and EF_ADN1
+        mCard.putEf(IccConstants.EF_PBR, IccUtils.hexStringToBytes(PBR));
+        mCard.putEf(EF_ADN1, adn("Ann", "5550100"), adn("", ""), adn("Bob", "5550101"));
+
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                synchronized (mResults) {
+                    mResults.add((AsyncResult) msg.obj);
+                }
+            }
+        };
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mAdnCache = new AdnRecordCache(mCard.getIccFileHandler());
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private static byte[] adn(String name, String number) {
+        return new AdnRecord(name, number).buildAdnString(ADN_RECORD_SIZE);
+    }
+
+    private void releaseHeldReads() throws InterruptedException {
+        mCard.releaseHeldReads();
+        waitForIdle();
+    }
+
+    private List<AsyncResult> getResults() {
+        synchronized (mResults) {
+            return new ArrayList<AsyncResult>(mResults);
+        }
+    }
+
+    private List<Integer> getWrites() {
+        return mCard.getWrites(EF_ADN1);
+    }
+
+    private void runOnThread(Runnable r) throws InterruptedException {
+        TelephonyTestUtils.runOnLooper(mThread.getLooper(), r);
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        // Each round lets one more hop between the cache, the phonebook and AdnRecordLoader,
+        // which runs on the main looper, through
+        for (int i = 0; i < 20; i++) {
+            TelephonyTestUtils.waitForLooper(mThread.getLooper());
+            TelephonyTestUtils.waitForLooper(Looper.getMainLooper());
+        }
+    }
+
+    private void updateBySearch(final AdnRecord oldAdn, final AdnRecord newAdn)
+            throws InterruptedException {
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mAdnCache.updateAdnBySearch(IccConstants.EF_PBR, oldAdn, newAdn, null,
+                        mHandler.obtainMessage());
+            }
+        });
+        waitForIdle();
+    }
+
+    @SmallTest
+    public void testUpdateQueuedBehindPbrLoad() throws Exception {
+        mCard.holdReads(IccConstants.EF_PBR);
+        updateBySearch(new AdnRecord("Bob", "5550101"), new AdnRecord("Eve", "5550104"));
+        assertEquals(0, getWrites().size());
+        assertEquals(0, getResults().size());
+
+        // Searched and written once the phonebook is loaded
+        releaseHeldReads();
+        assertEquals(1, getWrites().size());
+        assertEquals(3, (int) getWrites().get(0));
+        List<AsyncResult> results = getResults();
+        assertEquals(1, results.size());
+        assertNull(results.get(0).exception);
+
+        // The phonebook is built again with the new record
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mAdnCache.requestLoadAllAdnLike(IccConstants.EF_PBR, 0,
+                        mHandler.obtainMessage());
+            }
+        });
+        waitForIdle();
+        results = getResults();
+        assertEquals(2, results.size());
+        ArrayList<AdnRecord> phoneBook = (ArrayList<AdnRecord>) results.get(1).result;
+        assertEquals(3, phoneBook.size());
+        assertEquals("Eve", phoneBook.get(2).getAlphaTag());
+        assertEquals("5550104", phoneBook.get(2).getNumber());
+    }
+
+    @SmallTest
+    public void testUpdateNotFound() throws Exception {
+        updateBySearch(new AdnRecord("Nobody", "0"), new AdnRecord("Eve", "5550104"));
+        assertEquals(0, getWrites().size());
+        List<AsyncResult> results = getResults();
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).exception);
+    }
+
+    @SmallTest
+    public void testResetDropsQueuedUpdate() throws Exception {
+        mCard.holdReads(IccConstants.EF_PBR);
+        updateBySearch(new AdnRecord("Bob", "5550101"), new AdnRecord("Eve", "5550104"));
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mAdnCache.reset();
+            }
+        });
+        waitForIdle();
+        List<AsyncResult> results = getResults();
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).exception);
+
+        // The load started before the reset is ignored
+        releaseHeldReads();
+        assertEquals(0, getWrites().size());
+        assertEquals(1, getResults().size());
+    }
+}
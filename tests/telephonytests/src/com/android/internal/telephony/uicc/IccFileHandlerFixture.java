@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Message;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A mock IccFileHandler answering at once, on the calling thread, from the EFs of a fake card.
+ * The reads of some EFs can be held until releaseHeldReads(), to test what happens while the
+ * card is slow.
+ */
+public class IccFileHandlerFixture {
+    /**
+     * Builds the result of a read from the records of the EF
+     */
+    public interface RecordsParser {
+        /**
+         * @return the result, null to answer with IccFileNotFound
+         */
+        Object parse(ArrayList<byte[]> records);
+    }
+
+    public static final RecordsParser ALL_RECORDS = new RecordsParser() {
+        @Override
+        public Object parse(ArrayList<byte[]> records) {
+            return records;
+        }
+    };
+
+    private static final RecordsParser RECORD_SIZE = new RecordsParser() {
+        @Override
+        public Object parse(ArrayList<byte[]> records) {
+            int size = records.isEmpty() ? 0 : records.get(0).length;
+            return new int[] {size, size * records.size(), records.size()};
+        }
+    };
+
+    private static class HeldRead {
+        final int mEfid;
+        final Message mResponse;
+        final RecordsParser mParser;
+
+        HeldRead(int efid, Message response, RecordsParser parser) {
+            mEfid = efid;
+            mResponse = response;
+            mParser = parser;
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Records of the EFs on the card by EF ID, a transparent EF has one, the others are not on it
+    private final SparseArray<ArrayList<byte[]>> mEfs = new SparseArray<ArrayList<byte[]>>();
+    // EF ID and record number, 0 for the whole EF, of each read and write
+    private final ArrayList<int[]> mReads = new ArrayList<int[]>();
+    private final ArrayList<int[]> mWrites = new ArrayList<int[]>();
+    private final SparseBooleanArray mHeldEfs = new SparseBooleanArray();
+    private final ArrayList<HeldRead> mHeldReads = new ArrayList<HeldRead>();
+    private final IccFileHandler mFileHandler;
+
+    public IccFileHandlerFixture() {
+        mFileHandler = mock(IccFileHandler.class, new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                if (args.length == 0 || !(args[args.length - 1] instanceof Message)) {
+                    return null;
+                }
+                String method = invocation.getMethod().getName();
+                Message response = (Message) args[args.length - 1];
+                if (method.equals("loadEFImgLinearFixed")) {
+                    int recordNumber = (Integer) args[0];
+                    read(IccConstants.EF_IMG, recordNumber, response, record(recordNumber));
+                    return null;
+                }
+                int efid = (Integer) args[0];
+                if (method.equals("loadEFTransparent") || method.equals("loadEFImgTransparent")) {
+                    read(efid, 0, response, record(1));
+                } else if (method.equals("loadEFLinearFixed")) {
+                    int recordNumber = (Integer) args[args.length - 2];
+                    read(efid, recordNumber, response, record(recordNumber));
+                } else if (method.equals("loadEFLinearFixedAll")) {
+                    read(efid, 0, response, ALL_RECORDS);
+                } else if (method.equals("getEFLinearRecordSize")) {
+                    respond(efid, response, RECORD_SIZE);
+                } else if (method.equals("updateEFLinearFixed")) {
+                    write(efid, (Integer) args[args.length - 4], (byte[]) args[args.length - 3],
+                            response);
+                } else if (method.equals("updateEFTransparent")) {
+                    write(efid, 1, (byte[]) args[1], response);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static RecordsParser record(final int recordNumber) {
+        return new RecordsParser() {
+            @Override
+            public Object parse(ArrayList<byte[]> records) {
+                if (recordNumber < 1 || recordNumber > records.size()) return null;
+                return records.get(recordNumber - 1);
+            }
+        };
+    }
+
+    public IccFileHandler getIccFileHandler() {
+        return mFileHandler;
+    }
+
+    /**
+     * Puts an EF on the card, or replaces it
+     */
+    public void putEf(int efid, byte[]... records) {
+        synchronized (mLock) {
+            mEfs.put(efid, new ArrayList<byte[]>(Arrays.asList(records)));
+        }
+    }
+
+    /**
+     * Holds the reads of efids until releaseHeldReads()
+     */
+    public void holdReads(int... efids) {
+        synchronized (mLock) {
+            for (int efid : efids) {
+                mHeldEfs.put(efid, true);
+            }
+        }
+    }
+
+    /**
+     * Answers the held reads, and stops holding
+     */
+    public void releaseHeldReads() {
+        ArrayList<HeldRead> held;
+        synchronized (mLock) {
+            held = new ArrayList<HeldRead>(mHeldReads);
+            mHeldReads.clear();
+            mHeldEfs.clear();
+        }
+        for (HeldRead read : held) {
+            respond(read.mEfid, read.mResponse, read.mParser);
+        }
+    }
+
+    /**
+     * Reads efid for a mock of another class reading the card, e.g. one parsing the records
+     */
+    public void read(int efid, Message response, RecordsParser parser) {
+        read(efid, 0, response, parser);
+    }
+
+    private void read(int efid, int recordNumber, Message response, RecordsParser parser) {
+        synchronized (mLock) {
+            mReads.add(new int[] {efid, recordNumber});
+            if (mHeldEfs.get(efid)) {
+                mHeldReads.add(new HeldRead(efid, response, parser));
+                return;
+            }
+        }
+        respond(efid, response, parser);
+    }
+
+    private void respond(int efid, Message response, RecordsParser parser) {
+        ArrayList<byte[]> records;
+        synchronized (mLock) {
+            records = mEfs.get(efid);
+            records = records != null ? new ArrayList<byte[]>(records) : null;
+        }
+        Object result = records != null ? parser.parse(records) : null;
+        AsyncResult.forMessage(response, result, result == null ? new IccFileNotFound(efid) : null);
+        response.sendToTarget();
+    }
+
+    private void write(int efid, int recordNumber, byte[] data, Message response) {
+        boolean found;
+        synchronized (mLock) {
+            mWrites.add(new int[] {efid, recordNumber});
+            ArrayList<byte[]> records = mEfs.get(efid);
+            found = records != null && recordNumber >= 1 && recordNumber <= records.size();
+            if (found) {
+                records.set(recordNumber - 1, data);
+            }
+        }
+        AsyncResult.forMessage(response, null, found ? null : new IccFileNotFound(efid));
+        response.sendToTarget();
+    }
+
+    /**
+     * @return the number of reads of efid, held or not
+     */
+    public int getReadCount(int efid) {
+        return getRecordNumbers(mReads, efid).size();
+    }
+
+    /**
+     * @return the record numbers of efid read, 0 for the reads of the whole EF
+     */
+    public List<Integer> getReadRecords(int efid) {
+        return getRecordNumbers(mReads, efid);
+    }
+
+    /**
+     * @return the record numbers of efid written
+     */
+    public List<Integer> getWrites(int efid) {
+        return getRecordNumbers(mWrites, efid);
+    }
+
+    public int getHeldReadCount() {
+        synchronized (mLock) {
+            return mHeldReads.size();
+        }
+    }
+
+    private List<Integer> getRecordNumbers(ArrayList<int[]> accesses, int efid) {
+        List<Integer> recordNumbers = new ArrayList<Integer>();
+        synchronized (mLock) {
+            for (int[] access : accesses) {
+                if (access[0] == efid) recordNumbers.add(access[1]);
+            }
+        }
+        return recordNumbers;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.internal.telephony.CommandsInterface;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IccFileHandlerTest extends AndroidTestCase {
+    private static final String TAG = "IccFileHandlerTest";
+
+    private static final int RECORD_SIZE = 28;
+    private static final int COMMAND_GET_RESPONSE = 0xc0;
+    private static final int COMMAND_READ_RECORD = 0xb2;
+
+    private HandlerThread mThread;
+    private Handler mModem;
+    private CommandsInterface mCi;
+    private SIMFileHandler mFileHandler;
+
+    // Simulated modem, set by the tests
+    private int mCountRecords;
+    private int mFailingRecord;
+    private long mTransportLatencyMs;
+    private long mCommandLatencyMs;
+    private final AtomicInteger mMaxOutstanding = new AtomicInteger();
+    private final AtomicInteger mOutstanding = new AtomicInteger();
+    private final AtomicInteger mGetResponseCount = new AtomicInteger();
+
+    /**
+     * Answers iccIOForApp like a card behind a modem: commands are executed one at a time,
+     * each taking mCommandLatencyMs, and travel mTransportLatencyMs each way.
+     */
+    private class SimulatedIccIo implements Answer<Object> {
+        @Override
+        public Object answer(InvocationOnMock invocation) {
+            if (!"iccIOForApp".equals(invocation.getMethod().getName())) return null;
+            Object[] args = invocation.getArguments();
+            final int command = (Integer) args[0];
+            final int p1 = (Integer) args[3];
+            final Message response = (Message) args[9];
+            mMaxOutstanding.set(Math.max(mMaxOutstanding.get(), mOutstanding.incrementAndGet()));
+            mModem.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    SystemClock.sleep(mCommandLatencyMs);
+                    mOutstanding.decrementAndGet();
+                    AsyncResult.forMessage(response, execute(command, p1), null);
+                    response.getTarget().sendMessageDelayed(response, mTransportLatencyMs);
+                }
+            }, mTransportLatencyMs);
+            return null;
+        }
+
+        private IccIoResult execute(int command, int p1) {
+            if (command == COMMAND_GET_RESPONSE) {
+                mGetResponseCount.incrementAndGet();
+                int size = mCountRecords * RECORD_SIZE;
+                byte[] data = new byte[15];
+                data[2] = (byte) (size >> 8);
+                data[3] = (byte) size;
+                data[6] = 4; // TYPE_EF
+                data[13] = 1; // EF_TYPE_LINEAR_FIXED
+                data[14] = RECORD_SIZE;
+                return new IccIoResult(0x90, 0x00, data);
+            } else if (command == COMMAND_READ_RECORD && p1 != mFailingRecord) {
+                byte[] data = new byte[RECORD_SIZE];
+                data[0] = (byte) p1;
+                return new IccIoResult(0x90, 0x00, data);
+            }
+            return new IccIoResult(0x94, 0x02, (byte[]) null);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        HandlerThread modemThread = new HandlerThread(TAG + "-modem");
+        modemThread.start();
+        mModem = new Handler(modemThread.getLooper());
+
+        mCi = mock(CommandsInterface.class, new SimulatedIccIo());
+        createFileHandler(null);
+    }
+
+    private void createFileHandler(final UiccCardApplication app) throws InterruptedException {
+        final CountDownLatch created = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                mFileHandler = new SIMFileHandler(app, "aid", mCi);
+                created.countDown();
+            }
+        });
+        assertTrue(created.await(1, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mModem.getLooper().quit();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private AsyncResult loadAll() throws InterruptedException {
+        final AsyncResult[] result = new AsyncResult[1];
+        final CountDownLatch loaded = new CountDownLatch(1);
+        Handler handler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                result[0] = (AsyncResult) msg.obj;
+                loaded.countDown();
+            }
+        };
+        mFileHandler.loadEFLinearFixedAll(IccConstants.EF_ADN, handler.obtainMessage(1));
+        assertTrue(loaded.await(30, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private void refresh(int result, int efId) throws InterruptedException {
+        IccRefreshResponse response = new IccRefreshResponse();
+        response.refreshResult = result;
+        response.efId = efId;
+        Message msg = mFileHandler.obtainMessage(IccFileHandler.EVENT_REFRESH);
+        AsyncResult.forMessage(msg, response, null);
+        msg.sendToTarget();
+
+        final CountDownLatch handled = new CountDownLatch(1);
+        mFileHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                handled.countDown();
+            }
+        });
+        assertTrue(handled.await(1, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertRecordsInOrder(AsyncResult ar) {
+        assertNull(ar.exception);
+        ArrayList<byte[]> records = (ArrayList<byte[]>) ar.result;
+        assertEquals(mCountRecords, records.size());
+        for (int i = 0; i < mCountRecords; i++) {
+            assertEquals(RECORD_SIZE, records.get(i).length);
+            assertEquals((byte) (i + 1), records.get(i)[0]);
+        }
+    }
+
+    @SmallTest
+    public void testLoadAllInOrder() throws Exception {
+        mCountRecords = 50;
+        mFileHandler.setReadRecordWindow(4);
+        assertRecordsInOrder(loadAll());
+        assertEquals(4, mMaxOutstanding.get());
+    }
+
+    @SmallTest
+    public void testLoadAllSerial() throws Exception {
+        mCountRecords = 10;
+        mFileHandler.setReadRecordWindow(1);
+        assertRecordsInOrder(loadAll());
+        assertEquals(1, mMaxOutstanding.get());
+    }
+
+    @SmallTest
+    public void testLoadAllThroughCardScheduler() throws Exception {
+        UiccIoScheduler scheduler = new UiccIoScheduler(mThread.getLooper());
+        scheduler.setWindow(2);
+        UiccCard card = mock(UiccCard.class);
+        doReturn(scheduler).when(card).getIoScheduler();
+        UiccCardApplication app = mock(UiccCardApplication.class);
+        doReturn(card).when(app).getUiccCard();
+        createFileHandler(app);
+
+        // The window of the records is not cut down to the one of the card
+        mCountRecords = 50;
+        mFileHandler.setReadRecordWindow(8);
+        assertRecordsInOrder(loadAll());
+        assertEquals(8, mMaxOutstanding.get());
+
+        mMaxOutstanding.set(0);
+        mFileHandler.setReadRecordWindow(1);
+        assertRecordsInOrder(loadAll());
+        assertEquals(1, mMaxOutstanding.get());
+    }
+
+    @SmallTest
+    public void testEfHeaderCached() throws Exception {
+        mCountRecords = 5;
+        assertRecordsInOrder(loadAll());
+        assertRecordsInOrder(loadAll());
+        assertEquals(1, mGetResponseCount.get());
+
+        // Another EF is not served from the cache
+        refresh(IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE, IccConstants.EF_SDN);
+        assertRecordsInOrder(loadAll());
+        assertEquals(1, mGetResponseCount.get());
+
+        refresh(IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE, IccConstants.EF_ADN);
+        mCountRecords = 7;
+        assertRecordsInOrder(loadAll());
+        assertEquals(2, mGetResponseCount.get());
+
+        refresh(IccRefreshResponse.REFRESH_RESULT_INIT, 0);
+        assertRecordsInOrder(loadAll());
+        assertEquals(3, mGetResponseCount.get());
+    }
+
+    @SmallTest
+    public void testLoadAllEmpty() throws Exception {
+        mCountRecords = 0;
+        AsyncResult ar = loadAll();
+        assertNull(ar.exception);
+        assertTrue(((ArrayList<?>) ar.result).isEmpty());
+    }
+
+    @SmallTest
+    public void testLoadAllFailure() throws Exception {
+        mCountRecords = 20;
+        mFailingRecord = 3;
+        mFileHandler.setReadRecordWindow(8);
+        AsyncResult ar = loadAll();
+        assertNotNull(ar.exception);
+        assertNull(ar.result);
+    }
+
+    /**
+     * Compares reading a phonebook sized EF one record at a time with the pipelined reader.
+     */
+    @LargeTest
+    public void testBenchmark() throws Exception {
+        mCountRecords = 250;
+        mTransportLatencyMs = 2;
+        mCommandLatencyMs = 1;
+
+        mFileHandler.setReadRecordWindow(1);
+        long start = SystemClock.elapsedRealtime();
+        assertRecordsInOrder(loadAll());
+        long serialMs = SystemClock.elapsedRealtime() - start;
+
+        // Both runs read the EF header from the card
+        refresh(IccRefreshResponse.REFRESH_RESULT_INIT, 0);
+        mFileHandler.setReadRecordWindow(8);
+        start = SystemClock.elapsedRealtime();
+        assertRecordsInOrder(loadAll());
+        long pipelinedMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(2, mGetResponseCount.get());
+
+        Log.d(TAG, mCountRecords + " records: serial " + serialMs + "ms, pipelined "
+                + pipelinedMs + "ms");
+        assertTrue(pipelinedMs < serialMs);
+    }
+}
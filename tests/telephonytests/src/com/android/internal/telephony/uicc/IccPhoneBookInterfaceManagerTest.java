@@ -19,6 +19,7 @@ import android.os.HandlerThread;
 import android.os.Message;
 import android.os.AsyncResult;
 
+import com.android.internal.telephony.IAdnRecordsCallback;
 import com.android.internal.telephony.IccPhoneBookInterfaceManager;
 import com.android.internal.telephony.TelephonyTest;
 
@@ -35,11 +36,16 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.anyInt;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class IccPhoneBookInterfaceManagerTest extends TelephonyTest {
 
@@ -92,6 +98,25 @@ public class IccPhoneBookInterfaceManagerTest extends TelephonyTest {
         mIccPhoneBookInterfaceManagerHandler.quitSafely();
         super.tearDown();
     }
+    /**
+     * @return the snapshot and count passed to the callback of loadAdnRecordsInEf
+     */
+    private int[] loadAdnRecords() throws InterruptedException {
+        final int[] loaded = new int[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        mIccPhoneBookInterfaceMgr.loadAdnRecordsInEf(IccConstants.EF_ADN,
+                new IAdnRecordsCallback.Stub() {
+                    @Override
+                    public void onAdnRecordsLoaded(int snapshot, int count) {
+                        loaded[0] = snapshot;
+                        loaded[1] = count;
+                        done.countDown();
+                    }
+                });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        return loaded;
+    }
+
     @Test
     @SmallTest
     public void testAdnEFLoadWithFailure() {
@@ -115,4 +140,83 @@ public class IccPhoneBookInterfaceManagerTest extends TelephonyTest {
         //verify the previous read is not got affected
         assertEquals(mAdnList, adnListResult);
     }
+
+    @Test
+    @SmallTest
+    public void testAdnSnapshotPages() throws Exception {
+        final List<AdnRecord> records = new ArrayList<AdnRecord>();
+        for (int i = 0; i < 6; i++) {
+            // Every other record is empty
+            records.add(i % 2 == 0 ? new AdnRecord("name" + i, "555010" + i)
+                    : new AdnRecord("", ""));
+        }
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Message response = (Message) invocation.getArguments()[2];
+                AsyncResult.forMessage(response).result = records;
+                response.sendToTarget();
+                return null;
+            }
+        }).when(mAdnRecordCache).requestLoadAllAdnLike(anyInt(), anyInt(), (Message) anyObject());
+
+        int[] snapshot = loadAdnRecords();
+        assertEquals(3, snapshot[1]);
+        int[] positions = new int[2];
+        List<AdnRecord> page = mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(
+                IccConstants.EF_ADN, snapshot[0], 1, 2, positions);
+        assertEquals(2, page.size());
+        assertEquals("name2", page.get(0).getAlphaTag());
+        assertEquals("name4", page.get(1).getAlphaTag());
+        assertEquals(2, positions[0]);
+        assertEquals(4, positions[1]);
+
+        // Shared while the generation of the cache is the same
+        records.set(4, new AdnRecord("", ""));
+        int[] other = loadAdnRecords();
+        assertEquals(3, other[1]);
+        assertEquals(snapshot[0], other[0]);
+
+        // Taken again once the records changed, the earlier one is still readable
+        doReturn(1).when(mAdnRecordCache).getGeneration();
+        int[] latest = loadAdnRecords();
+        assertEquals(2, latest[1]);
+        assertTrue(snapshot[0] != latest[0]);
+        page = mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(IccConstants.EF_ADN, latest[0],
+                1, 2, positions);
+        assertEquals(1, page.size());
+        assertEquals("name2", page.get(0).getAlphaTag());
+        assertEquals(2, positions[0]);
+        page = mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(IccConstants.EF_ADN,
+                snapshot[0], 2, 2, positions);
+        assertEquals(1, page.size());
+        assertEquals("name4", page.get(0).getAlphaTag());
+
+        // Dropped once released by both readers
+        mIccPhoneBookInterfaceMgr.releaseAdnRecordsSnapshot(snapshot[0]);
+        assertNotNull(mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(IccConstants.EF_ADN,
+                snapshot[0], 0, 2, positions));
+        mIccPhoneBookInterfaceMgr.releaseAdnRecordsSnapshot(other[0]);
+        assertNull(mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(IccConstants.EF_ADN,
+                snapshot[0], 0, 2, positions));
+        assertNotNull(mIccPhoneBookInterfaceMgr.getAdnRecordsInEfPage(IccConstants.EF_ADN,
+                latest[0], 0, 2, positions));
+    }
+
+    @Test
+    @SmallTest
+    public void testAdnSnapshotLoadFailure() throws Exception {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Message response = (Message) invocation.getArguments()[2];
+                AsyncResult.forMessage(response).exception = new RuntimeException();
+                response.sendToTarget();
+                return null;
+            }
+        }).when(mAdnRecordCache).requestLoadAllAdnLike(anyInt(), anyInt(), (Message) anyObject());
+        int[] snapshot = loadAdnRecords();
+        assertEquals(IccPhoneBookInterfaceManager.NO_SNAPSHOT, snapshot[0]);
+        assertEquals(0, snapshot[1]);
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.internal.telephony.TelephonyTest;
+import com.android.internal.telephony.TelephonyTestUtils;
+import com.android.internal.telephony.uicc.IccCardApplicationStatus.AppState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SIMRecordsTest extends TelephonyTest {
+    // ICCID 89014103211118510720, as stored on the card
+    private static final byte[] ICCID = IccUtils.hexStringToBytes("98101430121181157002");
+    private static final byte[] GID1 = {0x12, 0x34};
+    private static final byte[] OTHER_GID1 = {0x56, 0x78};
+    private static final byte[] SST = {(byte) 0xff, 0x3f, 0x00, 0x0c};
+    private static final byte[] CSP = {(byte) 0xc0, (byte) 0xff};
+
+    private static final int[] CACHEABLE_EFS = {
+        IccConstants.EF_AD, IccConstants.EF_MBI, IccConstants.EF_SPDI, IccConstants.EF_PNN,
+        IccConstants.EF_SST, IccConstants.EF_INFO_CPHS, IccConstants.EF_CSP_CPHS,
+        IccConstants.EF_GID1, IccConstants.EF_GID2
+    };
+
+    private HandlerThread mRecordsThread;
+    private HandlerThread mIoThread;
+    private File mFile;
+    private String mFullIccId;
+    private SIMRecords mRecords;
+    private final AtomicInteger mLoadedCount = new AtomicInteger();
+    private final IccFileHandlerFixture mCard = new IccFileHandlerFixture();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mFile = File.createTempFile(TAG, null);
+        mFile.delete();
+        mFullIccId = IccUtils.bchToString(ICCID, 0, ICCID.length);
+        mCard.putEf(IccConstants.EF_ICCID, ICCID);
+        mCard.putEf(IccConstants.EF_GID1, GID1);
+        mCard.putEf(IccConstants.EF_SST, SST);
+        mCard.putEf(IccConstants.EF_CSP_CPHS, CSP);
+        doReturn(mCard.getIccFileHandler()).when(mUiccCardApplication3gpp).getIccFileHandler();
+        doReturn(AppState.APPSTATE_READY).when(mUiccCardApplication3gpp).getState();
+
+        mRecordsThread = new HandlerThread(TAG);
+        mRecordsThread.start();
+        mIoThread = new HandlerThread(TAG + "Io");
+        mIoThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRecordsThread.quit();
+        mIoThread.quit();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private void releaseHeldReads() throws InterruptedException {
+        mCard.releaseHeldReads();
+        waitForIdle();
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        // Each round lets one more hop between the records, the card and the disk through
+        for (int i = 0; i < 10; i++) {
+            TelephonyTestUtils.waitForLooper(mRecordsThread.getLooper());
+            TelephonyTestUtils.waitForLooper(mIoThread.getLooper());
+        }
+    }
+
+    /**
+     * Create SIMRecords as when the SIM is inserted, and fetch the records.
+     */
+    private void boot() throws InterruptedException {
+        mLoadedCount.set(0);
+        final Handler loadedHandler = new Handler(mRecordsThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                mLoadedCount.incrementAndGet();
+            }
+        };
+        loadedHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecords != null) {
+                    mRecords.dispose();
+                }
+                mRecords = new SIMRecords(mUiccCardApplication3gpp, mContext, mSimulatedCommands);
+                mRecords.setSimRecordCache(new SimRecordCache(mFile, mIoThread.getLooper()));
+                mRecords.registerForRecordsLoaded(loadedHandler, 0, null);
+                mRecords.fetchSimRecords();
+            }
+        });
+        waitForIdle();
+    }
+
+    private SimRecordCache loadCacheFile() throws InterruptedException {
+        return SimRecordCacheTest.load(mFile, mIoThread.getLooper(), mFullIccId);
+    }
+
+    private IccRefreshResponse createRefresh(int result, int efid) {
+        IccRefreshResponse refresh = new IccRefreshResponse();
+        refresh.refreshResult = result;
+        refresh.efId = efid;
+        return refresh;
+    }
+
+    @Test
+    @MediumTest
+    public void testCacheFilledFromCard() throws Exception {
+        mCard.holdReads(CACHEABLE_EFS);
+        boot();
+
+        // Waiting for the card
+        assertEquals(0, mLoadedCount.get());
+        assertEquals(CACHEABLE_EFS.length, mCard.getHeldReadCount());
+        assertEquals(CACHEABLE_EFS.length, mRecords.mRecordsToLoad);
+
+        releaseHeldReads();
+        assertEquals(1, mLoadedCount.get());
+        assertEquals(0, mRecords.mRecordsToLoad);
+        assertEquals("1234", mRecords.getGid1());
+
+        SimRecordCache cache = loadCacheFile();
+        for (int efid : CACHEABLE_EFS) {
+            assertTrue(cache.contains(efid));
+        }
+        assertTrue(Arrays.equals(GID1, cache.get(IccConstants.EF_GID1)));
+        assertTrue(cache.matches(IccConstants.EF_GID2, null));
+    }
+
+    @Test
+    @MediumTest
+    public void testEfsServedFromCache() throws Exception {
+        boot();
+        assertEquals(1, mLoadedCount.get());
+
+        mCard.holdReads(CACHEABLE_EFS);
+        boot();
+
+        // Loaded without waiting for the card, which is read to check the cache
+        assertEquals(1, mLoadedCount.get());
+        assertEquals(0, mRecords.mRecordsToLoad);
+        assertEquals("1234", mRecords.getGid1());
+        assertEquals(CACHEABLE_EFS.length, mCard.getHeldReadCount());
+
+        releaseHeldReads();
+        assertEquals(1, mLoadedCount.get());
+        assertEquals(2, mCard.getReadCount(IccConstants.EF_ICCID));
+    }
+
+    @Test
+    @MediumTest
+    public void testCacheMismatchReloads() throws Exception {
+        boot();
+        mCard.putEf(IccConstants.EF_GID1, OTHER_GID1);
+
+        mCard.holdReads(CACHEABLE_EFS);
+        boot();
+        assertEquals(1, mLoadedCount.get());
+        assertEquals("1234", mRecords.getGid1());
+
+        releaseHeldReads();
+
+        // Dropped and loaded again from the card
+        assertEquals(3, mCard.getReadCount(IccConstants.EF_ICCID));
+        assertEquals(2, mLoadedCount.get());
+        assertEquals(0, mRecords.mRecordsToLoad);
+        assertEquals("5678", mRecords.getGid1());
+        assertTrue(Arrays.equals(OTHER_GID1, loadCacheFile().get(IccConstants.EF_GID1)));
+    }
+
+    @Test
+    @MediumTest
+    public void testRefreshFileUpdateDropsEf() throws Exception {
+        boot();
+        assertTrue(loadCacheFile().contains(IccConstants.EF_CSP_CPHS));
+
+        mCard.holdReads(CACHEABLE_EFS);
+        mSimulatedCommands.notifyIccRefresh(createRefresh(
+                IccRefreshResponse.REFRESH_RESULT_FILE_UPDATE, IccConstants.EF_CSP_CPHS));
+        waitForIdle();
+
+        // Read again from the card
+        assertEquals(1, mCard.getHeldReadCount());
+        SimRecordCache cache = loadCacheFile();
+        assertFalse(cache.contains(IccConstants.EF_CSP_CPHS));
+        assertTrue(cache.contains(IccConstants.EF_GID1));
+
+        releaseHeldReads();
+        assertTrue(loadCacheFile().contains(IccConstants.EF_CSP_CPHS));
+    }
+
+    @Test
+    @MediumTest
+    public void testRefreshInitDropsAll() throws Exception {
+        boot();
+        assertTrue(loadCacheFile().hasEntries());
+
+        mCard.holdReads(CACHEABLE_EFS);
+        mSimulatedCommands.notifyIccRefresh(createRefresh(
+                IccRefreshResponse.REFRESH_RESULT_INIT, 0));
+        waitForIdle();
+
+        // Nothing served from the cache
+        assertFalse(loadCacheFile().hasEntries());
+        assertEquals(2, mCard.getReadCount(IccConstants.EF_ICCID));
+        assertEquals(CACHEABLE_EFS.length, mCard.getHeldReadCount());
+        assertEquals(CACHEABLE_EFS.length, mRecords.mRecordsToLoad);
+
+        releaseHeldReads();
+        assertEquals(0, mRecords.mRecordsToLoad);
+        assertTrue(loadCacheFile().contains(IccConstants.EF_GID1));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SimRecordCacheTest extends AndroidTestCase {
+    private static final String ICCID = "89014103211118510720";
+    private static final String OTHER_ICCID = "89310410106543789301";
+    private static final byte[] AD = {0x00, 0x00, 0x00, 0x03};
+    private static final byte[] SST = {(byte) 0xff, 0x3f, 0x00, 0x0c};
+
+    private File mFile;
+    private HandlerThread mIoThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "sim_records_test");
+        mFile.delete();
+        mIoThread = new HandlerThread("SimRecordCacheTest");
+        mIoThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mIoThread.quit();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Start loading the entries of the SIM, waiting for the response of the I/O thread.
+     *
+     * @return the response, to pass to {@link SimRecordCache#onLoaded}
+     */
+    static AsyncResult startLoad(SimRecordCache cache, Looper ioLooper, String iccId)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AsyncResult[] result = new AsyncResult[1];
+        Handler handler = new Handler(ioLooper) {
+            @Override
+            public void handleMessage(Message msg) {
+                result[0] = (AsyncResult) msg.obj;
+                done.countDown();
+            }
+        };
+        cache.load(iccId, handler.obtainMessage());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    /**
+     * @return a cache holding the entries of the SIM written to file
+     */
+    static SimRecordCache load(File file, Looper ioLooper, String iccId)
+            throws InterruptedException {
+        SimRecordCache cache = new SimRecordCache(file, ioLooper);
+        assertTrue(cache.onLoaded(startLoad(cache, ioLooper, iccId)));
+        return cache;
+    }
+
+    private SimRecordCache load(String iccId) throws InterruptedException {
+        return load(mFile, mIoThread.getLooper(), iccId);
+    }
+
+    private SimRecordCache createPopulated() throws InterruptedException {
+        SimRecordCache cache = load(ICCID);
+        assertFalse(cache.hasEntries());
+        cache.put(IccConstants.EF_AD, AD);
+        cache.put(IccConstants.EF_SST, SST);
+        cache.put(IccConstants.EF_GID2, null);
+        cache.save();
+        return cache;
+    }
+
+    @SmallTest
+    public void testRoundTrip() throws Exception {
+        createPopulated();
+
+        SimRecordCache cache = load(ICCID);
+        assertTrue(cache.hasEntries());
+        assertTrue(Arrays.equals(AD, cache.get(IccConstants.EF_AD)));
+        assertTrue(Arrays.equals(SST, cache.get(IccConstants.EF_SST)));
+        assertTrue(cache.matches(IccConstants.EF_AD, AD.clone()));
+        assertFalse(cache.matches(IccConstants.EF_AD, SST));
+        assertFalse(cache.contains(IccConstants.EF_SPDI));
+        assertFalse(cache.matches(IccConstants.EF_SPDI, null));
+    }
+
+    @SmallTest
+    public void testAbsentEf() throws Exception {
+        createPopulated();
+
+        SimRecordCache cache = load(ICCID);
+        assertTrue(cache.contains(IccConstants.EF_GID2));
+        assertNull(cache.get(IccConstants.EF_GID2));
+        assertTrue(cache.matches(IccConstants.EF_GID2, null));
+        assertFalse(cache.matches(IccConstants.EF_GID2, new byte[0]));
+    }
+
+    @SmallTest
+    public void testOtherSim() throws Exception {
+        createPopulated();
+
+        SimRecordCache cache = load(OTHER_ICCID);
+        assertFalse(cache.hasEntries());
+        assertFalse(cache.contains(IccConstants.EF_AD));
+        assertTrue(cache.onLoaded(startLoad(cache, mIoThread.getLooper(), null)));
+        assertFalse(cache.hasEntries());
+
+        // Saving another SIM replaces the entries
+        assertTrue(cache.onLoaded(startLoad(cache, mIoThread.getLooper(), OTHER_ICCID)));
+        cache.put(IccConstants.EF_AD, SST);
+        cache.save();
+        assertFalse(load(ICCID).hasEntries());
+        assertTrue(load(OTHER_ICCID).hasEntries());
+    }
+
+    @SmallTest
+    public void testRemoveAndClear() throws Exception {
+        SimRecordCache cache = createPopulated();
+        cache.remove(IccConstants.EF_AD);
+        cache.save();
+
+        cache = load(ICCID);
+        assertFalse(cache.contains(IccConstants.EF_AD));
+        assertTrue(cache.contains(IccConstants.EF_SST));
+
+        cache.clear();
+        cache.save();
+        assertFalse(load(ICCID).hasEntries());
+    }
+
+    @SmallTest
+    public void testStaleLoadDropped() throws Exception {
+        createPopulated();
+
+        SimRecordCache cache = new SimRecordCache(mFile, mIoThread.getLooper());
+        AsyncResult first = startLoad(cache, mIoThread.getLooper(), ICCID);
+        AsyncResult second = startLoad(cache, mIoThread.getLooper(), OTHER_ICCID);
+        assertFalse(cache.onLoaded(first));
+        assertFalse(cache.hasEntries());
+        assertTrue(cache.onLoaded(second));
+        assertFalse(cache.hasEntries());
+    }
+
+    @SmallTest
+    public void testChangesWhileLoading() throws Exception {
+        createPopulated();
+
+        SimRecordCache cache = new SimRecordCache(mFile, mIoThread.getLooper());
+        AsyncResult ar = startLoad(cache, mIoThread.getLooper(), ICCID);
+        cache.remove(IccConstants.EF_AD);
+        cache.put(IccConstants.EF_SST, AD);
+        // Not written before the entries are loaded
+        cache.save();
+        assertTrue(cache.onLoaded(ar));
+        assertFalse(cache.contains(IccConstants.EF_AD));
+        assertTrue(Arrays.equals(AD, cache.get(IccConstants.EF_SST)));
+        assertTrue(cache.contains(IccConstants.EF_GID2));
+        cache.save();
+
+        cache = load(ICCID);
+        assertFalse(cache.contains(IccConstants.EF_AD));
+        assertTrue(Arrays.equals(AD, cache.get(IccConstants.EF_SST)));
+
+        ar = startLoad(cache, mIoThread.getLooper(), ICCID);
+        cache.clear();
+        assertTrue(cache.onLoaded(ar));
+        assertFalse(cache.hasEntries());
+        cache.save();
+        assertFalse(load(ICCID).hasEntries());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.StringReader;
+
+public class SpnOverrideTest extends AndroidTestCase {
+    private static final String SPN_CONF =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<spnOverrides>\n"
+            + "  <spnOverride numeric=\"310260\" spn=\"T-Mobile\"/>\n"
+            + "  <spnOverride numeric=\"310026\" spn=\"T-Mobile\"/>\n"
+            + "  <spnOverride numeric=\"31026\" spn=\"Short MNC\"/>\n"
+            + "  <spnOverride numeric=\"00101\" spn=\"Test\"/>\n"
+            + "  <spnOverride numeric=\"001001\" spn=\"Test 3 digit\"/>\n"
+            + "  <spnOverride numeric=\"12345x\" spn=\"Not numeric\"/>\n"
+            + "</spnOverrides>\n";
+
+    @SmallTest
+    public void testLookup() {
+        SpnOverride.Table table = SpnOverride.parseSpnOverrides(new StringReader(SPN_CONF));
+        assertEquals(6, table.size());
+        assertEquals("T-Mobile", table.get("310260"));
+        assertEquals("T-Mobile", table.get("310026"));
+        assertEquals("Short MNC", table.get("31026"));
+        assertEquals("Not numeric", table.get("12345x"));
+        assertTrue(table.contains("310260"));
+        assertFalse(table.contains("310410"));
+        assertNull(table.get("310410"));
+        assertFalse(table.contains(null));
+        assertNull(table.get(null));
+        assertFalse(table.contains(""));
+    }
+
+    @SmallTest
+    public void testLeadingZeros() {
+        SpnOverride.Table table = SpnOverride.parseSpnOverrides(new StringReader(SPN_CONF));
+        assertEquals("Test", table.get("00101"));
+        assertEquals("Test 3 digit", table.get("001001"));
+        assertFalse(table.contains("101"));
+        assertFalse(table.contains("0101"));
+    }
+
+    @SmallTest
+    public void testMalformed() {
+        SpnOverride.Table table = SpnOverride.parseSpnOverrides(new StringReader("<spn"));
+        assertEquals(0, table.size());
+        assertFalse(table.contains("310260"));
+    }
+}
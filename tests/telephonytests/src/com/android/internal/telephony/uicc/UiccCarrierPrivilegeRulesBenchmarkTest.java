@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.internal.telephony.TelephonyBenchmark;
+import com.android.internal.telephony.TelephonyBenchmark.Measurement;
+
+import java.util.List;
+
+/**
+ * Compares parsing a large rule set, as received in GET DATA responses, with the code
+ * RuleParser replaced.
+ */
+public class UiccCarrierPrivilegeRulesBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "UiccCarrierPrivilegeRulesBenchmarkTest";
+    private static final int ITERATIONS = 20;
+
+    @LargeTest
+    public void testParse() {
+        final List<byte[]> chunks = UiccCarrierPrivilegeRulesTest.split(
+                IccUtils.hexStringToBytes(UiccCarrierPrivilegeRulesTest.createRules(300)),
+                UiccCarrierPrivilegeRulesTest.CHUNK_SIZE);
+
+        Measurement reference = TelephonyBenchmark.measure(ITERATIONS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    UiccCarrierPrivilegeRulesTest.referenceParse(chunks);
+                }
+            }
+        });
+        Measurement measured = TelephonyBenchmark.measure(ITERATIONS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    UiccCarrierPrivilegeRulesTest.parse(chunks);
+                }
+            }
+        });
+        TelephonyBenchmark.log(TAG, chunks.size() + " chunks", reference, measured);
+        assertTrue(measured.allocations < reference.allocations);
+    }
+}
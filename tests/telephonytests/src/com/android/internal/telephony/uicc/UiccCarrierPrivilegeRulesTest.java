@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.pm.Signature;
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.telephony.TelephonyManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.uicc.UiccCarrierPrivilegeRules.AccessRule;
+import com.android.internal.telephony.uicc.UiccCarrierPrivilegeRules.RuleParser;
+import com.android.internal.telephony.uicc.UiccCarrierPrivilegeRules.TLV;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UiccCarrierPrivilegeRulesTest extends AndroidTestCase {
+    // Max payload of a GET DATA response
+    static final int CHUNK_SIZE = 255;
+
+    private static final String HASH =
+            "ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4";
+    private static final String HASH_256 =
+            "ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4ABCD92CBB156B280FA4E1429";
+
+    private static final Signature CERT = new Signature("308201a0a003020102");
+    private static final Signature OTHER_CERT = new Signature("308201a0a003020103");
+    private static final Signature UNKNOWN_CERT = new Signature("308201a0a003020104");
+    private static final String PACKAGE = "com.carrier.app";
+    private static final String OTHER_PACKAGE = "com.other.app";
+
+    private HandlerThread mThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("UiccCarrierPrivilegeRulesTest");
+        mThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private static String tlv(String tag, String value) {
+        int length = value.length() / 2;
+        String lengthBytes;
+        if (length < 0x80) {
+            lengthBytes = String.format(Locale.US, "%02X", length);
+        } else if (length < 0x100) {
+            lengthBytes = String.format(Locale.US, "81%02X", length);
+        } else {
+            lengthBytes = String.format(Locale.US, "82%04X", length);
+        }
+        return tag + lengthBytes + value;
+    }
+
+    private static String refArDo(String hash, String packageName) {
+        String refDo = tlv("C1", hash);
+        if (packageName != null) {
+            refDo += tlv("CA", IccUtils.bytesToHexString(packageName.getBytes()));
+        }
+        return tlv("E2", tlv("E1", refDo) + tlv("E3", tlv("DB", "0000000000000001")));
+    }
+
+    /**
+     * A rule set like large carriers ship, with a rule per package.
+     */
+    static String createRules(int count) {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            rules.append(refArDo(i % 2 == 0 ? HASH : HASH_256, "com.carrier.app" + i));
+        }
+        return tlv("FF40", rules.toString());
+    }
+
+    static List<byte[]> split(byte[] data, int chunkSize) {
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        for (int i = 0; i < data.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(data, i, Math.min(data.length, i + chunkSize)));
+        }
+        return chunks;
+    }
+
+    static List<AccessRule> parse(List<byte[]> chunks) {
+        RuleParser parser = new RuleParser();
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(i == chunks.size() - 1, parser.append(chunks.get(i)));
+        }
+        return parser.getRules();
+    }
+
+    /**
+     * The hex string parsing UiccCarrierPrivilegeRules used before RuleParser, for rules
+     * that are all recognized.
+     *
+     * @return hash and package name of each rule
+     */
+    static List<String> referenceParse(List<byte[]> chunks) {
+        String rules = "";
+        for (byte[] chunk : chunks) {
+            rules += IccUtils.bytesToHexString(chunk).toUpperCase(Locale.US);
+        }
+        TLV allRefArDo = new TLV("FF40");
+        allRefArDo.parse(rules, true);
+        String arDos = allRefArDo.getValue();
+        List<String> result = new ArrayList<String>();
+        while (!arDos.isEmpty()) {
+            TLV refArDo = new TLV("E2");
+            arDos = refArDo.parse(arDos, false);
+            TLV refDo = new TLV("E1");
+            refDo.parse(refArDo.getValue(), false);
+            TLV deviceDo = new TLV("C1");
+            String pkg = deviceDo.parse(refDo.getValue(), false);
+            TLV pkgDo = new TLV("CA");
+            pkgDo.parse(pkg, true);
+            result.add(deviceDo.getValue() + " "
+                    + new String(IccUtils.hexStringToBytes(pkgDo.getValue())));
+        }
+        return result;
+    }
+
+    private static String describe(AccessRule rule) {
+        return IccUtils.bytesToHexString(rule.certificateHash).toUpperCase(Locale.US) + " "
+                + rule.packageName;
+    }
+
+    private static byte[] certHash(Signature signature, String algorithm) throws Exception {
+        return MessageDigest.getInstance(algorithm).digest(signature.toByteArray());
+    }
+
+    private static String certHashString(Signature signature, String algorithm)
+            throws Exception {
+        return IccUtils.bytesToHexString(certHash(signature, algorithm));
+    }
+
+    /**
+     * The status UiccCarrierPrivilegeRules computed before the rules were indexed and the
+     * results remembered.
+     */
+    private static int referenceStatus(List<AccessRule> rules, Signature signature,
+            String packageName) throws Exception {
+        byte[] certHash = certHash(signature, "SHA-1");
+        byte[] certHash256 = certHash(signature, "SHA-256");
+        for (AccessRule ar : rules) {
+            if (ar.matches(certHash, packageName) || ar.matches(certHash256, packageName)) {
+                return TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS;
+            }
+        }
+        return TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS;
+    }
+
+    /**
+     * Load the rules from a card answering GET DATA with all of them at once.
+     */
+    private UiccCarrierPrivilegeRules loadRules(String rules) throws Exception {
+        final byte[] payload = IccUtils.hexStringToBytes(rules);
+        final UiccCard card = mock(UiccCard.class, new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                String method = invocation.getMethod().getName();
+                Object result;
+                if (method.equals("iccOpenLogicalChannel")) {
+                    result = new int[] {1};
+                } else if (method.equals("iccTransmitApduLogicalChannel")) {
+                    result = new IccIoResult(0x90, 0x00, payload);
+                } else if (method.equals("iccCloseLogicalChannel")) {
+                    result = null;
+                } else {
+                    return null;
+                }
+                Object[] args = invocation.getArguments();
+                Message response = (Message) args[args.length - 1];
+                AsyncResult.forMessage(response, result, null);
+                response.sendToTarget();
+                return null;
+            }
+        });
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final UiccCarrierPrivilegeRules[] created = new UiccCarrierPrivilegeRules[1];
+        final Handler handler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                loaded.countDown();
+            }
+        };
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                created[0] = new UiccCarrierPrivilegeRules(card, handler.obtainMessage());
+            }
+        });
+        assertTrue(loaded.await(1, TimeUnit.SECONDS));
+        assertTrue(created[0].areCarrierPriviligeRulesLoaded());
+        return created[0];
+    }
+
+    private static void assertStatus(boolean hasAccess, int status) {
+        assertEquals(hasAccess ? TelephonyManager.CARRIER_PRIVILEGE_STATUS_HAS_ACCESS
+                : TelephonyManager.CARRIER_PRIVILEGE_STATUS_NO_ACCESS, status);
+    }
+
+    @SmallTest
+    public void testCachedStatusMatchesReference() throws Exception {
+        String rules = tlv("FF40", refArDo(certHashString(CERT, "SHA-1"), PACKAGE)
+                + refArDo(certHashString(OTHER_CERT, "SHA-256"), null)
+                + refArDo(HASH, PACKAGE));
+        List<AccessRule> accessRules = parse(split(IccUtils.hexStringToBytes(rules),
+                CHUNK_SIZE));
+        UiccCarrierPrivilegeRules privilegeRules = loadRules(rules);
+
+        Signature[] signatures = {CERT, OTHER_CERT, UNKNOWN_CERT};
+        String[] packageNames = {PACKAGE, OTHER_PACKAGE, null};
+        for (int i = 0; i < 2; i++) {
+            for (Signature signature : signatures) {
+                for (String packageName : packageNames) {
+                    assertEquals(referenceStatus(accessRules, signature, packageName),
+                            privilegeRules.getCarrierPrivilegeStatus(signature, packageName));
+                }
+            }
+        }
+        // The second round is answered from the cache
+        assertEquals(signatures.length * packageNames.length,
+                privilegeRules.getStatusCacheHits());
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(CERT, OTHER_PACKAGE));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, OTHER_PACKAGE));
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(UNKNOWN_CERT, PACKAGE));
+    }
+
+    @SmallTest
+    public void testRevokedCertificateStopsMatching() throws Exception {
+        UiccCarrierPrivilegeRules privilegeRules = loadRules(tlv("FF40",
+                refArDo(certHashString(CERT, "SHA-256"), PACKAGE)));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, PACKAGE));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertEquals(1, privilegeRules.getStatusCacheHits());
+
+        // CERT revoked, OTHER_CERT granted
+        List<AccessRule> accessRules = new ArrayList<AccessRule>();
+        accessRules.add(new AccessRule(certHash(OTHER_CERT, "SHA-256"), PACKAGE, 0));
+        privilegeRules.replaceAccessRules(accessRules);
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, PACKAGE));
+        assertEquals(1, privilegeRules.getStatusCacheHits());
+    }
+
+    @SmallTest
+    public void testSha1AndSha256Hashes() throws Exception {
+        UiccCarrierPrivilegeRules privilegeRules = loadRules(tlv("FF40",
+                refArDo(certHashString(CERT, "SHA-1"), PACKAGE)
+                + refArDo(certHashString(OTHER_CERT, "SHA-256"), OTHER_PACKAGE)));
+
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, OTHER_PACKAGE));
+        // A hash only matches the package of its rule
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(CERT, OTHER_PACKAGE));
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, PACKAGE));
+
+        // Rules with the SHA-256 hash of CERT and the SHA-1 hash of OTHER_CERT
+        List<AccessRule> accessRules = new ArrayList<AccessRule>();
+        accessRules.add(new AccessRule(certHash(CERT, "SHA-256"), PACKAGE, 0));
+        accessRules.add(new AccessRule(certHash(OTHER_CERT, "SHA-1"), OTHER_PACKAGE, 0));
+        privilegeRules.replaceAccessRules(accessRules);
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(CERT, PACKAGE));
+        assertStatus(true, privilegeRules.getCarrierPrivilegeStatus(OTHER_CERT, OTHER_PACKAGE));
+        assertStatus(false, privilegeRules.getCarrierPrivilegeStatus(UNKNOWN_CERT, PACKAGE));
+    }
+
+    @SmallTest
+    public void testParse() {
+        byte[] data = IccUtils.hexStringToBytes(tlv("FF40", refArDo(HASH, "com.carrier")
+                + refArDo(HASH_256, null)));
+        List<AccessRule> rules = parse(split(data, data.length));
+        assertEquals(2, rules.size());
+        assertEquals(HASH + " com.carrier", describe(rules.get(0)));
+        assertEquals(HASH_256 + " null", describe(rules.get(1)));
+    }
+
+    @SmallTest
+    public void testParseChunksMatchesReference() {
+        byte[] data = IccUtils.hexStringToBytes(createRules(20));
+        List<String> expected = referenceParse(split(data, CHUNK_SIZE));
+        for (int chunkSize : new int[] {1, 2, 7, 100, CHUNK_SIZE}) {
+            List<AccessRule> rules = parse(split(data, chunkSize));
+            assertEquals(expected.size(), rules.size());
+            for (int i = 0; i < rules.size(); i++) {
+                assertEquals(expected.get(i), describe(rules.get(i)));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testSkipUnrelatedRule() {
+        String unrelated = tlv("E2", tlv("E1", tlv("4F", "A000000151")) + tlv("E3", ""));
+        byte[] data = IccUtils.hexStringToBytes(tlv("FF40", unrelated + refArDo(HASH, "a.b")));
+        List<AccessRule> rules = parse(split(data, data.length));
+        assertEquals(1, rules.size());
+        assertEquals(HASH + " a.b", describe(rules.get(0)));
+    }
+
+    @SmallTest
+    public void testMalformed() {
+        String[] malformed = {
+            "FF4100",
+            tlv("FF40", tlv("E4", "00")),
+            tlv("FF40", tlv("E2", tlv("C0", "00"))),
+            tlv("FF40", refArDo(HASH, "a")) + "00",
+        };
+        for (String rules : malformed) {
+            try {
+                new RuleParser().append(IccUtils.hexStringToBytes(rules));
+                fail(rules);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
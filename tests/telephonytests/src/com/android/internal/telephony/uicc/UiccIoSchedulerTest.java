@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CommandException;
+import com.android.internal.telephony.CommandsInterface;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UiccIoSchedulerTest extends AndroidTestCase {
+    private static final int COMMAND_READ_BINARY = 0xb0;
+    private static final int EF_MSISDN = 0x6f40;
+    private static final int EF_SPN = 0x6f46;
+    private static final int EF_AD = 0x6fad;
+    private static final int EF_IMPI = 0x6f02;
+
+    private HandlerThread mThread;
+    private UiccIoScheduler mScheduler;
+    private CommandsInterface mCi;
+    // Commands sent to mCi, not answered yet
+    private final ArrayList<Message> mSent = new ArrayList<Message>();
+    // EFs in the order they were sent to mCi
+    private final ArrayList<Integer> mSentEfs = new ArrayList<Integer>();
+    // EFs in the order their responses reached the callers
+    private final ArrayList<Integer> mAnsweredEfs = new ArrayList<Integer>();
+    private final ArrayList<Throwable> mExceptions = new ArrayList<Throwable>();
+    private Handler mCaller;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("UiccIoSchedulerTest");
+        mThread.start();
+        mScheduler = new UiccIoScheduler(mThread.getLooper());
+        mScheduler.setWindow(1);
+        mCaller = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                AsyncResult ar = (AsyncResult) msg.obj;
+                mAnsweredEfs.add(msg.what);
+                mExceptions.add(ar.exception);
+            }
+        };
+        mCi = mock(CommandsInterface.class, new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                if (invocation.getMethod().getName().equals("iccIOForApp")) {
+                    Object[] args = invocation.getArguments();
+                    synchronized (mSent) {
+                        mSentEfs.add((Integer) args[1]);
+                        mSent.add((Message) args[9]);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private void read(String aid, int efid) {
+        read(aid, efid, 0);
+    }
+
+    private void read(String aid, int efid, int window) {
+        mScheduler.iccIOForApp(mCi, COMMAND_READ_BINARY, efid, "3F007FFF", 0, 0, 1, null, null,
+                aid, mCaller.obtainMessage(efid), window);
+    }
+
+    // Answer the oldest command sent to the modem
+    private void answer() throws InterruptedException {
+        Message msg;
+        synchronized (mSent) {
+            msg = mSent.remove(0);
+        }
+        AsyncResult.forMessage(msg, new IccIoResult(0x90, 0, new byte[] {0}), null);
+        msg.sendToTarget();
+        waitForThread();
+    }
+
+    private void waitForThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @SmallTest
+    public void testRegistrationEfsFirstAndAppsInterleaved() throws Exception {
+        read("usim", EF_MSISDN);
+        read("usim", EF_SPN);
+        read("usim", EF_AD);
+        read("isim", EF_IMPI);
+        read("usim", 0x6f3e);
+        read("isim", 0x6f09);
+
+        // Only the window is at the modem
+        assertEquals(1, mSent.size());
+        for (int i = 0; i < 6; i++) {
+            answer();
+        }
+
+        assertEquals(0, mSent.size());
+        // MSISDN went before the others were queued; then registration EFs, then the apps
+        // take turns
+        assertEquals(EF_MSISDN, (int) mSentEfs.get(0));
+        assertEquals(EF_AD, (int) mSentEfs.get(1));
+        assertEquals(EF_IMPI, (int) mSentEfs.get(2));
+        assertEquals(EF_SPN, (int) mSentEfs.get(3));
+        assertEquals(0x6f09, (int) mSentEfs.get(4));
+        assertEquals(0x6f3e, (int) mSentEfs.get(5));
+        assertEquals(mSentEfs, mAnsweredEfs);
+    }
+
+    @SmallTest
+    public void testRunWhenIdle() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        read("usim", EF_SPN);
+        mScheduler.runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 10000);
+        waitForThread();
+        assertEquals(1, ran.getCount());
+
+        answer();
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @SmallTest
+    public void testRunWhenIdleDeadline() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        read("usim", EF_SPN);
+        mScheduler.runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 100);
+
+        // Run although the command is never answered
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertEquals(1, mSent.size());
+    }
+
+    @SmallTest
+    public void testRequestWindow() throws Exception {
+        read("usim", EF_SPN);
+        read("usim", 0x6f3a, 3);
+        read("usim", 0x6f3a, 3);
+
+        // The card window is 1, the records may have 3 outstanding
+        assertEquals(3, mSent.size());
+
+        // A registration EF waits for the card window, and the records queued behind it too
+        read("usim", EF_AD);
+        read("usim", 0x6f3a, 3);
+        answer();
+        assertEquals(2, mSent.size());
+        answer();
+        answer();
+        assertEquals(2, mSent.size());
+        assertEquals(EF_AD, (int) mSentEfs.get(3));
+        assertEquals(0x6f3a, (int) mSentEfs.get(4));
+    }
+
+    @SmallTest
+    public void testDisposeFailsQueued() throws Exception {
+        read("usim", EF_SPN);
+        read("usim", EF_MSISDN);
+        mScheduler.dispose();
+        waitForThread();
+        assertEquals(1, mAnsweredEfs.size());
+        assertEquals(EF_MSISDN, (int) mAnsweredEfs.get(0));
+        assertTrue(mExceptions.get(0) instanceof CommandException);
+
+        // The outstanding command is still answered
+        answer();
+        assertEquals(EF_SPN, (int) mAnsweredEfs.get(1));
+    }
+}